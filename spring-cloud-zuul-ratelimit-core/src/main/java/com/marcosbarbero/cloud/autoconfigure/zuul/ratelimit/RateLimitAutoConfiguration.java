@@ -18,56 +18,163 @@ package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit;
 
 import com.ecwid.consul.v1.ConsulClient;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.PermitsRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateCodec;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitKeyGenerator;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitMetrics;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitUtils;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateCodecType;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.BlockedKeys;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.CircuitBreaker;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Coalescing;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Consul;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Gossip;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.InMemory;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.KeyOwner;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.LatencyBudget;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.LatencyHistogram;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.MicroBatching;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Redis;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.ShardedRedis;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.SharedMemory;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.TwoTier;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.CoalescingRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.ConsulCasRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.ConsulRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.ConsulTxnClient;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.DefaultRateLimiterErrorHandler;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.GossipRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InMemoryRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InMemorySnapshotter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.KeyOwnerRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.MicroBatchDispatcher;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.MicroBatchingRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.NodeScaledRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterCircuitBreaker;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterErrorHandler;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterLatencyBudget;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RedisRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.ShardedRedisRateLimiter.Shard;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.ShardedRedisRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.SharedMemoryCounterTable;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.SharedMemoryRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.TwoTierRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.WindowAlignmentAware;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jHazelcastRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jIgniteRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jInfinispanRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jJCacheRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jLocalRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid.CombinedRateLimitState;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid.HazelcastCombinedRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid.InfinispanCombinedRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid.JCacheCombinedRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.springdata.JpaRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.springdata.RateLimiterRepository;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.filters.RateLimitPostFilter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.filters.RateLimitPreFilter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.BinaryRateCodec;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.BlockedKeyCache;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.CircuitBreakerMetrics;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.DefaultRateLimitKeyGenerator;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.DefaultRateLimitUtils;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.FlightRecorderEvents;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.GatewayNodeCount;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.GatewayPeers;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.HazelcastBlockedKeyBroadcaster;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.HeavyHitters;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.JsonRateCodec;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.LatencyBudgetMetrics;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.LettuceConnectionFactories;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.LocalRateLimiters;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitEndpoint;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitMeters;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RedisBlockedKeyBroadcaster;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RequestLatencyHistograms;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.SecuredRateLimitUtils;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.StringToMatchTypeConverter;
 import com.netflix.zuul.ZuulFilter;
+import io.github.bucket4j.Bucket4j;
 import io.github.bucket4j.grid.GridBucketState;
 import io.github.bucket4j.grid.hazelcast.Hazelcast;
 import io.github.bucket4j.grid.ignite.Ignite;
 import io.github.bucket4j.grid.infinispan.Infinispan;
 import io.github.bucket4j.grid.jcache.JCache;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.apache.ignite.IgniteCache;
+import org.apache.ignite.configuration.CacheConfiguration;
 import org.infinispan.functional.FunctionalMap.ReadWriteMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnJava;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.context.properties.ConfigurationPropertiesBinding;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.serviceregistry.Registration;
 import org.springframework.cloud.consul.ConditionalOnConsulEnabled;
+import org.springframework.cloud.consul.ConsulProperties.TLSConfig;
+import org.springframework.cloud.consul.ConsulProperties;
 import org.springframework.cloud.netflix.zuul.filters.RouteLocator;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 import org.springframework.web.util.UrlPathHelper;
 
 import javax.cache.Cache;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.PREFIX;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
  * RateLimit的自动配置初始化
@@ -85,6 +192,8 @@ import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.proper
 @ConditionalOnProperty(prefix = PREFIX, name = "enabled", havingValue = "true")
 public class RateLimitAutoConfiguration {
 
+    private static Logger log = LoggerFactory.getLogger(RateLimitAutoConfiguration.class);
+
     /**
      * Spring 的工具类
      */
@@ -112,6 +221,168 @@ public class RateLimitAutoConfiguration {
         return new DefaultRateLimiterErrorHandler();
     }
 
+    /**
+     * 本节点内存中的限流器，通过端点重置key时一起清除
+     *
+     * @return
+     */
+    @Bean
+    @ConditionalOnMissingBean(LocalRateLimiters.class)
+    public LocalRateLimiters localRateLimiters() {
+        return new LocalRateLimiters();
+    }
+
+    /**
+     * 共享存储的熔断器，zuul.ratelimit.circuit-breaker.enabled为true时才会初始化
+     *
+     * @param rateLimitProperties
+     * @param localRateLimiters
+     * @return
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = PREFIX, name = "circuit-breaker.enabled", havingValue = "true")
+    public RateLimiterCircuitBreaker rateLimiterCircuitBreaker(final RateLimitProperties rateLimitProperties,
+                                                               final LocalRateLimiters localRateLimiters) {
+        CircuitBreaker circuitBreaker = rateLimitProperties.getCircuitBreaker();
+        RateLimiterCircuitBreaker rateLimiterCircuitBreaker = new RateLimiterCircuitBreaker(
+            circuitBreaker.getFailureThreshold(), circuitBreaker.getFailureWindow(),
+            circuitBreaker.getSlowCallThreshold(), circuitBreaker.getOpenDuration(), circuitBreaker.getNodes());
+        localRateLimiters.add(rateLimiterCircuitBreaker.getFallback());
+        return rateLimiterCircuitBreaker;
+    }
+
+    /**
+     * 两级限流使用的网关节点数量，zuul.ratelimit.two-tier.enabled为true时才会初始化
+     *
+     * @param rateLimitProperties
+     * @param discoveryClient
+     * @param applicationName
+     * @return
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = PREFIX, name = "two-tier.enabled", havingValue = "true")
+    public GatewayNodeCount rateLimiterGatewayNodeCount(final RateLimitProperties rateLimitProperties,
+                                                        final ObjectProvider<DiscoveryClient> discoveryClient,
+                                                        @Value("${spring.application.name:}") final String applicationName) {
+        TwoTier twoTier = rateLimitProperties.getTwoTier();
+        String serviceId = StringUtils.hasText(twoTier.getServiceId()) ? twoTier.getServiceId() : applicationName;
+        return new GatewayNodeCount(StringUtils.hasText(serviceId) ? discoveryClient.getIfAvailable() : null,
+            serviceId, twoTier.getNodes(), SECONDS.toMillis(twoTier.getRefreshInterval()));
+    }
+
+    /**
+     * 访问存储的时延预算，zuul.ratelimit.latency-budget.enabled为true时才会初始化
+     *
+     * @param rateLimitProperties
+     * @return
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = PREFIX, name = "latency-budget.enabled", havingValue = "true")
+    public RateLimiterLatencyBudget rateLimiterLatencyBudget(final RateLimitProperties rateLimitProperties) {
+        LatencyBudget latencyBudget = rateLimitProperties.getLatencyBudget();
+        return new RateLimiterLatencyBudget(latencyBudget.getTimeoutMicros(), latencyBudget.getDecision(),
+            latencyBudget.getNodes(), latencyBudget.getThreads(), latencyBudget.getQueueCapacity());
+    }
+
+    /**
+     * 包装所有的错误处理器，存储记录的异常计入熔断器。存储自己处理异常并放行请求，熔断器只能通过错误处理器得知异常
+     *
+     * @param rateLimiterCircuitBreaker
+     * @return
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = PREFIX, name = "circuit-breaker.enabled", havingValue = "true")
+    public static BeanPostProcessor rateLimiterCircuitBreakerErrorHandlerPostProcessor(
+        final ObjectProvider<RateLimiterCircuitBreaker> rateLimiterCircuitBreaker) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof RateLimiterErrorHandler) {
+                    return RateLimiterCircuitBreaker.errorHandler((RateLimiterErrorHandler) bean,
+                        rateLimiterCircuitBreaker::getIfAvailable);
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * 按key偏移新窗口的开始时间，窗口不会在同一时刻重置。zuul.ratelimit.window-alignment为KEY_OFFSET时才会初始化
+     *
+     * @return
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = PREFIX, name = "window-alignment", havingValue = "KEY_OFFSET")
+    public static BeanPostProcessor rateLimiterWindowAlignmentPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof WindowAlignmentAware) {
+                    ((WindowAlignmentAware) bean).setWindowAlignment(WindowAlignment.KEY_OFFSET);
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * 本地记录已超出限制的key，zuul.ratelimit.blocked-keys.enabled为true时才会初始化
+     *
+     * @param rateLimitProperties
+     * @return
+     */
+    @Bean
+    @ConditionalOnMissingBean(BlockedKeyCache.class)
+    @ConditionalOnProperty(prefix = PREFIX, name = "blocked-keys.enabled", havingValue = "true")
+    public BlockedKeyCache blockedKeyCache(final RateLimitProperties rateLimitProperties) {
+        BlockedKeys blockedKeys = rateLimitProperties.getBlockedKeys();
+        return new BlockedKeyCache(blockedKeys.getMaximumSize(), blockedKeys.getSkew());
+    }
+
+    /**
+     * 所有策略中最长的刷新时间（毫秒），未配置策略时取策略默认值
+     */
+    private static long maxRefreshInterval(final RateLimitProperties properties) {
+        List<Policy> policies = new ArrayList<>(properties.getDefaultPolicyList());
+        properties.getPolicyList().values().forEach(policies::addAll);
+        return SECONDS.toMillis(policies.stream().mapToLong(Policy::getRefreshInterval).max()
+            .orElse(new Policy().getRefreshInterval()));
+    }
+
+    /**
+     * 统计本节点访问最多和被拒绝最多的key，zuul.ratelimit.heavy-hitters.enabled为true时才会初始化
+     *
+     * @param rateLimitProperties
+     * @return
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = PREFIX, name = "heavy-hitters.enabled", havingValue = "true")
+    public HeavyHitters rateLimiterHeavyHitters(final RateLimitProperties rateLimitProperties) {
+        return new HeavyHitters(rateLimitProperties.getHeavyHitters().getDepth(),
+            rateLimitProperties.getHeavyHitters().getWidth(), rateLimitProperties.getHeavyHitters().getSize(),
+            rateLimitProperties.getHeavyHitters().getDecayInterval());
+    }
+
+    /**
+     * 批量发送所有请求线程的计数，zuul.ratelimit.micro-batching.enabled为true时才会初始化
+     *
+     * @param rateLimiter
+     * @param rateLimitProperties
+     * @return
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = PREFIX, name = "micro-batching.enabled", havingValue = "true")
+    public MicroBatchDispatcher microBatchDispatcher(final RateLimiter rateLimiter,
+                                                     final RateLimitProperties rateLimitProperties) {
+        if (!(rateLimiter instanceof BatchRateLimiter)) {
+            throw new IllegalStateException("zuul.ratelimit.micro-batching requires a repository supporting batch "
+                + "consumption, " + rateLimiter.getClass().getSimpleName() + " does not");
+        }
+        MicroBatching microBatching = rateLimitProperties.getMicroBatching();
+        return new MicroBatchDispatcher((BatchRateLimiter) rateLimiter, microBatching.getMaxBatchSize(),
+            microBatching.getWindowMicros());
+    }
+
     /**
      * 初始化限流执行前过滤器
      *
@@ -120,14 +391,69 @@ public class RateLimitAutoConfiguration {
      * @param routeLocator
      * @param rateLimitKeyGenerator
      * @param rateLimitUtils
+     * @param blockedKeyCache
+     * @param microBatchDispatcher
+     * @param rateLimiterCircuitBreaker
+     * @param rateLimiterLatencyBudget
+     * @param rateLimiterGatewayNodeCount
+     * @param rateLimitMetrics
+     * @param rateLimiterHeavyHitters
+     * @param rateLimitEvents
+     * @param localRateLimiters
      * @return
      */
     @Bean
     public ZuulFilter rateLimiterPreFilter(final RateLimiter rateLimiter, final RateLimitProperties rateLimitProperties,
                                            final RouteLocator routeLocator, final RateLimitKeyGenerator rateLimitKeyGenerator,
-                                           final RateLimitUtils rateLimitUtils) {
-        return new RateLimitPreFilter(rateLimitProperties, routeLocator, URL_PATH_HELPER, rateLimiter,
-                rateLimitKeyGenerator, rateLimitUtils);
+                                           final RateLimitUtils rateLimitUtils,
+                                           final ObjectProvider<BlockedKeyCache> blockedKeyCache,
+                                           final ObjectProvider<MicroBatchDispatcher> microBatchDispatcher,
+                                           final ObjectProvider<RateLimiterCircuitBreaker> rateLimiterCircuitBreaker,
+                                           final ObjectProvider<RateLimiterLatencyBudget> rateLimiterLatencyBudget,
+                                           final ObjectProvider<GatewayNodeCount> rateLimiterGatewayNodeCount,
+                                           final ObjectProvider<RateLimitMetrics> rateLimitMetrics,
+                                           final ObjectProvider<HeavyHitters> rateLimiterHeavyHitters,
+                                           final ObjectProvider<RateLimitEvents> rateLimitEvents,
+                                           final LocalRateLimiters localRateLimiters) {
+        RateLimiter preFilterRateLimiter = rateLimiter;
+        Coalescing coalescing = rateLimitProperties.getCoalescing();
+        MicroBatchDispatcher dispatcher = microBatchDispatcher.getIfAvailable();
+        if (dispatcher != null) {
+            //批量发送优先于合并同一个key的计数
+            preFilterRateLimiter = new MicroBatchingRateLimiter(rateLimiter, dispatcher);
+            if (coalescing.isEnabled()) {
+                log.warn("zuul.ratelimit.coalescing is ignored because zuul.ratelimit.micro-batching is enabled");
+            }
+        } else if (coalescing.isEnabled()) {
+            if (rateLimiter instanceof PermitsRateLimiter) {
+                //只合并pre阶段的计数，post阶段的时长消耗直接访问存储
+                preFilterRateLimiter = CoalescingRateLimiter.coalesce((PermitsRateLimiter) rateLimiter,
+                    coalescing.getMaxPermits());
+            } else {
+                log.warn("zuul.ratelimit.coalescing is ignored because {} cannot consume several permits at once",
+                    rateLimiter.getClass().getSimpleName());
+            }
+        }
+        RateLimiterCircuitBreaker circuitBreaker = rateLimiterCircuitBreaker.getIfAvailable();
+        if (circuitBreaker != null) {
+            preFilterRateLimiter = circuitBreaker.guard(preFilterRateLimiter);
+        }
+        RateLimiterLatencyBudget latencyBudget = rateLimiterLatencyBudget.getIfAvailable();
+        if (latencyBudget != null) {
+            //时延预算在最外层，熔断器仍然能统计到存储的实际耗时
+            preFilterRateLimiter = latencyBudget.guard(preFilterRateLimiter);
+        }
+        GatewayNodeCount gatewayNodeCount = rateLimiterGatewayNodeCount.getIfAvailable();
+        if (gatewayNodeCount != null) {
+            //本地限流在最外层，本地拒绝的请求不占用任何访问存储的资源
+            NodeScaledRateLimiter local = new NodeScaledRateLimiter(gatewayNodeCount,
+                rateLimitProperties.getTwoTier().getSlack());
+            localRateLimiters.add(local);
+            preFilterRateLimiter = new TwoTierRateLimiter(local, preFilterRateLimiter);
+        }
+        return new RateLimitPreFilter(rateLimitProperties, routeLocator, URL_PATH_HELPER, preFilterRateLimiter,
+                rateLimitKeyGenerator, rateLimitUtils, blockedKeyCache.getIfAvailable(), rateLimitMetrics.getIfAvailable(),
+                rateLimiterHeavyHitters.getIfAvailable(), rateLimitEvents.getIfAvailable());
     }
 
     /**
@@ -138,14 +464,36 @@ public class RateLimitAutoConfiguration {
      * @param routeLocator
      * @param rateLimitKeyGenerator
      * @param rateLimitUtils
+     * @param rateLimiterErrorHandler
+     * @param rateLimiterCircuitBreaker
+     * @param rateLimiterLatencyBudget
+     * @param rateLimitMetrics
+     * @param rateLimitEvents
+     * @param rateLimiterLatencyHistograms
      * @return
      */
     @Bean
     public ZuulFilter rateLimiterPostFilter(final RateLimiter rateLimiter, final RateLimitProperties rateLimitProperties,
                                             final RouteLocator routeLocator, final RateLimitKeyGenerator rateLimitKeyGenerator,
-                                            final RateLimitUtils rateLimitUtils) {
-        return new RateLimitPostFilter(rateLimitProperties, routeLocator, URL_PATH_HELPER, rateLimiter,
-                rateLimitKeyGenerator, rateLimitUtils);
+                                            final RateLimitUtils rateLimitUtils,
+                                            final RateLimiterErrorHandler rateLimiterErrorHandler,
+                                            final ObjectProvider<RateLimiterCircuitBreaker> rateLimiterCircuitBreaker,
+                                            final ObjectProvider<RateLimiterLatencyBudget> rateLimiterLatencyBudget,
+                                            final ObjectProvider<RateLimitMetrics> rateLimitMetrics,
+                                            final ObjectProvider<RateLimitEvents> rateLimitEvents,
+                                            final ObjectProvider<RequestLatencyHistograms> rateLimiterLatencyHistograms) {
+        RateLimiter postFilterRateLimiter = rateLimiter;
+        RateLimiterCircuitBreaker circuitBreaker = rateLimiterCircuitBreaker.getIfAvailable();
+        if (circuitBreaker != null) {
+            postFilterRateLimiter = circuitBreaker.guard(postFilterRateLimiter);
+        }
+        RateLimiterLatencyBudget latencyBudget = rateLimiterLatencyBudget.getIfAvailable();
+        if (latencyBudget != null) {
+            postFilterRateLimiter = latencyBudget.guard(postFilterRateLimiter);
+        }
+        return new RateLimitPostFilter(rateLimitProperties, routeLocator, URL_PATH_HELPER, postFilterRateLimiter,
+                rateLimitKeyGenerator, rateLimitUtils, rateLimiterErrorHandler, rateLimitMetrics.getIfAvailable(),
+                rateLimitEvents.getIfAvailable(), rateLimiterLatencyHistograms.getIfAvailable());
     }
 
     /**
@@ -162,6 +510,111 @@ public class RateLimitAutoConfiguration {
         return new DefaultRateLimitKeyGenerator(properties, rateLimitUtils);
     }
 
+    @Configuration
+    @ConditionalOnClass(MeterBinder.class)
+    public static class MetricsConfiguration {
+
+        /**
+         * 限流过程的指标，zuul.ratelimit.metrics.enabled为true时才初始化
+         *
+         * @param rateLimitProperties
+         * @param rateLimiter
+         * @return
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "metrics.enabled", havingValue = "true")
+        public RateLimitMeters rateLimitMetrics(final RateLimitProperties rateLimitProperties,
+                                                final RateLimiter rateLimiter) {
+            return new RateLimitMeters(rateLimitProperties, rateLimiter);
+        }
+
+        /**
+         * 包装所有的错误处理器，按方法统计存储的异常
+         *
+         * @param rateLimitMetrics
+         * @return
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "metrics.enabled", havingValue = "true")
+        public static BeanPostProcessor rateLimiterMetricsErrorHandlerPostProcessor(
+            final ObjectProvider<RateLimitMetrics> rateLimitMetrics) {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (bean instanceof RateLimiterErrorHandler) {
+                        return RateLimitMeters.errorHandler((RateLimiterErrorHandler) bean,
+                            rateLimitMetrics::getIfAvailable);
+                    }
+                    return bean;
+                }
+            };
+        }
+
+        /**
+         * 按路由记录请求耗时的分布，zuul.ratelimit.latency-histogram.enabled为true时才会初始化
+         *
+         * @param rateLimitProperties
+         * @return
+         */
+        @Bean(destroyMethod = "close")
+        @ConditionalOnClass(name = "org.HdrHistogram.Recorder")
+        @ConditionalOnProperty(prefix = PREFIX, name = "latency-histogram.enabled", havingValue = "true")
+        public RequestLatencyHistograms rateLimiterLatencyHistograms(final RateLimitProperties rateLimitProperties) {
+            LatencyHistogram latencyHistogram = rateLimitProperties.getLatencyHistogram();
+            return new RequestLatencyHistograms(latencyHistogram.getSignificantDigits(),
+                latencyHistogram.getInterval(), latencyHistogram.getPercentiles());
+        }
+
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "circuit-breaker.enabled", havingValue = "true")
+        public CircuitBreakerMetrics rateLimiterCircuitBreakerMetrics(
+            final RateLimiterCircuitBreaker rateLimiterCircuitBreaker) {
+            return new CircuitBreakerMetrics(rateLimiterCircuitBreaker);
+        }
+
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "latency-budget.enabled", havingValue = "true")
+        public LatencyBudgetMetrics rateLimiterLatencyBudgetMetrics(
+            final RateLimiterLatencyBudget rateLimiterLatencyBudget) {
+            return new LatencyBudgetMetrics(rateLimiterLatencyBudget);
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "jdk.jfr.Event")
+    public static class FlightRecorderConfiguration {
+
+        /**
+         * 每次计数的JFR事件，zuul.ratelimit.jfr.enabled为true时才会初始化
+         *
+         * @param rateLimitProperties
+         * @param rateLimiter
+         * @return
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "jfr.enabled", havingValue = "true")
+        public RateLimitEvents rateLimitEvents(final RateLimitProperties rateLimitProperties,
+                                               final RateLimiter rateLimiter) {
+            return new FlightRecorderEvents(rateLimitProperties, rateLimiter);
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(Endpoint.class)
+    public static class EndpointConfiguration {
+
+        @Bean
+        @ConditionalOnAvailableEndpoint
+        public RateLimitEndpoint rateLimitEndpoint(final RateLimiter rateLimiter,
+                                                   final RateLimitProperties rateLimitProperties,
+                                                   final ObjectProvider<HeavyHitters> rateLimiterHeavyHitters,
+                                                   final ObjectProvider<BlockedKeyCache> blockedKeyCache,
+                                                   final LocalRateLimiters localRateLimiters) {
+            return new RateLimitEndpoint(rateLimiter, rateLimitProperties.getKeyPrefix(),
+                rateLimiterHeavyHitters.getIfAvailable(), blockedKeyCache.getIfAvailable(), localRateLimiters);
+        }
+    }
+
     @Configuration
     @ConditionalOnMissingBean(RateLimitUtils.class)
     public static class RateLimitUtilsConfiguration {
@@ -189,7 +642,9 @@ public class RateLimitAutoConfiguration {
     @ConditionalOnClass(RedisTemplate.class)
     @ConditionalOnMissingBean(RateLimiter.class)
     @ConditionalOnProperty(prefix = PREFIX, name = "repository", havingValue = "REDIS")
-    public static class RedisConfiguration {
+    public static class RedisConfiguration implements DisposableBean {
+
+        private DisposableBean dedicatedConnectionFactory;
 
         /**
          * 实例化StringRedisTemplate对象，并且bean的名称是rateLimiterRedisTemplate
@@ -202,16 +657,59 @@ public class RateLimitAutoConfiguration {
             return new StringRedisTemplate(connectionFactory);
         }
 
+        /**
+         * 实例化限流计数专用的RedisTemplate对象，并且bean的名称是rateLimiterCounterRedisTemplate
+         * <p>
+         * key直接按UTF-8编码，value只有计数，不使用默认的JDK序列化。
+         * 配置zuul.ratelimit.redis.dedicated-connection时使用独立的Lettuce连接，不与应用的redis访问争用连接
+         *
+         * @param connectionFactory 应用的redis连接
+         * @param redisProperties   spring.redis配置
+         * @param properties        限流配置
+         * @return 操作计数的RedisTemplate
+         */
+        @Bean("rateLimiterCounterRedisTemplate")
+        public RedisTemplate<String, Long> counterRedisTemplate(
+            final ObjectProvider<RedisConnectionFactory> connectionFactory,
+            final ObjectProvider<RedisProperties> redisProperties,
+            final RateLimitProperties properties) {
+            RedisTemplate<String, Long> redisTemplate = new RedisTemplate<>();
+            redisTemplate.setEnableDefaultSerializer(false);
+            redisTemplate.setKeySerializer(StringRedisSerializer.UTF_8);
+            redisTemplate.setValueSerializer(new GenericToStringSerializer<>(Long.class));
+            redisTemplate.setConnectionFactory(properties.getRedis().isDedicatedConnection()
+                ? dedicatedConnectionFactory(properties.getRedis(), redisProperties)
+                : connectionFactory.getObject());
+            redisTemplate.afterPropertiesSet();
+            return redisTemplate;
+        }
+
+        private RedisConnectionFactory dedicatedConnectionFactory(final Redis redis,
+                                                                  final ObjectProvider<RedisProperties> redisProperties) {
+            LettuceConnectionFactory connectionFactory = redis.getUrl() != null
+                ? LettuceConnectionFactories.create(redis.getUrl())
+                : LettuceConnectionFactories.create(redisProperties.getIfAvailable(RedisProperties::new));
+            dedicatedConnectionFactory = connectionFactory;
+            return connectionFactory;
+        }
+
+        @Override
+        public void destroy() throws Exception {
+            if (dedicatedConnectionFactory != null) {
+                dedicatedConnectionFactory.destroy();
+            }
+        }
+
         /**
          * 实例化RateLimiter对象，使用RedisRateLimiter的实现类创建
          *
          * @param rateLimiterErrorHandler rateLimiterErrorHandler对象
-         * @param redisTemplate           ateLimiterRedisTemplate对象
+         * @param redisTemplate           rateLimiterCounterRedisTemplate对象
          * @return 返回RateLimiter对象
          */
         @Bean
         public RateLimiter redisRateLimiter(final RateLimiterErrorHandler rateLimiterErrorHandler,
-                                            @Qualifier("rateLimiterRedisTemplate") final RedisTemplate redisTemplate) {
+                                            @Qualifier("rateLimiterCounterRedisTemplate") final RedisTemplate redisTemplate) {
             return new RedisRateLimiter(rateLimiterErrorHandler, redisTemplate);
         }
     }
@@ -228,18 +726,86 @@ public class RateLimitAutoConfiguration {
     @ConditionalOnProperty(prefix = PREFIX, name = "repository", havingValue = "CONSUL")
     public static class ConsulConfiguration {
 
+        /**
+         * Rate的序列化方式，没有找到自定义的RateCodec时按zuul.ratelimit.rate-codec创建
+         *
+         * @param properties
+         * @param objectMapper
+         * @return
+         */
+        @Bean
+        @ConditionalOnMissingBean(RateCodec.class)
+        public RateCodec rateCodec(final RateLimitProperties properties, final ObjectMapper objectMapper) {
+            JsonRateCodec jsonRateCodec = new JsonRateCodec(objectMapper);
+            return properties.getRateCodec() == RateCodecType.JSON ? jsonRateCodec : new BinaryRateCodec(jsonRateCodec);
+        }
+
         /**
          * 例化RateLimiter对象，使用ConsulRateLimiter的实现类创建
          *
          * @param rateLimiterErrorHandler rateLimiterErrorHandler对象
          * @param consulClient
-         * @param objectMapper
+         * @param rateCodec
          * @return 返回RateLimiter对象
          */
         @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "consul.check-and-set", havingValue = "false", matchIfMissing = true)
         public RateLimiter consultRateLimiter(final RateLimiterErrorHandler rateLimiterErrorHandler,
-                                              final ConsulClient consulClient, final ObjectMapper objectMapper) {
-            return new ConsulRateLimiter(rateLimiterErrorHandler, consulClient, objectMapper);
+                                              final ConsulClient consulClient, final RateCodec rateCodec) {
+            return new ConsulRateLimiter(rateLimiterErrorHandler, consulClient, rateCodec);
+        }
+
+        /**
+         * 基于ModifyIndex做CAS，并通过/v1/txn批量读写的ConsulRateLimiter
+         *
+         * @param rateLimiterErrorHandler rateLimiterErrorHandler对象
+         * @param consulProperties        Consul agent的连接信息
+         * @param objectMapper
+         * @param rateCodec
+         * @param properties
+         * @return 返回RateLimiter对象
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "consul.check-and-set", havingValue = "true")
+        public RateLimiter consulCasRateLimiter(final RateLimiterErrorHandler rateLimiterErrorHandler,
+                                                final ConsulProperties consulProperties, final ObjectMapper objectMapper,
+                                                final RateCodec rateCodec, final RateLimitProperties properties)
+            throws GeneralSecurityException, IOException {
+            Consul consul = properties.getConsul();
+            TLSConfig tls = consulProperties.getTls();
+            String scheme = StringUtils.hasText(consulProperties.getScheme()) ? consulProperties.getScheme()
+                : tls != null ? "https" : "http";
+            String agentUrl = UriComponentsBuilder.newInstance().scheme(scheme).host(consulProperties.getHost())
+                .port(consulProperties.getPort()).toUriString();
+            RestTemplate restTemplate = new RestTemplate(ConsulTxnClient.requestFactory(consul.getConnectTimeout(),
+                consul.getReadTimeout(), tls != null ? sslContext(tls) : null));
+            ConsulTxnClient txnClient = new ConsulTxnClient(restTemplate, objectMapper, agentUrl, consul.getAclToken());
+            return new ConsulCasRateLimiter(rateLimiterErrorHandler, txnClient, rateCodec, consul.getMaxRetries());
+        }
+
+        /**
+         * 按spring.cloud.consul.tls创建SSLContext，和ConsulClient一样使用客户端证书和信任的keystore
+         */
+        private static SSLContext sslContext(final TLSConfig tls) throws GeneralSecurityException, IOException {
+            KeyStore clientStore = KeyStore.getInstance(tls.getKeyStoreInstanceType().name());
+            char[] certificatePassword = tls.getCertificatePassword().toCharArray();
+            try (InputStream in = new FileInputStream(tls.getCertificatePath())) {
+                clientStore.load(in, certificatePassword);
+            }
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(clientStore, certificatePassword);
+
+            KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            try (InputStream in = new FileInputStream(tls.getKeyStorePath())) {
+                trustStore.load(in, tls.getKeyStorePassword().toCharArray());
+            }
+            TrustManagerFactory trustManagers =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(trustStore);
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+            return sslContext;
         }
 
     }
@@ -263,9 +829,21 @@ public class RateLimitAutoConfiguration {
          * @return
          */
         @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "combined-grid-entry", havingValue = "false", matchIfMissing = true)
         public RateLimiter jCache4jHazelcastRateLimiter(@Qualifier("RateLimit") final Cache<String, GridBucketState> cache) {
             return new Bucket4jJCacheRateLimiter(cache);
         }
+
+        /**
+         * 次数和时长保存在同一个CacheManager中名为RateLimit缓存名称加-combined后缀的专用缓存中
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "combined-grid-entry", havingValue = "true")
+        public RateLimiter jCacheCombinedRateLimiter(@Qualifier("RateLimit") final Cache<String, GridBucketState> cache,
+                                                     final RateLimitProperties properties) {
+            return new JCacheCombinedRateLimiter(JCacheCombinedRateLimiter.getOrCreateCache(cache.getCacheManager(),
+                cache.getName() + JCacheCombinedRateLimiter.CACHE_SUFFIX, maxRefreshInterval(properties)));
+        }
     }
 
     /**
@@ -289,9 +867,19 @@ public class RateLimitAutoConfiguration {
          * @return
          */
         @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "combined-grid-entry", havingValue = "false", matchIfMissing = true)
         public RateLimiter bucket4jHazelcastRateLimiter(@Qualifier("RateLimit") final IMap<String, GridBucketState> rateLimit) {
             return new Bucket4jHazelcastRateLimiter(rateLimit);
         }
+
+        /**
+         * 次数和时长保存在同一个缓存条目中
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "combined-grid-entry", havingValue = "true")
+        public RateLimiter hazelcastCombinedRateLimiter(@Qualifier("RateLimit") final IMap<String, GridBucketState> rateLimit) {
+            return new HazelcastCombinedRateLimiter(rateLimit);
+        }
     }
 
     /**
@@ -309,9 +897,28 @@ public class RateLimitAutoConfiguration {
     public static class Bucket4jIgniteConfiguration {
 
         @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "combined-grid-entry", havingValue = "false", matchIfMissing = true)
         public RateLimiter bucket4jIgniteRateLimiter(@Qualifier("RateLimit") final IgniteCache<String, GridBucketState> cache) {
             return new Bucket4jIgniteRateLimiter(cache);
         }
+
+        /**
+         * 次数和时长保存在名为RateLimit缓存名称加-combined后缀的专用缓存中，沿用RateLimit缓存的配置
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "combined-grid-entry", havingValue = "true")
+        @SuppressWarnings("unchecked")
+        public RateLimiter igniteCombinedRateLimiter(@Qualifier("RateLimit") final IgniteCache<String, GridBucketState> cache,
+                                                     final RateLimitProperties properties) {
+            CacheConfiguration<String, CombinedRateLimitState> configuration =
+                new CacheConfiguration<>(cache.getConfiguration(CacheConfiguration.class));
+            configuration.setName(cache.getName() + JCacheCombinedRateLimiter.CACHE_SUFFIX);
+            configuration.setTypes(String.class, CombinedRateLimitState.class);
+            configuration.setExpiryPolicyFactory(
+                JCacheCombinedRateLimiter.configuration(maxRefreshInterval(properties)).getExpiryPolicyFactory());
+            org.apache.ignite.Ignite ignite = cache.unwrap(org.apache.ignite.Ignite.class);
+            return new JCacheCombinedRateLimiter(ignite.getOrCreateCache(configuration));
+        }
     }
 
     /**
@@ -329,9 +936,267 @@ public class RateLimitAutoConfiguration {
     public static class Bucket4jInfinispanConfiguration {
 
         @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "combined-grid-entry", havingValue = "false", matchIfMissing = true)
         public RateLimiter bucket4jInfinispanRateLimiter(@Qualifier("RateLimit") final ReadWriteMap<String, GridBucketState> readWriteMap) {
             return new Bucket4jInfinispanRateLimiter(readWriteMap);
         }
+
+        /**
+         * 次数和时长保存在同一个缓存条目中
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = PREFIX, name = "combined-grid-entry", havingValue = "true")
+        @SuppressWarnings("unchecked")
+        public RateLimiter infinispanCombinedRateLimiter(@Qualifier("RateLimit") final ReadWriteMap<String, GridBucketState> readWriteMap) {
+            return new InfinispanCombinedRateLimiter((ReadWriteMap) readWriteMap);
+        }
+    }
+
+    /**
+     * 1、在类路径下能找到Bucket4j和Caffeine类
+     * 2、在上下文找不到RateLimiter对象
+     * 3、zuul.ratelimit.repository配置BUCKET4J_LOCAL
+     * 满足以上所有条件时，才会初始化此配置
+     * <p>
+     * 令牌桶保存在当前进程有容量上限的Caffeine缓存中
+     */
+    @Configuration
+    @ConditionalOnMissingBean(RateLimiter.class)
+    @ConditionalOnClass({Bucket4j.class, Caffeine.class})
+    @ConditionalOnProperty(prefix = PREFIX, name = "repository", havingValue = "BUCKET4J_LOCAL")
+    public static class Bucket4jLocalConfiguration {
+
+        @Bean
+        public RateLimiter bucket4jLocalRateLimiter(final RateLimitProperties properties) {
+            return new Bucket4jLocalRateLimiter(properties.getBucket4jLocal().getMaximumSize());
+        }
+    }
+
+    /**
+     * 1、在类路径下存在RedisTemplate和LettuceConnectionFactory类
+     * 2、在上下文找不到RateLimiter对象
+     * 3、zuul.ratelimit.repository配置REDIS_SHARDED
+     * 满足以上所有条件时，才会初始化此配置
+     * <p>
+     * 每个zuul.ratelimit.sharded-redis.nodes配置的地址使用独立的连接，停止时关闭
+     */
+    @Configuration
+    @ConditionalOnClass({RedisTemplate.class, LettuceConnectionFactory.class})
+    @ConditionalOnMissingBean(RateLimiter.class)
+    @ConditionalOnProperty(prefix = PREFIX, name = "repository", havingValue = "REDIS_SHARDED")
+    public static class ShardedRedisConfiguration implements DisposableBean {
+
+        private final List<LettuceConnectionFactory> connectionFactories = new ArrayList<>();
+
+        @Bean
+        public RateLimiter shardedRedisRateLimiter(final RateLimiterErrorHandler rateLimiterErrorHandler,
+                                                   final RateLimitProperties properties) {
+            ShardedRedis shardedRedis = properties.getShardedRedis();
+            List<Shard> shards = new ArrayList<>();
+            for (String node : shardedRedis.getNodes()) {
+                LettuceConnectionFactory connectionFactory = LettuceConnectionFactories.create(node);
+                connectionFactories.add(connectionFactory);
+                shards.add(new Shard(node, new StringRedisTemplate(connectionFactory)));
+            }
+            return new ShardedRedisRateLimiter(rateLimiterErrorHandler, shards, shardedRedis.getVirtualNodes(),
+                new InMemoryRateLimiter(), SECONDS.toMillis(shardedRedis.getDownCooldown()));
+        }
+
+        @Override
+        public void destroy() {
+            connectionFactories.forEach(LettuceConnectionFactory::destroy);
+        }
+    }
+
+    /**
+     * 1、在上下文找不到RateLimiter对象
+     * 2、zuul.ratelimit.repository配置SHARED_MEMORY
+     * 3、运行在Java 9及以上版本
+     * 满足以上所有条件时，才会初始化此配置
+     * <p>
+     * 计数存储在同一台机器上多个网关进程共享的内存映射文件中
+     */
+    @Configuration
+    @ConditionalOnJava(JavaVersion.NINE)
+    @ConditionalOnMissingBean(RateLimiter.class)
+    @ConditionalOnProperty(prefix = PREFIX, name = "repository", havingValue = "SHARED_MEMORY")
+    public static class SharedMemoryConfiguration {
+
+        @Bean(destroyMethod = "close")
+        public RateLimiter sharedMemoryRateLimiter(final RateLimiterErrorHandler rateLimiterErrorHandler,
+                                                   final RateLimitProperties properties) throws IOException {
+            SharedMemory sharedMemory = properties.getSharedMemory();
+            SharedMemoryCounterTable counters = new SharedMemoryCounterTable(new File(sharedMemory.getPath()),
+                sharedMemory.getSlots());
+            return new SharedMemoryRateLimiter(rateLimiterErrorHandler, counters);
+        }
+    }
+
+    /**
+     * 1、在上下文找不到RateLimiter对象
+     * 2、zuul.ratelimit.repository配置GOSSIP
+     * 满足以上所有条件时，才会初始化此配置
+     * <p>
+     * 计数存储在每个网关节点的内存中，节点之间通过UDP交换计数
+     */
+    @Configuration
+    @ConditionalOnMissingBean(RateLimiter.class)
+    @ConditionalOnProperty(prefix = PREFIX, name = "repository", havingValue = "GOSSIP")
+    public static class GossipConfiguration {
+
+        @Bean(initMethod = "start", destroyMethod = "close")
+        public GossipRateLimiter gossipRateLimiter(final RateLimitProperties properties,
+                                                   final ObjectProvider<DiscoveryClient> discoveryClient)
+            throws SocketException {
+            Gossip gossip = properties.getGossip();
+            Assert.hasText(gossip.getHost(), PREFIX + ".gossip.host is required for the GOSSIP repository");
+            Assert.hasText(gossip.getSecret(), PREFIX + ".gossip.secret is required for the GOSSIP repository");
+            InetSocketAddress bindAddress = new InetSocketAddress(gossip.getHost(), gossip.getPort());
+            GatewayPeers peers = new GatewayPeers(gossip.getPeers(),
+                StringUtils.hasText(gossip.getServiceId()) ? discoveryClient.getIfAvailable() : null,
+                gossip.getServiceId(), GatewayPeers.GOSSIP_PORT_METADATA, gossip.getPort());
+            return new GossipRateLimiter(bindAddress, gossip.getSecret(), peers, gossip.getInterval(),
+                gossip.getFullSyncInterval(), gossip.getMaxPacketSize());
+        }
+    }
+
+    /**
+     * 1、在上下文找不到RateLimiter对象
+     * 2、zuul.ratelimit.repository配置KEY_OWNER
+     * 满足以上所有条件时，才会初始化此配置
+     * <p>
+     * 每个key由一个网关节点在内存中计数，其他节点通过TCP向这个节点请求限流结果
+     */
+    @Configuration
+    @ConditionalOnMissingBean(RateLimiter.class)
+    @ConditionalOnProperty(prefix = PREFIX, name = "repository", havingValue = "KEY_OWNER")
+    public static class KeyOwnerConfiguration {
+
+        @Bean(initMethod = "start", destroyMethod = "close")
+        public KeyOwnerRateLimiter keyOwnerRateLimiter(final RateLimiterErrorHandler rateLimiterErrorHandler,
+                                                       final RateLimitProperties properties,
+                                                       final ObjectProvider<DiscoveryClient> discoveryClient,
+                                                       final ObjectProvider<Registration> registration)
+            throws IOException {
+            KeyOwner keyOwner = properties.getKeyOwner();
+            Assert.hasText(keyOwner.getSecret(), PREFIX + ".key-owner.secret is required for the KEY_OWNER repository");
+            boolean hasHost = StringUtils.hasText(keyOwner.getHost());
+            boolean discovered = StringUtils.hasText(keyOwner.getServiceId());
+            InetSocketAddress bindAddress = hasHost
+                ? new InetSocketAddress(keyOwner.getHost(), keyOwner.getPort())
+                : new InetSocketAddress(keyOwner.getPort());
+            String host = hasHost ? keyOwner.getHost()
+                : selfHost(discovered ? registration.getIfAvailable() : null);
+            GatewayPeers peers = new GatewayPeers(keyOwner.getPeers(),
+                discovered ? discoveryClient.getIfAvailable() : null,
+                keyOwner.getServiceId(), GatewayPeers.KEY_OWNER_PORT_METADATA, keyOwner.getPort());
+            return new KeyOwnerRateLimiter(rateLimiterErrorHandler, bindAddress, host, keyOwner.getSecret(),
+                keyOwner.getMaxConnections(), peers, keyOwner.getVirtualNodes(), new InMemoryRateLimiter(),
+                keyOwner.getTimeout(), SECONDS.toMillis(keyOwner.getDownCooldown()));
+        }
+
+        /**
+         * 其他节点从注册中心看到的本节点地址，和GatewayPeers使用相同的ServiceInstance.getHost()，没有注册时使用本机IP
+         */
+        private static String selfHost(Registration registration) throws UnknownHostException {
+            return registration != null ? registration.getHost() : InetAddress.getLocalHost().getHostAddress();
+        }
+    }
+
+    /**
+     * 1、在上下文找不到RateLimiter对象
+     * 2、zuul.ratelimit.repository配置IN_MEMORY
+     * 满足以上所有条件时，才会初始化此配置
+     * <p>
+     * 计数存储在当前进程的内存中，配置了zuul.ratelimit.in-memory.snapshot-path时，重启后从快照恢复
+     */
+    @Configuration
+    @ConditionalOnMissingBean(RateLimiter.class)
+    @ConditionalOnProperty(prefix = PREFIX, name = "repository", havingValue = "IN_MEMORY")
+    public static class InMemoryConfiguration {
+
+        @Bean
+        public InMemoryRateLimiter inMemoryRateLimiter() {
+            return new InMemoryRateLimiter();
+        }
+
+        @Bean(initMethod = "start", destroyMethod = "close")
+        @ConditionalOnProperty(prefix = PREFIX, name = "in-memory.snapshot-path")
+        public InMemorySnapshotter inMemorySnapshotter(final InMemoryRateLimiter inMemoryRateLimiter,
+                                                       final RateLimitProperties properties) {
+            InMemory inMemory = properties.getInMemory();
+            return new InMemorySnapshotter(inMemoryRateLimiter, Paths.get(inMemory.getSnapshotPath()),
+                inMemory.getSnapshotInterval());
+        }
+    }
+
+    /**
+     * zuul.ratelimit.blocked-keys.enabled为true时，才会初始化此配置
+     * <p>
+     * 广播方式由zuul.ratelimit.blocked-keys.broadcast决定
+     */
+    @Configuration
+    @ConditionalOnProperty(prefix = PREFIX, name = "blocked-keys.enabled", havingValue = "true")
+    public static class BlockedKeysBroadcastConfiguration {
+
+        /**
+         * 1、在类路径下存在RedisMessageListenerContainer类
+         * 2、zuul.ratelimit.blocked-keys.broadcast配置REDIS
+         * 满足以上所有条件时，才会初始化此配置
+         * <p>
+         * 通过应用的RedisConnectionFactory广播超出限制的key
+         */
+        @Configuration
+        @ConditionalOnClass(RedisMessageListenerContainer.class)
+        @ConditionalOnProperty(prefix = PREFIX, name = "blocked-keys.broadcast", havingValue = "REDIS")
+        public static class RedisBlockedKeysBroadcastConfiguration {
+
+            @Bean
+            public RedisBlockedKeyBroadcaster redisBlockedKeyBroadcaster(final BlockedKeyCache blockedKeyCache,
+                                                                         final RedisConnectionFactory connectionFactory,
+                                                                         final RateLimitProperties properties,
+                                                                         final LocalRateLimiters localRateLimiters) {
+                RedisBlockedKeyBroadcaster broadcaster = new RedisBlockedKeyBroadcaster(blockedKeyCache,
+                    new StringRedisTemplate(connectionFactory), properties.getBlockedKeys().getChannel());
+                broadcaster.setLocalRateLimiters(localRateLimiters);
+                blockedKeyCache.addListener(broadcaster);
+                return broadcaster;
+            }
+
+            @Bean
+            public RedisMessageListenerContainer blockedKeysListenerContainer(
+                final RedisConnectionFactory connectionFactory, final RedisBlockedKeyBroadcaster broadcaster,
+                final RateLimitProperties properties) {
+                RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+                container.setConnectionFactory(connectionFactory);
+                container.addMessageListener(broadcaster, new ChannelTopic(properties.getBlockedKeys().getChannel()));
+                return container;
+            }
+        }
+
+        /**
+         * 1、在类路径下存在HazelcastInstance类
+         * 2、zuul.ratelimit.blocked-keys.broadcast配置HAZELCAST
+         * 满足以上所有条件时，才会初始化此配置
+         * <p>
+         * 通过应用的HazelcastInstance广播超出限制的key
+         */
+        @Configuration
+        @ConditionalOnClass(HazelcastInstance.class)
+        @ConditionalOnProperty(prefix = PREFIX, name = "blocked-keys.broadcast", havingValue = "HAZELCAST")
+        public static class HazelcastBlockedKeysBroadcastConfiguration {
+
+            @Bean(destroyMethod = "close")
+            public HazelcastBlockedKeyBroadcaster hazelcastBlockedKeyBroadcaster(
+                final BlockedKeyCache blockedKeyCache, final HazelcastInstance hazelcastInstance,
+                final RateLimitProperties properties, final LocalRateLimiters localRateLimiters) {
+                HazelcastBlockedKeyBroadcaster broadcaster = new HazelcastBlockedKeyBroadcaster(blockedKeyCache,
+                    hazelcastInstance.getTopic(properties.getBlockedKeys().getChannel()));
+                broadcaster.setLocalRateLimiters(localRateLimiters);
+                blockedKeyCache.addListener(broadcaster);
+                return broadcaster;
+            }
+        }
     }
 
     /**
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import java.util.List;
+
+/**
+ * A {@link RateLimiter} able to consume all the policies of a request in a single round trip to its storage.
+ * <p>
+ * 一次请求匹配多个策略时，批量计数，减少与存储之间的交互次数
+ *
+ * @author Liel Chayoun
+ */
+public interface BatchRateLimiter extends RateLimiter {
+
+    /**
+     * 批量消耗调用次数或调用耗时
+     *
+     * @param policies    Templates for which rates should be created, one per key  用户配置的限流策略
+     * @param keys        Unique keys that identify the request, same order as policies  唯一性的请求key
+     * @param requestTime The total time it took to handle the request  处理请求的耗时时间，单位毫秒
+     * @return a view of the user's rate request limit per key, same order as keys
+     */
+    List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime);
+}
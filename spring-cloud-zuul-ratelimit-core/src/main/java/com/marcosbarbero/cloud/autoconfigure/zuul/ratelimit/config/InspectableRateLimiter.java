@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config;
+
+import java.util.function.Predicate;
+
+/**
+ * A {@link RateLimiter} whose stored state can be looked up, listed and reset, e.g. from the {@code ratelimit} actuator
+ * endpoint.
+ * <p>
+ * 查询、遍历和删除存储中的限流状态。pattern中的{@code *}匹配任意字符，其余字符按原样匹配
+ *
+ * @author Liel Chayoun
+ */
+public interface InspectableRateLimiter extends RateLimiter {
+
+    /**
+     * 查询一个key的状态
+     *
+     * @param key 存储中的key，时长计数的key带有{@link #QUOTA_SUFFIX}后缀
+     * @return key的状态，不存在或已过期时返回null
+     */
+    KeyState inspect(String key);
+
+    /**
+     * 逐批遍历匹配的key，不会一次性加载所有key
+     *
+     * @param pattern 匹配key的模式
+     * @param visitor 接收每个匹配的key，返回false时停止遍历
+     */
+    void scan(String pattern, Predicate<String> visitor);
+
+    /**
+     * 逐批删除匹配的key，删除后的key从新窗口开始计数
+     *
+     * @param pattern 匹配key的模式
+     * @return 删除的key数量
+     */
+    long reset(String pattern);
+
+    /**
+     * 存储中一个key的状态。计数型的存储只知道窗口内已使用的次数和时长，保存{@link Rate}的存储只知道剩余的次数和时长，
+     * 不知道的值为null
+     */
+    final class KeyState {
+
+        private final String key;
+        private final Long used;
+        private final Long quotaUsed;
+        private final Long remaining;
+        private final Long remainingQuota;
+        private final Long reset;
+
+        public KeyState(String key, Long used, Long quotaUsed, Long remaining, Long remainingQuota, Long reset) {
+            this.key = key;
+            this.used = used;
+            this.quotaUsed = quotaUsed;
+            this.remaining = remaining;
+            this.remainingQuota = remainingQuota;
+            this.reset = reset;
+        }
+
+        public static KeyState used(String key, long used, Long reset) {
+            return key.endsWith(QUOTA_SUFFIX) ? new KeyState(key, null, used, null, null, reset)
+                : new KeyState(key, used, null, null, null, reset);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return 窗口内已使用的请求次数
+         */
+        public Long getUsed() {
+            return used;
+        }
+
+        /**
+         * @return 窗口内已使用的请求时长，单位毫秒
+         */
+        public Long getQuotaUsed() {
+            return quotaUsed;
+        }
+
+        public Long getRemaining() {
+            return remaining;
+        }
+
+        /**
+         * @return 剩余的请求时长，单位毫秒
+         */
+        public Long getRemainingQuota() {
+            return remainingQuota;
+        }
+
+        /**
+         * @return 到窗口重置的时间，单位毫秒，不过期的key为null
+         */
+        public Long getReset() {
+            return reset;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+/**
+ * A {@link RateLimiter} able to consume several request permits of the same key in a single call to its storage.
+ * <p>
+ * 一次消耗同一个key的多个请求次数，用于合并并发的计数请求
+ *
+ * @author Liel Chayoun
+ */
+public interface PermitsRateLimiter extends RateLimiter {
+
+    /**
+     * 消耗permits个请求次数，请求时长只读取不消耗，与pre阶段的consume一致
+     * <p>
+     * The returned remaining count is not clamped: it is what the last permit would have seen had the permits been
+     * consumed one by one, so {@code remaining + permits - 1 - i} is the remaining count of the i-th permit.
+     *
+     * @param policy  用户配置的限流策略
+     * @param key     唯一性的请求key
+     * @param permits 请求次数
+     * @return 最后一个permit对应的Rate信息
+     */
+    Rate consumePermits(Policy policy, String key, int permits);
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config;
+
+import java.io.IOException;
+
+/**
+ * Converts a {@link Rate} to and from the value kept by string-valued stores such as Consul.
+ * <p>
+ * Rate的序列化方式
+ *
+ * @author Liel Chayoun
+ */
+public interface RateCodec {
+
+    /**
+     * @param rate The {@link Rate} to store
+     * @return the encoded value
+     * @throws IOException if the rate can not be encoded
+     */
+    String encode(Rate rate) throws IOException;
+
+    /**
+     * @param value A value previously returned by {@link #encode(Rate)}
+     * @return the decoded {@link Rate}
+     * @throws IOException if the value can not be decoded
+     */
+    Rate decode(String value) throws IOException;
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+/**
+ * Produces one profiling event per call to the {@link RateLimiter}, e.g. for Java Flight Recorder.
+ * <p>
+ * 每次计数的事件。与{@link RateLimitMetrics}不同，事件可以包含key的哈希，但不包含key本身。
+ * 没有在记录时{@link #beginConsume()}返回null，调用方不需要读时钟
+ *
+ * @author Liel Chayoun
+ */
+public interface RateLimitEvents {
+
+    /**
+     * 不产生任何事件
+     */
+    RateLimitEvents NONE = new RateLimitEvents() {
+        @Override
+        public ConsumeEvent beginConsume() {
+            return null;
+        }
+    };
+
+    /**
+     * 在调用{@link RateLimiter}之前开始一个事件
+     *
+     * @return 开始的事件，没有在记录时为null
+     */
+    ConsumeEvent beginConsume();
+
+    /**
+     * 一次计数的事件
+     */
+    interface ConsumeEvent {
+
+        /**
+         * 在调用存储的线程上，调用返回后立即调用。异步计数的{@link #end}可能在完成计数的线程执行，
+         * 与调用线程相关的数据需要在这里读取。没有调用时由{@link #end}在其所在线程读取
+         */
+        default void callReturned() {
+        }
+
+        /**
+         * 结束并提交事件
+         *
+         * @param filterType  过滤器阶段，pre或post
+         * @param routeId     路由id，没有匹配的路由时为null
+         * @param rateLimiter 调用的存储
+         * @param policy      计数的策略
+         * @param key         计数的key
+         * @param rate        计数结果，异步计数失败时为null
+         */
+        void end(String filterType, String routeId, RateLimiter rateLimiter, Policy policy, String key, Rate rate);
+    }
+}
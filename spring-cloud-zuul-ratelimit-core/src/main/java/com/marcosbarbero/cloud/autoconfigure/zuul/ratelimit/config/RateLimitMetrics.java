@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+/**
+ * Records what the rate limit filters do, without tying them to a metrics library.
+ * <p>
+ * 限流过程的指标记录。标签只能取有限的值：路由、策略的序号、过滤器阶段，不能使用限流的key
+ *
+ * @author Liel Chayoun
+ */
+public interface RateLimitMetrics {
+
+    /**
+     * 不记录任何指标
+     */
+    RateLimitMetrics NONE = new RateLimitMetrics() {
+    };
+
+    /**
+     * @param routeId 路由id，没有匹配的路由时为null
+     * @param nanos   匹配策略的耗时，单位纳秒
+     */
+    default void recordPolicyMatching(String routeId, long nanos) {
+    }
+
+    /**
+     * @param routeId 路由id，没有匹配的路由时为null
+     * @param nanos   生成所有策略的key的耗时，单位纳秒
+     */
+    default void recordKeyGeneration(String routeId, long nanos) {
+    }
+
+    /**
+     * @param filterType 过滤器阶段，pre或post
+     * @param nanos      一次调用{@link RateLimiter}的耗时，批量计数时为整批的耗时，单位纳秒
+     */
+    default void recordConsume(String filterType, long nanos) {
+    }
+
+    /**
+     * @param routeId 路由id，没有匹配的路由时为null
+     * @param policy  该路由配置的策略之一
+     * @param allowed 是否放行
+     */
+    default void recordDecision(String routeId, Policy policy, boolean allowed) {
+    }
+
+    /**
+     * @param kind 错误处理器的方法：save、fetch或error
+     */
+    default void recordError(String kind) {
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties;
+
+/**
+ * 访问存储超出时延预算时的决定
+ *
+ * @author Liel Chayoun
+ */
+public enum LatencyBudgetDecision {
+    /**
+     * Let the request through
+     */
+    ALLOW,
+
+    /**
+     * Reject the request as if the limit was exceeded
+     */
+    DENY,
+
+    /**
+     * Answer from a local in-memory estimate, limits divided by the number of nodes
+     */
+    LOCAL,
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties;
+
+/**
+ * Rate在字符串存储（如Consul）中的序列化方式
+ *
+ * @author Liel Chayoun
+ */
+public enum RateCodecType {
+    /**
+     * Compact varint encoding, keeps millisecond precision and still reads JSON values
+     */
+    BINARY,
+
+    /**
+     * Jackson JSON encoding, compatible with previous versions
+     */
+    JSON,
+}
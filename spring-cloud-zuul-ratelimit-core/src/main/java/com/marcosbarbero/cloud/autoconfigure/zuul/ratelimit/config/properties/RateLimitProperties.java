@@ -30,6 +30,8 @@ import org.springframework.validation.annotation.Validated;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.util.List;
 import java.util.Map;
@@ -139,6 +141,168 @@ public class RateLimitProperties {
 
     private int preFilterOrder = FORM_BODY_WRAPPER_FILTER_ORDER;
 
+    /**
+     * BUCKET4J_JCACHE、BUCKET4J_HAZELCAST、BUCKET4J_IGNITE、BUCKET4J_INFINISPAN存储时，次数和时长是否保存在同一个缓存条目中，
+     * 每个阶段只需要一次远程调用。使用固定时间窗口代替令牌桶。默认关闭
+     */
+    private boolean combinedGridEntry;
+
+    /**
+     * Rate在字符串存储中的序列化方式，默认BINARY
+     */
+    @NotNull
+    private RateCodecType rateCodec = RateCodecType.BINARY;
+
+    /**
+     * 新时间窗口的开始时间，默认从key的第一次请求开始
+     */
+    @NotNull
+    private WindowAlignment windowAlignment = WindowAlignment.FIRST_REQUEST;
+
+    /**
+     * Consul存储的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private Consul consul = new Consul();
+
+    /**
+     * GOSSIP存储的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private Gossip gossip = new Gossip();
+
+    /**
+     * KEY_OWNER存储的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private KeyOwner keyOwner = new KeyOwner();
+
+    /**
+     * 共享内存存储的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private SharedMemory sharedMemory = new SharedMemory();
+
+    /**
+     * 本地内存存储的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private InMemory inMemory = new InMemory();
+
+    /**
+     * 两级限流的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private TwoTier twoTier = new TwoTier();
+
+    /**
+     * 访问存储的时延预算的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private LatencyBudget latencyBudget = new LatencyBudget();
+
+    /**
+     * 共享存储熔断的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * 批量发送所有请求线程的计数的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private MicroBatching microBatching = new MicroBatching();
+
+    /**
+     * 合并同一个key的并发计数的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private Coalescing coalescing = new Coalescing();
+
+    /**
+     * 本地记录已超出限制的key的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private BlockedKeys blockedKeys = new BlockedKeys();
+
+    /**
+     * redis存储的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private Redis redis = new Redis();
+
+    /**
+     * 分片redis存储的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private ShardedRedis shardedRedis = new ShardedRedis();
+
+    /**
+     * Bucket4j本地令牌桶的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private Bucket4jLocal bucket4jLocal = new Bucket4jLocal();
+
+    /**
+     * Micrometer指标的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 统计本节点高频key的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private HeavyHitters heavyHitters = new HeavyHitters();
+
+    /**
+     * Java Flight Recorder事件的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private Jfr jfr = new Jfr();
+
+    /**
+     * 按路由记录请求耗时分布的配置
+     */
+    @Valid
+    @NotNull
+    @NestedConfigurationProperty
+    private LatencyHistogram latencyHistogram = new LatencyHistogram();
+
     /**
      * 根据key获取限流策略列表，获取不到就使用默认配置策略
      *
@@ -237,6 +401,1203 @@ public class RateLimitProperties {
         this.preFilterOrder = preFilterOrder;
     }
 
+    public boolean isCombinedGridEntry() {
+        return combinedGridEntry;
+    }
+
+    public void setCombinedGridEntry(boolean combinedGridEntry) {
+        this.combinedGridEntry = combinedGridEntry;
+    }
+
+    public RateCodecType getRateCodec() {
+        return rateCodec;
+    }
+
+    public void setRateCodec(RateCodecType rateCodec) {
+        this.rateCodec = rateCodec;
+    }
+
+    public WindowAlignment getWindowAlignment() {
+        return windowAlignment;
+    }
+
+    public void setWindowAlignment(WindowAlignment windowAlignment) {
+        this.windowAlignment = windowAlignment;
+    }
+
+    public Consul getConsul() {
+        return consul;
+    }
+
+    public void setConsul(Consul consul) {
+        this.consul = consul;
+    }
+
+    public Gossip getGossip() {
+        return gossip;
+    }
+
+    public void setGossip(Gossip gossip) {
+        this.gossip = gossip;
+    }
+
+    public static class Gossip {
+
+        /**
+         * 接收其他节点计数的地址，必须配置，不会监听所有地址
+         */
+        private String host;
+
+        /**
+         * 所有节点共享的密钥，用于签名交换的计数，必须配置
+         */
+        private String secret;
+
+        /**
+         * 接收其他节点计数的UDP端口
+         */
+        @Min(0)
+        private int port = 7470;
+
+        /**
+         * 其他节点的地址，格式为host:port
+         */
+        @NotNull
+        private List<String> peers = Lists.newArrayList();
+
+        /**
+         * 网关在注册中心的服务名，配置后注册中心的实例也作为其他节点
+         */
+        private String serviceId;
+
+        /**
+         * 发送变化计数的间隔，单位毫秒，决定了全局计数的误差
+         */
+        @Min(1)
+        private long interval = 100;
+
+        /**
+         * 发送所有计数的间隔，弥补丢失的UDP包，单位毫秒
+         */
+        @Min(1)
+        private long fullSyncInterval = 1000;
+
+        /**
+         * 一个UDP包的最大字节数
+         */
+        @Min(128)
+        private int maxPacketSize = 1400;
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public void setSecret(String secret) {
+            this.secret = secret;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public List<String> getPeers() {
+            return peers;
+        }
+
+        public void setPeers(List<String> peers) {
+            this.peers = peers;
+        }
+
+        public String getServiceId() {
+            return serviceId;
+        }
+
+        public void setServiceId(String serviceId) {
+            this.serviceId = serviceId;
+        }
+
+        public long getInterval() {
+            return interval;
+        }
+
+        public void setInterval(long interval) {
+            this.interval = interval;
+        }
+
+        public long getFullSyncInterval() {
+            return fullSyncInterval;
+        }
+
+        public void setFullSyncInterval(long fullSyncInterval) {
+            this.fullSyncInterval = fullSyncInterval;
+        }
+
+        public int getMaxPacketSize() {
+            return maxPacketSize;
+        }
+
+        public void setMaxPacketSize(int maxPacketSize) {
+            this.maxPacketSize = maxPacketSize;
+        }
+    }
+
+    public KeyOwner getKeyOwner() {
+        return keyOwner;
+    }
+
+    public void setKeyOwner(KeyOwner keyOwner) {
+        this.keyOwner = keyOwner;
+    }
+
+    public static class KeyOwner {
+
+        /**
+         * 接收其他节点请求的地址，也是其他节点访问本节点的地址。默认监听所有地址，以注册中心中本实例的地址识别本节点，
+         * 没有配置service-id或没有注册时使用本机IP
+         */
+        private String host;
+
+        /**
+         * 接收其他节点请求的TCP端口
+         */
+        @Min(0)
+        private int port = 7471;
+
+        /**
+         * 所有节点共享的密钥，其他节点连接时需要通过认证，必须配置
+         */
+        private String secret;
+
+        /**
+         * 同时处理的其他节点连接的最大数量，超出的连接直接关闭
+         */
+        @Min(1)
+        private int maxConnections = 256;
+
+        /**
+         * 集群中的节点地址，格式为host:port，可以包含本节点
+         */
+        @NotNull
+        private List<String> peers = Lists.newArrayList();
+
+        /**
+         * 网关在注册中心的服务名，配置后注册中心的实例也作为集群中的节点
+         */
+        private String serviceId;
+
+        /**
+         * 每个节点在哈希环上的虚拟节点数量
+         */
+        @Min(1)
+        private int virtualNodes = 160;
+
+        /**
+         * 等待其他节点响应的时间，单位毫秒，超时后使用本地限流
+         */
+        @Min(1)
+        private long timeout = 50;
+
+        /**
+         * 节点失败后跳过的时间，单位秒。期间此节点的key使用本地限流
+         */
+        @Min(0)
+        private long downCooldown = 5;
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public void setSecret(String secret) {
+            this.secret = secret;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+
+        public List<String> getPeers() {
+            return peers;
+        }
+
+        public void setPeers(List<String> peers) {
+            this.peers = peers;
+        }
+
+        public String getServiceId() {
+            return serviceId;
+        }
+
+        public void setServiceId(String serviceId) {
+            this.serviceId = serviceId;
+        }
+
+        public int getVirtualNodes() {
+            return virtualNodes;
+        }
+
+        public void setVirtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+        }
+
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+
+        public long getDownCooldown() {
+            return downCooldown;
+        }
+
+        public void setDownCooldown(long downCooldown) {
+            this.downCooldown = downCooldown;
+        }
+    }
+
+    public SharedMemory getSharedMemory() {
+        return sharedMemory;
+    }
+
+    public void setSharedMemory(SharedMemory sharedMemory) {
+        this.sharedMemory = sharedMemory;
+    }
+
+    public InMemory getInMemory() {
+        return inMemory;
+    }
+
+    public void setInMemory(InMemory inMemory) {
+        this.inMemory = inMemory;
+    }
+
+    public Bucket4jLocal getBucket4jLocal() {
+        return bucket4jLocal;
+    }
+
+    public void setBucket4jLocal(Bucket4jLocal bucket4jLocal) {
+        this.bucket4jLocal = bucket4jLocal;
+    }
+
+    public static class Bucket4jLocal {
+
+        /**
+         * 最多缓存的令牌桶数量，超出后按W-TinyLFU淘汰。每个key的次数和时长各占一个
+         */
+        @Min(1)
+        private long maximumSize = 100000;
+
+        public long getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+    }
+
+    public TwoTier getTwoTier() {
+        return twoTier;
+    }
+
+    public void setTwoTier(TwoTier twoTier) {
+        this.twoTier = twoTier;
+    }
+
+    public static class TwoTier {
+
+        /**
+         * 是否先在本地按limit/节点数*(1+slack)限流，本地通过后才访问共享存储
+         */
+        private boolean enabled;
+
+        /**
+         * 在平均分配之外多允许的比例
+         */
+        @Min(0)
+        private double slack = 0.1;
+
+        /**
+         * 网关节点数量，没有注册中心或注册中心不可用时使用
+         */
+        @Min(1)
+        private int nodes = 1;
+
+        /**
+         * 网关在注册中心的服务名，默认为spring.application.name
+         */
+        private String serviceId;
+
+        /**
+         * 从注册中心刷新节点数量的间隔，单位秒
+         */
+        @Min(1)
+        private long refreshInterval = 30;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getSlack() {
+            return slack;
+        }
+
+        public void setSlack(double slack) {
+            this.slack = slack;
+        }
+
+        public int getNodes() {
+            return nodes;
+        }
+
+        public void setNodes(int nodes) {
+            this.nodes = nodes;
+        }
+
+        public String getServiceId() {
+            return serviceId;
+        }
+
+        public void setServiceId(String serviceId) {
+            this.serviceId = serviceId;
+        }
+
+        public long getRefreshInterval() {
+            return refreshInterval;
+        }
+
+        public void setRefreshInterval(long refreshInterval) {
+            this.refreshInterval = refreshInterval;
+        }
+    }
+
+    public LatencyBudget getLatencyBudget() {
+        return latencyBudget;
+    }
+
+    public void setLatencyBudget(LatencyBudget latencyBudget) {
+        this.latencyBudget = latencyBudget;
+    }
+
+    public static class LatencyBudget {
+
+        /**
+         * 是否限制访问存储的时间，超时后按decision直接做出决定
+         */
+        private boolean enabled;
+
+        /**
+         * 访问存储的时延预算，单位微秒
+         */
+        @Min(1)
+        private long timeoutMicros = 2000;
+
+        /**
+         * 超出预算时的决定
+         */
+        @NotNull
+        private LatencyBudgetDecision decision = LatencyBudgetDecision.LOCAL;
+
+        /**
+         * 网关节点数量，本地估算时策略的次数和时长按节点数缩小
+         */
+        @Min(1)
+        private int nodes = 1;
+
+        /**
+         * 访问存储的线程数
+         */
+        @Min(1)
+        private int threads = 32;
+
+        /**
+         * 等待访问存储的调用数量上限，超出时直接做出决定
+         */
+        @Min(1)
+        private int queueCapacity = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getTimeoutMicros() {
+            return timeoutMicros;
+        }
+
+        public void setTimeoutMicros(long timeoutMicros) {
+            this.timeoutMicros = timeoutMicros;
+        }
+
+        public LatencyBudgetDecision getDecision() {
+            return decision;
+        }
+
+        public void setDecision(LatencyBudgetDecision decision) {
+            this.decision = decision;
+        }
+
+        public int getNodes() {
+            return nodes;
+        }
+
+        public void setNodes(int nodes) {
+            this.nodes = nodes;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public static class CircuitBreaker {
+
+        /**
+         * 是否在共享存储异常或响应过慢时熔断，改用本地内存限流
+         */
+        private boolean enabled;
+
+        /**
+         * 一个窗口内触发熔断的失败次数，响应过慢也计为失败
+         */
+        @Min(1)
+        private int failureThreshold = 5;
+
+        /**
+         * 统计失败次数的窗口，单位毫秒
+         */
+        @Min(1)
+        private long failureWindow = 10000;
+
+        /**
+         * 超过该耗时的调用计为失败，单位毫秒
+         */
+        @Min(1)
+        private long slowCallThreshold = 500;
+
+        /**
+         * 熔断持续时间，期满后放行一个探测调用，单位毫秒
+         */
+        @Min(1)
+        private long openDuration = 5000;
+
+        /**
+         * 网关节点数量，本地限流时策略的次数和时长按节点数缩小
+         */
+        @Min(1)
+        private int nodes = 1;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public long getFailureWindow() {
+            return failureWindow;
+        }
+
+        public void setFailureWindow(long failureWindow) {
+            this.failureWindow = failureWindow;
+        }
+
+        public long getSlowCallThreshold() {
+            return slowCallThreshold;
+        }
+
+        public void setSlowCallThreshold(long slowCallThreshold) {
+            this.slowCallThreshold = slowCallThreshold;
+        }
+
+        public long getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(long openDuration) {
+            this.openDuration = openDuration;
+        }
+
+        public int getNodes() {
+            return nodes;
+        }
+
+        public void setNodes(int nodes) {
+            this.nodes = nodes;
+        }
+    }
+
+    public MicroBatching getMicroBatching() {
+        return microBatching;
+    }
+
+    public void setMicroBatching(MicroBatching microBatching) {
+        this.microBatching = microBatching;
+    }
+
+    public static class MicroBatching {
+
+        /**
+         * 是否批量发送所有请求线程的计数，存储需要支持批量计数（REDIS、REDIS_SHARDED和CONSUL的CAS模式）
+         */
+        private boolean enabled;
+
+        /**
+         * 一个批次的最大计数数量
+         */
+        @Min(1)
+        private int maxBatchSize = 100;
+
+        /**
+         * 收到第一个计数后等待更多计数的时间，单位微秒
+         */
+        @Min(0)
+        private long windowMicros = 200;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public long getWindowMicros() {
+            return windowMicros;
+        }
+
+        public void setWindowMicros(long windowMicros) {
+            this.windowMicros = windowMicros;
+        }
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public static class Metrics {
+
+        /**
+         * 是否导出限流过程的指标，需要Micrometer
+         */
+        private boolean enabled;
+
+        /**
+         * 计数耗时导出的百分位
+         */
+        @NotNull
+        private double[] percentiles = {0.5, 0.95, 0.99};
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double[] getPercentiles() {
+            return percentiles;
+        }
+
+        public void setPercentiles(double[] percentiles) {
+            this.percentiles = percentiles;
+        }
+    }
+
+    public HeavyHitters getHeavyHitters() {
+        return heavyHitters;
+    }
+
+    public void setHeavyHitters(HeavyHitters heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+
+    public static class HeavyHitters {
+
+        /**
+         * 是否统计本节点访问最多和被拒绝最多的key，通过ratelimit端点查看
+         */
+        private boolean enabled;
+
+        /**
+         * Count-Min Sketch的哈希函数数量
+         */
+        @Min(1)
+        private int depth = 4;
+
+        /**
+         * Count-Min Sketch每个哈希函数的计数器数量，向上取整为2的幂
+         */
+        @Min(1)
+        private int width = 2048;
+
+        /**
+         * 最多跟踪的key数量
+         */
+        @Min(1)
+        private int size = 100;
+
+        /**
+         * 计数减半的间隔，单位秒
+         */
+        @Min(1)
+        private long decayInterval = 60;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public void setDepth(int depth) {
+            this.depth = depth;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public void setWidth(int width) {
+            this.width = width;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        public long getDecayInterval() {
+            return decayInterval;
+        }
+
+        public void setDecayInterval(long decayInterval) {
+            this.decayInterval = decayInterval;
+        }
+    }
+
+    public Jfr getJfr() {
+        return jfr;
+    }
+
+    public void setJfr(Jfr jfr) {
+        this.jfr = jfr;
+    }
+
+    public static class Jfr {
+
+        /**
+         * 是否为每次计数产生JFR事件，需要运行在支持JFR的JVM上
+         */
+        private boolean enabled;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    public void setLatencyHistogram(LatencyHistogram latencyHistogram) {
+        this.latencyHistogram = latencyHistogram;
+    }
+
+    public static class LatencyHistogram {
+
+        /**
+         * 是否按路由记录从时长配额中扣除的请求耗时，需要Micrometer
+         */
+        private boolean enabled;
+
+        /**
+         * 记录值的有效数字位数
+         */
+        @Min(0)
+        @Max(5)
+        private int significantDigits = 2;
+
+        /**
+         * 统计区间，单位秒
+         */
+        @Min(1)
+        private long interval = 60;
+
+        /**
+         * 导出的百分位
+         */
+        @NotNull
+        private double[] percentiles = {0.5, 0.9, 0.99, 0.999};
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getSignificantDigits() {
+            return significantDigits;
+        }
+
+        public void setSignificantDigits(int significantDigits) {
+            this.significantDigits = significantDigits;
+        }
+
+        public long getInterval() {
+            return interval;
+        }
+
+        public void setInterval(long interval) {
+            this.interval = interval;
+        }
+
+        public double[] getPercentiles() {
+            return percentiles;
+        }
+
+        public void setPercentiles(double[] percentiles) {
+            this.percentiles = percentiles;
+        }
+    }
+
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    public void setCoalescing(Coalescing coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    public static class Coalescing {
+
+        /**
+         * 是否合并同一个key的并发计数，存储需要支持一次消耗多个请求次数（REDIS和BUCKET4J_*）
+         */
+        private boolean enabled;
+
+        /**
+         * 一次合并的最大请求数
+         */
+        @Min(1)
+        private int maxPermits = 100;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxPermits() {
+            return maxPermits;
+        }
+
+        public void setMaxPermits(int maxPermits) {
+            this.maxPermits = maxPermits;
+        }
+    }
+
+    public BlockedKeys getBlockedKeys() {
+        return blockedKeys;
+    }
+
+    public void setBlockedKeys(BlockedKeys blockedKeys) {
+        this.blockedKeys = blockedKeys;
+    }
+
+    public static class BlockedKeys {
+
+        /**
+         * 是否在本地记录已超出限制的key，重置前直接拒绝，不再访问存储
+         */
+        private boolean enabled;
+
+        /**
+         * 最多记录的key数量，已满时由存储拒绝
+         */
+        @Min(1)
+        private int maximumSize = 10000;
+
+        /**
+         * 本地拒绝比存储的重置时间提前结束的时间，单位毫秒，用于吸收节点之间的时钟误差和广播延迟。
+         * 重置前的最后skew毫秒重新访问存储
+         */
+        @Min(0)
+        private long skew = 1000;
+
+        /**
+         * 超出限制的key在节点之间的广播方式，默认不广播
+         */
+        @NotNull
+        private BlockedKeysBroadcastType broadcast = BlockedKeysBroadcastType.NONE;
+
+        /**
+         * 广播使用的redis channel或Hazelcast topic名称
+         */
+        @NotNull
+        private String channel = "zuul-ratelimit-blocked-keys";
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        public long getSkew() {
+            return skew;
+        }
+
+        public void setSkew(long skew) {
+            this.skew = skew;
+        }
+
+        public BlockedKeysBroadcastType getBroadcast() {
+            return broadcast;
+        }
+
+        public void setBroadcast(BlockedKeysBroadcastType broadcast) {
+            this.broadcast = broadcast;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public void setChannel(String channel) {
+            this.channel = channel;
+        }
+    }
+
+    public Redis getRedis() {
+        return redis;
+    }
+
+    public void setRedis(Redis redis) {
+        this.redis = redis;
+    }
+
+    public static class Redis {
+
+        /**
+         * 是否使用限流专用的redis连接，不与应用的RedisConnectionFactory争用连接
+         */
+        private boolean dedicatedConnection;
+
+        /**
+         * 专用连接的地址，例如 redis://:password@host:6379/0。为空时使用spring.redis的单机配置
+         */
+        private String url;
+
+        public boolean isDedicatedConnection() {
+            return dedicatedConnection;
+        }
+
+        public void setDedicatedConnection(boolean dedicatedConnection) {
+            this.dedicatedConnection = dedicatedConnection;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+    }
+
+    public ShardedRedis getShardedRedis() {
+        return shardedRedis;
+    }
+
+    public void setShardedRedis(ShardedRedis shardedRedis) {
+        this.shardedRedis = shardedRedis;
+    }
+
+    public static class ShardedRedis {
+
+        /**
+         * redis实例地址，例如 redis://:password@host:6379/0。地址决定实例在哈希环上的位置，调整顺序不会移动key
+         */
+        @NotNull
+        private List<String> nodes = Lists.newArrayList();
+
+        /**
+         * 每个实例在哈希环上的虚拟节点数量
+         */
+        @Min(1)
+        private int virtualNodes = 160;
+
+        /**
+         * 实例失败后跳过的时间，单位秒。期间此实例上的key使用本地限流
+         */
+        @Min(0)
+        private long downCooldown = 5;
+
+        public List<String> getNodes() {
+            return nodes;
+        }
+
+        public void setNodes(List<String> nodes) {
+            this.nodes = nodes;
+        }
+
+        public int getVirtualNodes() {
+            return virtualNodes;
+        }
+
+        public void setVirtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+        }
+
+        public long getDownCooldown() {
+            return downCooldown;
+        }
+
+        public void setDownCooldown(long downCooldown) {
+            this.downCooldown = downCooldown;
+        }
+    }
+
+    public static class InMemory {
+
+        /**
+         * 快照文件路径，重启后从快照恢复未过期的计数。不设置则不生成快照
+         */
+        private String snapshotPath;
+
+        /**
+         * 定时生成快照的间隔，单位秒。停机时也会生成一次快照
+         */
+        @Min(1)
+        private long snapshotInterval = 30;
+
+        public String getSnapshotPath() {
+            return snapshotPath;
+        }
+
+        public void setSnapshotPath(String snapshotPath) {
+            this.snapshotPath = snapshotPath;
+        }
+
+        public long getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public void setSnapshotInterval(long snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+        }
+    }
+
+    public static class SharedMemory {
+
+        /**
+         * 共享内存文件路径，同一台机器上的网关进程使用相同的路径即可共享计数
+         */
+        @NotNull
+        private String path = "/dev/shm/zuul-ratelimit";
+
+        /**
+         * 槽位数量，每个key（次数和时长各一个）占用一个槽位，每个槽位128字节
+         */
+        @Min(2)
+        private int slots = 65536;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public int getSlots() {
+            return slots;
+        }
+
+        public void setSlots(int slots) {
+            this.slots = slots;
+        }
+    }
+
+    public static class Consul {
+
+        /**
+         * 是否基于ModifyIndex做CAS更新，并通过事务接口批量读写。默认关闭
+         */
+        private boolean checkAndSet;
+
+        /**
+         * CAS冲突时的最大重试次数
+         */
+        @Min(0)
+        private int maxRetries = 5;
+
+        /**
+         * 事务接口的ACL token，通过X-Consul-Token请求头发送
+         */
+        private String aclToken;
+
+        /**
+         * 事务接口的连接超时（毫秒）
+         */
+        @Min(0)
+        private int connectTimeout = 1000;
+
+        /**
+         * 事务接口的读取超时（毫秒）
+         */
+        @Min(0)
+        private int readTimeout = 3000;
+
+        public boolean isCheckAndSet() {
+            return checkAndSet;
+        }
+
+        public void setCheckAndSet(boolean checkAndSet) {
+            this.checkAndSet = checkAndSet;
+        }
+
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        public void setMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+        }
+
+        public String getAclToken() {
+            return aclToken;
+        }
+
+        public void setAclToken(String aclToken) {
+            this.aclToken = aclToken;
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        public int getReadTimeout() {
+            return readTimeout;
+        }
+
+        public void setReadTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+    }
+
     public static class Policy {
 
         /**
@@ -30,6 +30,11 @@ public enum RateLimitRepository {
      */
     REDIS,
 
+    /**
+     * Uses several independent Redis instances, sharded with a consistent hash ring, as data storage
+     */
+    REDIS_SHARDED,
+
     /**
      * Uses Consul as data storage
      */
@@ -59,4 +64,29 @@ public enum RateLimitRepository {
      * Uses Bucket4j Infinispan as data storage
      */
     BUCKET4J_INFINISPAN,
+
+    /**
+     * Uses Bucket4j local buckets in a bounded Caffeine cache as data storage
+     */
+    BUCKET4J_LOCAL,
+
+    /**
+     * Uses a memory mapped file shared by the gateway processes of the same host as data storage
+     */
+    SHARED_MEMORY,
+
+    /**
+     * Uses the memory of the gateway process as data storage
+     */
+    IN_MEMORY,
+
+    /**
+     * Uses the memory of every gateway node, counters are exchanged between the nodes over UDP
+     */
+    GOSSIP,
+
+    /**
+     * Uses the memory of the gateway node owning the key, the other nodes ask the owner over TCP
+     */
+    KEY_OWNER,
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties;
+
+import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter.QUOTA_SUFFIX;
+
+/**
+ * 时间窗口的开始时间
+ * <p>
+ * With {@link #FIRST_REQUEST} the windows of many keys line up after an outage or a deploy, and all of them refill in
+ * the same second. {@link #KEY_OFFSET} spreads the refills over the whole interval, and every node computes the same
+ * window for a key without coordination.
+ *
+ * @author Liel Chayoun
+ */
+public enum WindowAlignment {
+    /**
+     * The window starts at the first request of the key
+     */
+    FIRST_REQUEST,
+
+    /**
+     * The windows start at multiples of the refresh interval, shifted by an offset derived from the key's hash
+     */
+    KEY_OFFSET;
+
+    /**
+     * @param key      限流的key，时长的key和次数的key使用相同的偏移
+     * @param interval 时间窗口，单位毫秒
+     * @param now      当前时间，epoch毫秒
+     * @return 包含当前时间的新窗口的结束时间，epoch毫秒
+     */
+    public long windowEnd(String key, long interval, long now) {
+        if (this == FIRST_REQUEST) {
+            return now + interval;
+        }
+        return now - Math.floorMod(now - offset(key, interval), interval) + interval;
+    }
+
+    /**
+     * String.hashCode在所有JVM上一致，再经过MurmurHash3的fmix64打散
+     */
+    static long offset(String key, long interval) {
+        String baseKey = key.endsWith(QUOTA_SUFFIX) ? key.substring(0, key.length() - QUOTA_SUFFIX.length()) : key;
+        long hash = baseKey.hashCode();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return Math.floorMod(hash, interval);
+    }
+}
@@ -19,6 +19,7 @@ package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -28,7 +29,26 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  * @author Liel Chayoun
  * @since 2018-04-06
  */
-public abstract class AbstractCacheRateLimiter implements RateLimiter {
+public abstract class AbstractCacheRateLimiter implements RateLimiter, WindowAlignmentAware {
+
+    private final InstrumentedLock consumeLock = new InstrumentedLock();
+    private WindowAlignment windowAlignment = WindowAlignment.FIRST_REQUEST;
+
+    @Override
+    public void setWindowAlignment(WindowAlignment windowAlignment) {
+        this.windowAlignment = windowAlignment;
+    }
+
+    protected WindowAlignment getWindowAlignment() {
+        return windowAlignment;
+    }
+
+    /**
+     * @return 计数使用的全局锁，用于导出等待时间
+     */
+    public InstrumentedLock getConsumeLock() {
+        return consumeLock;
+    }
 
     /**
      * Filter调用。消耗调用次数或调用耗时。 配置文件配置了两个重要参数，一个是请求次数，一个是请求耗时时长
@@ -42,7 +62,24 @@ public abstract class AbstractCacheRateLimiter implements RateLimiter {
      * @return a view of a user's rate request limit 返回key对应的Rate信息
      */
     @Override
-    public synchronized Rate consume(Policy policy, String key, Long requestTime) {
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        consumeLock.lock();
+        try {
+            return calcRate(policy, key, requestTime);
+        } finally {
+            consumeLock.unlock();
+        }
+    }
+
+    /**
+     * 计算剩余次数和剩余时长，不加锁。存储本身保证原子性的实现可以直接调用
+     *
+     * @param policy      用户配置的限流策略
+     * @param key         唯一性的请求key
+     * @param requestTime 处理请求的耗时时间，单位毫秒
+     * @return 返回key对应的Rate信息
+     */
+    protected Rate calcRate(Policy policy, String key, Long requestTime) {
         final Long refreshInterval = policy.getRefreshInterval();
         final Long quota = policy.getQuota() != null ? SECONDS.toMillis(policy.getQuota()) : null;
         final Rate rate = new Rate(key, policy.getLimit(), quota, null, null);
@@ -19,6 +19,7 @@ package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
 
 import java.util.Date;
 
@@ -31,20 +32,34 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  * @author Marcos Barbero
  * @since 2017-08-28
  */
-public abstract class AbstractRateLimiter implements RateLimiter {
+public abstract class AbstractRateLimiter implements RateLimiter, WindowAlignmentAware {
 
     private final RateLimiterErrorHandler rateLimiterErrorHandler;
+    private final InstrumentedLock consumeLock = new InstrumentedLock();
+    private WindowAlignment windowAlignment = WindowAlignment.FIRST_REQUEST;
 
     protected AbstractRateLimiter(RateLimiterErrorHandler rateLimiterErrorHandler) {
         this.rateLimiterErrorHandler = rateLimiterErrorHandler;
     }
 
+    @Override
+    public void setWindowAlignment(WindowAlignment windowAlignment) {
+        this.windowAlignment = windowAlignment;
+    }
+
+    /**
+     * @return 计数使用的全局锁，用于导出等待时间
+     */
+    public InstrumentedLock getConsumeLock() {
+        return consumeLock;
+    }
+
     protected abstract Rate getRate(String key);
 
     protected abstract void saveRate(Rate rate);
 
     /**
-     * 使用了synchronized，会不会影响性能？
+     * 所有key共用一把锁，竞争时的等待时间由{@link #getConsumeLock()}记录
      * <p>
      * 消费：即调用一次请求
      *
@@ -55,18 +70,23 @@ public abstract class AbstractRateLimiter implements RateLimiter {
      * @return
      */
     @Override
-    public synchronized Rate consume(final Policy policy, final String key, final Long requestTime) {
-        //获取Rate，如果过期，就重新构建新的Rate
-        Rate rate = this.create(policy, key);
-        //修改Rate对象的信息
-        updateRate(policy, rate, requestTime);
+    public Rate consume(final Policy policy, final String key, final Long requestTime) {
+        consumeLock.lock();
         try {
-            //把Rate持久化，新增或更新数据到持久化，比如JPA或Redis
-            saveRate(rate);
-        } catch (RuntimeException e) {
-            rateLimiterErrorHandler.handleSaveError(key, e);
+            //获取Rate，如果过期，就重新构建新的Rate
+            Rate rate = this.create(policy, key);
+            //修改Rate对象的信息
+            updateRate(policy, rate, requestTime);
+            try {
+                //把Rate持久化，新增或更新数据到持久化，比如JPA或Redis
+                saveRate(rate);
+            } catch (RuntimeException e) {
+                rateLimiterErrorHandler.handleSaveError(key, e);
+            }
+            return rate;
+        } finally {
+            consumeLock.unlock();
         }
-        return rate;
     }
 
     /**
@@ -84,7 +104,18 @@ public abstract class AbstractRateLimiter implements RateLimiter {
         } catch (RuntimeException e) {
             rateLimiterErrorHandler.handleFetchError(key, e);
         }
+        return create(policy, key, rate);
+    }
 
+    /**
+     * 根据已存储的Rate创建限流信息，已存储的Rate未过期时直接返回，否则开启新的时间窗口
+     *
+     * @param policy 策略
+     * @param key    限流的key值
+     * @param rate   已存储的Rate，可以为空
+     * @return
+     */
+    protected Rate create(final Policy policy, final String key, final Rate rate) {
         /**
          * 判断是否已过期，如果未过期，返回
          */
@@ -97,8 +128,8 @@ public abstract class AbstractRateLimiter implements RateLimiter {
         Long quota = policy.getQuota() != null ? SECONDS.toMillis(policy.getQuota()) : null;
         //单位时间窗口，单位毫秒
         Long refreshInterval = SECONDS.toMillis(policy.getRefreshInterval());
-        //过期时间（当前时间加上单位时间窗口）
-        Date expiration = new Date(System.currentTimeMillis() + refreshInterval);
+        //过期时间（新窗口的结束时间，默认是当前时间加上单位时间窗口）
+        Date expiration = new Date(windowAlignment.windowEnd(key, refreshInterval, System.currentTimeMillis()));
 
         return new Rate(key, limit, quota, refreshInterval, expiration);
     }
@@ -110,7 +141,7 @@ public abstract class AbstractRateLimiter implements RateLimiter {
      * @param rate
      * @param requestTime 请求耗时时间
      */
-    private void updateRate(final Policy policy, final Rate rate, final Long requestTime) {
+    protected void updateRate(final Policy policy, final Rate rate, final Long requestTime) {
         if (rate.getReset() > 0) {
             Long reset = rate.getExpiration().getTime() - System.currentTimeMillis();
             rate.setReset(reset);
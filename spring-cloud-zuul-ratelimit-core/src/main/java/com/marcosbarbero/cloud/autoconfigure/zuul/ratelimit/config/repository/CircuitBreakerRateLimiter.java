@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 受{@link RateLimiterCircuitBreaker}保护的限流器，熔断时由本地内存限流
+ * <p>
+ * A call that fails is answered by the local limiter as well, instead of admitting the request with the unsaved rate
+ * or propagating the storage exception. Asynchronous calls are recorded when their future completes. When the storage
+ * supports batch consumption, {@link RateLimiterCircuitBreaker#guard(RateLimiter)} returns a {@link Batch} so the
+ * policies of a request still reach the storage in one call.
+ *
+ * @author Liel Chayoun
+ */
+public class CircuitBreakerRateLimiter implements AsyncRateLimiter {
+
+    private static Logger log = LoggerFactory.getLogger(CircuitBreakerRateLimiter.class);
+
+    private final RateLimiter delegate;
+    private final RateLimiterCircuitBreaker breaker;
+
+    public CircuitBreakerRateLimiter(RateLimiter delegate, RateLimiterCircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        long start = System.currentTimeMillis();
+        if (!breaker.allowRequest(start)) {
+            return breaker.fallback(policy, key, requestTime);
+        }
+        boolean[] failed = breaker.begin();
+        Rate rate = null;
+        try {
+            rate = delegate.consume(policy, key, requestTime);
+        } catch (RuntimeException e) {
+            failed[0] = true;
+            log.error("Failed consuming rate for " + key + ", falling back to the local limiter", e);
+        } finally {
+            breaker.end();
+            long now = System.currentTimeMillis();
+            breaker.record(failed[0], now - start, now);
+        }
+        return failed[0] ? breaker.fallback(policy, key, requestTime) : rate;
+    }
+
+    @Override
+    public CompletableFuture<Rate> consumeAsync(Policy policy, String key, Long requestTime) {
+        if (!(delegate instanceof AsyncRateLimiter)) {
+            return CompletableFuture.completedFuture(consume(policy, key, requestTime));
+        }
+        long start = System.currentTimeMillis();
+        if (!breaker.allowRequest(start)) {
+            return CompletableFuture.completedFuture(breaker.fallback(policy, key, requestTime));
+        }
+        return ((AsyncRateLimiter) delegate).consumeAsync(policy, key, requestTime)
+            .handle((rate, e) -> {
+                long now = System.currentTimeMillis();
+                breaker.record(e != null, now - start, now);
+                return e != null ? breaker.fallback(policy, key, requestTime) : rate;
+            });
+    }
+
+    /**
+     * 存储支持批量计数时使用，一次批量调用作为一次调用计入熔断器，熔断或失败时每个key都由本地内存限流
+     */
+    public static class Batch extends CircuitBreakerRateLimiter implements BatchRateLimiter {
+
+        private final BatchRateLimiter delegate;
+        private final RateLimiterCircuitBreaker breaker;
+
+        public Batch(BatchRateLimiter delegate, RateLimiterCircuitBreaker breaker) {
+            super(delegate, breaker);
+            this.delegate = delegate;
+            this.breaker = breaker;
+        }
+
+        @Override
+        public List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+            long start = System.currentTimeMillis();
+            if (!breaker.allowRequest(start)) {
+                return fallback(policies, keys, requestTime);
+            }
+            boolean[] failed = breaker.begin();
+            List<Rate> rates = null;
+            try {
+                rates = delegate.consume(policies, keys, requestTime);
+            } catch (RuntimeException e) {
+                failed[0] = true;
+                log.error("Failed consuming rates for " + keys + ", falling back to the local limiter", e);
+            } finally {
+                breaker.end();
+                long now = System.currentTimeMillis();
+                breaker.record(failed[0], now - start, now);
+            }
+            return failed[0] ? fallback(policies, keys, requestTime) : rates;
+        }
+
+        private List<Rate> fallback(List<Policy> policies, List<String> keys, Long requestTime) {
+            List<Rate> rates = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                rates.add(breaker.fallback(policies.get(i), keys.get(i), requestTime));
+            }
+            return rates;
+        }
+    }
+}
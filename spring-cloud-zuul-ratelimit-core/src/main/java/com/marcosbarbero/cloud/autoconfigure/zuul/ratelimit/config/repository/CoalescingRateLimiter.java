@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.PermitsRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 合并同一个key的并发计数，一次访问存储消耗多个请求次数
+ * <p>
+ * While a call for a key is in flight, the requests arriving for the same key queue up. When the call returns, the
+ * first queued request consumes the permits of the whole queue in one call, and hands out the results in arrival
+ * order: the i-th request of a batch sees the remaining count it would have seen had the permits been consumed one by
+ * one. Under low load every request goes straight to the storage, under high load a hot key costs one call per round
+ * trip instead of one per request.
+ * <p>
+ * Only the pre filter counting is coalesced, quota consumption is passed through. When the storage supports batch
+ * consumption, {@link #coalesce(PermitsRateLimiter, int)} returns a {@link Batch} that passes the policies of a request
+ * to the storage in one call.
+ *
+ * @author Liel Chayoun
+ */
+public class CoalescingRateLimiter implements RateLimiter {
+
+    private final PermitsRateLimiter delegate;
+    /**
+     * 一次合并的最大请求数
+     */
+    private final int maxPermits;
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    public CoalescingRateLimiter(PermitsRateLimiter delegate, int maxPermits) {
+        this.delegate = delegate;
+        this.maxPermits = maxPermits;
+    }
+
+    /**
+     * @param delegate   访问存储的限流器
+     * @param maxPermits 一次合并的最大请求数
+     * @return 合并计数的限流器，delegate支持批量计数时同样支持
+     */
+    public static RateLimiter coalesce(PermitsRateLimiter delegate, int maxPermits) {
+        if (delegate instanceof BatchRateLimiter) {
+            return new CoalescingRateLimiter.Batch(delegate, maxPermits);
+        }
+        return new CoalescingRateLimiter(delegate, maxPermits);
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        if (requestTime != null) {
+            return delegate.consume(policy, key, requestTime);
+        }
+        Flight flight = flights.computeIfAbsent(key, k -> new Flight());
+        Waiter waiter = new Waiter();
+        synchronized (flight) {
+            flight.queue.add(waiter);
+            if (!flight.running) {
+                flight.running = true;
+                waiter.leader = true;
+            }
+        }
+        waiter.await();
+        if (waiter.leader) {
+            lead(flight, policy, key);
+        }
+        return waiter.result();
+    }
+
+    /**
+     * 队首的请求负责一次消耗整个队列的请求次数，完成后由下一个队首接手
+     */
+    private void lead(Flight flight, Policy policy, String key) {
+        List<Waiter> batch = new ArrayList<>();
+        synchronized (flight) {
+            while (!flight.queue.isEmpty() && batch.size() < maxPermits) {
+                batch.add(flight.queue.poll());
+            }
+        }
+        try {
+            Rate rate = delegate.consumePermits(policy, key, batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Long remaining = rate.getRemaining() != null
+                    ? Math.max(-1, rate.getRemaining() + batch.size() - 1 - i) : null;
+                batch.get(i).complete(new Rate(key, remaining, rate.getRemainingQuota(), rate.getReset(),
+                    rate.getExpiration()), null);
+            }
+        } catch (RuntimeException | Error e) {
+            batch.forEach(waiter -> waiter.complete(null, e));
+        } finally {
+            Waiter next;
+            synchronized (flight) {
+                next = flight.queue.peek();
+                if (next == null) {
+                    flight.running = false;
+                    flights.remove(key, flight);
+                }
+            }
+            if (next != null) {
+                next.promote();
+            }
+        }
+    }
+
+    private static final class Flight {
+
+        private final Queue<Waiter> queue = new ArrayDeque<>();
+        private boolean running;
+    }
+
+    private static final class Waiter {
+
+        private boolean leader;
+        private boolean done;
+        private Rate rate;
+        private Throwable error;
+
+        private synchronized void await() {
+            boolean interrupted = false;
+            while (!leader && !done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized void promote() {
+            leader = true;
+            notifyAll();
+        }
+
+        private synchronized void complete(Rate rate, Throwable error) {
+            this.rate = rate;
+            this.error = error;
+            this.done = true;
+            notifyAll();
+        }
+
+        private synchronized Rate result() {
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            if (error != null) {
+                throw (RuntimeException) error;
+            }
+            return rate;
+        }
+    }
+
+    /**
+     * 存储支持批量计数时使用，一次请求的多个策略一起交给存储，不合并
+     */
+    public static class Batch extends CoalescingRateLimiter implements BatchRateLimiter {
+
+        private final BatchRateLimiter delegate;
+
+        /**
+         * @param delegate 同时支持批量计数的限流器
+         */
+        public Batch(PermitsRateLimiter delegate, int maxPermits) {
+            super(delegate, maxPermits);
+            this.delegate = (BatchRateLimiter) delegate;
+        }
+
+        @Override
+        public List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+            return delegate.consume(policies, keys, requestTime);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateCodec;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.ConsulTxnClient.KeyValue;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Consul rate limiter using check-and-set on the key's {@code ModifyIndex} instead of a JVM lock, so concurrent
+ * updates from several gateway nodes are not lost. Reads and writes for all the policies of a request are grouped in
+ * a single call to the transaction endpoint.
+ * <p>
+ * 读取时记录ModifyIndex，写入时基于ModifyIndex做CAS，冲突时重试。重试次数用完后和其他保存失败一样交给错误处理器，
+ * 返回最后一次计算的次数
+ *
+ * @author Liel Chayoun
+ */
+public class ConsulCasRateLimiter extends AbstractRateLimiter implements BatchRateLimiter {
+
+    private static Logger log = LoggerFactory.getLogger(ConsulCasRateLimiter.class);
+
+    private final RateLimiterErrorHandler rateLimiterErrorHandler;
+    private final ConsulTxnClient txnClient;
+    private final RateCodec rateCodec;
+    /**
+     * CAS冲突时的最大重试次数
+     */
+    private final int maxRetries;
+
+    public ConsulCasRateLimiter(RateLimiterErrorHandler rateLimiterErrorHandler, ConsulTxnClient txnClient,
+                                RateCodec rateCodec, int maxRetries) {
+        super(rateLimiterErrorHandler);
+        this.rateLimiterErrorHandler = rateLimiterErrorHandler;
+        this.txnClient = txnClient;
+        this.rateCodec = rateCodec;
+        this.maxRetries = maxRetries;
+    }
+
+    @Override
+    public Rate consume(final Policy policy, final String key, final Long requestTime) {
+        return consume(Collections.singletonList(policy), Collections.singletonList(key), requestTime).get(0);
+    }
+
+    @Override
+    public List<Rate> consume(final List<Policy> policies, final List<String> keys, final Long requestTime) {
+        // 同一个key在一次事务中只能出现一次，有重复key或超出事务操作数上限时逐个处理
+        if (keys.size() > ConsulTxnClient.MAX_OPERATIONS || new HashSet<>(keys).size() != keys.size()) {
+            List<Rate> rates = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                rates.add(consume(policies.get(i), keys.get(i), requestTime));
+            }
+            return rates;
+        }
+
+        List<Rate> rates = null;
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            Map<String, KeyValue> current = read(keys);
+            rates = new ArrayList<>(keys.size());
+            Map<String, KeyValue> updates = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                KeyValue stored = current.get(key);
+                Rate rate = create(policies.get(i), key, stored != null ? decode(stored.getValue()) : null);
+                updateRate(policies.get(i), rate, requestTime);
+                rates.add(rate);
+                updates.put(key, new KeyValue(encode(rate), stored != null ? stored.getModifyIndex() : 0L));
+            }
+            try {
+                if (txnClient.checkAndSet(updates)) {
+                    return rates;
+                }
+            } catch (RuntimeException e) {
+                keys.forEach(key -> rateLimiterErrorHandler.handleSaveError(key, e));
+                return rates;
+            }
+            log.debug("Check-and-set conflict for {}, attempt {}", keys, attempt + 1);
+        }
+
+        ConcurrentModificationException e = new ConcurrentModificationException(
+            "Check-and-set retries exhausted after " + (maxRetries + 1) + " attempts");
+        keys.forEach(key -> rateLimiterErrorHandler.handleSaveError(key, e));
+        return rates;
+    }
+
+    private Map<String, KeyValue> read(List<String> keys) {
+        try {
+            return txnClient.get(keys);
+        } catch (RuntimeException e) {
+            keys.forEach(key -> rateLimiterErrorHandler.handleFetchError(key, e));
+            return Collections.emptyMap();
+        }
+    }
+
+    @Override
+    protected Rate getRate(String key) {
+        KeyValue value = txnClient.get(Collections.singletonList(key)).get(key);
+        return value != null ? decode(value.getValue()) : null;
+    }
+
+    @Override
+    protected void saveRate(Rate rate) {
+        KeyValue value = txnClient.get(Collections.singletonList(rate.getKey())).get(rate.getKey());
+        if (!txnClient.checkAndSet(Collections.singletonMap(rate.getKey(),
+            new KeyValue(encode(rate), value != null ? value.getModifyIndex() : 0L)))) {
+            rateLimiterErrorHandler.handleSaveError(rate.getKey(),
+                new ConcurrentModificationException("Check-and-set conflict for " + rate.getKey()));
+        }
+    }
+
+    private Rate decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return rateCodec.decode(value);
+        } catch (IOException e) {
+            log.error("Failed to deserialize Rate", e);
+            return null;
+        }
+    }
+
+    private String encode(Rate rate) {
+        try {
+            return rateCodec.encode(rate);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialize Rate", e);
+        }
+    }
+}
@@ -18,9 +18,10 @@ package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
 
 import com.ecwid.consul.v1.ConsulClient;
 import com.ecwid.consul.v1.kv.model.GetValue;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateCodec;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.JsonRateCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,13 +41,18 @@ public class ConsulRateLimiter extends AbstractRateLimiter {
     private static Logger log = LoggerFactory.getLogger(ConsulRateLimiter.class);
 
     private final ConsulClient consulClient;
-    private final ObjectMapper objectMapper;
+    private final RateCodec rateCodec;
 
     public ConsulRateLimiter(RateLimiterErrorHandler rateLimiterErrorHandler,
         ConsulClient consulClient, ObjectMapper objectMapper) {
+        this(rateLimiterErrorHandler, consulClient, new JsonRateCodec(objectMapper));
+    }
+
+    public ConsulRateLimiter(RateLimiterErrorHandler rateLimiterErrorHandler,
+        ConsulClient consulClient, RateCodec rateCodec) {
         super(rateLimiterErrorHandler);
         this.consulClient = consulClient;
-        this.objectMapper = objectMapper;
+        this.rateCodec = rateCodec;
     }
 
     @Override
@@ -55,7 +61,7 @@ public class ConsulRateLimiter extends AbstractRateLimiter {
         GetValue value = this.consulClient.getKVValue(key).getValue();
         if (value != null && value.getDecodedValue() != null) {
             try {
-                rate = this.objectMapper.readValue(value.getDecodedValue(), Rate.class);
+                rate = this.rateCodec.decode(value.getDecodedValue());
             } catch (IOException e) {
                 log.error("Failed to deserialize Rate", e);
             }
@@ -67,8 +73,8 @@ public class ConsulRateLimiter extends AbstractRateLimiter {
     protected void saveRate(Rate rate) {
         String value = "";
         try {
-            value = this.objectMapper.writeValueAsString(rate);
-        } catch (JsonProcessingException e) {
+            value = this.rateCodec.encode(rate);
+        } catch (IOException e) {
             log.error("Failed to serialize Rate", e);
         }
 
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal client for the Consul transaction endpoint ({@code /v1/txn}).
+ * <p>
+ * 通过一次HTTP请求批量读取多个key，或者基于ModifyIndex批量CAS写入多个key
+ *
+ * @author Liel Chayoun
+ */
+public class ConsulTxnClient {
+
+    /**
+     * Consul单个事务最多支持的操作数
+     */
+    public static final int MAX_OPERATIONS = 64;
+
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final String txnUrl;
+    private final String aclToken;
+
+    /**
+     * @param restTemplate HTTP client
+     * @param objectMapper json序列化
+     * @param agentUrl     Consul agent地址，例如 http://localhost:8500
+     * @param aclToken     通过X-Consul-Token请求头发送的ACL token，为空时不发送
+     */
+    public ConsulTxnClient(RestTemplate restTemplate, ObjectMapper objectMapper, String agentUrl,
+                           @Nullable String aclToken) {
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.txnUrl = agentUrl + "/v1/txn";
+        this.aclToken = aclToken;
+    }
+
+    /**
+     * 创建带有连接和读取超时的HTTP请求工厂
+     *
+     * @param connectTimeout 连接超时（毫秒）
+     * @param readTimeout    读取超时（毫秒）
+     * @param sslContext     https连接使用的SSLContext，为空时使用JVM默认配置
+     * @return HTTP请求工厂
+     */
+    public static ClientHttpRequestFactory requestFactory(int connectTimeout, int readTimeout,
+                                                          @Nullable SSLContext sslContext) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory() {
+            @Override
+            protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+                if (sslContext != null && connection instanceof HttpsURLConnection) {
+                    ((HttpsURLConnection) connection).setSSLSocketFactory(sslContext.getSocketFactory());
+                }
+                super.prepareConnection(connection, httpMethod);
+            }
+        };
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        return requestFactory;
+    }
+
+    /**
+     * 批量读取key，不存在的key不会出现在返回结果中
+     *
+     * @param keys 需要读取的key
+     * @return key对应的值和ModifyIndex
+     */
+    public Map<String, KeyValue> get(Collection<String> keys) {
+        Map<String, KeyValue> values = new HashMap<>();
+        Set<String> remaining = new LinkedHashSet<>(keys);
+        // get在key不存在时会导致事务回滚，去掉回滚结果中报错的key后重新读取剩余的key
+        while (!remaining.isEmpty()) {
+            String[] operationKeys = remaining.toArray(new String[0]);
+            ArrayNode operations = objectMapper.createArrayNode();
+            for (String key : operationKeys) {
+                operations.addObject().putObject("KV").put("Verb", "get").put("Key", key);
+            }
+            JsonNode response;
+            try {
+                response = execute(operations);
+            } catch (HttpStatusCodeException e) {
+                if (e.getStatusCode() != HttpStatus.CONFLICT || !removeFailed(e, operationKeys, remaining)) {
+                    throw e;
+                }
+                continue;
+            }
+            if (response != null) {
+                for (JsonNode result : response.path("Results")) {
+                    JsonNode kv = result.path("KV");
+                    values.put(kv.path("Key").asText(),
+                        new KeyValue(decode(kv.path("Value")), kv.path("ModifyIndex").asLong()));
+                }
+            }
+            break;
+        }
+        return values;
+    }
+
+    /**
+     * 从回滚结果的Errors中找出失败的操作，并移除对应的key
+     *
+     * @return 至少移除了一个key时返回true
+     */
+    private boolean removeFailed(HttpStatusCodeException e, String[] operationKeys, Set<String> remaining) {
+        JsonNode errors;
+        try {
+            errors = objectMapper.readTree(e.getResponseBodyAsString()).path("Errors");
+        } catch (IOException parseError) {
+            return false;
+        }
+        boolean removed = false;
+        for (JsonNode error : errors) {
+            int opIndex = error.path("OpIndex").asInt(-1);
+            if (opIndex >= 0 && opIndex < operationKeys.length) {
+                removed |= remaining.remove(operationKeys[opIndex]);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 批量CAS写入，ModifyIndex为0表示key不存在时才写入。任意一个CAS失败，整个事务回滚
+     *
+     * @param values key对应的新值以及读取时的ModifyIndex
+     * @return 事务提交成功返回true，CAS冲突返回false
+     */
+    public boolean checkAndSet(Map<String, KeyValue> values) {
+        ArrayNode operations = objectMapper.createArrayNode();
+        values.forEach((key, value) -> {
+            ObjectNode kv = operations.addObject().putObject("KV");
+            kv.put("Verb", "cas").put("Key", key).put("Index", value.getModifyIndex());
+            kv.put("Value", Base64.getEncoder().encodeToString(value.getValue().getBytes(StandardCharsets.UTF_8)));
+        });
+        try {
+            execute(operations);
+            return true;
+        } catch (HttpStatusCodeException e) {
+            if (e.getStatusCode() == HttpStatus.CONFLICT) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private JsonNode execute(ArrayNode operations) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (StringUtils.hasText(aclToken)) {
+            headers.set("X-Consul-Token", aclToken);
+        }
+        String body = restTemplate.exchange(txnUrl, HttpMethod.PUT,
+            new HttpEntity<>(operations.toString(), headers), String.class).getBody();
+        try {
+            return body != null ? objectMapper.readTree(body) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to parse Consul transaction response", e);
+        }
+    }
+
+    private String decode(JsonNode value) {
+        if (value.isNull() || value.isMissingNode()) {
+            return null;
+        }
+        return new String(Base64.getDecoder().decode(value.asText()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Consul中key的值和ModifyIndex
+     */
+    public static class KeyValue {
+
+        private final String value;
+        private final long modifyIndex;
+
+        public KeyValue(String value, long modifyIndex) {
+            this.value = value;
+            this.modifyIndex = modifyIndex;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public long getModifyIndex() {
+            return modifyIndex;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 每个key在当前窗口内的G-counter，每个节点只增加自己的计数，合并时每个节点取最大值
+ * <p>
+ * Windows are aligned on multiples of their length, so every node agrees on the window of a request within the clock
+ * skew between the nodes. A node only ever sends its own count, peers keep the largest count seen per node, so
+ * duplicated, reordered or lost messages never corrupt the total: a later message simply carries a larger count. The
+ * sum of the peer counts is kept up to date on merge, a decision is a single addition.
+ *
+ * @author Liel Chayoun
+ */
+final class GossipCounterTable {
+
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * 增加本节点的计数
+     *
+     * @param key    计数的key
+     * @param start  窗口的开始时间，单位毫秒
+     * @param length 窗口长度，单位毫秒
+     * @param delta  增加的数量
+     * @return 所有节点在当前窗口内的计数之和
+     */
+    long add(String key, long start, long length, long delta) {
+        Window window = window(key, start, length);
+        synchronized (window) {
+            if (delta > 0) {
+                window.local += delta;
+                window.dirty = true;
+            }
+            return window.local + window.peers;
+        }
+    }
+
+    /**
+     * 合并其他节点的计数，过期窗口和长度不同的窗口的计数直接丢弃
+     *
+     * @param node   节点标识
+     * @param key    计数的key
+     * @param start  窗口的开始时间，单位毫秒
+     * @param length 窗口长度，单位毫秒
+     * @param count  该节点在窗口内的计数
+     */
+    void merge(String node, String key, long start, long length, long count) {
+        Window window = window(key, start, length);
+        synchronized (window) {
+            if (window.start != start || window.length != length) {
+                return;
+            }
+            long previous = window.peerCounts.getOrDefault(node, 0L);
+            if (count > previous) {
+                window.peerCounts.put(node, count);
+                window.peers += count - previous;
+            }
+        }
+    }
+
+    /**
+     * 收集需要发送给其他节点的本节点计数，同时清理过期的窗口
+     *
+     * @param all 是否包含未变化的计数，用于弥补丢失的消息
+     * @param now 当前时间，单位毫秒
+     */
+    List<Entry> collect(boolean all, long now) {
+        List<Entry> entries = new ArrayList<>();
+        Iterator<Map.Entry<String, Window>> iterator = windows.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Window> next = iterator.next();
+            Window window = next.getValue();
+            if (window.start + window.length <= now) {
+                windows.remove(next.getKey(), window);
+                continue;
+            }
+            synchronized (window) {
+                if ((window.dirty || all) && window.local > 0) {
+                    entries.add(new Entry(next.getKey(), window.start, window.length, window.local));
+                    window.dirty = false;
+                }
+            }
+        }
+        return entries;
+    }
+
+    int size() {
+        return windows.size();
+    }
+
+    /**
+     * 获取key的当前窗口，已过期的窗口换成新的窗口
+     */
+    private Window window(String key, long start, long length) {
+        Window window = windows.get(key);
+        if (window == null || window.start < start) {
+            window = windows.compute(key, (k, current) ->
+                current == null || current.start < start ? new Window(start, length) : current);
+        }
+        return window;
+    }
+
+    private static final class Window {
+
+        private final long start;
+        private final long length;
+        private final Map<String, Long> peerCounts = new HashMap<>();
+        private long local;
+        private long peers;
+        private boolean dirty;
+
+        private Window(long start, long length) {
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 本节点在一个窗口内的计数
+     */
+    static final class Entry {
+
+        final String key;
+        final long start;
+        final long length;
+        final long count;
+
+        Entry(String key, long start, long length, long count) {
+            this.key = key;
+            this.start = start;
+            this.length = length;
+            this.count = count;
+        }
+    }
+}
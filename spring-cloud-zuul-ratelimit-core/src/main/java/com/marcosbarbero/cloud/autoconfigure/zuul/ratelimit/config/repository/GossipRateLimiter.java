@@ -0,0 +1,372 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.GossipCounterTable.Entry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 限流的计数存储在每个网关节点的内存中，节点之间通过UDP定期交换计数，不需要中心存储
+ * <p>
+ * Every decision is local and O(1), see {@link GossipCounterTable}. Every gossip interval each node sends the counts
+ * that changed since the previous round to all its peers, and every full sync interval all its live counts, so lost
+ * datagrams are made up for. A node therefore misses at most the requests the other nodes admitted during the last
+ * gossip interval plus the network delay.
+ * <p>
+ * Message: version byte, node id, entry count, then per entry the key, window start, window length and count, followed
+ * by an HMAC-SHA256 of everything before it. Messages without a valid signature are dropped, and so are entries whose
+ * window is not the one this node computes for the key with one of the refresh intervals of its own policies, so a
+ * peer cannot make a node keep arbitrary windows in memory.
+ *
+ * @author Liel Chayoun
+ */
+public class GossipRateLimiter extends AbstractCacheRateLimiter implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(GossipRateLimiter.class);
+
+    private static final byte VERSION = 2;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+    /**
+     * 一个条目除key以外的字节数：key长度、窗口开始时间、窗口长度和计数
+     */
+    private static final int ENTRY_OVERHEAD = 2 + 8 + 8 + 8;
+
+    private final GossipCounterTable counters = new GossipCounterTable();
+    /**
+     * 本节点的策略使用过的窗口长度，只接受这些长度的计数
+     */
+    private final Set<Long> windowLengths = ConcurrentHashMap.newKeySet();
+    private final String nodeId = UUID.randomUUID().toString();
+    private final DatagramSocket socket;
+    private final SecretKeySpec secret;
+    /**
+     * Mac不是线程安全的，发送和接收在不同的线程
+     */
+    private final ThreadLocal<Mac> mac = ThreadLocal.withInitial(this::newMac);
+    private final Supplier<Collection<InetSocketAddress>> peers;
+    /**
+     * 发送变化计数的间隔，单位毫秒
+     */
+    private final long interval;
+    /**
+     * 发送所有计数的间隔，单位毫秒
+     */
+    private final long fullSyncInterval;
+    /**
+     * 一个UDP包的最大字节数
+     */
+    private final int maxPacketSize;
+    private final ScheduledExecutorService scheduler;
+    private final Thread receiver;
+    private long lastFullSync;
+    private volatile boolean closed;
+
+    /**
+     * @param bindAddress      接收计数的地址，端口为0时随机分配
+     * @param secret           所有节点共享的签名密钥
+     * @param peers            其他节点的地址
+     * @param interval         发送变化计数的间隔，单位毫秒
+     * @param fullSyncInterval 发送所有计数的间隔，单位毫秒
+     * @param maxPacketSize    一个UDP包的最大字节数
+     * @throws SocketException 无法绑定地址时
+     */
+    public GossipRateLimiter(InetSocketAddress bindAddress, String secret,
+                             Supplier<Collection<InetSocketAddress>> peers, long interval, long fullSyncInterval,
+                             int maxPacketSize) throws SocketException {
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        //密钥无效时在启动时失败
+        newMac();
+        this.socket = new DatagramSocket(bindAddress);
+        this.peers = peers;
+        this.interval = interval;
+        this.fullSyncInterval = fullSyncInterval;
+        this.maxPacketSize = maxPacketSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ratelimit-gossip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.receiver = new Thread(this::receive, "ratelimit-gossip-receiver");
+        this.receiver.setDaemon(true);
+    }
+
+    /**
+     * 开始接收和发送计数
+     */
+    public void start() {
+        receiver.start();
+        scheduler.scheduleWithFixedDelay(this::gossip, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 接收计数的端口
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * 计数只在本地内存中更新，不需要全局加锁
+     */
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        return calcRate(policy, key, requestTime);
+    }
+
+    @Override
+    protected void calcRemainingLimit(final Long limit, final Long refreshInterval,
+                                      final Long requestTime, final String key, final Rate rate) {
+        if (Objects.nonNull(limit)) {
+            long usage = requestTime == null ? 1L : 0L;
+            rate.setRemaining(Math.max(-1, limit - count(key, refreshInterval, usage, rate)));
+        }
+    }
+
+    @Override
+    protected void calcRemainingQuota(final Long quota, final Long refreshInterval,
+                                      final Long requestTime, final String key, final Rate rate) {
+        if (Objects.nonNull(quota)) {
+            long usage = requestTime != null ? requestTime : 0L;
+            rate.setRemainingQuota(Math.max(-1, quota - count(key + QUOTA_SUFFIX, refreshInterval, usage, rate)));
+        }
+    }
+
+    private long count(String key, Long refreshInterval, long usage, Rate rate) {
+        final long now = System.currentTimeMillis();
+        final long length = SECONDS.toMillis(refreshInterval);
+        final long start = windowStart(key, length, now);
+        windowLengths.add(length);
+        rate.setReset(start + length - now);
+        return counters.add(key, start, length, usage);
+    }
+
+    /**
+     * 所有节点必须计算出相同的窗口，不能从第一次请求开始
+     */
+    private long windowStart(String key, long length, long now) {
+        return getWindowAlignment() == WindowAlignment.KEY_OFFSET
+            ? getWindowAlignment().windowEnd(key, length, now) - length : now - now % length;
+    }
+
+    /**
+     * 发送本节点变化的计数
+     */
+    void gossip() {
+        try {
+            long now = System.currentTimeMillis();
+            boolean all = now - lastFullSync >= fullSyncInterval;
+            if (all) {
+                lastFullSync = now;
+            }
+            List<Entry> entries = counters.collect(all, now);
+            if (entries.isEmpty()) {
+                return;
+            }
+            Collection<InetSocketAddress> targets = peers.get();
+            for (byte[] message : encode(entries)) {
+                for (InetSocketAddress target : targets) {
+                    send(message, target);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to gossip rate limit counters", e);
+        }
+    }
+
+    private void send(byte[] message, InetSocketAddress target) {
+        try {
+            socket.send(new DatagramPacket(message, message.length, target));
+        } catch (IOException e) {
+            log.debug("Failed to send rate limit counters to {}", target, e);
+        }
+    }
+
+    /**
+     * 按包大小拆分计数
+     */
+    List<byte[]> encode(List<Entry> entries) {
+        List<byte[]> messages = new ArrayList<>();
+        byte[] node = nodeId.getBytes(StandardCharsets.UTF_8);
+        int headerSize = 1 + 2 + node.length + 2 + MAC_LENGTH;
+        List<byte[]> keys = new ArrayList<>();
+        List<Entry> batch = new ArrayList<>();
+        int size = headerSize;
+        for (Entry entry : entries) {
+            byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+            int entrySize = ENTRY_OVERHEAD + key.length;
+            if (headerSize + entrySize > maxPacketSize) {
+                log.warn("Rate limit key {} is too long to gossip", entry.key);
+                continue;
+            }
+            if (size + entrySize > maxPacketSize || batch.size() == Short.MAX_VALUE) {
+                messages.add(encode(node, batch, keys));
+                batch.clear();
+                keys.clear();
+                size = headerSize;
+            }
+            batch.add(entry);
+            keys.add(key);
+            size += entrySize;
+        }
+        if (!batch.isEmpty()) {
+            messages.add(encode(node, batch, keys));
+        }
+        return messages;
+    }
+
+    private byte[] encode(byte[] node, List<Entry> entries, List<byte[]> keys) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(maxPacketSize);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeShort(node.length);
+            out.write(node);
+            out.writeShort(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                out.writeShort(keys.get(i).length);
+                out.write(keys.get(i));
+                out.writeLong(entry.start);
+                out.writeLong(entry.length);
+                out.writeLong(entry.count);
+            }
+            out.write(mac.get().doFinal(bytes.toByteArray()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[Math.max(maxPacketSize, 1 << 16)];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!closed) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                merge(packet.getData(), packet.getOffset(), packet.getLength());
+            } catch (IOException e) {
+                if (!closed) {
+                    log.debug("Failed to receive rate limit counters", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 合并其他节点的计数，忽略签名不正确的、自己发出的和无法解析的消息，以及不是本节点当前窗口的计数
+     */
+    void merge(byte[] data, int offset, int length) {
+        if (!verify(data, offset, length)) {
+            log.debug("Ignoring rate limit counters with an invalid signature");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length - MAC_LENGTH))) {
+            if (in.readByte() != VERSION) {
+                return;
+            }
+            String node = readString(in);
+            if (nodeId.equals(node)) {
+                return;
+            }
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                long start = in.readLong();
+                long windowLength = in.readLong();
+                long value = in.readLong();
+                if (windowLengths.contains(windowLength) && start == windowStart(key, windowLength, now)) {
+                    counters.merge(node, key, start, windowLength, value);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Ignoring malformed rate limit counters", e);
+        }
+    }
+
+    private boolean verify(byte[] data, int offset, int length) {
+        if (length <= MAC_LENGTH) {
+            return false;
+        }
+        Mac verifier = mac.get();
+        verifier.update(data, offset, length - MAC_LENGTH);
+        byte[] expected = verifier.doFinal();
+        byte[] actual = new byte[MAC_LENGTH];
+        System.arraycopy(data, offset + length - MAC_LENGTH, actual, 0, MAC_LENGTH);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac instance = Mac.getInstance(MAC_ALGORITHM);
+            instance.init(secret);
+            return instance;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialize gossip signature", e);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 停止交换计数，计数只保留在内存中
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        socket.close();
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.PatternMatchUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Predicate;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 限流的计数存储在本地内存，只对当前进程生效
+ * <p>
+ * Each key keeps a fixed window counter guarded by its own monitor, so different keys never contend. Expired windows
+ * are evicted every {@link #EVICTION_INTERVAL} seconds by a daemon thread shared by all instances, never on the
+ * request path. The thread only holds weak references, an instance that is no longer used is still collected.
+ *
+ * @author Liel Chayoun
+ */
+public class InMemoryRateLimiter extends AbstractCacheRateLimiter implements InspectableRateLimiter {
+
+    private static Logger log = LoggerFactory.getLogger(InMemoryRateLimiter.class);
+
+    /**
+     * 后台清理已过期窗口的间隔，单位秒
+     */
+    static final long EVICTION_INTERVAL = 10;
+
+    /**
+     * 需要后台清理的实例，弱引用
+     */
+    private static final Set<InMemoryRateLimiter> INSTANCES =
+        Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ratelimit-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(InMemoryRateLimiter::evictAll, EVICTION_INTERVAL, EVICTION_INTERVAL, SECONDS);
+    }
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    public InMemoryRateLimiter() {
+        INSTANCES.add(this);
+    }
+
+    /**
+     * 每个key有自己的锁，不需要全局加锁
+     */
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        return calcRate(policy, key, requestTime);
+    }
+
+    private static void evictAll() {
+        List<InMemoryRateLimiter> instances;
+        synchronized (INSTANCES) {
+            instances = new ArrayList<>(INSTANCES);
+        }
+        long now = System.currentTimeMillis();
+        for (InMemoryRateLimiter instance : instances) {
+            try {
+                instance.evictExpired(now);
+            } catch (RuntimeException e) {
+                //异常会取消定时任务，只记录日志
+                log.error("Failed to evict expired rate limit windows", e);
+            }
+        }
+    }
+
+    @Override
+    protected void calcRemainingLimit(final Long limit, final Long refreshInterval,
+                                      final Long requestTime, final String key, final Rate rate) {
+        if (Objects.nonNull(limit)) {
+            long usage = requestTime == null ? 1L : 0L;
+            rate.setRemaining(calcRemaining(limit, refreshInterval, usage, key, rate));
+        }
+    }
+
+    @Override
+    protected void calcRemainingQuota(final Long quota, final Long refreshInterval,
+                                      final Long requestTime, final String key, final Rate rate) {
+        if (Objects.nonNull(quota)) {
+            long usage = requestTime != null ? requestTime : 0L;
+            rate.setRemainingQuota(calcRemaining(quota, refreshInterval, usage, key + QUOTA_SUFFIX, rate));
+        }
+    }
+
+    private Long calcRemaining(Long limit, Long refreshInterval, long usage, String key, Rate rate) {
+        long now = System.currentTimeMillis();
+        long end = getWindowAlignment().windowEnd(key, SECONDS.toMillis(refreshInterval), now);
+        while (true) {
+            Window window = windows.computeIfAbsent(key, k -> new Window());
+            long current = window.addAndGet(usage, end, now);
+            if (current >= 0) {
+                rate.setReset(Math.max(0L, window.getEnd() - now));
+                return Math.max(-1, limit - current);
+            }
+        }
+    }
+
+    /**
+     * 清理已过期的窗口
+     *
+     * @param now 当前时间，epoch毫秒
+     */
+    public void evictExpired(long now) {
+        windows.forEach((key, window) -> {
+            if (window.evictIfExpired(now)) {
+                windows.remove(key, window);
+            }
+        });
+    }
+
+    /**
+     * 删除一个key的窗口，例如key已交给其他节点计数
+     *
+     * @param key 限流的key
+     */
+    public void remove(String key) {
+        Window window = windows.remove(key);
+        if (window != null) {
+            window.evict();
+        }
+    }
+
+    /**
+     * 删除满足条件的key的窗口，删除之后才读取计数。删除后到达的请求使用新的窗口，读取的计数不会再变化
+     *
+     * @param filter   需要删除的key
+     * @param consumer 接收被删除的未过期窗口的key、结束时间（epoch毫秒）和计数
+     */
+    public void removeIf(Predicate<String> filter, WindowConsumer consumer) {
+        long now = System.currentTimeMillis();
+        windows.forEach((key, window) -> {
+            if (!filter.test(key) || !windows.remove(key, window)) {
+                return;
+            }
+            long end;
+            long count;
+            synchronized (window) {
+                window.evicted = true;
+                end = window.end;
+                count = window.count;
+            }
+            if (end > now) {
+                consumer.accept(key, end, count);
+            }
+        });
+    }
+
+    /**
+     * 遍历所有未过期的窗口
+     *
+     * @param consumer 接收key、窗口结束时间（epoch毫秒）和计数
+     */
+    public void forEachWindow(WindowConsumer consumer) {
+        long now = System.currentTimeMillis();
+        windows.forEach((key, window) -> {
+            long end;
+            long count;
+            synchronized (window) {
+                end = window.end;
+                count = window.count;
+            }
+            if (end > now) {
+                consumer.accept(key, end, count);
+            }
+        });
+    }
+
+    /**
+     * 合并一个窗口，例如从快照中恢复。已存在相同key的窗口时累加计数，并保留较早的结束时间
+     *
+     * @param key   限流的key
+     * @param end   窗口结束时间，epoch毫秒
+     * @param count 窗口内的计数
+     */
+    public void merge(String key, long end, long count) {
+        long now = System.currentTimeMillis();
+        if (end <= now) {
+            return;
+        }
+        while (!windows.computeIfAbsent(key, k -> new Window()).merge(end, count, now)) {
+            // 窗口刚好被清理，重新获取
+        }
+    }
+
+    @Override
+    public KeyState inspect(String key) {
+        Window window = windows.get(key);
+        if (window == null) {
+            return null;
+        }
+        long end;
+        long count;
+        synchronized (window) {
+            end = window.end;
+            count = window.count;
+        }
+        long now = System.currentTimeMillis();
+        return end > now ? KeyState.used(key, count, end - now) : null;
+    }
+
+    @Override
+    public void scan(String pattern, Predicate<String> visitor) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Window> entry : windows.entrySet()) {
+            if (entry.getValue().end > now && PatternMatchUtils.simpleMatch(pattern, entry.getKey())
+                && !visitor.test(entry.getKey())) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long reset(String pattern) {
+        long deleted = 0;
+        for (String key : windows.keySet()) {
+            if (PatternMatchUtils.simpleMatch(pattern, key)) {
+                Window window = windows.remove(key);
+                if (window != null) {
+                    window.evict();
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    @FunctionalInterface
+    public interface WindowConsumer {
+
+        void accept(String key, long end, long count);
+    }
+
+    private static final class Window {
+
+        private volatile long end;
+        private long count;
+        private boolean evicted;
+
+        /**
+         * @param end 窗口已过期时，新窗口的结束时间
+         * @return 更新后的计数，窗口已被清理时返回-1
+         */
+        synchronized long addAndGet(long delta, long end, long now) {
+            if (evicted) {
+                return -1;
+            }
+            if (this.end <= now) {
+                this.end = end;
+                count = delta;
+            } else {
+                count += delta;
+            }
+            return count;
+        }
+
+        synchronized boolean merge(long end, long count, long now) {
+            if (evicted) {
+                return false;
+            }
+            if (this.end <= now) {
+                this.end = end;
+                this.count = count;
+            } else {
+                this.end = Math.min(this.end, end);
+                this.count += count;
+            }
+            return true;
+        }
+
+        synchronized void evict() {
+            evicted = true;
+        }
+
+        synchronized boolean evictIfExpired(long now) {
+            evicted = end <= now;
+            return evicted;
+        }
+
+        long getEnd() {
+            return end;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the windows of an {@link InMemoryRateLimiter} to a sequential binary file, so a restart does not hand out a
+ * fresh budget to every key.
+ * <p>
+ * 启动时在后台线程中恢复快照，不阻塞请求；之后定时生成快照，停机时再生成一次。快照中已过期的窗口在恢复时跳过
+ * <p>
+ * 文件格式：MAGIC(int) VERSION(byte)，然后每个窗口依次为 1(byte) key长度(int) key(UTF-8) 结束时间(long，epoch毫秒)
+ * 计数(long)，以 0(byte) 结尾
+ *
+ * @author Liel Chayoun
+ */
+public class InMemorySnapshotter implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(InMemorySnapshotter.class);
+
+    static final int MAGIC = 0x5A524C53;
+    static final byte VERSION = 1;
+    private static final byte ENTRY = 1;
+    private static final byte END = 0;
+
+    private final InMemoryRateLimiter rateLimiter;
+    private final Path path;
+    private final long intervalSeconds;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param rateLimiter     需要持久化的本地限流
+     * @param path            快照文件路径
+     * @param intervalSeconds 定时生成快照的间隔，单位秒
+     */
+    public InMemorySnapshotter(InMemoryRateLimiter rateLimiter, Path path, long intervalSeconds) {
+        this.rateLimiter = rateLimiter;
+        this.path = path;
+        this.intervalSeconds = intervalSeconds;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ratelimit-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 在后台恢复快照并开始定时生成快照。单线程执行，保证恢复完成之前不会覆盖快照文件
+     */
+    public void start() {
+        executor.execute(this::restoreQuietly);
+        executor.scheduleWithFixedDelay(this::snapshotQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止定时任务，并生成最后一次快照
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(intervalSeconds, TimeUnit.SECONDS)) {
+                log.warn("Timed out waiting for the rate limit snapshot task to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotQuietly();
+    }
+
+    /**
+     * 生成快照。先写临时文件再原子替换，避免停机过程中留下不完整的快照
+     *
+     * @throws IOException 写入失败
+     */
+    public void snapshot() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            try {
+                rateLimiter.forEachWindow((key, end, count) -> {
+                    try {
+                        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                        out.writeByte(ENTRY);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                        out.writeLong(end);
+                        out.writeLong(count);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.writeByte(END);
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 从快照恢复，跳过已过期的窗口。快照不完整时恢复已读取的部分
+     *
+     * @return 恢复的窗口数量
+     * @throws IOException 读取失败或文件格式不正确
+     */
+    public int restore() throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Unsupported rate limit snapshot format: " + path);
+            }
+            long now = System.currentTimeMillis();
+            while (in.readByte() == ENTRY) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                long end = in.readLong();
+                long count = in.readLong();
+                if (end > now) {
+                    rateLimiter.merge(new String(bytes, StandardCharsets.UTF_8), end, count);
+                    restored++;
+                }
+            }
+        } catch (EOFException e) {
+            log.warn("Rate limit snapshot {} is truncated, restored {} windows", path, restored);
+        }
+        return restored;
+    }
+
+    private void restoreQuietly() {
+        try {
+            int restored = restore();
+            log.info("Restored {} rate limit windows from {}", restored, path);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to restore rate limit snapshot from " + path, e);
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write rate limit snapshot to " + path, e);
+        }
+    }
+}
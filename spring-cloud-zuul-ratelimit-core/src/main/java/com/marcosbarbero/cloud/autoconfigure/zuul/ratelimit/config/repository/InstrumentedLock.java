@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 记录等待时间的互斥锁
+ * <p>
+ * Mutual exclusion lock replacing a {@code synchronized} section. An uncontended acquisition only costs a
+ * {@code tryLock}; when the lock is held the caller is timed until it gets it, so the waits can be exported
+ * without reading the clock on the fast path. The waits of the current thread are also kept, so a per-call
+ * profiling event can report them.
+ *
+ * @author Liel Chayoun
+ */
+public final class InstrumentedLock {
+
+    /**
+     * 当前线程等待锁的时间，只在竞争时访问
+     */
+    private static final ThreadLocal<long[]> THREAD_WAIT_NANOS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public void lock() {
+        if (lock.tryLock()) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        long waited = System.nanoTime() - start;
+        waitNanos.add(waited);
+        contended.increment();
+        THREAD_WAIT_NANOS.get()[0] += waited;
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * @return 需要等待才拿到锁的次数
+     */
+    public long getContended() {
+        return contended.sum();
+    }
+
+    /**
+     * @return 等待锁的总时间，单位纳秒
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * 取出并清零当前线程在所有{@link InstrumentedLock}上等待的时间
+     *
+     * @return 上次调用以来当前线程等待锁的时间，单位纳秒
+     */
+    public static long takeThreadWaitNanos() {
+        long[] waited = THREAD_WAIT_NANOS.get();
+        long nanos = waited[0];
+        waited[0] = 0L;
+        return nanos;
+    }
+}
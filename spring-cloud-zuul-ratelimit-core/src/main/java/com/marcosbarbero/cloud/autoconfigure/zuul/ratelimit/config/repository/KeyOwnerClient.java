@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 到一个KEY_OWNER节点的连接，请求不等待响应即可连续发送
+ * <p>
+ * Requests are queued and written by a writer thread, so a peer that stops reading never blocks the caller, and a
+ * reader thread completes them as the responses come back. A request that completes in any other way, for example
+ * cancelled by the caller after a timeout, stops being tracked. Any I/O error closes the connection and fails every
+ * pending request, the caller connects again.
+ *
+ * @author Liel Chayoun
+ */
+final class KeyOwnerClient implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(KeyOwnerClient.class);
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+    /**
+     * 等待写出的请求，只由写线程访问输出流
+     */
+    private final BlockingQueue<Outgoing> outgoing = new LinkedBlockingQueue<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * @param address 节点地址
+     * @param timeout 建立连接和认证的超时时间，单位毫秒
+     * @param secret  所有节点共享的密钥
+     * @throws IOException 无法连接或认证时
+     */
+    KeyOwnerClient(InetSocketAddress address, int timeout, byte[] secret) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, timeout);
+            socket.setSoTimeout(timeout);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            KeyOwnerProtocol.answer(in, out, secret);
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.writer = new Thread(this::write, "ratelimit-key-owner-client-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        Thread reader = new Thread(this::read, "ratelimit-key-owner-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    CompletableFuture<List<Rate>> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+        return send(keys, id -> KeyOwnerProtocol.writeConsume(out, id, policies, keys, requestTime));
+    }
+
+    /**
+     * @param windows 每个key的窗口结束时间（epoch毫秒）和计数
+     */
+    CompletableFuture<List<Rate>> merge(List<String> keys, List<long[]> windows) {
+        return send(keys, id -> KeyOwnerProtocol.writeMerge(out, id, keys, windows));
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 只把请求放入队列，不在调用线程上做I/O
+     */
+    private CompletableFuture<List<Rate>> send(List<String> keys, RequestWriter requestWriter) {
+        CompletableFuture<List<Rate>> future = new CompletableFuture<>();
+        int id = nextId.getAndIncrement();
+        pending.put(id, new Pending(keys, future));
+        future.whenComplete((rates, e) -> pending.remove(id));
+        if (closed) {
+            failPending(new IOException("Connection to " + socket.getRemoteSocketAddress() + " is closed"));
+            return future;
+        }
+        outgoing.add(new Outgoing(id, requestWriter));
+        return future;
+    }
+
+    /**
+     * 连续排队的请求一起刷出
+     */
+    private void write() {
+        try {
+            while (!closed) {
+                Outgoing request = outgoing.take();
+                do {
+                    if (pending.containsKey(request.id)) {
+                        request.writer.write(request.id);
+                    }
+                    request = outgoing.poll();
+                } while (request != null);
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    private void read() {
+        try {
+            while (!closed) {
+                Pending request = pending.remove(in.readInt());
+                try {
+                    List<Rate> rates = KeyOwnerProtocol.readRates(in, request != null ? request.keys : null);
+                    if (request != null) {
+                        request.future.complete(rates);
+                    }
+                } catch (IllegalStateException e) {
+                    if (request != null) {
+                        request.future.completeExceptionally(e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    private void close(IOException cause) {
+        if (!closed) {
+            log.debug("Closing the connection to {}", socket.getRemoteSocketAddress(), cause);
+        }
+        closed = true;
+        writer.interrupt();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Failed to close the connection to {}", socket.getRemoteSocketAddress(), e);
+        }
+        failPending(cause);
+    }
+
+    private void failPending(IOException cause) {
+        outgoing.clear();
+        Iterator<Pending> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Pending request = iterator.next();
+            iterator.remove();
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(new IOException("Connection closed"));
+    }
+
+    @FunctionalInterface
+    private interface RequestWriter {
+
+        void write(int id) throws IOException;
+    }
+
+    private static final class Outgoing {
+
+        private final int id;
+        private final RequestWriter writer;
+
+        private Outgoing(int id, RequestWriter writer) {
+            this.id = id;
+            this.writer = writer;
+        }
+    }
+
+    private static final class Pending {
+
+        private final List<String> keys;
+        private final CompletableFuture<List<Rate>> future;
+
+        private Pending(List<String> keys, CompletableFuture<List<Rate>> future) {
+            this.keys = keys;
+            this.future = future;
+        }
+    }
+}
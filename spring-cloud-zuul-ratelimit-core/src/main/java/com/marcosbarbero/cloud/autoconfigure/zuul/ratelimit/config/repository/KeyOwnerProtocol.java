@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * KEY_OWNER节点之间的二进制协议
+ * <p>
+ * Request: request id, operation, entry count and the request time, then per consume entry the key, the limit, quota
+ * and refresh interval of the policy, per merge entry the key, window end and count. Response: request id, status,
+ * then per rate the remaining, remaining quota and reset, or the error message. Absent values are marked in a flag
+ * byte. A connection carries any number of requests without waiting, the responses come back in the same order.
+ * <p>
+ * Before any request the server sends a random nonce and the client answers with the HMAC-SHA256 of the nonce under
+ * the secret shared by all the nodes, the server closes the connection when the answer doesn't match.
+ *
+ * @author Liel Chayoun
+ */
+final class KeyOwnerProtocol {
+
+    static final byte CONSUME = 1;
+    static final byte MERGE = 2;
+
+    private static final byte OK = 0;
+    private static final byte ERROR = 1;
+
+    private static final int LIMIT = 1;
+    private static final int QUOTA = 1 << 1;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int NONCE_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final int REMAINING = 1;
+    private static final int REMAINING_QUOTA = 1 << 1;
+    private static final int RESET = 1 << 2;
+
+    private KeyOwnerProtocol() {
+    }
+
+    /**
+     * 服务端发送随机数并校验客户端的签名
+     *
+     * @return 客户端是否持有相同的密钥
+     */
+    static boolean authenticate(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        out.write(nonce);
+        out.flush();
+        byte[] answer = new byte[MAC_LENGTH];
+        in.readFully(answer);
+        return MessageDigest.isEqual(sign(secret, nonce), answer);
+    }
+
+    /**
+     * 客户端读取随机数并返回签名
+     */
+    static void answer(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        in.readFully(nonce);
+        out.write(sign(secret, nonce));
+        out.flush();
+    }
+
+    private static byte[] sign(byte[] secret, byte[] nonce) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to sign the key owner handshake", e);
+        }
+    }
+
+    static void writeConsume(DataOutputStream out, int id, List<Policy> policies, List<String> keys,
+                             Long requestTime) throws IOException {
+        writeHeader(out, id, CONSUME, keys.size(), requestTime);
+        for (int i = 0; i < keys.size(); i++) {
+            Policy policy = policies.get(i);
+            out.writeUTF(keys.get(i));
+            out.writeByte((policy.getLimit() != null ? LIMIT : 0) | (policy.getQuota() != null ? QUOTA : 0));
+            if (policy.getLimit() != null) {
+                out.writeLong(policy.getLimit());
+            }
+            if (policy.getQuota() != null) {
+                out.writeLong(policy.getQuota());
+            }
+            out.writeLong(policy.getRefreshInterval());
+        }
+    }
+
+    /**
+     * @param windows 每个key的窗口结束时间（epoch毫秒）和计数
+     */
+    static void writeMerge(DataOutputStream out, int id, List<String> keys, List<long[]> windows) throws IOException {
+        writeHeader(out, id, MERGE, keys.size(), null);
+        for (int i = 0; i < keys.size(); i++) {
+            out.writeUTF(keys.get(i));
+            out.writeLong(windows.get(i)[0]);
+            out.writeLong(windows.get(i)[1]);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, int id, byte operation, int count,
+                                     Long requestTime) throws IOException {
+        out.writeInt(id);
+        out.writeByte(operation);
+        out.writeInt(count);
+        out.writeBoolean(requestTime != null);
+        if (requestTime != null) {
+            out.writeLong(requestTime);
+        }
+    }
+
+    static Request readRequest(DataInputStream in) throws IOException {
+        Request request = new Request(in.readInt(), in.readByte());
+        int count = in.readInt();
+        request.requestTime = in.readBoolean() ? in.readLong() : null;
+        if (request.operation != CONSUME && request.operation != MERGE) {
+            throw new IOException("Unknown operation " + request.operation);
+        }
+        for (int i = 0; i < count; i++) {
+            request.keys.add(in.readUTF());
+            if (request.operation == CONSUME) {
+                int flags = in.readUnsignedByte();
+                Policy policy = new Policy();
+                policy.setLimit((flags & LIMIT) != 0 ? in.readLong() : null);
+                policy.setQuota((flags & QUOTA) != 0 ? in.readLong() : null);
+                policy.setRefreshInterval(in.readLong());
+                request.policies.add(policy);
+            } else {
+                request.windows.add(new long[]{in.readLong(), in.readLong()});
+            }
+        }
+        return request;
+    }
+
+    static void writeRates(DataOutputStream out, int id, List<Rate> rates) throws IOException {
+        out.writeInt(id);
+        out.writeByte(OK);
+        out.writeInt(rates.size());
+        for (Rate rate : rates) {
+            out.writeByte((rate.getRemaining() != null ? REMAINING : 0)
+                | (rate.getRemainingQuota() != null ? REMAINING_QUOTA : 0)
+                | (rate.getReset() != null ? RESET : 0));
+            if (rate.getRemaining() != null) {
+                out.writeLong(rate.getRemaining());
+            }
+            if (rate.getRemainingQuota() != null) {
+                out.writeLong(rate.getRemainingQuota());
+            }
+            if (rate.getReset() != null) {
+                out.writeLong(rate.getReset());
+            }
+        }
+    }
+
+    static void writeError(DataOutputStream out, int id, String message) throws IOException {
+        out.writeInt(id);
+        out.writeByte(ERROR);
+        out.writeUTF(message != null ? message : "");
+    }
+
+    /**
+     * 读取请求id之后的响应内容
+     *
+     * @param keys 请求的key，为null时返回的Rate没有key
+     * @throws IllegalStateException 对方节点处理请求失败，连接仍然可用
+     */
+    static List<Rate> readRates(DataInputStream in, List<String> keys) throws IOException {
+        if (in.readByte() == ERROR) {
+            throw new IllegalStateException(in.readUTF());
+        }
+        int count = in.readInt();
+        List<Rate> rates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int flags = in.readUnsignedByte();
+            Long remaining = (flags & REMAINING) != 0 ? in.readLong() : null;
+            Long remainingQuota = (flags & REMAINING_QUOTA) != 0 ? in.readLong() : null;
+            Long reset = (flags & RESET) != 0 ? in.readLong() : null;
+            rates.add(new Rate(keys != null && i < keys.size() ? keys.get(i) : null, remaining, remainingQuota,
+                reset, null));
+        }
+        return rates;
+    }
+
+    static final class Request {
+
+        final int id;
+        final byte operation;
+        final List<String> keys = new ArrayList<>();
+        final List<Policy> policies = new ArrayList<>();
+        final List<long[]> windows = new ArrayList<>();
+        Long requestTime;
+
+        private Request(int id, byte operation) {
+            this.id = id;
+            this.operation = operation;
+        }
+    }
+}
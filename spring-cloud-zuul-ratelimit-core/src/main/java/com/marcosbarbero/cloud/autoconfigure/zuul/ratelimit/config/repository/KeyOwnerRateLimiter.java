@@ -0,0 +1,575 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.KeyOwnerProtocol.Request;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.ConsistentHashRing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 每个key由网关集群中的一个节点计数，其他节点通过RPC向这个节点请求限流结果
+ * <p>
+ * Keys are assigned to the gateway nodes with a consistent hash ring, the owner keeps the authoritative counter in its
+ * memory and the counts stay exact. All the keys of a request owned by the same node travel in one request, and the
+ * requests to different nodes are sent before any response is awaited, see {@link KeyOwnerProtocol}. When the members
+ * change only about 1/N of the keys move: the previous owner hands the windows of the keys it lost to their new owners.
+ * A node that fails or doesn't answer in time is skipped for a cool down period, and its keys are counted by a local
+ * limiter meanwhile. Connecting to a node happens in the background, once for all the requests that need it, so a
+ * request thread never waits longer than the timeout for an unreachable node. Connections must prove they know the
+ * shared secret before any request, and are served by a bounded pool: connections beyond its size are closed right
+ * away.
+ *
+ * @author Liel Chayoun
+ */
+public class KeyOwnerRateLimiter implements BatchRateLimiter, WindowAlignmentAware, Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(KeyOwnerRateLimiter.class);
+
+    /**
+     * 服务端等待客户端认证的时间，单位毫秒
+     */
+    private static final int HANDSHAKE_TIMEOUT = 5000;
+
+    private final RateLimiterErrorHandler rateLimiterErrorHandler;
+    /**
+     * 本节点负责的key的计数
+     */
+    private final InMemoryRateLimiter owned = new InMemoryRateLimiter();
+    private final ServerSocket serverSocket;
+    private final byte[] secret;
+    private final Member self;
+    private final Supplier<Collection<InetSocketAddress>> peers;
+    private final int virtualNodes;
+    /**
+     * 节点不可用时使用的本地限流
+     */
+    private final RateLimiter fallback;
+    /**
+     * 等待其他节点响应的时间，单位毫秒
+     */
+    private final long timeout;
+    /**
+     * 节点失败后跳过的时间，单位毫秒
+     */
+    private final long downCooldown;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService connectionExecutor;
+    private final ExecutorService connectExecutor;
+    private final ExecutorService handOffExecutor;
+    private final Thread acceptor;
+    private volatile Membership membership;
+    private volatile boolean closed;
+
+    /**
+     * @param rateLimiterErrorHandler 处理其他节点的错误
+     * @param bindAddress             接收其他节点请求的地址，端口为0时随机分配
+     * @param host                    其他节点访问本节点使用的地址，和peers中的地址一致才能识别出本节点
+     * @param secret                  所有节点共享的密钥，用于认证连接
+     * @param maxConnections          同时处理的其他节点连接的最大数量
+     * @param peers                   集群中的节点，可以包含本节点。节点变化时需要返回新的集合
+     * @param virtualNodes            每个节点在哈希环上的虚拟节点数量
+     * @param fallback                节点不可用时使用的本地限流
+     * @param timeout                 等待其他节点响应的时间，单位毫秒
+     * @param downCooldown            节点失败后跳过的时间，单位毫秒
+     * @throws IOException 无法绑定地址时
+     */
+    public KeyOwnerRateLimiter(RateLimiterErrorHandler rateLimiterErrorHandler, InetSocketAddress bindAddress,
+                               String host, String secret, int maxConnections,
+                               Supplier<Collection<InetSocketAddress>> peers, int virtualNodes,
+                               RateLimiter fallback, long timeout, long downCooldown) throws IOException {
+        this.rateLimiterErrorHandler = rateLimiterErrorHandler;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(bindAddress);
+        this.self = new Member(new InetSocketAddress(host, serverSocket.getLocalPort()));
+        this.peers = peers;
+        this.virtualNodes = virtualNodes;
+        this.fallback = fallback;
+        this.timeout = timeout;
+        this.downCooldown = downCooldown;
+        this.membership = new Membership(null, Collections.singletonMap(self.name, self),
+            new ConsistentHashRing<>(Collections.singletonList(self), Member::getName, virtualNodes));
+        this.connectionExecutor = new ThreadPoolExecutor(0, maxConnections, 60L, SECONDS, new SynchronousQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "ratelimit-key-owner-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.connectExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ratelimit-key-owner-connect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.handOffExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ratelimit-key-owner-handoff");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.acceptor = new Thread(this::accept, "ratelimit-key-owner");
+        this.acceptor.setDaemon(true);
+    }
+
+    /**
+     * 开始接收其他节点的请求
+     */
+    public void start() {
+        acceptor.start();
+    }
+
+    /**
+     * 接收其他节点请求的端口
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 所有节点需要使用相同的配置
+     */
+    @Override
+    public void setWindowAlignment(WindowAlignment windowAlignment) {
+        owned.setWindowAlignment(windowAlignment);
+        if (fallback instanceof WindowAlignmentAware) {
+            ((WindowAlignmentAware) fallback).setWindowAlignment(windowAlignment);
+        }
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        return consume(Collections.singletonList(policy), Collections.singletonList(key), requestTime).get(0);
+    }
+
+    @Override
+    public List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+        ConsistentHashRing<Member> ring = membership().ring;
+        Rate[] rates = new Rate[keys.size()];
+        Map<Member, List<Integer>> byOwner = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            byOwner.computeIfAbsent(ring.get(keys.get(i)), owner -> new ArrayList<>()).add(i);
+        }
+
+        //先发出所有请求，再等待响应
+        Map<Member, CompletableFuture<List<Rate>>> sent = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        byOwner.forEach((owner, indexes) -> {
+            if (owner == self) {
+                consume(owned, policies, keys, requestTime, indexes, rates);
+            } else if (!owner.isAvailable(now)) {
+                consume(fallback, policies, keys, requestTime, indexes, rates);
+            } else {
+                sent.put(owner, send(owner, policies, keys, requestTime, indexes));
+            }
+        });
+
+        long deadline = System.nanoTime() + MILLISECONDS.toNanos(timeout);
+        sent.forEach((owner, future) -> {
+            List<Integer> indexes = byOwner.get(owner);
+            try {
+                List<Rate> received = future.get(Math.max(0L, deadline - System.nanoTime()), NANOSECONDS);
+                for (int i = 0; i < indexes.size(); i++) {
+                    rates[indexes.get(i)] = received.get(i);
+                }
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandon(owner, future);
+                markDown(owner, e);
+            } catch (ExecutionException e) {
+                markDown(owner, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            } catch (TimeoutException e) {
+                abandon(owner, future);
+                markDown(owner, e);
+            }
+            consume(fallback, policies, keys, requestTime, indexes, rates);
+        });
+
+        List<Rate> result = new ArrayList<>(rates.length);
+        Collections.addAll(result, rates);
+        return result;
+    }
+
+    private static void consume(RateLimiter rateLimiter, List<Policy> policies, List<String> keys, Long requestTime,
+                                List<Integer> indexes, Rate[] rates) {
+        for (int i : indexes) {
+            rates[i] = rateLimiter.consume(policies.get(i), keys.get(i), requestTime);
+        }
+    }
+
+    private CompletableFuture<List<Rate>> send(Member owner, List<Policy> policies, List<String> keys,
+                                               Long requestTime, List<Integer> indexes) {
+        List<Policy> ownerPolicies = new ArrayList<>(indexes.size());
+        List<String> ownerKeys = new ArrayList<>(indexes.size());
+        for (int i : indexes) {
+            ownerPolicies.add(policies.get(i));
+            ownerKeys.add(keys.get(i));
+        }
+        return owner.client(connectExecutor, (int) timeout, secret)
+            .thenCompose(client -> client.consume(ownerPolicies, ownerKeys, requestTime));
+    }
+
+    /**
+     * 放弃没有及时响应的请求，不再等待它的响应，并关闭连接，冷却期后重新连接
+     */
+    private static void abandon(Member owner, CompletableFuture<List<Rate>> future) {
+        future.cancel(false);
+        owner.close();
+    }
+
+    private void markDown(Member owner, Exception e) {
+        owner.markDown(System.currentTimeMillis() + downCooldown);
+        rateLimiterErrorHandler.handleError("Failed consuming rates on gateway node " + owner.name
+            + ", will use the local rate limiter", e);
+    }
+
+    /**
+     * 节点列表变化时重建哈希环，保留已有节点的连接，并在后台交接不再属于本节点的key
+     */
+    private Membership membership() {
+        Membership current = membership;
+        Collection<InetSocketAddress> addresses = peers.get();
+        if (addresses == current.source) {
+            return current;
+        }
+        synchronized (this) {
+            Membership previous = membership;
+            if (addresses == previous.source) {
+                return previous;
+            }
+            Map<String, Member> members = new LinkedHashMap<>();
+            members.put(self.name, self);
+            for (InetSocketAddress address : addresses) {
+                members.computeIfAbsent(Member.name(address), name -> previous.members.containsKey(name)
+                    ? previous.members.get(name) : new Member(address));
+            }
+            if (members.keySet().equals(previous.members.keySet())) {
+                membership = new Membership(addresses, previous.members, previous.ring);
+                return membership;
+            }
+            membership = new Membership(addresses, members,
+                new ConsistentHashRing<>(members.values(), Member::getName, virtualNodes));
+            previous.members.forEach((name, member) -> {
+                if (!members.containsKey(name)) {
+                    member.close();
+                }
+            });
+            if (!closed) {
+                handOffExecutor.execute(this::handOff);
+            }
+            return membership;
+        }
+    }
+
+    /**
+     * 把不再属于本节点的窗口交给新的节点。先删除窗口再读取计数，删除之后到达的请求使用新的窗口，
+     * 不会丢失删除和发送之间的计数；发送失败时把窗口合并回本节点
+     */
+    void handOff() {
+        ConsistentHashRing<Member> ring = membership.ring;
+        Map<Member, List<String>> keys = new LinkedHashMap<>();
+        Map<Member, List<long[]>> windows = new LinkedHashMap<>();
+        owned.removeIf(key -> ring.get(routingKey(key)) != self, (key, end, count) -> {
+            Member owner = ring.get(routingKey(key));
+            keys.computeIfAbsent(owner, member -> new ArrayList<>()).add(key);
+            windows.computeIfAbsent(owner, member -> new ArrayList<>()).add(new long[]{end, count});
+        });
+        keys.forEach((owner, ownerKeys) -> {
+            List<long[]> ownerWindows = windows.get(owner);
+            CompletableFuture<List<Rate>> future = null;
+            try {
+                future = owner.client(connectExecutor, (int) timeout, secret)
+                    .thenCompose(client -> client.merge(ownerKeys, ownerWindows));
+                future.get(timeout, MILLISECONDS);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandon(owner, future);
+            } catch (TimeoutException e) {
+                abandon(owner, future);
+                rateLimiterErrorHandler.handleError("Failed handing off " + ownerKeys.size()
+                    + " rate limit windows to gateway node " + owner.name, e);
+            } catch (ExecutionException e) {
+                rateLimiterErrorHandler.handleError("Failed handing off " + ownerKeys.size()
+                    + " rate limit windows to gateway node " + owner.name, e);
+            }
+            for (int i = 0; i < ownerKeys.size(); i++) {
+                owned.merge(ownerKeys.get(i), ownerWindows.get(i)[0], ownerWindows.get(i)[1]);
+            }
+        });
+    }
+
+    /**
+     * 时长的窗口和次数的窗口属于同一个节点
+     */
+    private static String routingKey(String key) {
+        return key.endsWith(QUOTA_SUFFIX) ? key.substring(0, key.length() - QUOTA_SUFFIX.length()) : key;
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                try {
+                    connectionExecutor.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    log.warn("Too many rate limit connections, closing the connection from {}",
+                        socket.getRemoteSocketAddress());
+                    connections.remove(socket);
+                    socket.close();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Failed to accept a rate limit connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 认证后处理一个连接上的请求。其他节点的哈希环可能还没有更新，收到的key都在本节点计数
+     */
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            connection.setSoTimeout(HANDSHAKE_TIMEOUT);
+            if (!KeyOwnerProtocol.authenticate(in, out, secret)) {
+                log.warn("Rejected an unauthenticated rate limit connection from {}",
+                    socket.getRemoteSocketAddress());
+                return;
+            }
+            connection.setSoTimeout(0);
+            while (!closed) {
+                Request request = KeyOwnerProtocol.readRequest(in);
+                try {
+                    KeyOwnerProtocol.writeRates(out, request.id, handle(request));
+                } catch (RuntimeException e) {
+                    log.warn("Failed to handle a rate limit request", e);
+                    KeyOwnerProtocol.writeError(out, request.id, e.getMessage());
+                }
+                //连续到达的请求一起刷出响应
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException e) {
+            log.debug("Rate limit connection closed by {}", socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            if (!closed) {
+                log.debug("Rate limit connection from {} failed", socket.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    private List<Rate> handle(Request request) {
+        if (request.operation == KeyOwnerProtocol.MERGE) {
+            for (int i = 0; i < request.keys.size(); i++) {
+                long[] window = request.windows.get(i);
+                owned.merge(request.keys.get(i), window[0], window[1]);
+            }
+            return Collections.emptyList();
+        }
+        List<Rate> rates = new ArrayList<>(request.keys.size());
+        for (int i = 0; i < request.keys.size(); i++) {
+            rates.add(owned.consume(request.policies.get(i), request.keys.get(i), request.requestTime));
+        }
+        return rates;
+    }
+
+    /**
+     * 停止接收请求并关闭所有连接，计数只保留在内存中
+     */
+    @Override
+    public void close() {
+        closed = true;
+        handOffExecutor.shutdownNow();
+        connectionExecutor.shutdownNow();
+        connectExecutor.shutdownNow();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.debug("Failed to close the rate limit server socket", e);
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Failed to close a rate limit connection", e);
+            }
+        }
+        membership.members.values().forEach(Member::close);
+    }
+
+    private static final class Membership {
+
+        /**
+         * 构建哈希环使用的节点列表，没有变化时节点列表是同一个对象
+         */
+        private final Collection<InetSocketAddress> source;
+        private final Map<String, Member> members;
+        private final ConsistentHashRing<Member> ring;
+
+        private Membership(Collection<InetSocketAddress> source, Map<String, Member> members,
+                           ConsistentHashRing<Member> ring) {
+            this.source = source;
+            this.members = members;
+            this.ring = ring;
+        }
+    }
+
+    /**
+     * 集群中的一个节点
+     */
+    private static final class Member {
+
+        private final InetSocketAddress address;
+        private final String name;
+        private KeyOwnerClient client;
+        /**
+         * 正在建立的连接，同一时间最多一个
+         */
+        private CompletableFuture<KeyOwnerClient> connecting;
+        private volatile long downUntil;
+
+        private Member(InetSocketAddress address) {
+            this.address = address;
+            this.name = name(address);
+        }
+
+        static String name(InetSocketAddress address) {
+            return address.getHostString() + ":" + address.getPort();
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * 已连接时直接返回连接，否则在后台建立连接。调用方不持有锁等待连接和认证，同时到达的调用方共用同一次连接
+         *
+         * @param executor 建立连接的线程池
+         * @param timeout  建立连接和认证的超时时间，单位毫秒
+         * @param secret   所有节点共享的密钥
+         * @return 连接，无法连接或认证时以异常结束
+         */
+        synchronized CompletableFuture<KeyOwnerClient> client(Executor executor, int timeout, byte[] secret) {
+            if (client != null && !client.isClosed()) {
+                return CompletableFuture.completedFuture(client);
+            }
+            if (connecting == null) {
+                CompletableFuture<KeyOwnerClient> future = new CompletableFuture<>();
+                try {
+                    executor.execute(() -> connect(future, timeout, secret));
+                } catch (RejectedExecutionException e) {
+                    future.completeExceptionally(e);
+                    return future;
+                }
+                connecting = future;
+            }
+            return connecting;
+        }
+
+        private void connect(CompletableFuture<KeyOwnerClient> future, int timeout, byte[] secret) {
+            KeyOwnerClient connected;
+            try {
+                connected = new KeyOwnerClient(address, timeout, secret);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    if (connecting == future) {
+                        connecting = null;
+                    }
+                }
+                future.completeExceptionally(e);
+                return;
+            }
+            boolean current;
+            synchronized (this) {
+                current = connecting == future;
+                if (current) {
+                    connecting = null;
+                    client = connected;
+                }
+            }
+            if (!current) {
+                //连接期间节点被关闭
+                connected.close();
+                future.completeExceptionally(new IOException("The connection to " + name + " was closed"));
+                return;
+            }
+            future.complete(connected);
+        }
+
+        boolean isAvailable(long now) {
+            return now >= downUntil;
+        }
+
+        void markDown(long until) {
+            downUntil = until;
+        }
+
+        synchronized void close() {
+            connecting = null;
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+}
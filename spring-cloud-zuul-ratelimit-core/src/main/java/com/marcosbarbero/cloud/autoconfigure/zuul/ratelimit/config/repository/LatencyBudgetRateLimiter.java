@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * 受{@link RateLimiterLatencyBudget}保护的限流器，访问存储的时间不超过时延预算
+ * <p>
+ * When the storage supports batch consumption, {@link RateLimiterLatencyBudget#guard(RateLimiter)} returns a
+ * {@link Batch} so the policies of a request still reach the storage in one call.
+ *
+ * @author Liel Chayoun
+ */
+public class LatencyBudgetRateLimiter implements AsyncRateLimiter {
+
+    private final RateLimiter delegate;
+    private final RateLimiterLatencyBudget budget;
+
+    public LatencyBudgetRateLimiter(RateLimiter delegate, RateLimiterLatencyBudget budget) {
+        this.delegate = delegate;
+        this.budget = budget;
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        Rate estimate = budget.estimate(policy, key, requestTime);
+        return await(budget, budget.submit(() -> delegate.consume(policy, key, requestTime)),
+            () -> budget.decide(policy, key, estimate));
+    }
+
+    @Override
+    public CompletableFuture<Rate> consumeAsync(Policy policy, String key, Long requestTime) {
+        Rate estimate = budget.estimate(policy, key, requestTime);
+        CompletableFuture<Rate> call = budget.submit(() -> delegate.consume(policy, key, requestTime));
+        if (call == null) {
+            return CompletableFuture.completedFuture(budget.decide(policy, key, estimate));
+        }
+        return budget.within(call, policy, key, estimate);
+    }
+
+    /**
+     * 最多等待时延预算，超时或线程池已满时由决定代替
+     *
+     * @param call     访问存储的调用，线程池已满时为null
+     * @param decision 超出预算时的决定
+     */
+    private static <T> T await(RateLimiterLatencyBudget budget, CompletableFuture<T> call, Supplier<T> decision) {
+        if (call == null) {
+            return decision.get();
+        }
+        try {
+            return call.get(budget.getTimeoutNanos(), NANOSECONDS);
+        } catch (TimeoutException e) {
+            return decision.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return decision.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 存储支持批量计数时使用，一次批量调用共用一个时延预算，超时后每个key都由决定代替
+     */
+    public static class Batch extends LatencyBudgetRateLimiter implements BatchRateLimiter {
+
+        private final BatchRateLimiter delegate;
+        private final RateLimiterLatencyBudget budget;
+
+        public Batch(BatchRateLimiter delegate, RateLimiterLatencyBudget budget) {
+            super(delegate, budget);
+            this.delegate = delegate;
+            this.budget = budget;
+        }
+
+        @Override
+        public List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+            List<Rate> estimates = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                estimates.add(budget.estimate(policies.get(i), keys.get(i), requestTime));
+            }
+            return await(budget, budget.submit(() -> delegate.consume(policies, keys, requestTime)), () -> {
+                List<Rate> rates = new ArrayList<>(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    rates.add(budget.decide(policies.get(i), keys.get(i), estimates.get(i)));
+                }
+                return rates;
+            });
+        }
+    }
+}
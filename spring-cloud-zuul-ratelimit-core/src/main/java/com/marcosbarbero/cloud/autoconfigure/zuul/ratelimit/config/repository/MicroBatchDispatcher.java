@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * 收集所有请求线程的计数，一个批次一次访问存储
+ * <p>
+ * A single dispatcher thread takes the first queued consume, waits up to the batching window for more, and sends the
+ * whole batch through {@link BatchRateLimiter#consume(List, List, Long)}, e.g. one Redis pipeline. While a batch is in
+ * flight the next one keeps filling up, so the batch size follows the load. When the queue is full the caller consumes
+ * directly instead of waiting.
+ *
+ * @author Liel Chayoun
+ */
+public class MicroBatchDispatcher implements Closeable {
+
+    private static Logger log = LoggerFactory.getLogger(MicroBatchDispatcher.class);
+
+    /**
+     * 队列容量为批次大小的倍数
+     */
+    private static final int QUEUE_BATCHES = 16;
+    /**
+     * 停止时等待分发线程完成的时间，单位毫秒
+     */
+    private static final long CLOSE_TIMEOUT = 1000;
+
+    private final BatchRateLimiter delegate;
+    /**
+     * 一个批次的最大计数数量
+     */
+    private final int maxBatchSize;
+    /**
+     * 等待更多计数的时间，单位纳秒
+     */
+    private final long windowNanos;
+    private final BlockingQueue<Request> queue;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    /**
+     * @param delegate     支持批量计数的存储
+     * @param maxBatchSize 一个批次的最大计数数量
+     * @param windowMicros 等待更多计数的时间，单位微秒
+     */
+    public MicroBatchDispatcher(BatchRateLimiter delegate, int maxBatchSize, long windowMicros) {
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = MICROSECONDS.toNanos(windowMicros);
+        this.queue = new ArrayBlockingQueue<>(maxBatchSize * QUEUE_BATCHES);
+        this.dispatcher = new Thread(this::dispatch, "ratelimit-micro-batch");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * 提交pre阶段的计数
+     *
+     * @param policy 用户配置的限流策略
+     * @param key    唯一性的请求key
+     * @return 批次完成后返回key对应的Rate信息
+     */
+    public CompletableFuture<Rate> submit(Policy policy, String key) {
+        Request request = new Request(policy, key);
+        if (closed || !queue.offer(request) || (closed && queue.remove(request))) {
+            //队列已满或已停止，直接计数
+            return CompletableFuture.completedFuture(delegate.consume(policy, key, null));
+        }
+        return request.future;
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long wait = deadline - System.nanoTime();
+                    Request next = wait > 0 ? queue.poll(wait, NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            send(batch);
+            batch.clear();
+        }
+        //清除中断标记，完成停止前已提交的计数
+        Thread.interrupted();
+        queue.drainTo(batch);
+        send(batch);
+    }
+
+    private void send(List<Request> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Policy> policies = new ArrayList<>(batch.size());
+        List<String> keys = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            policies.add(request.policy);
+            keys.add(request.key);
+        }
+        try {
+            List<Rate> rates = delegate.consume(policies, keys, null);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(rates.get(i));
+            }
+        } catch (Throwable e) {
+            //包括Error在内的异常都交给等待的请求线程，分发线程继续处理后续批次
+            log.error("Failed to consume a batch of {} rates", batch.size(), e);
+            batch.forEach(request -> request.future.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * 停止分发线程，已提交的计数在停止前完成
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Request {
+
+        private final Policy policy;
+        private final String key;
+        private final CompletableFuture<Rate> future = new CompletableFuture<>();
+
+        private Request(Policy policy, String key) {
+            this.policy = policy;
+            this.key = key;
+        }
+    }
+}
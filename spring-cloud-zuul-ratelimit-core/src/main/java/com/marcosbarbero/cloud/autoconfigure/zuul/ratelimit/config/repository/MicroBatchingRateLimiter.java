@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * pre阶段的计数交给{@link MicroBatchDispatcher}批量完成，请求时长的消耗直接访问存储
+ *
+ * @author Liel Chayoun
+ */
+public class MicroBatchingRateLimiter implements AsyncRateLimiter {
+
+    private final RateLimiter delegate;
+    private final MicroBatchDispatcher dispatcher;
+
+    public MicroBatchingRateLimiter(RateLimiter delegate, MicroBatchDispatcher dispatcher) {
+        this.delegate = delegate;
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        if (requestTime != null) {
+            return delegate.consume(policy, key, requestTime);
+        }
+        try {
+            return dispatcher.submit(policy, key).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Rate> consumeAsync(Policy policy, String key, Long requestTime) {
+        if (requestTime != null) {
+            return CompletableFuture.completedFuture(delegate.consume(policy, key, requestTime));
+        }
+        return dispatcher.submit(policy, key);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+
+/**
+ * 本地限流，策略的次数和时长按网关节点数缩小，用于共享存储不可用时的估算
+ * <p>
+ * Each node gets {@code ceil(round(limit * (1 + slack)) / nodes)}. The node count is read on every call, the scaled policies
+ * are rebuilt when it changes.
+ *
+ * @author Liel Chayoun
+ */
+public class NodeScaledRateLimiter implements InspectableRateLimiter {
+
+    private final RateLimiter delegate;
+    /**
+     * 网关节点数量
+     */
+    private final IntSupplier nodes;
+    /**
+     * 在平均分配之外多允许的比例
+     */
+    private final double slack;
+    /**
+     * 按策略的次数、时长和刷新间隔缓存缩小后的策略。刷新配置后相同的值共用一项，不会保留旧的策略实例
+     */
+    private final Map<PolicyValues, Scaled> scaledPolicies = new ConcurrentHashMap<>();
+
+    public NodeScaledRateLimiter(int nodes) {
+        this(() -> nodes, 0);
+    }
+
+    public NodeScaledRateLimiter(IntSupplier nodes, double slack) {
+        this(new InMemoryRateLimiter(), nodes, slack);
+    }
+
+    NodeScaledRateLimiter(RateLimiter delegate, IntSupplier nodes, double slack) {
+        this.delegate = delegate;
+        this.nodes = nodes;
+        this.slack = slack;
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        final int current = Math.max(1, nodes.getAsInt());
+        if (current == 1 && slack == 0) {
+            return delegate.consume(policy, key, requestTime);
+        }
+        PolicyValues values = new PolicyValues(policy);
+        Scaled scaled = scaledPolicies.get(values);
+        if (scaled == null || scaled.nodes != current) {
+            scaled = new Scaled(current, scale(policy, current));
+            scaledPolicies.put(values, scaled);
+        }
+        return delegate.consume(scaled.policy, key, requestTime);
+    }
+
+    @Override
+    public KeyState inspect(String key) {
+        return delegate instanceof InspectableRateLimiter ? ((InspectableRateLimiter) delegate).inspect(key) : null;
+    }
+
+    @Override
+    public void scan(String pattern, Predicate<String> visitor) {
+        if (delegate instanceof InspectableRateLimiter) {
+            ((InspectableRateLimiter) delegate).scan(pattern, visitor);
+        }
+    }
+
+    @Override
+    public long reset(String pattern) {
+        return delegate instanceof InspectableRateLimiter ? ((InspectableRateLimiter) delegate).reset(pattern) : 0L;
+    }
+
+    private Policy scale(Policy policy, int nodes) {
+        Policy scaled = new Policy();
+        scaled.setRefreshInterval(policy.getRefreshInterval());
+        scaled.setLimit(scale(policy.getLimit(), nodes));
+        scaled.setQuota(scale(policy.getQuota(), nodes));
+        return scaled;
+    }
+
+    private Long scale(Long value, int nodes) {
+        if (value == null) {
+            return null;
+        }
+        //加上余量后按节点数向上取整，保证每个节点至少允许一次
+        long total = Math.round(value * (1 + slack));
+        return Math.max(1L, (total + nodes - 1) / nodes);
+    }
+
+    private static final class PolicyValues {
+
+        private final Long limit;
+        private final Long quota;
+        private final Long refreshInterval;
+
+        private PolicyValues(Policy policy) {
+            this.limit = policy.getLimit();
+            this.quota = policy.getQuota();
+            this.refreshInterval = policy.getRefreshInterval();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PolicyValues)) {
+                return false;
+            }
+            PolicyValues that = (PolicyValues) o;
+            return Objects.equals(limit, that.limit) && Objects.equals(quota, that.quota)
+                && Objects.equals(refreshInterval, that.refreshInterval);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(limit, quota, refreshInterval);
+        }
+    }
+
+    private static final class Scaled {
+
+        private final int nodes;
+        private final Policy policy;
+
+        private Scaled(int nodes, Policy policy) {
+            this.nodes = nodes;
+            this.policy = policy;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 共享存储的熔断器，存储异常或响应过慢时改用本地内存限流
+ * <p>
+ * Repositories report storage errors through the {@link RateLimiterErrorHandler} and then admit the request, so the
+ * breaker counts the errors reported through {@link #errorHandler(RateLimiterErrorHandler, Supplier)} together with
+ * the calls slower than the slow call threshold. Once {@code failureThreshold} of them happen within one failure window
+ * the breaker opens: for the open duration every decision comes from a local {@link NodeScaledRateLimiter}. Afterwards
+ * a single call probes the storage, closing the breaker on success and opening it again on failure.
+ *
+ * @author Liel Chayoun
+ */
+public class RateLimiterCircuitBreaker {
+
+    private static Logger log = LoggerFactory.getLogger(RateLimiterCircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 一个窗口内触发熔断的失败次数
+     */
+    private final int failureThreshold;
+    /**
+     * 统计失败次数的窗口，单位毫秒
+     */
+    private final long failureWindow;
+    /**
+     * 超过该耗时的调用视为失败，单位毫秒
+     */
+    private final long slowCallThreshold;
+    /**
+     * 熔断持续时间，单位毫秒
+     */
+    private final long openDuration;
+    /**
+     * 本地限流，策略的次数和时长按节点数缩小
+     */
+    private final RateLimiter fallback;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final ThreadLocal<boolean[]> currentCall = new ThreadLocal<>();
+    private volatile long openedAt;
+    private long windowStart;
+    private int windowFailures;
+
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong slowCalls = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    public RateLimiterCircuitBreaker(int failureThreshold, long failureWindow, long slowCallThreshold,
+                                     long openDuration, int nodes) {
+        this(failureThreshold, failureWindow, slowCallThreshold, openDuration, new NodeScaledRateLimiter(nodes));
+    }
+
+    RateLimiterCircuitBreaker(int failureThreshold, long failureWindow, long slowCallThreshold, long openDuration,
+                              RateLimiter fallback) {
+        this.failureThreshold = failureThreshold;
+        this.failureWindow = failureWindow;
+        this.slowCallThreshold = slowCallThreshold;
+        this.openDuration = openDuration;
+        this.fallback = fallback;
+    }
+
+    /**
+     * 包装存储的限流器，pre和post过滤器共用同一个熔断器
+     *
+     * @param delegate 访问共享存储的限流器
+     * @return 受熔断器保护的限流器，delegate支持批量计数时同样支持
+     */
+    public RateLimiter guard(RateLimiter delegate) {
+        if (delegate instanceof BatchRateLimiter) {
+            return new CircuitBreakerRateLimiter.Batch((BatchRateLimiter) delegate, this);
+        }
+        return new CircuitBreakerRateLimiter(delegate, this);
+    }
+
+    /**
+     * 包装错误处理器，存储的异常计入熔断器
+     *
+     * @param delegate 原有的错误处理器
+     * @param breaker  熔断器，第一次出错时才获取
+     * @return 记录失败次数的错误处理器
+     */
+    public static RateLimiterErrorHandler errorHandler(RateLimiterErrorHandler delegate,
+                                                       Supplier<RateLimiterCircuitBreaker> breaker) {
+        return new CircuitBreakerErrorHandler(delegate, breaker);
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getSlowCalls() {
+        return slowCalls.get();
+    }
+
+    /**
+     * @return 熔断时使用的本地限流
+     */
+    public RateLimiter getFallback() {
+        return fallback;
+    }
+
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    public long getOpened() {
+        return opened.get();
+    }
+
+    /**
+     * 是否访问共享存储，熔断期满后只放行一个探测调用
+     */
+    boolean allowRequest(long now) {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && now - openedAt >= openDuration && probing.compareAndSet(false, true)) {
+            state.set(State.HALF_OPEN);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 开始一次访问共享存储的调用，记录当前线程的调用是否出错
+     */
+    boolean[] begin() {
+        boolean[] failed = new boolean[1];
+        currentCall.set(failed);
+        return failed;
+    }
+
+    void end() {
+        currentCall.remove();
+    }
+
+    /**
+     * 记录一次调用的结果
+     *
+     * @param failed  存储是否出错
+     * @param elapsed 调用耗时，单位毫秒
+     * @param now     当前时间，单位毫秒
+     */
+    void record(boolean failed, long elapsed, long now) {
+        if (!failed && elapsed > slowCallThreshold) {
+            slowCalls.incrementAndGet();
+            failed = true;
+        }
+        if (failed) {
+            onFailure(now);
+        } else if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            probing.set(false);
+            synchronized (this) {
+                windowFailures = 0;
+            }
+            log.info("Rate limiter storage recovered, circuit closed");
+        }
+    }
+
+    /**
+     * 存储的错误，调用线程正在经过熔断器时由调用结束后统一记录
+     */
+    void onError(long now) {
+        boolean[] call = currentCall.get();
+        if (call != null) {
+            call[0] = true;
+        } else {
+            onFailure(now);
+        }
+    }
+
+    private void onFailure(long now) {
+        failures.incrementAndGet();
+        if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+            openedAt = now;
+            probing.set(false);
+            log.warn("Rate limiter storage probe failed, circuit opened again");
+            return;
+        }
+        synchronized (this) {
+            if (now - windowStart >= failureWindow) {
+                windowStart = now;
+                windowFailures = 0;
+            }
+            if (++windowFailures < failureThreshold) {
+                return;
+            }
+        }
+        if (state.compareAndSet(State.CLOSED, State.OPEN)) {
+            openedAt = now;
+            opened.incrementAndGet();
+            log.warn("Rate limiter storage failed {} times within {} ms, circuit opened for {} ms",
+                failureThreshold, failureWindow, openDuration);
+        }
+    }
+
+    /**
+     * 使用本地内存限流
+     */
+    Rate fallback(Policy policy, String key, Long requestTime) {
+        fallbacks.incrementAndGet();
+        return fallback.consume(policy, key, requestTime);
+    }
+
+    private static final class CircuitBreakerErrorHandler implements RateLimiterErrorHandler {
+
+        private final RateLimiterErrorHandler delegate;
+        private final Supplier<RateLimiterCircuitBreaker> breaker;
+
+        private CircuitBreakerErrorHandler(RateLimiterErrorHandler delegate,
+                                           Supplier<RateLimiterCircuitBreaker> breaker) {
+            this.delegate = delegate;
+            this.breaker = breaker;
+        }
+
+        @Override
+        public void handleSaveError(String key, Exception e) {
+            onError();
+            delegate.handleSaveError(key, e);
+        }
+
+        @Override
+        public void handleFetchError(String key, Exception e) {
+            onError();
+            delegate.handleFetchError(key, e);
+        }
+
+        @Override
+        public void handleError(String msg, Exception e) {
+            onError();
+            delegate.handleError(msg, e);
+        }
+
+        private void onError() {
+            RateLimiterCircuitBreaker circuitBreaker = breaker.get();
+            if (circuitBreaker != null) {
+                circuitBreaker.onError(System.currentTimeMillis());
+            }
+        }
+    }
+}
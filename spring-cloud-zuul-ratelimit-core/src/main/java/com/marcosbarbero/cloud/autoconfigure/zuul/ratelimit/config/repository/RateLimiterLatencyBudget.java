@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.LatencyBudgetDecision;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 访问存储的时延预算，超时后不再等待存储，按配置直接做出决定
+ * <p>
+ * Storage calls run on a bounded pool of worker threads, the request thread waits at most the timeout for the result.
+ * A call that misses the deadline keeps running and still counts in the storage, only its answer is replaced by the
+ * configured decision. When the pool and its queue are full the decision is made right away. With the
+ * {@link LatencyBudgetDecision#LOCAL LOCAL} decision every call is also counted by a local {@link NodeScaledRateLimiter},
+ * whose rate answers the calls that miss the deadline.
+ *
+ * @author Liel Chayoun
+ */
+public class RateLimiterLatencyBudget implements Closeable {
+
+    private final long timeoutNanos;
+    private final LatencyBudgetDecision decision;
+    private final RateLimiter local;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong exceeded = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param timeoutMicros 访问存储的时延预算，单位微秒
+     * @param decision      超出预算时的决定
+     * @param nodes         网关节点数量，本地估算时策略的次数和时长按节点数缩小
+     * @param threads       访问存储的线程数
+     * @param queueCapacity 等待访问存储的调用数量上限
+     */
+    public RateLimiterLatencyBudget(long timeoutMicros, LatencyBudgetDecision decision, int nodes, int threads,
+                                    int queueCapacity) {
+        this.timeoutNanos = MICROSECONDS.toNanos(timeoutMicros);
+        this.decision = decision;
+        this.local = decision == LatencyBudgetDecision.LOCAL ? new NodeScaledRateLimiter(nodes) : null;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), daemonThreads("ratelimit-budget-"));
+        this.timer = new ScheduledThreadPoolExecutor(1, daemonThreads("ratelimit-budget-timer-"));
+        ((ScheduledThreadPoolExecutor) this.timer).setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 包装存储的限流器，pre和post过滤器共用同一个线程池
+     *
+     * @param delegate 访问存储的限流器
+     * @return 受时延预算保护的限流器，delegate支持批量计数时同样支持
+     */
+    public RateLimiter guard(RateLimiter delegate) {
+        if (delegate instanceof BatchRateLimiter) {
+            return new LatencyBudgetRateLimiter.Batch((BatchRateLimiter) delegate, this);
+        }
+        return new LatencyBudgetRateLimiter(delegate, this);
+    }
+
+    /**
+     * 超出预算的调用次数，包括线程池已满时直接决定的调用
+     */
+    public long getExceeded() {
+        return exceeded.get();
+    }
+
+    /**
+     * 线程池已满时直接决定的调用次数
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * 本地估算，只有LOCAL决定才会计数
+     *
+     * @return 本地的Rate信息，其他决定返回null
+     */
+    Rate estimate(Policy policy, String key, Long requestTime) {
+        return local != null ? local.consume(policy, key, requestTime) : null;
+    }
+
+    /**
+     * 在线程池中访问存储
+     *
+     * @param call 访问存储的调用
+     * @return 访问存储的调用，线程池已满时返回null
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * 超出预算时结果由决定代替
+     *
+     * @param call     访问存储的调用
+     * @param estimate 本地估算
+     * @return 在预算内完成的结果或超时后的决定
+     */
+    CompletableFuture<Rate> within(CompletableFuture<Rate> call, Policy policy, String key, Rate estimate) {
+        CompletableFuture<Rate> result = new CompletableFuture<>();
+        call.whenComplete((rate, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(rate);
+            }
+        });
+        if (!result.isDone()) {
+            timer.schedule(() -> {
+                if (!result.isDone()) {
+                    result.complete(decide(policy, key, estimate));
+                }
+            }, timeoutNanos, NANOSECONDS);
+        }
+        return result;
+    }
+
+    /**
+     * 超出预算时的决定
+     *
+     * @param estimate 本地估算
+     */
+    Rate decide(Policy policy, String key, Rate estimate) {
+        exceeded.incrementAndGet();
+        final Long quota = policy.getQuota() != null ? SECONDS.toMillis(policy.getQuota()) : null;
+        switch (decision) {
+            case DENY:
+                return new Rate(key, policy.getLimit() != null ? -1L : null, quota != null ? -1L : null, 0L, null);
+            case LOCAL:
+                return estimate;
+            default:
+                return new Rate(key, policy.getLimit(), quota, SECONDS.toMillis(policy.getRefreshInterval()), null);
+        }
+    }
+
+    /**
+     * 停止访问存储的线程，已提交的调用不再等待
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter.QUOTA_SUFFIX;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 多个key的计数在一个pipeline中完成INCRBY，窗口内第一次计数的key再通过一个pipeline设置过期时间
+ * <p>
+ * The same key may appear several times, each INCRBY then sees the value left by the previous one, exactly as
+ * separate calls would.
+ *
+ * @author Liel Chayoun
+ */
+final class RedisCounterPipeline {
+
+    private final List<Policy> policies;
+    private final List<String> keys;
+    private final List<Integer> indexes;
+    private final WindowAlignment windowAlignment;
+    private final long now = System.currentTimeMillis();
+    private final List<Counter> counters = new ArrayList<>();
+
+    /**
+     * @param policies    用户配置的限流策略
+     * @param keys        唯一性的请求key，与policies顺序一致
+     * @param requestTime 处理请求的耗时时间，单位毫秒，pre阶段为null
+     * @param indexes     本次需要计数的下标
+     * @param windowAlignment 新窗口的开始时间
+     */
+    RedisCounterPipeline(List<Policy> policies, List<String> keys, Long requestTime, List<Integer> indexes,
+                         WindowAlignment windowAlignment) {
+        this.policies = policies;
+        this.keys = keys;
+        this.indexes = indexes;
+        this.windowAlignment = windowAlignment;
+        for (int i : indexes) {
+            Policy policy = policies.get(i);
+            if (policy.getLimit() != null) {
+                counters.add(new Counter(i, keys.get(i), requestTime == null ? 1L : 0L, policy.getRefreshInterval(),
+                    false));
+            }
+            if (policy.getQuota() != null) {
+                counters.add(new Counter(i, keys.get(i) + QUOTA_SUFFIX, requestTime != null ? requestTime : 0L,
+                    policy.getRefreshInterval(), true));
+            }
+        }
+    }
+
+    /**
+     * 执行计数，失败时抛出异常，已执行的结果不会记录
+     *
+     * @param redisTemplate 操作redis的client
+     */
+    @SuppressWarnings("unchecked")
+    void execute(RedisTemplate<?, ?> redisTemplate) {
+        RedisSerializer<String> serializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        List<byte[]> rawKeys = new ArrayList<>(counters.size());
+        for (Counter counter : counters) {
+            rawKeys.add(serializer != null ? serializer.serialize(counter.key)
+                : counter.key.getBytes(StandardCharsets.UTF_8));
+        }
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int c = 0; c < counters.size(); c++) {
+                connection.incrBy(rawKeys.get(c), counters.get(c).usage);
+            }
+            return null;
+        });
+        List<Integer> firstInWindow = new ArrayList<>();
+        for (int c = 0; c < counters.size(); c++) {
+            Counter counter = counters.get(c);
+            counter.current = (Long) results.get(c);
+            if (Objects.equals(counter.current, counter.usage)) {
+                firstInWindow.add(c);
+            }
+        }
+        if (!firstInWindow.isEmpty()) {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int c : firstInWindow) {
+                    Counter counter = counters.get(c);
+                    if (windowAlignment == WindowAlignment.FIRST_REQUEST) {
+                        connection.expire(rawKeys.get(c), counter.refreshInterval);
+                    } else {
+                        connection.pExpire(rawKeys.get(c), windowEnd(counter.key, counter.refreshInterval) - now);
+                    }
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 根据计数结果设置Rate，没有结果的计数按0计算
+     *
+     * @param rates 与keys顺序一致的结果
+     */
+    void fill(Rate[] rates) {
+        for (int i : indexes) {
+            Policy policy = policies.get(i);
+            Long quota = policy.getQuota() != null ? SECONDS.toMillis(policy.getQuota()) : null;
+            rates[i] = new Rate(keys.get(i), policy.getLimit(), quota,
+                windowEnd(keys.get(i), policy.getRefreshInterval()) - now, null);
+        }
+        for (Counter counter : counters) {
+            Rate rate = rates[counter.index];
+            long current = counter.current != null ? counter.current : 0L;
+            if (counter.quota) {
+                rate.setRemainingQuota(Math.max(-1, rate.getRemainingQuota() - current));
+            } else {
+                rate.setRemaining(Math.max(-1, rate.getRemaining() - current));
+            }
+        }
+    }
+
+    private long windowEnd(String key, long refreshInterval) {
+        return windowAlignment.windowEnd(key, SECONDS.toMillis(refreshInterval), now);
+    }
+
+    private static final class Counter {
+
+        private final int index;
+        private final String key;
+        private final long usage;
+        private final long refreshInterval;
+        private final boolean quota;
+        private Long current;
+
+        private Counter(int index, String key, long usage, long refreshInterval, boolean quota) {
+            this.index = index;
+            this.key = key;
+            this.usage = usage;
+            this.refreshInterval = refreshInterval;
+            this.quota = quota;
+        }
+    }
+}
@@ -16,11 +16,31 @@
 
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
 
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.PermitsRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.SerializationException;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.Predicate;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
@@ -30,7 +50,13 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  * @author Liel Chayoun
  */
 @SuppressWarnings("unchecked")
-public class RedisRateLimiter extends AbstractCacheRateLimiter {
+public class RedisRateLimiter extends AbstractCacheRateLimiter
+    implements BatchRateLimiter, PermitsRateLimiter, InspectableRateLimiter {
+
+    /**
+     * 每次SCAN建议返回的key数量，也是每次UNLINK删除的key数量
+     */
+    static final int SCAN_COUNT = 500;
 
     /**
      * 限流错误处理器
@@ -63,7 +89,7 @@ public class RedisRateLimiter extends AbstractCacheRateLimiter {
             //计算剩余次数
             Long remaining = calcRemaining(limit, refreshInterval, usage, key, rate);
             //更新rate对象
-            rate.setRemaining(remaining);
+            rate.setRemaining(Math.max(-1, remaining));
         }
     }
 
@@ -81,10 +107,57 @@ public class RedisRateLimiter extends AbstractCacheRateLimiter {
             String quotaKey = key + QUOTA_SUFFIX;
             long usage = requestTime != null ? requestTime : 0L;
             Long remaining = calcRemaining(quota, refreshInterval, usage, quotaKey, rate);
-            rate.setRemainingQuota(remaining);
+            rate.setRemainingQuota(Math.max(-1, remaining));
         }
     }
 
+    /**
+     * 所有key的计数在一个pipeline中完成，同一个key可以出现多次
+     *
+     * @param policies    用户配置的限流策略
+     * @param keys        唯一性的请求key，与policies顺序一致
+     * @param requestTime 处理请求的耗时时间，单位毫秒
+     * @return 与keys顺序一致的Rate信息
+     */
+    @Override
+    public List<Rate> consume(final List<Policy> policies, final List<String> keys, final Long requestTime) {
+        List<Integer> indexes = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            indexes.add(i);
+        }
+        RedisCounterPipeline pipeline = new RedisCounterPipeline(policies, keys, requestTime, indexes,
+            getWindowAlignment());
+        try {
+            pipeline.execute(redisTemplate);
+        } catch (RuntimeException e) {
+            String msg = "Failed retrieving rates for " + keys + ", will return the current value";
+            rateLimiterErrorHandler.handleError(msg, e);
+        }
+        Rate[] rates = new Rate[keys.size()];
+        pipeline.fill(rates);
+        return Arrays.asList(rates);
+    }
+
+    /**
+     * 一次INCRBY消耗permits个请求次数，剩余次数不截断
+     *
+     * @param policy  用户配置的限流策略
+     * @param key     唯一性的请求key
+     * @param permits 请求次数
+     * @return 最后一个permit对应的Rate信息
+     */
+    @Override
+    public Rate consumePermits(final Policy policy, final String key, final int permits) {
+        final Long limit = policy.getLimit();
+        final Long quota = policy.getQuota() != null ? SECONDS.toMillis(policy.getQuota()) : null;
+        final Rate rate = new Rate(key, limit, quota, null, null);
+        if (Objects.nonNull(limit)) {
+            rate.setRemaining(calcRemaining(limit, policy.getRefreshInterval(), permits, key, rate));
+        }
+        calcRemainingQuota(quota, policy.getRefreshInterval(), null, key, rate);
+        return rate;
+    }
+
     /**
      * 计算剩余次数
      *
@@ -97,7 +170,9 @@ public class RedisRateLimiter extends AbstractCacheRateLimiter {
      */
     private Long calcRemaining(Long limit, Long refreshInterval, long usage,
                                String key, Rate rate) {
-        rate.setReset(SECONDS.toMillis(refreshInterval));
+        long now = System.currentTimeMillis();
+        long windowTtl = getWindowAlignment().windowEnd(key, SECONDS.toMillis(refreshInterval), now) - now;
+        rate.setReset(windowTtl);
         //key对应的请求次数
         Long current = 0L;
         try {
@@ -107,14 +182,14 @@ public class RedisRateLimiter extends AbstractCacheRateLimiter {
             // 判断如果是第一次请求，则增加超时时间。 仅有一次机会
             if (current != null && current.equals(usage)) {
                 //设置超时时间
-                handleExpiration(key, refreshInterval);
+                handleExpiration(key, refreshInterval, windowTtl);
             }
         } catch (RuntimeException e) {
             String msg = "Failed retrieving rate for " + key + ", will return the current value";
             rateLimiterErrorHandler.handleError(msg, e);
         }
-        //返回剩余次数。即总次数减去总的请求次数
-        return Math.max(-1, limit - (current != null ? current : 0L));
+        //返回剩余次数。即总次数减去总的请求次数，由调用方决定是否截断
+        return limit - (current != null ? current : 0L);
     }
 
     /**
@@ -122,13 +197,109 @@ public class RedisRateLimiter extends AbstractCacheRateLimiter {
      *
      * @param key             限流的key
      * @param refreshInterval 单位时间窗口时间，单位秒
+     * @param windowTtl       到窗口结束的时间，单位毫秒，窗口按key偏移时使用
      */
-    private void handleExpiration(String key, Long refreshInterval) {
+    private void handleExpiration(String key, Long refreshInterval, long windowTtl) {
         try {
-            this.redisTemplate.expire(key, refreshInterval, SECONDS);
+            if (getWindowAlignment() == WindowAlignment.FIRST_REQUEST) {
+                this.redisTemplate.expire(key, refreshInterval, SECONDS);
+            } else {
+                this.redisTemplate.expire(key, windowTtl, MILLISECONDS);
+            }
         } catch (RuntimeException e) {
             String msg = "Failed retrieving expiration for " + key + ", will reset now";
             rateLimiterErrorHandler.handleError(msg, e);
         }
     }
+
+    /**
+     * 不是计数的key（类型不是string或值不是数字）按不存在处理
+     */
+    @Override
+    public KeyState inspect(String key) {
+        Long used;
+        try {
+            used = (Long) redisTemplate.opsForValue().get(key);
+        } catch (DataAccessException | SerializationException e) {
+            return null;
+        }
+        if (used == null) {
+            return null;
+        }
+        Long ttl = redisTemplate.getExpire(key, MILLISECONDS);
+        return KeyState.used(key, used, ttl != null && ttl >= 0 ? ttl : null);
+    }
+
+    /**
+     * 使用SCAN游标遍历，每次只取回一批key
+     */
+    @Override
+    public void scan(String pattern, Predicate<String> visitor) {
+        ScanOptions options = ScanOptions.scanOptions().match(redisPattern(pattern)).count(SCAN_COUNT).build();
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            Cursor<byte[]> cursor = connection.scan(options);
+            try {
+                while (cursor.hasNext()) {
+                    if (!visitor.test(new String(cursor.next(), StandardCharsets.UTF_8))) {
+                        break;
+                    }
+                }
+            } finally {
+                close(cursor);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 每批key使用一个UNLINK命令删除，由redis在后台回收内存
+     */
+    @Override
+    public long reset(String pattern) {
+        if (!pattern.contains("*")) {
+            return unlink(Collections.singletonList(pattern));
+        }
+        List<String> batch = new ArrayList<>(SCAN_COUNT);
+        long[] deleted = {0L};
+        scan(pattern, key -> {
+            batch.add(key);
+            if (batch.size() == SCAN_COUNT) {
+                deleted[0] += unlink(batch);
+                batch.clear();
+            }
+            return true;
+        });
+        if (!batch.isEmpty()) {
+            deleted[0] += unlink(batch);
+        }
+        return deleted[0];
+    }
+
+    private long unlink(List<String> keys) {
+        Long deleted = redisTemplate.unlink(keys);
+        return deleted != null ? deleted : 0L;
+    }
+
+    /**
+     * 只有*是通配符，转义redis模式中的其他特殊字符
+     */
+    static String redisPattern(String pattern) {
+        StringBuilder builder = new StringBuilder(pattern.length());
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '?' || c == '[' || c == ']' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static void close(Closeable cursor) {
+        try {
+            cursor.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.ConsistentHashRing;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 限流的信息分片存储在多个独立的redis实例上
+ * <p>
+ * Keys are mapped onto the shards with a consistent hash ring, and the limit and quota counters of a key always live on
+ * the same shard. All the counters a request needs on one shard are incremented in a single pipeline. A shard that
+ * fails is skipped for a cool down period, and its keys are counted by a local limiter meanwhile.
+ *
+ * @author Liel Chayoun
+ */
+public class ShardedRedisRateLimiter implements BatchRateLimiter, WindowAlignmentAware {
+
+    private final RateLimiterErrorHandler rateLimiterErrorHandler;
+    private final ConsistentHashRing<Shard> ring;
+    /**
+     * 分片不可用时使用的本地限流
+     */
+    private final RateLimiter fallback;
+    /**
+     * 分片失败后跳过的时间，单位毫秒
+     */
+    private final long downCooldown;
+    private WindowAlignment windowAlignment = WindowAlignment.FIRST_REQUEST;
+
+    public ShardedRedisRateLimiter(RateLimiterErrorHandler rateLimiterErrorHandler, Collection<Shard> shards,
+                                   int virtualNodes, RateLimiter fallback, long downCooldown) {
+        this.rateLimiterErrorHandler = rateLimiterErrorHandler;
+        this.ring = new ConsistentHashRing<>(shards, Shard::getName, virtualNodes);
+        this.fallback = fallback;
+        this.downCooldown = downCooldown;
+    }
+
+    @Override
+    public void setWindowAlignment(WindowAlignment windowAlignment) {
+        this.windowAlignment = windowAlignment;
+        if (fallback instanceof WindowAlignmentAware) {
+            ((WindowAlignmentAware) fallback).setWindowAlignment(windowAlignment);
+        }
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        return consume(Collections.singletonList(policy), Collections.singletonList(key), requestTime).get(0);
+    }
+
+    @Override
+    public List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+        Rate[] rates = new Rate[keys.size()];
+        Map<Shard, List<Integer>> byShard = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            byShard.computeIfAbsent(ring.get(keys.get(i)), shard -> new ArrayList<>()).add(i);
+        }
+
+        long now = System.currentTimeMillis();
+        byShard.forEach((shard, indexes) -> {
+            if (shard.isAvailable(now) && consumeOnShard(shard, policies, keys, requestTime, indexes, rates)) {
+                return;
+            }
+            //分片不可用，使用本地限流
+            for (int i : indexes) {
+                rates[i] = fallback.consume(policies.get(i), keys.get(i), requestTime);
+            }
+        });
+
+        List<Rate> result = new ArrayList<>(rates.length);
+        Collections.addAll(result, rates);
+        return result;
+    }
+
+    /**
+     * 在一个pipeline中完成分片上所有计数的INCRBY，窗口内第一次计数的key再通过一个pipeline设置过期时间
+     *
+     * @return 分片失败返回false
+     */
+    private boolean consumeOnShard(Shard shard, List<Policy> policies, List<String> keys, Long requestTime,
+                                   List<Integer> indexes, Rate[] rates) {
+        RedisCounterPipeline pipeline = new RedisCounterPipeline(policies, keys, requestTime, indexes,
+            windowAlignment);
+        try {
+            pipeline.execute(shard.getRedisTemplate());
+        } catch (RuntimeException e) {
+            shard.markDown(System.currentTimeMillis() + downCooldown);
+            rateLimiterErrorHandler.handleError("Failed consuming rates on redis shard " + shard.getName()
+                + ", will use the local rate limiter", e);
+            return false;
+        }
+        pipeline.fill(rates);
+        return true;
+    }
+
+    /**
+     * 一个独立的redis实例
+     */
+    public static class Shard {
+
+        private final String name;
+        private final RedisTemplate<?, ?> redisTemplate;
+        private volatile long downUntil;
+
+        /**
+         * @param name          分片名称，决定分片在哈希环上的位置
+         * @param redisTemplate 操作此分片的client
+         */
+        public Shard(String name, RedisTemplate<?, ?> redisTemplate) {
+            this.name = name;
+            this.redisTemplate = redisTemplate;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public RedisTemplate<?, ?> getRedisTemplate() {
+            return redisTemplate;
+        }
+
+        boolean isAvailable(long now) {
+            return now >= downUntil;
+        }
+
+        void markDown(long until) {
+            downUntil = until;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed size open addressing hash table of window counters kept in a memory mapped file, shared by every process
+ * mapping the same file (for example under /dev/shm).
+ * <p>
+ * 每个槽位128字节：槽位字的高32位是槽位的代数，低32位是窗口结束时间（相对于文件创建时间的秒数）；计数字的高32位是
+ * 计数所属的窗口结束时间，低32位是计数；之后是key的64位FNV-1a哈希、key的字节长度和key的前96个字节。
+ * 查找时比较哈希、长度和key的字节，只有在读取前后代数不变时比较结果才有效，不同的key不会共用同一个计数。
+ * 超过96字节的key只保存前96个字节，此时要求哈希、长度和前缀都相同才会被视为同一个key。
+ * <p>
+ * 代数为奇数表示有进程正在写入key：占用空槽位或复用过期槽位时先用一次CAS把代数加一并写入key，再用一次CAS把代数加一
+ * 发布槽位，多个进程同时复用同一个槽位时只有一个能成功。写入方在发布前崩溃时，槽位在几秒后可以被重新占用。
+ * 开启新窗口是对槽位字的一次CAS，计数增加是对计数字的一次CAS，不需要任何锁。
+ * <p>
+ * 原子操作通过 {@code MethodHandles.byteBufferViewVarHandle} 完成，需要Java 9及以上版本，不依赖sun.misc.Unsafe。
+ * 计数不会在堆上分配对象，JVM重启后仍然保留
+ *
+ * @author Liel Chayoun
+ */
+public class SharedMemoryCounterTable implements Closeable {
+
+    private static final MethodHandle GET_VOLATILE;
+    private static final MethodHandle COMPARE_AND_SET;
+
+    static {
+        MethodHandle getVolatile = null;
+        MethodHandle compareAndSet = null;
+        try {
+            Class<?> varHandleClass = Class.forName("java.lang.invoke.VarHandle");
+            Class<?> accessModeClass = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+            Object varHandle = MethodHandles.class.getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class)
+                .invoke(null, long[].class, ByteOrder.nativeOrder());
+            Method toMethodHandle = varHandleClass.getMethod("toMethodHandle", accessModeClass);
+            getVolatile = (MethodHandle) toMethodHandle.invoke(varHandle,
+                accessModeClass.getField("GET_VOLATILE").get(null));
+            compareAndSet = (MethodHandle) toMethodHandle.invoke(varHandle,
+                accessModeClass.getField("COMPARE_AND_SET").get(null));
+        } catch (ReflectiveOperationException e) {
+            // Java 8没有VarHandle，isSupported()返回false
+        }
+        GET_VOLATILE = getVolatile;
+        COMPARE_AND_SET = compareAndSet;
+    }
+
+    private static final long MAGIC = 0x5A524C53484D3033L;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 128;
+    private static final int COUNT_OFFSET = 8;
+    private static final int HASH_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+    private static final int KEY_OFFSET = 32;
+    private static final int KEY_WORDS = (SLOT_SIZE - KEY_OFFSET) / 8;
+    private static final int MAX_PROBES = 32;
+    private static final int HALF_BITS = 32;
+    private static final long HALF_MASK = (1L << HALF_BITS) - 1;
+    private static final long ABANDONED_SECONDS = 5;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private final long baseSeconds;
+
+    /**
+     * @param path  共享内存文件路径
+     * @param slots 槽位数量，会向上取整为2的幂。已存在的文件必须使用相同的槽位数量
+     * @throws IOException                   文件无法创建或映射时
+     * @throws UnsupportedOperationException 运行在Java 9以下版本时
+     */
+    public SharedMemoryCounterTable(File path, int slots) throws IOException {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Shared memory rate limit table requires Java 9 or later");
+        }
+        long slotCount = Long.highestOneBit(Math.max(slots, 2) - 1) << 1;
+        long size = HEADER_SIZE + slotCount * SLOT_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Shared memory rate limit table is limited to 2GB");
+        }
+        this.file = new RandomAccessFile(path, "rw");
+        FileChannel channel = file.getChannel();
+        try (FileLock ignored = channel.lock()) {
+            boolean created = channel.size() == 0;
+            if (created) {
+                file.setLength(size);
+            } else if (channel.size() != size) {
+                throw new IllegalStateException("Shared memory file " + path + " has a different number of slots");
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            if (created) {
+                buffer.putLong(8, slotCount);
+                buffer.putLong(16, System.currentTimeMillis() / 1000 - 1);
+                buffer.putLong(0, MAGIC);
+            } else if (buffer.getLong(0) != MAGIC || buffer.getLong(8) != slotCount) {
+                throw new IllegalStateException("Shared memory file " + path + " is not a rate limit table");
+            }
+            this.baseSeconds = buffer.getLong(16);
+            this.mask = (int) slotCount - 1;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return 当前JVM是否支持共享内存计数（需要Java 9及以上版本）
+     */
+    public static boolean isSupported() {
+        return GET_VOLATILE != null && COMPARE_AND_SET != null;
+    }
+
+    /**
+     * 增加key在当前窗口内的计数，窗口已过期时开启新窗口
+     *
+     * @param key             限流的key
+     * @param delta           增加的值
+     * @param intervalSeconds 单位时间窗口，单位秒
+     * @return 更新后的计数字，通过 {@link #count(long)} 和 {@link #windowEndMillis(long)} 读取
+     */
+    public long addAndGet(String key, long delta, long intervalSeconds) {
+        SlotKey slotKey = new SlotKey(key);
+        while (true) {
+            long claim = slot(slotKey, intervalSeconds);
+            if (claim < 0) {
+                throw new IllegalStateException("Shared memory rate limit table is full");
+            }
+            long state = addAndGet((int) (claim & HALF_MASK), claim >>> HALF_BITS, delta, intervalSeconds);
+            if (state != -1) {
+                return state;
+            }
+        }
+    }
+
+    /**
+     * @return 更新后的计数字，槽位已被其他key复用时返回-1
+     */
+    private long addAndGet(int slot, long generation, long delta, long intervalSeconds) {
+        while (true) {
+            long head = getVolatile(slot);
+            if (head >>> HALF_BITS != generation) {
+                return -1;
+            }
+            long window = head & HALF_MASK;
+            long now = nowSeconds();
+            if (window <= now) {
+                window = now + intervalSeconds;
+                if (!compareAndSet(slot, head, (generation << HALF_BITS) | window)) {
+                    continue;
+                }
+            }
+            long state = addAndGet(slot + COUNT_OFFSET, window, delta);
+            if (state != -1) {
+                return state;
+            }
+        }
+    }
+
+    /**
+     * @return 更新后的计数字，计数字已属于更新的窗口时返回-1
+     */
+    private long addAndGet(int countIndex, long window, long delta) {
+        while (true) {
+            long current = getVolatile(countIndex);
+            long currentWindow = current >>> HALF_BITS;
+            long next;
+            if (currentWindow == window) {
+                next = (window << HALF_BITS) | Math.min((current & HALF_MASK) + delta, HALF_MASK);
+            } else if (currentWindow < window) {
+                next = (window << HALF_BITS) | Math.min(delta, HALF_MASK);
+            } else {
+                return -1;
+            }
+            if (compareAndSet(countIndex, current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * @param state {@link #addAndGet(String, long, long)} 返回的计数字
+     * @return 当前窗口内的计数
+     */
+    public long count(long state) {
+        return state & HALF_MASK;
+    }
+
+    /**
+     * @param state {@link #addAndGet(String, long, long)} 返回的计数字
+     * @return 当前窗口的结束时间，epoch毫秒
+     */
+    public long windowEndMillis(long state) {
+        return ((state >>> HALF_BITS) + baseSeconds) * 1000;
+    }
+
+    /**
+     * 查找或占用key对应的槽位。线性探测，探测范围内没有key也没有空槽位时复用已过期或被遗弃的槽位
+     *
+     * @return 槽位代数和槽位偏移 {@code generation << 32 | index}，没有可用槽位时返回-1
+     */
+    private long slot(SlotKey key, long intervalSeconds) {
+        int start = (int) mix(key.hash);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int index = HEADER_SIZE + ((start + probe) & mask) * SLOT_SIZE;
+            long head = published(index);
+            if (head == 0) {
+                long claim = claim(index, head, key, intervalSeconds);
+                if (claim != -1) {
+                    return claim;
+                }
+                head = published(index);
+            }
+            if (matches(index, head, key)) {
+                return (head & ~HALF_MASK) | index;
+            }
+        }
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int index = HEADER_SIZE + ((start + probe) & mask) * SLOT_SIZE;
+            long head = published(index);
+            if (matches(index, head, key)) {
+                return (head & ~HALF_MASK) | index;
+            }
+            if (isWriting(head) || (head & HALF_MASK) <= nowSeconds()) {
+                long claim = claim(index, head, key, intervalSeconds);
+                if (claim != -1) {
+                    return claim;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 占用槽位：先把代数改为奇数并写入key，再把代数改为偶数并开启新窗口。计数字仍属于已过期的窗口，第一次增加时会被重置
+     *
+     * @return 槽位代数和槽位偏移，槽位已被其他进程占用时返回-1
+     */
+    private long claim(int index, long head, SlotKey key, long intervalSeconds) {
+        long writing = ((head >>> HALF_BITS) + 1 | 1) & HALF_MASK;
+        long generation = Math.max((writing + 1) & HALF_MASK, 2);
+        long now = nowSeconds();
+        long claimed = (writing << HALF_BITS) | now;
+        if (!compareAndSet(index, head, claimed)) {
+            return -1;
+        }
+        buffer.putLong(index + HASH_OFFSET, key.hash);
+        buffer.putLong(index + LENGTH_OFFSET, key.length);
+        for (int word = 0; word < KEY_WORDS; word++) {
+            buffer.putLong(index + KEY_OFFSET + word * 8, key.words[word]);
+        }
+        if (!compareAndSet(index, claimed, (generation << HALF_BITS) | (now + intervalSeconds))) {
+            return -1;
+        }
+        return (generation << HALF_BITS) | index;
+    }
+
+    /**
+     * 比较槽位中的key，读取期间槽位被复用时视为不匹配
+     */
+    private boolean matches(int index, long head, SlotKey key) {
+        if (head == 0 || isWriting(head)
+            || getVolatile(index + HASH_OFFSET) != key.hash
+            || getVolatile(index + LENGTH_OFFSET) != key.length) {
+            return false;
+        }
+        for (int word = 0; word < KEY_WORDS; word++) {
+            if (getVolatile(index + KEY_OFFSET + word * 8) != key.words[word]) {
+                return false;
+            }
+        }
+        return getVolatile(index) >>> HALF_BITS == head >>> HALF_BITS;
+    }
+
+    /**
+     * 等待其他进程写完key，写入方已崩溃时直接返回
+     */
+    private long published(int index) {
+        long head = getVolatile(index);
+        while (isWriting(head) && (head & HALF_MASK) + ABANDONED_SECONDS > nowSeconds()) {
+            Thread.yield();
+            head = getVolatile(index);
+        }
+        return head;
+    }
+
+    private static boolean isWriting(long head) {
+        return (head >>> HALF_BITS & 1) == 1;
+    }
+
+    private long getVolatile(int index) {
+        try {
+            return (long) GET_VOLATILE.invokeExact((ByteBuffer) buffer, index);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean compareAndSet(int index, long expected, long value) {
+        try {
+            return (boolean) COMPARE_AND_SET.invokeExact((ByteBuffer) buffer, index, expected, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long nowSeconds() {
+        return System.currentTimeMillis() / 1000 - baseSeconds;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * key的64位FNV-1a哈希、字节长度和前96个字节，按槽位中的布局编码为long
+     */
+    private static final class SlotKey {
+
+        private final long hash;
+        private final long length;
+        private final long[] words = new long[KEY_WORDS];
+
+        private SlotKey(String key) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : bytes) {
+                hash ^= b & 0xFF;
+                hash *= 0x100000001b3L;
+            }
+            this.hash = hash;
+            this.length = bytes.length;
+            ByteBuffer prefix = ByteBuffer.allocate(KEY_WORDS * 8).order(ByteOrder.nativeOrder());
+            prefix.put(bytes, 0, Math.min(bytes.length, prefix.capacity()));
+            for (int word = 0; word < KEY_WORDS; word++) {
+                words[word] = prefix.getLong(word * 8);
+            }
+        }
+    }
+}
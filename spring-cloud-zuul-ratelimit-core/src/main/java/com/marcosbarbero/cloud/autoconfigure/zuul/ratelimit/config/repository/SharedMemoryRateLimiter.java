@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * 限流的计数存储在同一台机器上多个网关进程共享的内存映射文件中
+ * <p>
+ * Host level rate limiting without network round trips, see {@link SharedMemoryCounterTable}.
+ *
+ * @author Liel Chayoun
+ */
+public class SharedMemoryRateLimiter extends AbstractCacheRateLimiter implements Closeable {
+
+    private final RateLimiterErrorHandler rateLimiterErrorHandler;
+    private final SharedMemoryCounterTable counters;
+
+    public SharedMemoryRateLimiter(RateLimiterErrorHandler rateLimiterErrorHandler, SharedMemoryCounterTable counters) {
+        this.rateLimiterErrorHandler = rateLimiterErrorHandler;
+        this.counters = counters;
+    }
+
+    /**
+     * 计数通过CAS更新，不需要加锁
+     */
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        return calcRate(policy, key, requestTime);
+    }
+
+    @Override
+    protected void calcRemainingLimit(final Long limit, final Long refreshInterval,
+                                      final Long requestTime, final String key, final Rate rate) {
+        if (Objects.nonNull(limit)) {
+            long usage = requestTime == null ? 1L : 0L;
+            rate.setRemaining(calcRemaining(limit, refreshInterval, usage, key, rate));
+        }
+    }
+
+    @Override
+    protected void calcRemainingQuota(final Long quota, final Long refreshInterval,
+                                      final Long requestTime, final String key, final Rate rate) {
+        if (Objects.nonNull(quota)) {
+            long usage = requestTime != null ? requestTime : 0L;
+            rate.setRemainingQuota(calcRemaining(quota, refreshInterval, usage, key + QUOTA_SUFFIX, rate));
+        }
+    }
+
+    private Long calcRemaining(Long limit, Long refreshInterval, long usage, String key, Rate rate) {
+        long current = 0L;
+        try {
+            long state = counters.addAndGet(key, usage, refreshInterval);
+            current = counters.count(state);
+            rate.setReset(Math.max(0L, counters.windowEndMillis(state) - System.currentTimeMillis()));
+        } catch (RuntimeException e) {
+            String msg = "Failed retrieving rate for " + key + ", will return the current value";
+            rateLimiterErrorHandler.handleError(msg, e);
+        }
+        return Math.max(-1, limit - current);
+    }
+
+    @Override
+    public void close() throws IOException {
+        counters.close();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 两级限流，本地限流通过后才访问共享存储
+ * <p>
+ * Every node admits at most its share of the global limit, with some slack, before asking the shared store. A flood
+ * is rejected locally, so the load on the store stays around the global limit whatever the attack rate. The store
+ * remains the authority for the requests admitted locally. Only the pre filter counting is checked locally, quota
+ * consumption goes straight to the store.
+ *
+ * @author Liel Chayoun
+ */
+public class TwoTierRateLimiter implements AsyncRateLimiter, BatchRateLimiter {
+
+    private final RateLimiter local;
+    private final RateLimiter remote;
+
+    /**
+     * @param local  本地限流，策略已按节点数缩小
+     * @param remote 访问共享存储的限流器
+     */
+    public TwoTierRateLimiter(RateLimiter local, RateLimiter remote) {
+        this.local = local;
+        this.remote = remote;
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        if (requestTime == null) {
+            Rate rate = local.consume(policy, key, null);
+            if (exceeded(policy, rate)) {
+                return rate;
+            }
+        }
+        return remote.consume(policy, key, requestTime);
+    }
+
+    @Override
+    public CompletableFuture<Rate> consumeAsync(Policy policy, String key, Long requestTime) {
+        if (requestTime == null) {
+            Rate rate = local.consume(policy, key, null);
+            if (exceeded(policy, rate)) {
+                return CompletableFuture.completedFuture(rate);
+            }
+        }
+        if (remote instanceof AsyncRateLimiter) {
+            return ((AsyncRateLimiter) remote).consumeAsync(policy, key, requestTime);
+        }
+        return CompletableFuture.completedFuture(remote.consume(policy, key, requestTime));
+    }
+
+    /**
+     * 本地已超出限制的key不再访问共享存储，其余的key一起交给共享存储
+     */
+    @Override
+    public List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+        Rate[] rates = new Rate[keys.size()];
+        List<Integer> admitted = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (requestTime == null) {
+                Rate rate = local.consume(policies.get(i), keys.get(i), null);
+                if (exceeded(policies.get(i), rate)) {
+                    rates[i] = rate;
+                    continue;
+                }
+            }
+            admitted.add(i);
+        }
+        if (!admitted.isEmpty()) {
+            List<Policy> remotePolicies = new ArrayList<>(admitted.size());
+            List<String> remoteKeys = new ArrayList<>(admitted.size());
+            for (int i : admitted) {
+                remotePolicies.add(policies.get(i));
+                remoteKeys.add(keys.get(i));
+            }
+            List<Rate> remoteRates = consumeRemote(remotePolicies, remoteKeys, requestTime);
+            for (int i = 0; i < admitted.size(); i++) {
+                rates[admitted.get(i)] = remoteRates.get(i);
+            }
+        }
+        List<Rate> result = new ArrayList<>(rates.length);
+        for (Rate rate : rates) {
+            result.add(rate);
+        }
+        return result;
+    }
+
+    private List<Rate> consumeRemote(List<Policy> policies, List<String> keys, Long requestTime) {
+        if (remote instanceof BatchRateLimiter && policies.size() > 1) {
+            return ((BatchRateLimiter) remote).consume(policies, keys, requestTime);
+        }
+        List<CompletableFuture<Rate>> futures = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            futures.add(remote instanceof AsyncRateLimiter
+                ? ((AsyncRateLimiter) remote).consumeAsync(policies.get(i), keys.get(i), requestTime)
+                : CompletableFuture.completedFuture(remote.consume(policies.get(i), keys.get(i), requestTime)));
+        }
+        List<Rate> rates = new ArrayList<>(keys.size());
+        for (CompletableFuture<Rate> future : futures) {
+            rates.add(future.join());
+        }
+        return rates;
+    }
+
+    private boolean exceeded(Policy policy, Rate rate) {
+        return policy.getLimit() != null && rate.getRemaining() != null && rate.getRemaining() < 0;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+
+/**
+ * A rate limiter whose windows can be aligned, see {@link WindowAlignment}.
+ * <p>
+ * 时间窗口的开始时间可以配置的存储
+ *
+ * @author Liel Chayoun
+ */
+public interface WindowAlignmentAware {
+
+    /**
+     * @param windowAlignment 新窗口的开始时间
+     */
+    void setWindowAlignment(WindowAlignment windowAlignment);
+}
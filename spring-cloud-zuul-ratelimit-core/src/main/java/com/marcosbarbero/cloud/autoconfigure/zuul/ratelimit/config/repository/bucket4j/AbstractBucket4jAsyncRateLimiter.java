@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import io.github.bucket4j.AbstractBucketBuilder;
+import io.github.bucket4j.AsyncBucket;
+import io.github.bucket4j.ConsumptionProbe;
+import io.github.bucket4j.Extension;
+
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 使用Bucket4j的异步令牌桶代理，次数和时长两个令牌桶并行访问，不阻塞调用线程
+ * <p>
+ * Read-only probes ask for more tokens than any bucket can hold, so they are always rejected and only report the
+ * available tokens. Like the blocking path, a rejected consuming probe drains the remaining tokens with a second call,
+ * so the quota semantics do not depend on which path reaches the bucket.
+ *
+ * @author Liel Chayoun
+ */
+abstract class AbstractBucket4jAsyncRateLimiter<T extends AbstractBucketBuilder<T>, E extends Extension<T>>
+        extends AbstractBucket4jRateLimiter<T, E> implements AsyncRateLimiter {
+
+    /**
+     * 只读取剩余令牌时请求的令牌数，任何令牌桶都无法满足
+     */
+    private static final long READ_ONLY = Long.MAX_VALUE;
+
+    AbstractBucket4jAsyncRateLimiter(final Class<E> extension) {
+        super(extension);
+    }
+
+    @Override
+    public CompletableFuture<Rate> consumeAsync(Policy policy, String key, Long requestTime) {
+        final Long limit = policy.getLimit();
+        final Long refreshInterval = policy.getRefreshInterval();
+        final Long quota = policy.getQuota() != null ? SECONDS.toMillis(policy.getQuota()) : null;
+        final Rate rate = new Rate(key, limit, quota, null, null);
+
+        //执行preFilter时消耗次数，执行postFilter时消耗时长
+        //每个阶段只有一个令牌桶真正消耗令牌，只有它会更新重置时间
+        final long limitTokens = requestTime == null ? 1L : READ_ONLY;
+        final long quotaTokens = requestTime != null ? requestTime : READ_ONLY;
+
+        CompletableFuture<Void> limitDone = limit == null ? CompletableFuture.completedFuture(null)
+                : probe(key, limit, refreshInterval, limitTokens)
+                .thenAccept(probe -> rate.setRemaining(remaining(probe, limitTokens, rate)));
+        CompletableFuture<Void> quotaDone = quota == null ? CompletableFuture.completedFuture(null)
+                : probe(key + QUOTA_SUFFIX, quota, refreshInterval, quotaTokens)
+                .thenAccept(probe -> rate.setRemainingQuota(remaining(probe, quotaTokens, rate)));
+        return limitDone.thenCombine(quotaDone, (l, q) -> rate);
+    }
+
+    /**
+     * 令牌不足时消耗剩余的全部令牌，与阻塞实现保持一致
+     */
+    private CompletableFuture<ConsumptionProbe> probe(String key, Long capacity, Long refreshInterval, long tokens) {
+        AsyncBucket bucket = getBucket(key, capacity, refreshInterval).asAsync();
+        return bucket.tryConsumeAndReturnRemaining(tokens).thenCompose(probe -> {
+            if (probe.isConsumed() || tokens == READ_ONLY) {
+                return CompletableFuture.completedFuture(probe);
+            }
+            return bucket.tryConsumeAsMuchAsPossible(tokens).thenApply(drained -> probe);
+        });
+    }
+
+    /**
+     * 只读取时不更新重置时间，与阻塞实现保持一致
+     */
+    private long remaining(ConsumptionProbe probe, long tokens, Rate rate) {
+        if (tokens == READ_ONLY) {
+            return probe.getRemainingTokens() > 0 ? probe.getRemainingTokens() : -1L;
+        }
+        rate.setReset(NANOSECONDS.toMillis(probe.getNanosToWaitForRefill()));
+        return probe.isConsumed() ? probe.getRemainingTokens() : -1L;
+    }
+}
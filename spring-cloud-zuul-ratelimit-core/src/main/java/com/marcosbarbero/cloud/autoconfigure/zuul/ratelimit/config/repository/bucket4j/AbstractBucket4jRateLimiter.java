@@ -16,18 +16,15 @@
 
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j;
 
-import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
-import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.AbstractCacheRateLimiter;
 import io.github.bucket4j.*;
 import io.github.bucket4j.grid.ProxyManager;
 
-import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
-import static java.util.concurrent.TimeUnit.NANOSECONDS;
-
 /**
- * 使用令牌桶算法
+ * 使用令牌桶算法，令牌桶存储在Bucket4j支持的分布式缓存中
  * <p>
  * <p>
  * Bucket4j rate limiter configuration.
@@ -35,10 +32,20 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
  * @author Liel Chayoun
  * @since 2018-04-06
  */
-abstract class AbstractBucket4jRateLimiter<T extends AbstractBucketBuilder<T>, E extends Extension<T>> extends AbstractCacheRateLimiter {
+abstract class AbstractBucket4jRateLimiter<T extends AbstractBucketBuilder<T>, E extends Extension<T>> extends AbstractBucketRateLimiter {
+
+    /**
+     * 近端缓存的令牌桶代理数量上限
+     */
+    static final int PROXY_CACHE_SIZE = 10000;
 
     private final Class<E> extension;
     private ProxyManager<String> buckets;
+    /**
+     * 按容量和时间窗口缓存的令牌桶配置，容量 -> 时间窗口 -> 配置
+     */
+    private final Map<Long, Map<Long, Supplier<BucketConfiguration>>> configurations = new ConcurrentHashMap<>();
+    private final ProxyCache<CachedProxy> proxies = new ProxyCache<>(PROXY_CACHE_SIZE);
 
     AbstractBucket4jRateLimiter(final Class<E> extension) {
         this.extension = extension;
@@ -56,27 +63,17 @@ abstract class AbstractBucket4jRateLimiter<T extends AbstractBucketBuilder<T>, E
     protected abstract ProxyManager<String> getProxyManager(E extension);
 
     /**
-     * 获取时间的令牌桶
-     *
-     * @param key             限流的key值
-     * @param quota
-     * @param refreshInterval 单位时间窗口，单位秒
-     * @return
-     */
-    private Bucket getQuotaBucket(String key, Long quota, Long refreshInterval) {
-        return buckets.getProxy(key + QUOTA_SUFFIX, getBucketConfiguration(quota, refreshInterval));
-    }
-
-    /**
-     * 获取大次数的令牌桶
-     *
-     * @param key
-     * @param limit           单位时间窗口范围的最大次数
-     * @param refreshInterval 单位时间窗口，单位秒
-     * @return
+     * 代理只是远端令牌桶的句柄，可以复用。配置变化时缓存的代理会被替换
      */
-    private Bucket getLimitBucket(String key, Long limit, Long refreshInterval) {
-        return buckets.getProxy(key, getBucketConfiguration(limit, refreshInterval));
+    @Override
+    protected Bucket getBucket(String key, Long capacity, Long refreshInterval) {
+        Supplier<BucketConfiguration> configuration = getBucketConfiguration(capacity, refreshInterval);
+        CachedProxy cached = proxies.get(key);
+        if (cached == null || cached.configuration != configuration) {
+            cached = new CachedProxy(configuration, buckets.getProxy(key, configuration));
+            proxies.put(key, cached);
+        }
+        return cached.bucket;
     }
 
     /**
@@ -85,103 +82,69 @@ abstract class AbstractBucket4jRateLimiter<T extends AbstractBucketBuilder<T>, E
      * @return
      */
     private Supplier<BucketConfiguration> getBucketConfiguration(Long capacity, Long period) {
-        return () -> Bucket4j.configurationBuilder()
-                .addLimit(Bandwidth.simple(capacity, Duration.ofSeconds(period)))
-                .build();
+        Map<Long, Supplier<BucketConfiguration>> byPeriod = configurations
+                .computeIfAbsent(capacity, c -> new ConcurrentHashMap<>());
+        Supplier<BucketConfiguration> configuration = byPeriod.get(period);
+        if (configuration == null) {
+            BucketConfiguration built = Bucket4j.configurationBuilder()
+                    .addLimit(getBandwidth(capacity, period))
+                    .build();
+            configuration = byPeriod.computeIfAbsent(period, p -> () -> built);
+        }
+        return configuration;
     }
 
-    /**
-     * 设置剩余值
-     *
-     * @param rate      限流信息
-     * @param remaining 剩余值
-     * @param isQuota   isQuota=true时remaining剩余值为剩余时间，isQuota=true时remaining剩余值时为剩余次数
-     */
-    private void setRemaining(Rate rate, long remaining, boolean isQuota) {
-        if (isQuota) {
-            rate.setRemainingQuota(remaining);
-        } else {
-            rate.setRemaining(remaining);
+    private static final class CachedProxy {
+
+        private final Supplier<BucketConfiguration> configuration;
+        private final Bucket bucket;
+
+        private CachedProxy(Supplier<BucketConfiguration> configuration, Bucket bucket) {
+            this.configuration = configuration;
+            this.bucket = bucket;
         }
     }
 
     /**
-     * // 毫秒
-     * Bucket4j.builder().withMillisecondPrecision().build;
-     * // 微秒
-     * Bucket4j.builder().withNanosecondPrecision().build()
-     * <p>
-     * 计算并且设置剩余的令牌
-     *
-     * @param consume 消费次数
-     * @param rate    限流的信息
-     * @param bucket
-     * @param isQuota
+     * 有容量上限的近端缓存，分为新旧两代。新一代写满一半容量后整体降为旧一代，旧一代中被再次访问的代理会被提升，
+     * 其余的随下一次降级丢弃。读取不加锁
      */
-    private void calcAndSetRemainingBucket(Long consume, Rate rate, Bucket bucket, boolean isQuota) {
-        //尝试消费consume个令牌
-        ConsumptionProbe consumptionProbe = bucket.tryConsumeAndReturnRemaining(consume);
-        long nanosToWaitForRefill = consumptionProbe.getNanosToWaitForRefill();
-        rate.setReset(NANOSECONDS.toMillis(nanosToWaitForRefill));
-        //判断是否能消耗
-        if (consumptionProbe.isConsumed()) {
-            //剩余次数
-            long remainingTokens = consumptionProbe.getRemainingTokens();
-            //更新rate中的剩余次数或剩余时间
-            setRemaining(rate, remainingTokens, isQuota);
-        }
-        //没有令牌
-        else {
-            //更新rate中的剩余次数或剩余时间。 设置为-1，用完了
-            setRemaining(rate, -1L, isQuota);
-            //告知令牌桶，要增加令牌了
-            bucket.tryConsumeAsMuchAsPossible(consume);
-        }
-    }
+    static final class ProxyCache<V> {
 
-    private void calcAndSetRemainingBucket(Bucket bucket, Rate rate, boolean isQuota) {
-        long availableTokens = bucket.getAvailableTokens();
-        long remaining = availableTokens > 0 ? availableTokens : -1;
-        setRemaining(rate, remaining, isQuota);
-    }
+        private final int generationSize;
+        private volatile Map<String, V> current = new ConcurrentHashMap<>();
+        private volatile Map<String, V> previous = new ConcurrentHashMap<>();
 
-    /**
-     * 计算次数令牌桶的剩余次数值
-     *
-     * @param limit           单位时间窗口内的总次数
-     * @param refreshInterval 单位时间窗口
-     * @param requestTime     单位时间窗口内的总耗时
-     * @param key             限流的key
-     * @param rate            限流key对应的信息
-     */
-    @Override
-    protected void calcRemainingLimit(final Long limit, final Long refreshInterval, final Long requestTime,
-                                      final String key, final Rate rate) {
-        if (limit == null) {
-            return;
+        ProxyCache(int maximumSize) {
+            this.generationSize = Math.max(1, maximumSize / 2);
         }
-        Bucket bucket = getLimitBucket(key, limit, refreshInterval);
-        //执行preFilter时
-        if (requestTime == null) {
-            calcAndSetRemainingBucket(1L, rate, bucket, false);
-        }
-        //执行POSTFilter时
-        else {
-            calcAndSetRemainingBucket(bucket, rate, false);
+
+        V get(String key) {
+            V cached = current.get(key);
+            if (cached == null) {
+                cached = previous.get(key);
+                if (cached != null) {
+                    put(key, cached);
+                }
+            }
+            return cached;
         }
-    }
 
-    @Override
-    protected void calcRemainingQuota(final Long quota, final Long refreshInterval, final Long requestTime,
-                                      final String key, final Rate rate) {
-        if (quota == null) {
-            return;
+        void put(String key, V value) {
+            Map<String, V> generation = current;
+            generation.put(key, value);
+            if (generation.size() > generationSize) {
+                synchronized (this) {
+                    if (current == generation) {
+                        previous = generation;
+                        current = new ConcurrentHashMap<>();
+                    }
+                }
+            }
         }
-        Bucket bucket = getQuotaBucket(key, quota, refreshInterval);
-        if (requestTime != null) {
-            calcAndSetRemainingBucket(requestTime, rate, bucket, true);
-        } else {
-            calcAndSetRemainingBucket(bucket, rate, true);
+
+        int size() {
+            return current.size() + previous.size();
         }
     }
 }
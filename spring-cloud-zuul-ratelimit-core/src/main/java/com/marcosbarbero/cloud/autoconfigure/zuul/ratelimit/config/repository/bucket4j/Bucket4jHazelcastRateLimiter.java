@@ -28,7 +28,7 @@ import io.github.bucket4j.grid.hazelcast.HazelcastBucketBuilder;
  * @author Liel Chayoun
  * @since 2018-04-06
  */
-public class Bucket4jHazelcastRateLimiter extends AbstractBucket4jRateLimiter<HazelcastBucketBuilder, Hazelcast> {
+public class Bucket4jHazelcastRateLimiter extends AbstractBucket4jAsyncRateLimiter<HazelcastBucketBuilder, Hazelcast> {
 
     private final IMap<String, GridBucketState> rateLimit;
 
@@ -28,7 +28,7 @@ import org.apache.ignite.IgniteCache;
  * @author Liel Chayoun
  * @since 2018-04-06
  */
-public class Bucket4jIgniteRateLimiter extends AbstractBucket4jRateLimiter<IgniteBucketBuilder, Ignite> {
+public class Bucket4jIgniteRateLimiter extends AbstractBucket4jAsyncRateLimiter<IgniteBucketBuilder, Ignite> {
 
     private final IgniteCache<String, GridBucketState> cache;
 
@@ -28,7 +28,7 @@ import org.infinispan.functional.FunctionalMap.ReadWriteMap;
  * @author Liel Chayoun
  * @since 2018-04-06
  */
-public class Bucket4jInfinispanRateLimiter extends AbstractBucket4jRateLimiter<InfinispanBucketBuilder, Infinispan> {
+public class Bucket4jInfinispanRateLimiter extends AbstractBucket4jAsyncRateLimiter<InfinispanBucketBuilder, Infinispan> {
 
     private final ReadWriteMap<String, GridBucketState> readWriteMap;
 
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Bucket4j;
+
+/**
+ * 本地令牌桶实现，只对当前进程生效
+ * <p>
+ * Buckets live in a size bounded Caffeine cache, which evicts with W-TinyLFU so a burst of one-off keys does not push
+ * out the frequently used ones. Local buckets are lock-free, so no lock is taken around {@link #consume}.
+ *
+ * @author Liel Chayoun
+ */
+public class Bucket4jLocalRateLimiter extends AbstractBucketRateLimiter {
+
+    private final Cache<String, Bucket> buckets;
+
+    /**
+     * @param maximumSize 最多缓存的令牌桶数量，次数和时长各占一个
+     */
+    public Bucket4jLocalRateLimiter(final long maximumSize) {
+        this.buckets = Caffeine.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        return calcRate(policy, key, requestTime);
+    }
+
+    @Override
+    protected Bucket getBucket(String key, Long capacity, Long refreshInterval) {
+        return buckets.get(key, k -> Bucket4j.builder()
+                .addLimit(getBandwidth(capacity, refreshInterval))
+                .build());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.WindowAlignmentAware;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * 次数和时长保存在同一个缓存条目中，pre和post阶段各只需要一次远程调用
+ * <p>
+ * Uses a fixed window shared by the limit and the quota of a policy, instead of the two token buckets used by the
+ * Bucket4j limiters.
+ *
+ * @author Liel Chayoun
+ */
+public abstract class AbstractCombinedGridRateLimiter implements RateLimiter, WindowAlignmentAware {
+
+    private WindowAlignment windowAlignment = WindowAlignment.FIRST_REQUEST;
+
+    @Override
+    public void setWindowAlignment(WindowAlignment windowAlignment) {
+        this.windowAlignment = windowAlignment;
+    }
+
+    @Override
+    public Rate consume(Policy policy, String key, Long requestTime) {
+        final Long limit = policy.getLimit();
+        final Long quota = policy.getQuota() != null ? SECONDS.toMillis(policy.getQuota()) : null;
+        final long now = System.currentTimeMillis();
+        //执行preFilter时增加次数，执行postFilter时增加耗时
+        final long windowEnd = windowAlignment.windowEnd(key, SECONDS.toMillis(policy.getRefreshInterval()), now);
+        final CombinedStateUpdate update = new CombinedStateUpdate(now, windowEnd - now,
+            requestTime == null ? 1L : 0L, requestTime != null ? requestTime : 0L);
+
+        final CombinedRateLimitState state = update(key, update);
+
+        final Rate rate = new Rate(key, limit, quota, null, null);
+        if (limit != null) {
+            rate.setRemaining(Math.max(-1, limit - state.getCount()));
+        }
+        if (quota != null) {
+            rate.setRemainingQuota(Math.max(-1, quota - state.getQuotaUsed()));
+        }
+        rate.setReset(Math.max(0L, state.getWindowEnd() - now));
+        return rate;
+    }
+
+    /**
+     * 在缓存节点上原子地执行更新
+     *
+     * @param key    限流的key
+     * @param update 需要执行的更新
+     * @return 更新后的值
+     */
+    protected abstract CombinedRateLimitState update(String key, CombinedStateUpdate update);
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid;
+
+import java.io.Serializable;
+
+/**
+ * 一个key的次数和时长计数保存在同一个分布式缓存条目中，共用一个时间窗口
+ * <p>
+ * Immutable, so the value held by the grid is never changed in place.
+ *
+ * @author Liel Chayoun
+ */
+public final class CombinedRateLimitState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 时间窗口结束时间，epoch毫秒
+     */
+    private final long windowEnd;
+    /**
+     * 窗口内的请求次数
+     */
+    private final long count;
+    /**
+     * 窗口内的请求总耗时，单位毫秒
+     */
+    private final long quotaUsed;
+
+    public CombinedRateLimitState(long windowEnd, long count, long quotaUsed) {
+        this.windowEnd = windowEnd;
+        this.count = count;
+        this.quotaUsed = quotaUsed;
+    }
+
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getQuotaUsed() {
+        return quotaUsed;
+    }
+}
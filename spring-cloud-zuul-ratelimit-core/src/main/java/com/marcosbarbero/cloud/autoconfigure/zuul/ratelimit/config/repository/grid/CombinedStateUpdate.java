@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid;
+
+import java.io.Serializable;
+
+/**
+ * 在缓存节点上执行的更新，一次调用同时更新次数和时长
+ * <p>
+ * The time is taken by the caller, so primary and backup copies compute the same state.
+ *
+ * @author Liel Chayoun
+ */
+public final class CombinedStateUpdate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long now;
+    private final long interval;
+    private final long countDelta;
+    private final long quotaDelta;
+
+    /**
+     * @param now        当前时间，epoch毫秒
+     * @param interval   新窗口从当前时间开始的长度，单位毫秒
+     * @param countDelta 增加的请求次数
+     * @param quotaDelta 增加的请求耗时，单位毫秒
+     */
+    public CombinedStateUpdate(long now, long interval, long countDelta, long quotaDelta) {
+        this.now = now;
+        this.interval = interval;
+        this.countDelta = countDelta;
+        this.quotaDelta = quotaDelta;
+    }
+
+    /**
+     * @param current 缓存中的当前值，不存在或者不是{@link CombinedRateLimitState}时当作新窗口
+     * @return 更新后的值
+     */
+    public CombinedRateLimitState applyTo(Object current) {
+        if (current instanceof CombinedRateLimitState && ((CombinedRateLimitState) current).getWindowEnd() > now) {
+            CombinedRateLimitState state = (CombinedRateLimitState) current;
+            return new CombinedRateLimitState(state.getWindowEnd(), state.getCount() + countDelta,
+                state.getQuotaUsed() + quotaDelta);
+        }
+        return new CombinedRateLimitState(now + interval, countDelta, quotaDelta);
+    }
+
+    /**
+     * @return 条目的存活时间，单位毫秒
+     */
+    public long timeToLive(CombinedRateLimitState state) {
+        return Math.max(1L, state.getWindowEnd() - now);
+    }
+}
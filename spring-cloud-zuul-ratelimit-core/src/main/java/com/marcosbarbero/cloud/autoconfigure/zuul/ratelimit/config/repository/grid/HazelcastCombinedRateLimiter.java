@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid;
+
+import com.hazelcast.core.IMap;
+import com.hazelcast.map.AbstractEntryProcessor;
+import com.hazelcast.map.ExtendedMapEntry;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hazelcast实现，通过EntryProcessor在key所在的节点上更新，条目在时间窗口结束后过期
+ *
+ * @author Liel Chayoun
+ */
+public class HazelcastCombinedRateLimiter extends AbstractCombinedGridRateLimiter {
+
+    private final IMap<String, ?> rateLimit;
+
+    public HazelcastCombinedRateLimiter(final IMap<String, ?> rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    @Override
+    protected CombinedRateLimitState update(String key, CombinedStateUpdate update) {
+        return (CombinedRateLimitState) rateLimit.executeOnKey(key, new Processor(update));
+    }
+
+    /**
+     * 备份节点上执行相同的更新，时间由调用方传入，结果一致
+     */
+    static final class Processor extends AbstractEntryProcessor<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CombinedStateUpdate update;
+
+        Processor(CombinedStateUpdate update) {
+            this.update = update;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object process(Map.Entry<String, Object> entry) {
+            CombinedRateLimitState state = update.applyTo(entry.getValue());
+            if (entry instanceof ExtendedMapEntry) {
+                ((ExtendedMapEntry<String, Object>) entry)
+                    .setValue(state, update.timeToLive(state), TimeUnit.MILLISECONDS);
+            } else {
+                entry.setValue(state);
+            }
+            return state;
+        }
+    }
+}
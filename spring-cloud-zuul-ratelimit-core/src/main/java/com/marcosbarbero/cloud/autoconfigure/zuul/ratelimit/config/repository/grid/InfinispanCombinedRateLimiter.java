@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid;
+
+import org.infinispan.functional.EntryView.ReadWriteEntryView;
+import org.infinispan.functional.FunctionalMap.ReadWriteMap;
+import org.infinispan.functional.MetaParam;
+import org.infinispan.util.function.SerializableFunction;
+
+/**
+ * Infinispan实现，通过函数式API在key所在的节点上更新，条目在时间窗口结束后过期
+ *
+ * @author Liel Chayoun
+ */
+public class InfinispanCombinedRateLimiter extends AbstractCombinedGridRateLimiter {
+
+    private final ReadWriteMap<String, Object> readWriteMap;
+
+    public InfinispanCombinedRateLimiter(final ReadWriteMap<String, Object> readWriteMap) {
+        this.readWriteMap = readWriteMap;
+    }
+
+    @Override
+    protected CombinedRateLimitState update(String key, CombinedStateUpdate update) {
+        return readWriteMap.eval(key, new Processor(update)).join();
+    }
+
+    static final class Processor
+        implements SerializableFunction<ReadWriteEntryView<String, Object>, CombinedRateLimitState> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CombinedStateUpdate update;
+
+        Processor(CombinedStateUpdate update) {
+            this.update = update;
+        }
+
+        @Override
+        public CombinedRateLimitState apply(ReadWriteEntryView<String, Object> entry) {
+            CombinedRateLimitState state = update.applyTo(entry.find().orElse(null));
+            entry.set(state, new MetaParam.MetaLifespan(update.timeToLive(state)));
+            return state;
+        }
+    }
+}
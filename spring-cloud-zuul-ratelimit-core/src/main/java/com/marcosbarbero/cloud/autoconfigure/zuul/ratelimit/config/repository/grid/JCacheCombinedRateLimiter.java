@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter;
+import org.springframework.util.PatternMatchUtils;
+
+import javax.cache.Cache;
+import javax.cache.CacheException;
+import javax.cache.CacheManager;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ModifiedExpiryPolicy;
+import javax.cache.processor.EntryProcessor;
+import javax.cache.processor.MutableEntry;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * JCache实现，通过EntryProcessor原子更新。IgniteCache也是JCache，Ignite同样使用此实现
+ * <p>
+ * The states live in a cache of their own typed for {@link CombinedRateLimitState}, apart from the GridBucketState
+ * cache of the Bucket4j limiters. An EntryProcessor can't set the expiry of one entry, so that cache expires an entry
+ * the longest refresh interval after its last update, when its window is over for sure, see
+ * {@link #configuration(long)}.
+ *
+ * @author Liel Chayoun
+ */
+public class JCacheCombinedRateLimiter extends AbstractCombinedGridRateLimiter implements InspectableRateLimiter {
+
+    /**
+     * 专用缓存的名称后缀
+     */
+    public static final String CACHE_SUFFIX = "-combined";
+
+    /**
+     * 每次删除的key数量
+     */
+    static final int REMOVE_BATCH_SIZE = 500;
+
+    private final Cache<String, CombinedRateLimitState> cache;
+
+    /**
+     * @param cache 专用的缓存，需要配置过期时间，见{@link #configuration(long)}
+     */
+    public JCacheCombinedRateLimiter(final Cache<String, CombinedRateLimitState> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 专用缓存的配置，条目在最后一次更新后经过最长的时间窗口过期
+     *
+     * @param maxWindow 所有策略中最长的时间窗口，单位毫秒
+     */
+    public static MutableConfiguration<String, CombinedRateLimitState> configuration(long maxWindow) {
+        return new MutableConfiguration<String, CombinedRateLimitState>()
+            .setTypes(String.class, CombinedRateLimitState.class)
+            .setExpiryPolicyFactory(ModifiedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS, maxWindow)));
+    }
+
+    /**
+     * 获取或创建专用缓存，其他节点可能同时创建
+     *
+     * @param cacheManager 缓存所在的CacheManager
+     * @param name         缓存名称
+     * @param maxWindow    所有策略中最长的时间窗口，单位毫秒
+     */
+    public static Cache<String, CombinedRateLimitState> getOrCreateCache(CacheManager cacheManager, String name,
+                                                                        long maxWindow) {
+        Cache<String, CombinedRateLimitState> cache = cacheManager.getCache(name, String.class,
+            CombinedRateLimitState.class);
+        if (cache != null) {
+            return cache;
+        }
+        try {
+            return cacheManager.createCache(name, configuration(maxWindow));
+        } catch (CacheException e) {
+            cache = cacheManager.getCache(name, String.class, CombinedRateLimitState.class);
+            if (cache == null) {
+                throw e;
+            }
+            return cache;
+        }
+    }
+
+    @Override
+    protected CombinedRateLimitState update(String key, CombinedStateUpdate update) {
+        return cache.invoke(key, new Processor(update));
+    }
+
+    @Override
+    public KeyState inspect(String key) {
+        CombinedRateLimitState state = cache.get(key);
+        long now = System.currentTimeMillis();
+        if (state == null || state.getWindowEnd() <= now) {
+            return null;
+        }
+        return new KeyState(key, state.getCount(), state.getQuotaUsed(), null, null, state.getWindowEnd() - now);
+    }
+
+    /**
+     * 使用缓存的迭代器遍历，条目由缓存分批取回
+     */
+    @Override
+    public void scan(String pattern, Predicate<String> visitor) {
+        for (Cache.Entry<String, CombinedRateLimitState> entry : cache) {
+            if (PatternMatchUtils.simpleMatch(pattern, entry.getKey()) && !visitor.test(entry.getKey())) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long reset(String pattern) {
+        if (!pattern.contains("*")) {
+            return cache.remove(pattern) ? 1L : 0L;
+        }
+        Set<String> batch = new HashSet<>();
+        long[] deleted = {0L};
+        scan(pattern, key -> {
+            batch.add(key);
+            if (batch.size() == REMOVE_BATCH_SIZE) {
+                deleted[0] += batch.size();
+                cache.removeAll(batch);
+                batch.clear();
+            }
+            return true;
+        });
+        if (!batch.isEmpty()) {
+            deleted[0] += batch.size();
+            cache.removeAll(batch);
+        }
+        return deleted[0];
+    }
+
+    static final class Processor
+        implements EntryProcessor<String, CombinedRateLimitState, CombinedRateLimitState>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CombinedStateUpdate update;
+
+        Processor(CombinedStateUpdate update) {
+            this.update = update;
+        }
+
+        @Override
+        public CombinedRateLimitState process(MutableEntry<String, CombinedRateLimitState> entry,
+                                              Object... arguments) {
+            CombinedRateLimitState state = update.applyTo(entry.getValue());
+            entry.setValue(state);
+            return state;
+        }
+    }
+}
@@ -16,10 +16,18 @@
 
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.springdata;
 
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.AbstractRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterErrorHandler;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.util.PatternMatchUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Rate的CRUD操作
@@ -30,7 +38,12 @@ import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.Ra
  * @author Liel Chayoun
  * @since 2017-06-23
  */
-public class JpaRateLimiter extends AbstractRateLimiter {
+public class JpaRateLimiter extends AbstractRateLimiter implements InspectableRateLimiter {
+
+    /**
+     * 遍历时每页读取的数量，也是每次删除的数量
+     */
+    static final int PAGE_SIZE = 500;
 
     private final RateLimiterRepository repository;
 
@@ -60,4 +73,91 @@ public class JpaRateLimiter extends AbstractRateLimiter {
         this.repository.save(rate);
     }
 
+    @Override
+    public KeyState inspect(String key) {
+        Rate rate = getRate(key);
+        if (rate == null || rate.getExpiration().getTime() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return new KeyState(key, null, null, rate.getRemaining(), rate.getRemainingQuota(),
+            rate.getExpiration().getTime() - System.currentTimeMillis());
+    }
+
+    @Override
+    public void scan(String pattern, Predicate<String> visitor) {
+        forEachPage(pattern, page -> {
+            for (Rate rate : page) {
+                if (!visitor.test(rate.getKey())) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * 每页匹配的Rate用一条语句删除，单个key直接删除，不存在时返回0
+     */
+    @Override
+    public long reset(String pattern) {
+        if (!pattern.contains("*")) {
+            try {
+                repository.deleteById(pattern);
+                return 1L;
+            } catch (EmptyResultDataAccessException e) {
+                return 0L;
+            }
+        }
+        long[] deleted = {0L};
+        forEachPage(pattern, page -> {
+            List<String> keys = new ArrayList<>(page.size());
+            for (Rate rate : page) {
+                keys.add(rate.getKey());
+            }
+            deleted[0] += repository.deleteByKeys(keys);
+            return true;
+        });
+        return deleted[0];
+    }
+
+    /**
+     * 按key分页读取，每页只保留匹配的Rate
+     * <p>
+     * Only the keys starting with the literal prefix of the pattern, the part before the first {@code *}, can match,
+     * so paging starts at that prefix and stops at the first key past it.
+     *
+     * @param pattern 匹配key的模式
+     * @param visitor 接收每页匹配的Rate，返回false时停止
+     */
+    private void forEachPage(String pattern, Predicate<List<Rate>> visitor) {
+        int star = pattern.indexOf('*');
+        String prefix = star < 0 ? pattern : pattern.substring(0, star);
+        List<Rate> matches = new ArrayList<>();
+        // the paging is exclusive, the prefix itself is a key too
+        repository.findById(prefix)
+            .filter(rate -> PatternMatchUtils.simpleMatch(pattern, rate.getKey()))
+            .ifPresent(matches::add);
+        String after = prefix;
+        while (true) {
+            List<Rate> page = repository.findByKeyGreaterThanOrderByKeyAsc(after, PageRequest.of(0, PAGE_SIZE));
+            boolean passed = false;
+            for (Rate rate : page) {
+                if (!rate.getKey().startsWith(prefix)) {
+                    passed = true;
+                    break;
+                }
+                if (PatternMatchUtils.simpleMatch(pattern, rate.getKey())) {
+                    matches.add(rate);
+                }
+            }
+            if (!matches.isEmpty() && !visitor.test(matches)) {
+                return;
+            }
+            if (passed || page.size() < PAGE_SIZE) {
+                return;
+            }
+            after = page.get(page.size() - 1).getKey();
+            matches = new ArrayList<>();
+        }
+    }
 }
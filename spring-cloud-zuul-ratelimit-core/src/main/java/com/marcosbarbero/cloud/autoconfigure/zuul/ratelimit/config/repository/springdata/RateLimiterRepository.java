@@ -18,11 +18,38 @@ package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.s
 
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * @author Liel Chayoun
  */
 public interface RateLimiterRepository extends CrudRepository<Rate, String> {
 
+    /**
+     * 按key排序分页，从上一页的最后一个key之后继续，遍历过程中删除数据不会跳过其他key
+     *
+     * @param key      上一页的最后一个key，第一页为模式中第一个*之前的前缀
+     * @param pageable 每页的数量
+     * @return 排在key之后的一页Rate
+     */
+    List<Rate> findByKeyGreaterThanOrderByKeyAsc(String key, Pageable pageable);
+
+    /**
+     * 用一条语句删除多个key
+     *
+     * @param keys 要删除的key
+     * @return 删除的数量
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from Rate r where r.key in :keys")
+    int deleteByKeys(@Param("keys") Collection<String> keys);
 }
@@ -16,7 +16,12 @@
 
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.filters;
 
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents.ConsumeEvent;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitMetrics;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitUtils;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy.MatchType;
@@ -27,6 +32,7 @@ import org.springframework.cloud.netflix.zuul.filters.RouteLocator;
 import org.springframework.web.util.UrlPathHelper;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -56,6 +62,14 @@ abstract class AbstractRateLimitFilter extends ZuulFilter {
      * 限流工具类
      */
     private final RateLimitUtils rateLimitUtils;
+    /**
+     * 指标记录
+     */
+    private final RateLimitMetrics metrics;
+    /**
+     * 每次计数的事件
+     */
+    private final RateLimitEvents events;
 
     /**
      * 是否已限流
@@ -63,11 +77,63 @@ abstract class AbstractRateLimitFilter extends ZuulFilter {
     private boolean alreadyLimited;
 
     AbstractRateLimitFilter(final RateLimitProperties properties, final RouteLocator routeLocator,
-                            final UrlPathHelper urlPathHelper, final RateLimitUtils rateLimitUtils) {
+                            final UrlPathHelper urlPathHelper, final RateLimitUtils rateLimitUtils,
+                            final RateLimitMetrics metrics, final RateLimitEvents events) {
         this.properties = properties;
         this.routeLocator = routeLocator;
         this.urlPathHelper = urlPathHelper;
         this.rateLimitUtils = rateLimitUtils;
+        this.metrics = metrics != null ? metrics : RateLimitMetrics.NONE;
+        this.events = events != null ? events : RateLimitEvents.NONE;
+    }
+
+    RateLimitMetrics metrics() {
+        return metrics;
+    }
+
+    RateLimitEvents events() {
+        return events;
+    }
+
+    /**
+     * 一次调用完成多个策略的计数前，为每个策略开始一个事件
+     *
+     * @param count 策略数量
+     * @return 开始的事件，没有在记录时为null
+     */
+    List<ConsumeEvent> beginConsume(int count) {
+        ConsumeEvent first = events.beginConsume();
+        if (first == null) {
+            return null;
+        }
+        List<ConsumeEvent> started = new ArrayList<>(count);
+        started.add(first);
+        for (int i = 1; i < count; i++) {
+            started.add(events.beginConsume());
+        }
+        return started;
+    }
+
+    /**
+     * @param started     {@link #beginConsume(int)}开始的事件，可以为null
+     * @param routeId     路由id，没有匹配的路由时为null
+     * @param rateLimiter 调用的存储
+     * @param policies    计数的策略
+     * @param keys        与policies顺序一致的key
+     * @param rates       与policies顺序一致的计数结果，不需要结果时为null
+     */
+    void endConsume(List<ConsumeEvent> started, String routeId, RateLimiter rateLimiter, List<Policy> policies,
+                    List<String> keys, List<Rate> rates) {
+        if (started == null) {
+            return;
+        }
+        for (int i = 0; i < started.size(); i++) {
+            ConsumeEvent event = started.get(i);
+            if (event != null) {
+                event.end(filterType(), routeId, rateLimiter, policies.get(i), keys.get(i),
+                    rates != null ? rates.get(i) : null);
+            }
+        }
     }
 
     @Override
@@ -117,10 +183,12 @@ abstract class AbstractRateLimitFilter extends ZuulFilter {
 
         String routeId = route != null ? route.getId() : null;
         alreadyLimited = false;
+        long start = System.nanoTime();
         //获取可使用的规则
         policies = properties.getPolicies(routeId).stream()
                 .filter(policy -> applyPolicy(request, route, policy))
                 .collect(Collectors.toList());
+        metrics.recordPolicyMatching(routeId, System.nanoTime() - start);
 
         //把规则设置到zuul的上下文
         addObjectToCurrentRequestContext(CURRENT_REQUEST_POLICY, policies);
@@ -16,18 +16,34 @@
 
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.filters;
 
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents.ConsumeEvent;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitKeyGenerator;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitMetrics;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitUtils;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.DefaultRateLimiterErrorHandler;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterErrorHandler;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RequestLatencyHistograms;
 import com.netflix.zuul.context.RequestContext;
 import org.springframework.cloud.netflix.zuul.filters.Route;
 import org.springframework.cloud.netflix.zuul.filters.RouteLocator;
+import org.springframework.lang.Nullable;
 import org.springframework.web.util.UrlPathHelper;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
-import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitConstants.REQUEST_START_TIME;
+import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitConstants.REQUEST_START_NANOS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.POST_TYPE;
 
 /**
@@ -39,14 +55,40 @@ public class RateLimitPostFilter extends AbstractRateLimitFilter {
     private final RateLimitProperties properties;
     private final RateLimiter rateLimiter;
     private final RateLimitKeyGenerator rateLimitKeyGenerator;
+    /**
+     * 异步计数失败时的错误处理
+     */
+    private final RateLimiterErrorHandler rateLimiterErrorHandler;
+    /**
+     * 按路由记录的请求耗时分布，为null时不记录
+     */
+    private final RequestLatencyHistograms latencyHistograms;
 
     public RateLimitPostFilter(final RateLimitProperties properties, final RouteLocator routeLocator,
                                final UrlPathHelper urlPathHelper, final RateLimiter rateLimiter,
                                final RateLimitKeyGenerator rateLimitKeyGenerator, final RateLimitUtils rateLimitUtils) {
-        super(properties, routeLocator, urlPathHelper, rateLimitUtils);
+        this(properties, routeLocator, urlPathHelper, rateLimiter, rateLimitKeyGenerator, rateLimitUtils,
+            new DefaultRateLimiterErrorHandler(), null, null, null);
+    }
+
+    /**
+     * @param rateLimiterErrorHandler 异步计数失败时的错误处理
+     * @param metrics                 指标记录，为null时不记录
+     * @param events                  每次计数的事件，为null时不产生事件
+     * @param latencyHistograms       按路由记录的请求耗时分布，为null时不记录
+     */
+    public RateLimitPostFilter(final RateLimitProperties properties, final RouteLocator routeLocator,
+                               final UrlPathHelper urlPathHelper, final RateLimiter rateLimiter,
+                               final RateLimitKeyGenerator rateLimitKeyGenerator, final RateLimitUtils rateLimitUtils,
+                               final RateLimiterErrorHandler rateLimiterErrorHandler,
+                               @Nullable final RateLimitMetrics metrics, @Nullable final RateLimitEvents events,
+                               @Nullable final RequestLatencyHistograms latencyHistograms) {
+        super(properties, routeLocator, urlPathHelper, rateLimitUtils, metrics, events);
         this.properties = properties;
         this.rateLimiter = rateLimiter;
         this.rateLimitKeyGenerator = rateLimitKeyGenerator;
+        this.rateLimiterErrorHandler = rateLimiterErrorHandler;
+        this.latencyHistograms = latencyHistograms;
     }
 
     @Override
@@ -66,12 +108,12 @@ public class RateLimitPostFilter extends AbstractRateLimitFilter {
 
     /**
      * 获取请求的开始时间
-     * @return
+     * @return pre过滤器记录的{@link System#nanoTime()}
      */
     private Long getRequestStartTime() {
         final RequestContext ctx = RequestContext.getCurrentContext();
         final HttpServletRequest request = ctx.getRequest();
-        return (Long) request.getAttribute(REQUEST_START_TIME);
+        return (Long) request.getAttribute(REQUEST_START_NANOS);
     }
 
     @Override
@@ -80,13 +122,75 @@ public class RateLimitPostFilter extends AbstractRateLimitFilter {
         HttpServletRequest request = ctx.getRequest();
         Route route = route(request);
 
-        policy(route, request).forEach(policy -> {
-            //请求耗时时间，毫秒
-            long requestTime = System.currentTimeMillis() - getRequestStartTime();
-            String key = rateLimitKeyGenerator.key(request, route, policy);
-            rateLimiter.consume(policy, key, requestTime > 0 ? requestTime : 1);
-        });
+        String routeId = route != null ? route.getId() : null;
+        Long requestStartTime = getRequestStartTime();
+        if (requestStartTime == null) {
+            //pre过滤器没有消耗时长配额，不需要扣除
+            return null;
+        }
+        //请求耗时，两次读取的都是单调时钟，不受系统时间调整的影响
+        long requestNanos = System.nanoTime() - requestStartTime;
+        if (latencyHistograms != null) {
+            latencyHistograms.record(routeId, requestNanos);
+        }
+        //从时长配额中扣除的耗时，单位毫秒，至少为1
+        long requestTime = Math.max(1L, NANOSECONDS.toMillis(requestNanos));
+
+        List<Policy> policies = policy(route, request);
+        long start = System.nanoTime();
+        List<String> keys = policies.stream()
+            .map(policy -> rateLimitKeyGenerator.key(request, route, policy))
+            .collect(Collectors.toList());
+        metrics().recordKeyGeneration(routeId, System.nanoTime() - start);
+        if (rateLimiter instanceof BatchRateLimiter && policies.size() > 1) {
+            List<ConsumeEvent> events = beginConsume(policies.size());
+            start = System.nanoTime();
+            List<Rate> rates = ((BatchRateLimiter) rateLimiter)
+                .consume(policies, keys, requestTime);
+            metrics().recordConsume(POST_TYPE, System.nanoTime() - start);
+            endConsume(events, routeId, rateLimiter, policies, keys, rates);
+            return null;
+        }
+
+        for (int i = 0; i < policies.size(); i++) {
+            Policy policy = policies.get(i);
+            String key = keys.get(i);
+            ConsumeEvent event = events().beginConsume();
+            long consumeStart = System.nanoTime();
+            if (rateLimiter instanceof AsyncRateLimiter) {
+                //post阶段不需要计数结果，不等待
+                CompletableFuture<Rate> future = ((AsyncRateLimiter) rateLimiter)
+                    .consumeAsync(policy, key, requestTime);
+                if (event != null) {
+                    //whenComplete可能在完成计数的线程执行，锁等待时间在当前线程读取
+                    event.callReturned();
+                }
+                future.whenComplete((rate, e) -> {
+                    metrics().recordConsume(POST_TYPE, System.nanoTime() - consumeStart);
+                    if (event != null) {
+                        event.end(POST_TYPE, routeId, rateLimiter, policy, key, rate);
+                    }
+                    if (e != null) {
+                        rateLimiterErrorHandler.handleSaveError(key, unwrap(e));
+                    }
+                });
+            } else {
+                Rate rate = rateLimiter.consume(policy, key, requestTime);
+                metrics().recordConsume(POST_TYPE, System.nanoTime() - consumeStart);
+                if (event != null) {
+                    event.end(POST_TYPE, routeId, rateLimiter, policy, key, rate);
+                }
+            }
+        }
 
         return null;
     }
+
+    /**
+     * 异步计数的异常被包装为{@link CompletionException}，交给错误处理器前取出原始异常
+     */
+    private static Exception unwrap(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof Exception ? (Exception) cause : new CompletionException(cause);
+    }
 }
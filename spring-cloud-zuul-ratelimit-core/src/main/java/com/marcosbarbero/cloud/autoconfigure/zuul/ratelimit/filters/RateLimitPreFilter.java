@@ -21,11 +21,19 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.springframework.cloud.netflix.zuul.filters.support.FilterConstants.PRE_TYPE;
 
 import com.google.common.collect.Maps;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents.ConsumeEvent;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitKeyGenerator;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitMetrics;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitUtils;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.BlockedKeyCache;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.HeavyHitters;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitExceededException;
 import com.netflix.zuul.context.RequestContext;
 import javax.servlet.http.HttpServletRequest;
@@ -33,9 +41,14 @@ import javax.servlet.http.HttpServletResponse;
 import org.springframework.cloud.netflix.zuul.filters.Route;
 import org.springframework.cloud.netflix.zuul.filters.RouteLocator;
 import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
 import org.springframework.web.util.UrlPathHelper;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * @author Marcos Barbero
@@ -47,14 +60,39 @@ public class RateLimitPreFilter extends AbstractRateLimitFilter {
     private final RateLimitProperties properties;
     private final RateLimiter rateLimiter;
     private final RateLimitKeyGenerator rateLimitKeyGenerator;
+    /**
+     * 本地记录的已超出限制的key，为null时每次都访问存储
+     */
+    private final BlockedKeyCache blockedKeys;
+    /**
+     * 本节点访问最多和被拒绝最多的key，为null时不统计
+     */
+    private final HeavyHitters heavyHitters;
 
     public RateLimitPreFilter(final RateLimitProperties properties, final RouteLocator routeLocator,
                               final UrlPathHelper urlPathHelper, final RateLimiter rateLimiter,
                               final RateLimitKeyGenerator rateLimitKeyGenerator, final RateLimitUtils rateLimitUtils) {
-        super(properties, routeLocator, urlPathHelper, rateLimitUtils);
+        this(properties, routeLocator, urlPathHelper, rateLimiter, rateLimitKeyGenerator, rateLimitUtils, null, null,
+            null, null);
+    }
+
+    /**
+     * @param blockedKeys  本地记录的已超出限制的key，为null时每次都访问存储
+     * @param metrics      指标记录，为null时不记录
+     * @param heavyHitters 统计访问最多的key，为null时不统计
+     * @param events       每次计数的事件，为null时不产生事件
+     */
+    public RateLimitPreFilter(final RateLimitProperties properties, final RouteLocator routeLocator,
+                              final UrlPathHelper urlPathHelper, final RateLimiter rateLimiter,
+                              final RateLimitKeyGenerator rateLimitKeyGenerator, final RateLimitUtils rateLimitUtils,
+                              @Nullable final BlockedKeyCache blockedKeys, @Nullable final RateLimitMetrics metrics,
+                              @Nullable final HeavyHitters heavyHitters, @Nullable final RateLimitEvents events) {
+        super(properties, routeLocator, urlPathHelper, rateLimitUtils, metrics, events);
         this.properties = properties;
         this.rateLimiter = rateLimiter;
         this.rateLimitKeyGenerator = rateLimitKeyGenerator;
+        this.blockedKeys = blockedKeys;
+        this.heavyHitters = heavyHitters;
     }
 
     @Override
@@ -75,16 +113,31 @@ public class RateLimitPreFilter extends AbstractRateLimitFilter {
         final HttpServletRequest request = ctx.getRequest();
         //根据请求获取Route
         final Route route = route(request);
+        final String routeId = route != null ? route.getId() : null;
 
         //获取配置的规则
-        policy(route, request).forEach(policy -> {
+        final List<Policy> policies = policy(route, request);
+        long start = System.nanoTime();
+        //计数的key的生成
+        final List<String> keys = policies.stream()
+            .map(policy -> rateLimitKeyGenerator.key(request, route, policy))
+            .collect(Collectors.toList());
+        metrics().recordKeyGeneration(routeId, System.nanoTime() - start);
+        rejectBlocked(ctx, response, routeId, policies, keys);
+        start = System.nanoTime();
+        final List<Rate> rates = consumeAll(routeId, policies, keys);
+        if (rates != null) {
+            metrics().recordConsume(PRE_TYPE, System.nanoTime() - start);
+        }
+
+        for (int i = 0; i < policies.size(); i++) {
+            final Policy policy = policies.get(i);
             Map<String, String> responseHeaders = Maps.newHashMap();
 
-            //计数的key的生成
-            final String key = rateLimitKeyGenerator.key(request, route, policy);
+            final String key = keys.get(i);
             //计数
-            final Rate rate = rateLimiter.consume(policy, key, null);
-            final String httpHeaderKey = key.replaceAll("[^A-Za-z0-9-.]", "_").replaceAll("__", "_");
+            final Rate rate = rates != null ? rates.get(i) : consume(routeId, policy, key);
+            final String httpHeaderKey = httpHeaderKey(key);
 
             //获取配置的单位时间窗口内的请求数限制
             final Long limit = policy.getLimit();
@@ -99,8 +152,10 @@ public class RateLimitPreFilter extends AbstractRateLimitFilter {
             final Long quota = policy.getQuota();
             final Long remainingQuota = rate.getRemainingQuota();
             if (quota != null) {
-                //设置rate limit 请求的开始时间
+                //设置rate limit 请求的开始时间，epoch毫秒，保留给依赖它的过滤器
                 request.setAttribute(REQUEST_START_TIME, System.currentTimeMillis());
+                //计算耗时使用单调时钟，不受系统时间调整的影响
+                request.setAttribute(REQUEST_START_NANOS, System.nanoTime());
                 responseHeaders.put(HEADER_QUOTA + httpHeaderKey, String.valueOf(quota));
                 responseHeaders.put(HEADER_REMAINING_QUOTA + httpHeaderKey,
                     String.valueOf(MILLISECONDS.toSeconds(Math.max(remainingQuota, 0))));
@@ -117,16 +172,104 @@ public class RateLimitPreFilter extends AbstractRateLimitFilter {
             /**
              * 单位时间窗口内的请求次数或者一段时间内的请求时长超过设定值就给429
              */
-            if ((limit != null && remaining < 0) || (quota != null && remainingQuota < 0)) {
-                //http status  statusCode=429
-                ctx.setResponseStatusCode(HttpStatus.TOO_MANY_REQUESTS.value());
-                ctx.put(RATE_LIMIT_EXCEEDED, "true");
-                ctx.setSendZuulResponse(false);
-                //抛出达到限流的异常
-                throw new RateLimitExceededException();
+            final boolean exceeded = (limit != null && remaining < 0) || (quota != null && remainingQuota < 0);
+            metrics().recordDecision(routeId, policy, !exceeded);
+            if (heavyHitters != null) {
+                heavyHitters.record(key, exceeded);
+            }
+            if (exceeded) {
+                if (blockedKeys != null && rate.getReset() != null) {
+                    blockedKeys.block(key, rate.getReset(), System.currentTimeMillis());
+                }
+                reject(ctx);
             }
-        });
+        }
 
         return null;
     }
+
+    /**
+     * 本地记录为已超出限制的key直接拒绝，不访问存储，也不记录请求开始时间，post阶段不再计算耗时
+     */
+    private void rejectBlocked(RequestContext ctx, HttpServletResponse response, String routeId,
+                               List<Policy> policies, List<String> keys) {
+        if (blockedKeys == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < keys.size(); i++) {
+            final long blockedFor = blockedKeys.blockedFor(keys.get(i), now);
+            if (blockedFor <= 0) {
+                continue;
+            }
+            if (properties.isAddResponseHeaders()) {
+                final Policy policy = policies.get(i);
+                final String httpHeaderKey = httpHeaderKey(keys.get(i));
+                if (policy.getLimit() != null) {
+                    response.setHeader(HEADER_LIMIT + httpHeaderKey, String.valueOf(policy.getLimit()));
+                    response.setHeader(HEADER_REMAINING + httpHeaderKey, "0");
+                }
+                if (policy.getQuota() != null) {
+                    response.setHeader(HEADER_QUOTA + httpHeaderKey, String.valueOf(policy.getQuota()));
+                    response.setHeader(HEADER_REMAINING_QUOTA + httpHeaderKey, "0");
+                }
+                // 本地拒绝比存储的重置时间提前skew结束
+                response.setHeader(HEADER_RESET + httpHeaderKey, String.valueOf(blockedFor + blockedKeys.getSkew()));
+            }
+            metrics().recordDecision(routeId, policies.get(i), false);
+            if (heavyHitters != null) {
+                heavyHitters.record(keys.get(i), true);
+            }
+            reject(ctx);
+        }
+    }
+
+    private void reject(RequestContext ctx) {
+        //http status  statusCode=429
+        ctx.setResponseStatusCode(HttpStatus.TOO_MANY_REQUESTS.value());
+        ctx.put(RATE_LIMIT_EXCEEDED, "true");
+        ctx.setSendZuulResponse(false);
+        //抛出达到限流的异常
+        throw new RateLimitExceededException();
+    }
+
+    private String httpHeaderKey(String key) {
+        return key.replaceAll("[^A-Za-z0-9-.]", "_").replaceAll("__", "_");
+    }
+
+    private Rate consume(String routeId, Policy policy, String key) {
+        ConsumeEvent event = events().beginConsume();
+        long start = System.nanoTime();
+        Rate rate = rateLimiter.consume(policy, key, null);
+        metrics().recordConsume(PRE_TYPE, System.nanoTime() - start);
+        if (event != null) {
+            event.end(PRE_TYPE, routeId, rateLimiter, policy, key, rate);
+        }
+        return rate;
+    }
+
+    /**
+     * 支持批量计数时，一次交互完成所有策略的计数；支持异步计数时，并行发出所有策略的计数后只等待一次
+     *
+     * @return 每个策略对应的Rate，都不支持时返回null，由调用方逐个计数
+     */
+    private List<Rate> consumeAll(String routeId, List<Policy> policies, List<String> keys) {
+        if (rateLimiter instanceof BatchRateLimiter && policies.size() > 1) {
+            List<ConsumeEvent> events = beginConsume(policies.size());
+            List<Rate> rates = ((BatchRateLimiter) rateLimiter).consume(policies, keys, null);
+            endConsume(events, routeId, rateLimiter, policies, keys, rates);
+            return rates;
+        }
+        if (rateLimiter instanceof AsyncRateLimiter) {
+            List<ConsumeEvent> events = beginConsume(policies.size());
+            List<CompletableFuture<Rate>> futures = new ArrayList<>(policies.size());
+            for (int i = 0; i < policies.size(); i++) {
+                futures.add(((AsyncRateLimiter) rateLimiter).consumeAsync(policies.get(i), keys.get(i), null));
+            }
+            List<Rate> rates = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+            endConsume(events, routeId, rateLimiter, policies, keys, rates);
+            return rates;
+        }
+        return null;
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+
+/**
+ * 在节点之间广播超出限制的key，收到后记录到本地，其他节点不必再访问存储确认
+ * <p>
+ * Messages carry the remaining block duration rather than an absolute time, so clock differences between nodes do
+ * not extend a block. A node ignores its own messages. A reset through the actuator endpoint is announced with a
+ * duration of 0, peers then drop the key from their blocked keys and local limiters; a node that does not know resets
+ * ignores such a message, as a block of 0 milliseconds has already expired.
+ *
+ * @author Liel Chayoun
+ */
+public abstract class AbstractBlockedKeyBroadcaster implements BlockedKeyListener {
+
+    private static Logger log = LoggerFactory.getLogger(AbstractBlockedKeyBroadcaster.class);
+
+    private final BlockedKeyCache blockedKeyCache;
+    private final String nodeId = UUID.randomUUID().toString();
+    private volatile LocalRateLimiters localRateLimiters;
+
+    protected AbstractBlockedKeyBroadcaster(BlockedKeyCache blockedKeyCache) {
+        this.blockedKeyCache = blockedKeyCache;
+    }
+
+    @Override
+    public void onBlocked(String key, long blockedFor) {
+        try {
+            publish(nodeId + ' ' + blockedFor + ' ' + key);
+        } catch (RuntimeException e) {
+            log.warn("Failed to broadcast blocked key {}", key, e);
+        }
+    }
+
+    @Override
+    public void onUnblocked(String pattern) {
+        try {
+            publish(nodeId + " 0 " + pattern);
+        } catch (RuntimeException e) {
+            log.warn("Failed to broadcast reset of {}", pattern, e);
+        }
+    }
+
+    /**
+     * @param localRateLimiters 收到其他节点的重置时一起清除的本地限流器
+     */
+    public void setLocalRateLimiters(LocalRateLimiters localRateLimiters) {
+        this.localRateLimiters = localRateLimiters;
+    }
+
+    /**
+     * 处理收到的消息，拒绝时间为0表示重置
+     *
+     * @param message 格式为 节点 拒绝时间 key
+     */
+    protected void receive(String message) {
+        String[] parts = message.split(" ", 3);
+        if (parts.length != 3 || nodeId.equals(parts[0])) {
+            return;
+        }
+        try {
+            long blockedFor = Long.parseLong(parts[1]);
+            if (blockedFor > 0) {
+                blockedKeyCache.blockFromPeer(parts[2], blockedFor, System.currentTimeMillis());
+                return;
+            }
+            blockedKeyCache.unblockFromPeer(parts[2]);
+            LocalRateLimiters local = localRateLimiters;
+            if (local != null) {
+                local.reset(parts[2]);
+            }
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring malformed blocked key message {}", message);
+        }
+    }
+
+    /**
+     * 发送消息给所有节点
+     *
+     * @param message 消息
+     */
+    protected abstract void publish(String message);
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Compact {@link RateCodec} using a fixed field layout with varint encoded numbers, rendered as Base64.
+ * <p>
+ * 布局：版本号(1字节) + 字段标记(1字节) + key长度和UTF-8内容 + remaining、remainingQuota、reset、expiration的zigzag varint。
+ * 过期时间以epoch毫秒保存，不会丢失毫秒精度。以 '{' 开头的旧JSON值交给兼容的codec解析
+ *
+ * @author Liel Chayoun
+ */
+public class BinaryRateCodec implements RateCodec {
+
+    private static final byte VERSION = 1;
+
+    private static final int KEY = 1;
+    private static final int REMAINING = 1 << 1;
+    private static final int REMAINING_QUOTA = 1 << 2;
+    private static final int RESET = 1 << 3;
+    private static final int EXPIRATION = 1 << 4;
+
+    private final RateCodec legacyCodec;
+
+    public BinaryRateCodec() {
+        this(null);
+    }
+
+    /**
+     * @param legacyCodec codec used to read values written in the JSON format, can be null
+     */
+    public BinaryRateCodec(RateCodec legacyCodec) {
+        this.legacyCodec = legacyCodec;
+    }
+
+    @Override
+    public String encode(Rate rate) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        int flags = (rate.getKey() != null ? KEY : 0)
+            | (rate.getRemaining() != null ? REMAINING : 0)
+            | (rate.getRemainingQuota() != null ? REMAINING_QUOTA : 0)
+            | (rate.getReset() != null ? RESET : 0)
+            | (rate.getExpiration() != null ? EXPIRATION : 0);
+        out.write(VERSION);
+        out.write(flags);
+        if (rate.getKey() != null) {
+            byte[] key = rate.getKey().getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, key.length);
+            out.write(key, 0, key.length);
+        }
+        if (rate.getRemaining() != null) {
+            writeVarLong(out, zigZag(rate.getRemaining()));
+        }
+        if (rate.getRemainingQuota() != null) {
+            writeVarLong(out, zigZag(rate.getRemainingQuota()));
+        }
+        if (rate.getReset() != null) {
+            writeVarLong(out, zigZag(rate.getReset()));
+        }
+        if (rate.getExpiration() != null) {
+            writeVarLong(out, zigZag(rate.getExpiration().getTime()));
+        }
+        return Base64.getEncoder().withoutPadding().encodeToString(out.toByteArray());
+    }
+
+    @Override
+    public Rate decode(String value) throws IOException {
+        if (value.startsWith("{")) {
+            if (legacyCodec == null) {
+                throw new IOException("JSON encoded rate found and no legacy codec configured");
+            }
+            return legacyCodec.decode(value);
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid rate encoding", e);
+        }
+        Reader reader = new Reader(bytes);
+        if (reader.readByte() != VERSION) {
+            throw new IOException("Unsupported rate encoding version");
+        }
+        int flags = reader.readByte();
+        Rate rate = new Rate();
+        if ((flags & KEY) != 0) {
+            rate.setKey(reader.readString());
+        }
+        if ((flags & REMAINING) != 0) {
+            rate.setRemaining(unZigZag(reader.readVarLong()));
+        }
+        if ((flags & REMAINING_QUOTA) != 0) {
+            rate.setRemainingQuota(unZigZag(reader.readVarLong()));
+        }
+        if ((flags & RESET) != 0) {
+            rate.setReset(unZigZag(reader.readVarLong()));
+        }
+        if ((flags & EXPIRATION) != 0) {
+            rate.setExpiration(new Date(unZigZag(reader.readVarLong())));
+        }
+        return rate;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() throws IOException {
+            if (position >= bytes.length) {
+                throw new IOException("Truncated rate encoding");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in rate encoding");
+        }
+
+        String readString() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > bytes.length - position) {
+                throw new IOException("Truncated rate encoding");
+            }
+            String value = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import org.springframework.util.PatternMatchUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 本地记录已超出限制的key，在重置前直接拒绝，不再访问存储
+ * <p>
+ * A key is blocked until the reset time reported by the repository minus the configured skew. The skew absorbs clock
+ * differences between nodes, the delay of broadcast messages and the rounding of the reported reset time, so a node
+ * does not keep rejecting a key that another node already sees as reset. During the last {@code skew} milliseconds
+ * before the reset the repository decides again; a reset shorter than the skew is not blocked locally at all.
+ *
+ * @author Liel Chayoun
+ */
+public class BlockedKeyCache {
+
+    /**
+     * 已满时两次清理之间的最短间隔，单位毫秒，避免每个新key都遍历一次
+     */
+    private static final long EVICTION_INTERVAL = 100;
+
+    private final Map<String, Long> blockedUntil = new ConcurrentHashMap<>();
+    private final List<BlockedKeyListener> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * 最多记录的key数量
+     */
+    private final int maximumSize;
+    /**
+     * 比存储的重置时间提前结束本地拒绝的时间，单位毫秒
+     */
+    private final long skew;
+    private volatile long nextEviction;
+
+    public BlockedKeyCache(int maximumSize, long skew) {
+        this.maximumSize = maximumSize;
+        this.skew = skew;
+    }
+
+    /**
+     * @param key 限流的key
+     * @param now 当前时间，单位毫秒
+     * @return 剩余的拒绝时间，单位毫秒，未被拒绝返回0
+     */
+    public long blockedFor(String key, long now) {
+        Long until = blockedUntil.get(key);
+        if (until == null) {
+            return 0;
+        }
+        if (until <= now) {
+            blockedUntil.remove(key, until);
+            return 0;
+        }
+        return until - now;
+    }
+
+    /**
+     * 存储返回超出限制后调用，记录成功时通知所有的listener
+     *
+     * @param key   限流的key
+     * @param reset 存储返回的重置时间，单位毫秒，拒绝到重置时间减去skew
+     * @param now   当前时间，单位毫秒
+     */
+    public void block(String key, long reset, long now) {
+        long blockedFor = reset - skew;
+        if (blockUntil(key, now + blockedFor, now)) {
+            for (BlockedKeyListener listener : listeners) {
+                listener.onBlocked(key, blockedFor);
+            }
+        }
+    }
+
+    /**
+     * 其他节点通知的超出限制的key，不再通知listener
+     *
+     * @param key        限流的key
+     * @param blockedFor 其他节点的拒绝时间，单位毫秒，已减去skew
+     * @param now        当前时间，单位毫秒
+     */
+    public void blockFromPeer(String key, long blockedFor, long now) {
+        blockUntil(key, now + blockedFor, now);
+    }
+
+    /**
+     * 通过端点重置key后调用，清除匹配的key并通知所有的listener
+     *
+     * @param pattern 重置的key或模式，{@code *}匹配任意字符
+     */
+    public void unblock(String pattern) {
+        unblockFromPeer(pattern);
+        for (BlockedKeyListener listener : listeners) {
+            listener.onUnblocked(pattern);
+        }
+    }
+
+    /**
+     * 其他节点通知的重置，不再通知listener
+     *
+     * @param pattern 重置的key或模式，{@code *}匹配任意字符
+     */
+    public void unblockFromPeer(String pattern) {
+        blockedUntil.keySet().removeIf(key -> PatternMatchUtils.simpleMatch(pattern, key));
+    }
+
+    public void addListener(BlockedKeyListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param key   限流的key
+     * @param until 拒绝到此时间，单位毫秒
+     * @param now   当前时间，单位毫秒
+     * @return 是否已记录
+     */
+    public boolean blockUntil(String key, long until, long now) {
+        if (until <= now) {
+            return false;
+        }
+        if (blockedUntil.size() >= maximumSize && !blockedUntil.containsKey(key)) {
+            if (now >= nextEviction) {
+                nextEviction = now + EVICTION_INTERVAL;
+                evictExpired(now);
+            }
+            if (blockedUntil.size() >= maximumSize) {
+                //已满时不再记录，由存储拒绝
+                return false;
+            }
+        }
+        blockedUntil.merge(key, until, Math::max);
+        return true;
+    }
+
+    /**
+     * 清除已到期的key
+     *
+     * @param now 当前时间，单位毫秒
+     */
+    public void evictExpired(long now) {
+        blockedUntil.values().removeIf(until -> until <= now);
+    }
+
+    public long getSkew() {
+        return skew;
+    }
+
+    public int size() {
+        return blockedUntil.size();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+/**
+ * 本节点记录了超出限制的key时的回调
+ *
+ * @author Liel Chayoun
+ */
+@FunctionalInterface
+public interface BlockedKeyListener {
+
+    /**
+     * @param key        限流的key
+     * @param blockedFor 拒绝的时间，单位毫秒
+     */
+    void onBlocked(String key, long blockedFor);
+
+    /**
+     * 本节点通过端点重置key后的回调
+     *
+     * @param pattern 重置的key或模式
+     */
+    default void onUnblocked(String pattern) {
+    }
+}
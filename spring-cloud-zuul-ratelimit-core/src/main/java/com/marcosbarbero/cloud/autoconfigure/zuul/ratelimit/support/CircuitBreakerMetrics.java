@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterCircuitBreaker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 导出熔断器的状态和计数
+ * <p>
+ * {@code ratelimit.circuit.state} is 0 when closed, 1 when open and 2 when half-open.
+ *
+ * @author Liel Chayoun
+ */
+public class CircuitBreakerMetrics implements MeterBinder {
+
+    private final RateLimiterCircuitBreaker breaker;
+
+    public CircuitBreakerMetrics(RateLimiterCircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("ratelimit.circuit.state", breaker, b -> b.getState().ordinal())
+            .description("State of the rate limiter storage circuit breaker, 0 closed, 1 open, 2 half-open")
+            .register(registry);
+        FunctionCounter.builder("ratelimit.circuit.failures", breaker, RateLimiterCircuitBreaker::getFailures)
+            .description("Storage errors and slow calls recorded by the circuit breaker")
+            .register(registry);
+        FunctionCounter.builder("ratelimit.circuit.slow.calls", breaker, RateLimiterCircuitBreaker::getSlowCalls)
+            .description("Storage calls slower than the slow call threshold")
+            .register(registry);
+        FunctionCounter.builder("ratelimit.circuit.opened", breaker, RateLimiterCircuitBreaker::getOpened)
+            .description("Number of times the circuit breaker opened")
+            .register(registry);
+        FunctionCounter.builder("ratelimit.circuit.fallbacks", breaker, RateLimiterCircuitBreaker::getFallbacks)
+            .description("Decisions served by the local fallback limiter")
+            .register(registry);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.function.Function;
+
+/**
+ * Consistent hash ring with virtual nodes. Immutable, lookups are a binary search over a sorted array.
+ * <p>
+ * 节点在环上的位置只取决于节点名称，增删一个节点只会移动约 1/N 的key
+ *
+ * @param <T> 节点类型
+ * @author Liel Chayoun
+ */
+public class ConsistentHashRing<T> {
+
+    private final long[] points;
+    private final Object[] owners;
+
+    /**
+     * @param nodes        环上的节点
+     * @param name         节点名称，决定节点在环上的位置，必须唯一
+     * @param virtualNodes 每个节点的虚拟节点数量
+     */
+    public ConsistentHashRing(Collection<T> nodes, Function<T, String> name, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("At least one node and one virtual node are required");
+        }
+        int size = nodes.size() * virtualNodes;
+        Entry[] entries = new Entry[size];
+        int index = 0;
+        for (T node : nodes) {
+            String nodeName = name.apply(node);
+            for (int i = 0; i < virtualNodes; i++) {
+                entries[index++] = new Entry(hash(nodeName + "#" + i), node);
+            }
+        }
+        Arrays.sort(entries, Comparator.comparingLong(entry -> entry.point));
+        this.points = new long[size];
+        this.owners = new Object[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = entries[i].point;
+            owners[i] = entries[i].owner;
+        }
+    }
+
+    /**
+     * @param key 需要路由的key
+     * @return 顺时针方向第一个虚拟节点所属的节点
+     */
+    @SuppressWarnings("unchecked")
+    public T get(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return (T) owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * 64位FNV-1a，再经过MurmurHash3的fmix64打散，虚拟节点在环上分布更均匀
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Entry {
+
+        private final long point;
+        private final Object owner;
+
+        private Entry(long point, Object owner) {
+            this.point = point;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InstrumentedLock;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
+import jdk.jfr.EventType;
+
+/**
+ * 通过Java Flight Recorder记录每次计数
+ * <p>
+ * Events are created only while a recording has the {@value RateLimitConsumeEvent#NAME} event enabled, otherwise a
+ * consume only checks a flag. Start a recording with e.g.
+ * {@code jcmd <pid> JFR.start settings=profile} to capture them.
+ *
+ * @author Liel Chayoun
+ */
+public class FlightRecorderEvents implements RateLimitEvents {
+
+    private final EventType consumeEventType = EventType.getEventType(RateLimitConsumeEvent.class);
+    /**
+     * 配置的存储，过滤器调用的可能是包装后的存储
+     */
+    private final String repository;
+
+    public FlightRecorderEvents(RateLimitProperties properties, RateLimiter rateLimiter) {
+        this.repository = properties.getRepository() != null
+            ? properties.getRepository().name() : rateLimiter.getClass().getSimpleName();
+    }
+
+    @Override
+    public ConsumeEvent beginConsume() {
+        if (!consumeEventType.isEnabled()) {
+            return null;
+        }
+        //丢弃上一次事件之后记录的等待时间
+        InstrumentedLock.takeThreadWaitNanos();
+        RateLimitConsumeEvent event = new RateLimitConsumeEvent();
+        event.repository = repository;
+        event.begin();
+        return event;
+    }
+}
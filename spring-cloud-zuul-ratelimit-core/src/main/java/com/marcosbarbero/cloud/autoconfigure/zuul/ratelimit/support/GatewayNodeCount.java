@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+import java.util.function.IntSupplier;
+
+/**
+ * 网关节点数量，从注册中心获取网关服务的实例数，没有注册中心时使用配置的数量
+ * <p>
+ * The instance count is cached and refreshed at most once per refresh interval by the calling thread. When the
+ * registry is unavailable or lists no instance, the last known count is kept.
+ *
+ * @author Liel Chayoun
+ */
+public class GatewayNodeCount implements IntSupplier {
+
+    private static Logger log = LoggerFactory.getLogger(GatewayNodeCount.class);
+
+    private final DiscoveryClient discoveryClient;
+    private final String serviceId;
+    /**
+     * 刷新间隔，单位毫秒
+     */
+    private final long refreshInterval;
+    private volatile int nodes;
+    private volatile long refreshedAt;
+
+    /**
+     * @param discoveryClient 注册中心，为null时始终使用配置的数量
+     * @param serviceId       网关在注册中心的服务名
+     * @param nodes           配置的节点数量，注册中心可用前使用
+     * @param refreshInterval 刷新间隔，单位毫秒
+     */
+    public GatewayNodeCount(DiscoveryClient discoveryClient, String serviceId, int nodes, long refreshInterval) {
+        this.discoveryClient = discoveryClient;
+        this.serviceId = serviceId;
+        this.nodes = Math.max(1, nodes);
+        this.refreshInterval = refreshInterval;
+        this.refreshedAt = Long.MIN_VALUE / 2;
+    }
+
+    @Override
+    public int getAsInt() {
+        if (discoveryClient != null) {
+            long now = System.currentTimeMillis();
+            if (now - refreshedAt >= refreshInterval) {
+                refresh(now);
+            }
+        }
+        return nodes;
+    }
+
+    private synchronized void refresh(long now) {
+        if (now - refreshedAt < refreshInterval) {
+            return;
+        }
+        refreshedAt = now;
+        try {
+            int instances = discoveryClient.getInstances(serviceId).size();
+            if (instances > 0) {
+                nodes = instances;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to count the instances of {}, keeping {} nodes", serviceId, nodes, e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * 网关集群的其他节点，来自配置的地址列表和注册中心的网关实例，GOSSIP和KEY_OWNER存储使用
+ * <p>
+ * Registered instances are reached on the port published in their metadata, {@value #GOSSIP_PORT_METADATA} or
+ * {@value #KEY_OWNER_PORT_METADATA}, or on the configured port when they don't publish one. The registry is asked
+ * again every {@value #REFRESH_INTERVAL} ms. The node itself may be listed.
+ *
+ * @author Liel Chayoun
+ */
+public class GatewayPeers implements Supplier<Collection<InetSocketAddress>> {
+
+    private static Logger log = LoggerFactory.getLogger(GatewayPeers.class);
+
+    /**
+     * 实例在注册中心发布的GOSSIP端口
+     */
+    public static final String GOSSIP_PORT_METADATA = "ratelimit-gossip-port";
+    /**
+     * 实例在注册中心发布的KEY_OWNER端口
+     */
+    public static final String KEY_OWNER_PORT_METADATA = "ratelimit-key-owner-port";
+    /**
+     * 从注册中心刷新实例的间隔，单位毫秒
+     */
+    private static final long REFRESH_INTERVAL = 10000;
+
+    private final List<InetSocketAddress> staticPeers;
+    private final DiscoveryClient discoveryClient;
+    private final String serviceId;
+    private final String portMetadata;
+    private final int port;
+    private volatile Collection<InetSocketAddress> peers;
+    private volatile long refreshedAt = Long.MIN_VALUE / 2;
+
+    /**
+     * @param addresses       配置的地址列表，格式为host:port
+     * @param discoveryClient 注册中心，为null时只使用配置的地址
+     * @param serviceId       网关在注册中心的服务名
+     * @param portMetadata    实例发布端口使用的元数据名称
+     * @param port            实例没有发布端口时使用的端口
+     */
+    public GatewayPeers(List<String> addresses, DiscoveryClient discoveryClient, String serviceId,
+                        String portMetadata, int port) {
+        this.staticPeers = new ArrayList<>(addresses.size());
+        for (String address : addresses) {
+            this.staticPeers.add(parse(address));
+        }
+        this.discoveryClient = discoveryClient;
+        this.serviceId = serviceId;
+        this.portMetadata = portMetadata;
+        this.port = port;
+    }
+
+    @Override
+    public Collection<InetSocketAddress> get() {
+        if (discoveryClient == null) {
+            return staticPeers;
+        }
+        long now = System.currentTimeMillis();
+        if (now - refreshedAt >= REFRESH_INTERVAL) {
+            refreshedAt = now;
+            peers = discover();
+        }
+        return peers;
+    }
+
+    private Collection<InetSocketAddress> discover() {
+        Set<InetSocketAddress> discovered = new LinkedHashSet<>(staticPeers);
+        try {
+            for (ServiceInstance instance : discoveryClient.getInstances(serviceId)) {
+                String published = instance.getMetadata().get(portMetadata);
+                discovered.add(new InetSocketAddress(instance.getHost(),
+                    published != null ? Integer.parseInt(published) : port));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to list the instances of {}, using the configured peers only", serviceId, e);
+        }
+        return discovered;
+    }
+
+    private static InetSocketAddress parse(String address) {
+        int separator = address.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Gateway peer must be host:port, got " + address);
+        }
+        return new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+    }
+}
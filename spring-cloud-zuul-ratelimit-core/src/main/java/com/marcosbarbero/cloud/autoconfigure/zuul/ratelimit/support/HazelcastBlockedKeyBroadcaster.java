@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+
+import java.io.Closeable;
+
+/**
+ * 通过Hazelcast的topic广播超出限制的key
+ *
+ * @author Liel Chayoun
+ */
+public class HazelcastBlockedKeyBroadcaster extends AbstractBlockedKeyBroadcaster
+    implements MessageListener<String>, Closeable {
+
+    private final ITopic<String> topic;
+    private final String registrationId;
+
+    public HazelcastBlockedKeyBroadcaster(BlockedKeyCache blockedKeyCache, ITopic<String> topic) {
+        super(blockedKeyCache);
+        this.topic = topic;
+        this.registrationId = topic.addMessageListener(this);
+    }
+
+    @Override
+    protected void publish(String message) {
+        topic.publish(message);
+    }
+
+    @Override
+    public void onMessage(Message<String> message) {
+        receive(message.getMessageObject());
+    }
+
+    @Override
+    public void close() {
+        topic.removeMessageListener(registrationId);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存的高频key统计：Count-Min Sketch估算每个key的次数，Space-Saving保留次数最多的key
+ * <p>
+ * The sketch is a {@code depth x width} table of counters; a key increments one counter per row and its estimate is
+ * the smallest of them, so it never undercounts, even under concurrent updates, and overcounts by at most the traffic
+ * of the keys sharing its counters. At most {@code capacity} keys are tracked: a new key first reserves a slot with a
+ * CAS on the tracked count, and once all slots are taken it replaces the tracked key with the smallest estimate when
+ * its own estimate is larger, as in Space-Saving. Every update is a handful of CAS operations; finding the smallest
+ * tracked key is only needed when a new key beats the last known minimum.
+ * <p>
+ * {@link #decay()} halves every counter, so the summary follows the recent traffic instead of growing forever.
+ *
+ * @author Liel Chayoun
+ */
+public class HeavyHitterSketch {
+
+    private final int depth;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLongArray counters;
+    private final Map<String, Entry> tracked;
+    /**
+     * 已占用的跟踪位置，插入前先占位，保证跟踪的key不超过capacity
+     */
+    private final AtomicInteger slots = new AtomicInteger();
+    /**
+     * 已跟踪key的最小估算次数的下界，不超过它的新key不需要查找最小值
+     */
+    private volatile long threshold;
+
+    /**
+     * @param depth    哈希函数的数量，即表的行数
+     * @param width    每行的计数器数量，向上取整为2的幂
+     * @param capacity 最多跟踪的key数量
+     */
+    public HeavyHitterSketch(int depth, int width, int capacity) {
+        this.depth = depth;
+        int size = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.mask = size - 1;
+        this.capacity = capacity;
+        this.counters = new AtomicLongArray(depth * size);
+        this.tracked = new ConcurrentHashMap<>(capacity * 2);
+    }
+
+    /**
+     * 记录一次key
+     *
+     * @param key 限流的key
+     * @return key的估算次数
+     */
+    public long add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(i, h1, h2)));
+        }
+        offer(key, estimate);
+        return estimate;
+    }
+
+    /**
+     * 所有计数器和已跟踪key的次数减半，减为0的key不再跟踪
+     */
+    public void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.getAndUpdate(i, count -> count >>> 1);
+        }
+        for (Entry entry : tracked.values()) {
+            if (entry.count.updateAndGet(count -> count >>> 1) == 0 && tracked.remove(entry.key, entry)) {
+                slots.decrementAndGet();
+            }
+        }
+        threshold = threshold >>> 1;
+    }
+
+    /**
+     * @return 已跟踪的key，按估算次数从大到小排列
+     */
+    public List<HeavyHitter> top() {
+        List<HeavyHitter> top = new ArrayList<>(tracked.size());
+        for (Entry entry : tracked.values()) {
+            top.add(new HeavyHitter(entry.key, entry.count.get()));
+        }
+        top.sort(Comparator.comparingLong(HeavyHitter::getCount).reversed());
+        return top;
+    }
+
+    private void offer(String key, long estimate) {
+        Entry entry = tracked.get(key);
+        if (entry != null) {
+            entry.raise(estimate);
+            return;
+        }
+        if (reserveSlot()) {
+            insert(key, estimate);
+            return;
+        }
+        if (estimate <= threshold) {
+            return;
+        }
+        Entry smallest = null;
+        for (Entry candidate : tracked.values()) {
+            if (smallest == null || candidate.count.get() < smallest.count.get()) {
+                smallest = candidate;
+            }
+        }
+        if (smallest == null) {
+            return;
+        }
+        long smallestCount = smallest.count.get();
+        threshold = smallestCount;
+        //并发替换同一个最小值时只有一个线程成功，移除的key空出的位置直接给新key
+        if (estimate > smallestCount && tracked.remove(smallest.key, smallest)) {
+            insert(key, estimate);
+        }
+    }
+
+    private boolean reserveSlot() {
+        int used;
+        do {
+            used = slots.get();
+            if (used >= capacity) {
+                return false;
+            }
+        } while (!slots.compareAndSet(used, used + 1));
+        return true;
+    }
+
+    /**
+     * 在已占用的位置插入key，key已被其他线程插入时归还位置
+     */
+    private void insert(String key, long estimate) {
+        Entry entry = tracked.putIfAbsent(key, new Entry(key, estimate));
+        if (entry != null) {
+            slots.decrementAndGet();
+            entry.raise(estimate);
+        }
+    }
+
+    private int index(int row, int h1, int h2) {
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+
+    /**
+     * 64位FNV-1a，再经过MurmurHash3的fmix64打散。按字符计算，不需要编码key
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * 一个高频key及其估算次数，估算值不小于实际次数
+     */
+    public static final class HeavyHitter {
+
+        private final String key;
+        private final long count;
+
+        public HeavyHitter(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    private static final class Entry {
+
+        private final String key;
+        private final AtomicLong count;
+
+        private Entry(String key, long count) {
+            this.key = key;
+            this.count = new AtomicLong(count);
+        }
+
+        private void raise(long estimate) {
+            count.accumulateAndGet(estimate, Math::max);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.HeavyHitterSketch.HeavyHitter;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本节点访问最多和被拒绝最多的key
+ * <p>
+ * Two {@link HeavyHitterSketch sketches} with a fixed memory footprint, one fed with every key checked by the pre
+ * filter and one with the keys it rejects. Both decay by half every interval, so a key that stops sending requests
+ * fades out of the summary after a few intervals.
+ *
+ * @author Liel Chayoun
+ */
+public class HeavyHitters implements Closeable {
+
+    private final HeavyHitterSketch active;
+    private final HeavyHitterSketch rejected;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param depth         哈希函数的数量
+     * @param width         每个哈希函数的计数器数量
+     * @param size          最多跟踪的key数量
+     * @param decayInterval 计数减半的间隔，单位秒
+     */
+    public HeavyHitters(int depth, int width, int size, long decayInterval) {
+        this.active = new HeavyHitterSketch(depth, width, size);
+        this.rejected = new HeavyHitterSketch(depth, width, size);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ratelimit-heavy-hitters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::decay, decayInterval, decayInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 记录一次限流判断
+     *
+     * @param key      限流的key
+     * @param rejected 是否被拒绝
+     */
+    public void record(String key, boolean rejected) {
+        active.add(key);
+        if (rejected) {
+            this.rejected.add(key);
+        }
+    }
+
+    public void decay() {
+        active.decay();
+        rejected.decay();
+    }
+
+    /**
+     * @return 访问最多的key，按估算次数从大到小排列
+     */
+    public List<HeavyHitter> getActive() {
+        return active.top();
+    }
+
+    /**
+     * @return 被拒绝最多的key，按估算次数从大到小排列
+     */
+    public List<HeavyHitter> getRejected() {
+        return rejected.top();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateCodec;
+
+import java.io.IOException;
+
+/**
+ * Jackson based {@link RateCodec}, compatible with the values written by previous versions.
+ * <p>
+ * 过期时间按照 dd-MM-yyyy HH:mm:ss 格式序列化，精度为秒
+ *
+ * @author Liel Chayoun
+ */
+public class JsonRateCodec implements RateCodec {
+
+    private final ObjectMapper objectMapper;
+
+    public JsonRateCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public String encode(Rate rate) throws IOException {
+        return objectMapper.writeValueAsString(rate);
+    }
+
+    @Override
+    public Rate decode(String value) throws IOException {
+        return objectMapper.readValue(value, Rate.class);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterLatencyBudget;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 导出超出时延预算的次数
+ *
+ * @author Liel Chayoun
+ */
+public class LatencyBudgetMetrics implements MeterBinder {
+
+    private final RateLimiterLatencyBudget budget;
+
+    public LatencyBudgetMetrics(RateLimiterLatencyBudget budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("ratelimit.budget.exceeded", budget, RateLimiterLatencyBudget::getExceeded)
+            .description("Storage calls answered by the configured decision because they missed the latency budget")
+            .register(registry);
+        FunctionCounter.builder("ratelimit.budget.rejected", budget, RateLimiterLatencyBudget::getRejected)
+            .description("Storage calls not attempted because the latency budget worker pool was full")
+            .register(registry);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import io.lettuce.core.RedisURI;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration.LettuceClientConfigurationBuilder;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.time.Duration;
+
+/**
+ * 创建限流专用的redis连接
+ * <p>
+ * The factories share one native connection between all threads. Lettuce writes the commands of concurrent callers
+ * to that connection as they arrive, so rate limiting gets pipelining without a pool and never waits for a connection
+ * borrowed by unrelated application traffic.
+ *
+ * @author Liel Chayoun
+ */
+public final class LettuceConnectionFactories {
+
+    private LettuceConnectionFactories() {
+    }
+
+    /**
+     * @param url redis://[password@]host:port[/database]，rediss://表示使用SSL
+     * @return 已初始化的连接工厂，使用后需要调用destroy关闭
+     */
+    public static LettuceConnectionFactory create(String url) {
+        RedisURI uri = RedisURI.create(url);
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(uri.getHost(), uri.getPort());
+        configuration.setDatabase(uri.getDatabase());
+        if (uri.getPassword() != null) {
+            configuration.setPassword(RedisPassword.of(uri.getPassword()));
+        }
+        return create(configuration, uri.isSsl(), uri.getTimeout());
+    }
+
+    /**
+     * 使用spring.redis的单机配置创建独立的连接
+     *
+     * @param properties spring.redis配置
+     * @return 已初始化的连接工厂，使用后需要调用destroy关闭
+     */
+    public static LettuceConnectionFactory create(RedisProperties properties) {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(properties.getHost(),
+            properties.getPort());
+        configuration.setDatabase(properties.getDatabase());
+        configuration.setPassword(RedisPassword.of(properties.getPassword()));
+        return create(configuration, properties.isSsl(), properties.getTimeout());
+    }
+
+    private static LettuceConnectionFactory create(RedisStandaloneConfiguration configuration, boolean ssl,
+                                                   Duration timeout) {
+        LettuceClientConfigurationBuilder builder = LettuceClientConfiguration.builder();
+        if (ssl) {
+            builder.useSsl();
+        }
+        if (timeout != null) {
+            builder.commandTimeout(timeout);
+        }
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(configuration, builder.build());
+        connectionFactory.setShareNativeConnection(true);
+        connectionFactory.afterPropertiesSet();
+        return connectionFactory;
+    }
+}
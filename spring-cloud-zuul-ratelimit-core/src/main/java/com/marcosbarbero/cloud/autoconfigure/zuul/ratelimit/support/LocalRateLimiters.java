@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 本节点内存中的限流器，通过端点重置key时和存储一起清除
+ * <p>
+ * The two-tier local limiter and the circuit breaker fallback keep counts of their own. Without clearing them a key
+ * reset in the store would still be limited on this node until its local window ends.
+ *
+ * @author Liel Chayoun
+ */
+public class LocalRateLimiters {
+
+    private final List<InspectableRateLimiter> rateLimiters = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param rateLimiter 本地限流器，不支持重置时忽略
+     */
+    public void add(RateLimiter rateLimiter) {
+        if (rateLimiter instanceof InspectableRateLimiter) {
+            rateLimiters.add((InspectableRateLimiter) rateLimiter);
+        }
+    }
+
+    /**
+     * @param pattern 重置的key或模式，{@code *}匹配任意字符
+     */
+    public void reset(String pattern) {
+        for (InspectableRateLimiter rateLimiter : rateLimiters) {
+            rateLimiter.reset(pattern);
+        }
+    }
+}
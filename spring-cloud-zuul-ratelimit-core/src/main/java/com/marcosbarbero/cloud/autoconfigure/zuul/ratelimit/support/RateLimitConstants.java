@@ -35,6 +35,7 @@ public final class RateLimitConstants {
 
     // Request Context Keys
     public static final String REQUEST_START_TIME = "rateLimitRequestStartTime";
+    public static final String REQUEST_START_NANOS = "rateLimitRequestStartNanos";
     public static final String CURRENT_REQUEST_ROUTE = "rateLimitRequestRoute";
     public static final String CURRENT_REQUEST_POLICY = "rateLimitRequestPolicy";
     public static final String RATE_LIMIT_EXCEEDED = "rateLimitExceeded";
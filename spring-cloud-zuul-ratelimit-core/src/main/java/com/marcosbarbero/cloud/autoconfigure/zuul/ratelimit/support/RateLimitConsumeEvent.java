@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents.ConsumeEvent;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InstrumentedLock;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 一次计数的JFR事件，事件的持续时间就是调用存储的耗时
+ * <p>
+ * Only the hash of the key is recorded, recordings can be shared without exposing user identifiers.
+ *
+ * @author Liel Chayoun
+ */
+@Name(RateLimitConsumeEvent.NAME)
+@Label("Rate Limit Consume")
+@Category({"Zuul", "Rate Limit"})
+@Description("A call to the rate limit repository made by a rate limit filter")
+@StackTrace(false)
+class RateLimitConsumeEvent extends Event implements ConsumeEvent {
+
+    static final String NAME = "com.marcosbarbero.ratelimit.Consume";
+
+    static final String ALLOWED = "ALLOWED";
+    static final String LIMITED = "LIMITED";
+    static final String UNKNOWN = "UNKNOWN";
+
+    @Label("Filter")
+    @Description("pre or post")
+    String filter;
+
+    @Label("Route")
+    String route;
+
+    @Label("Repository")
+    @Description("The configured rate limit repository, not the decorators around it")
+    String repository;
+
+    @Label("Key Hash")
+    int keyHash;
+
+    @Label("Limit")
+    @Description("Requests allowed per refresh interval, -1 when the policy has no limit")
+    long limit;
+
+    @Label("Quota")
+    @Description("Request time allowed per refresh interval, -1 when the policy has no quota")
+    @Timespan(Timespan.SECONDS)
+    long quota;
+
+    @Label("Refresh Interval")
+    @Timespan(Timespan.SECONDS)
+    long refreshInterval;
+
+    @Label("Outcome")
+    @Description("ALLOWED, LIMITED, or UNKNOWN when an asynchronous call failed")
+    String outcome;
+
+    @Label("Lock Wait")
+    @Description("Time spent waiting for the repository lock")
+    @Timespan(Timespan.NANOSECONDS)
+    long lockWait;
+
+    /**
+     * 是否已经在调用线程上读取了等待锁的时间，不属于事件内容
+     */
+    transient boolean lockWaitTaken;
+
+    @Override
+    public void callReturned() {
+        lockWait = InstrumentedLock.takeThreadWaitNanos();
+        lockWaitTaken = true;
+    }
+
+    @Override
+    public void end(String filterType, String routeId, RateLimiter rateLimiter, Policy policy, String key, Rate rate) {
+        end();
+        if (!lockWaitTaken) {
+            callReturned();
+        }
+        if (!shouldCommit()) {
+            return;
+        }
+        filter = filterType;
+        route = routeId;
+        keyHash = key.hashCode();
+        limit = policy.getLimit() != null ? policy.getLimit() : -1L;
+        quota = policy.getQuota() != null ? policy.getQuota() : -1L;
+        refreshInterval = policy.getRefreshInterval() != null ? policy.getRefreshInterval() : -1L;
+        outcome = outcome(policy, rate);
+        commit();
+    }
+
+    static String outcome(Policy policy, Rate rate) {
+        if (rate == null) {
+            return UNKNOWN;
+        }
+        boolean exceeded = (policy.getLimit() != null && rate.getRemaining() != null && rate.getRemaining() < 0)
+            || (policy.getQuota() != null && rate.getRemainingQuota() != null && rate.getRemainingQuota() < 0);
+        return exceeded ? LIMITED : ALLOWED;
+    }
+}
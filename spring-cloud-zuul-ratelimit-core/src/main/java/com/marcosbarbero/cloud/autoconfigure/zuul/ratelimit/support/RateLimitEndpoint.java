@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter.KeyState;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.Selector.Match;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter.QUOTA_SUFFIX;
+
+/**
+ * 限流的actuator端点
+ * <p>
+ * <ul>
+ * <li>{@code GET /actuator/ratelimit} describes the repository and, when enabled, returns the keys this node checked
+ * and rejected most often, as estimated by {@link HeavyHitters}.</li>
+ * <li>{@code GET /actuator/ratelimit/{key}} returns the stored state of the key and of its quota key.</li>
+ * <li>{@code GET /actuator/ratelimit/{pattern}?limit=100} lists the keys matching a pattern, {@code *} matching any
+ * characters. The repository is scanned in batches and the scan stops once {@code limit} keys are found.</li>
+ * <li>{@code DELETE /actuator/ratelimit/{key or pattern}} resets the matching keys in batches, together with the
+ * blocked keys and local limiters of this node. When blocked keys are broadcast, the peers drop theirs as well.</li>
+ * </ul>
+ * Keys may contain slashes, the whole remaining path is used as the key. Every key and pattern is confined to the
+ * configured {@code key-prefix}: a path not starting with {@code <key-prefix>:} gets it prepended, so a pattern can
+ * never reach keys other applications keep in a shared store. Lookups and resets need a repository implementing
+ * {@link InspectableRateLimiter}, otherwise they answer 404.
+ *
+ * @author Liel Chayoun
+ */
+@Endpoint(id = "ratelimit")
+public class RateLimitEndpoint {
+
+    static final int DEFAULT_LIMIT = 100;
+
+    private final RateLimiter rateLimiter;
+    /**
+     * 限流key的前缀，包含分隔符
+     */
+    private final String keyPrefix;
+    private final HeavyHitters heavyHitters;
+    private final BlockedKeyCache blockedKeyCache;
+    private final LocalRateLimiters localRateLimiters;
+
+    /**
+     * @param rateLimiter       存储
+     * @param keyPrefix         限流key的前缀，即zuul.ratelimit.key-prefix
+     * @param heavyHitters      本节点的高频key，未开启时为null
+     * @param blockedKeyCache   本节点记录的超出限制的key，未开启时为null
+     * @param localRateLimiters 本节点内存中的限流器，可以为null
+     */
+    public RateLimitEndpoint(RateLimiter rateLimiter, String keyPrefix, HeavyHitters heavyHitters,
+                             BlockedKeyCache blockedKeyCache, LocalRateLimiters localRateLimiters) {
+        if (keyPrefix == null || keyPrefix.isEmpty() || keyPrefix.contains("*")) {
+            throw new IllegalArgumentException("The key prefix must be set and cannot contain '*': " + keyPrefix);
+        }
+        this.rateLimiter = rateLimiter;
+        this.keyPrefix = keyPrefix + ":";
+        this.heavyHitters = heavyHitters;
+        this.blockedKeyCache = blockedKeyCache;
+        this.localRateLimiters = localRateLimiters;
+    }
+
+    @ReadOperation
+    public Map<String, Object> summary() {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("repository", rateLimiter.getClass().getSimpleName());
+        body.put("inspectable", rateLimiter instanceof InspectableRateLimiter);
+        if (heavyHitters != null) {
+            Map<String, Object> hitters = new LinkedHashMap<>();
+            hitters.put("active", heavyHitters.getActive());
+            hitters.put("rejected", heavyHitters.getRejected());
+            body.put("heavyHitters", hitters);
+        }
+        return body;
+    }
+
+    @ReadOperation
+    public Map<String, Object> keys(@Selector(match = Match.ALL_REMAINING) String[] path, @Nullable Integer limit) {
+        if (!(rateLimiter instanceof InspectableRateLimiter)) {
+            return null;
+        }
+        InspectableRateLimiter inspectable = (InspectableRateLimiter) rateLimiter;
+        String pattern = pattern(path);
+        List<KeyState> keys = new ArrayList<>();
+        boolean truncated = false;
+        if (pattern.contains("*")) {
+            int max = limit != null && limit > 0 ? limit : DEFAULT_LIMIT;
+            boolean[] more = {false};
+            inspectable.scan(pattern, key -> {
+                if (keys.size() == max) {
+                    more[0] = true;
+                    return false;
+                }
+                KeyState state = inspectable.inspect(key);
+                if (state != null) {
+                    keys.add(state);
+                }
+                return true;
+            });
+            truncated = more[0];
+        } else {
+            addIfPresent(keys, inspectable.inspect(pattern));
+            addIfPresent(keys, inspectable.inspect(pattern + QUOTA_SUFFIX));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("keys", keys);
+        body.put("truncated", truncated);
+        return body;
+    }
+
+    @DeleteOperation
+    public Map<String, Object> reset(@Selector(match = Match.ALL_REMAINING) String[] path) {
+        if (!(rateLimiter instanceof InspectableRateLimiter)) {
+            return null;
+        }
+        InspectableRateLimiter inspectable = (InspectableRateLimiter) rateLimiter;
+        String pattern = pattern(path);
+        List<String> patterns = pattern.contains("*") ? Collections.singletonList(pattern)
+            : Arrays.asList(pattern, pattern + QUOTA_SUFFIX);
+        long deleted = 0;
+        for (String reset : patterns) {
+            deleted += inspectable.reset(reset);
+            if (localRateLimiters != null) {
+                localRateLimiters.reset(reset);
+            }
+            if (blockedKeyCache != null) {
+                blockedKeyCache.unblock(reset);
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("deleted", deleted);
+        return body;
+    }
+
+    /**
+     * 把请求路径限定在限流key的前缀下
+     *
+     * @param path 请求路径的各段
+     * @return 以前缀开头的key或模式
+     */
+    String pattern(String[] path) {
+        String pattern = String.join("/", path);
+        if (pattern.isEmpty() || pattern.equals(keyPrefix)) {
+            throw new InvalidEndpointRequestException("A key or pattern is required", "Missing key");
+        }
+        return pattern.startsWith(keyPrefix) ? pattern : keyPrefix + pattern;
+    }
+
+    private static void addIfPresent(List<KeyState> keys, KeyState state) {
+        if (state != null) {
+            keys.add(state);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitMetrics;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.AbstractCacheRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.AbstractRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InstrumentedLock;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterErrorHandler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 使用Micrometer记录限流过程的指标
+ * <p>
+ * Every tag takes a bounded set of values: the route id, the position of the policy in the route's configured list,
+ * the filter type, the repository and the outcome. Keys are never used as tags. Meters are created on first use and
+ * cached, so recording only costs a map lookup; nothing is recorded before a registry is bound.
+ *
+ * @author Liel Chayoun
+ */
+public class RateLimitMeters implements RateLimitMetrics, MeterBinder {
+
+    public static final String SAVE_ERROR = "save";
+    public static final String FETCH_ERROR = "fetch";
+    public static final String ERROR = "error";
+
+    private static final String NO_ROUTE = "none";
+
+    private final RateLimitProperties properties;
+    private final RateLimiter rateLimiter;
+    private final String repository;
+
+    private final Map<String, Timer> policyMatchingTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> keyGenerationTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> consumeTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> errorCounters = new ConcurrentHashMap<>();
+    /**
+     * 路由 -> 策略序号 -> 放行和拒绝的计数。按序号而不是策略实例区分，刷新配置后不会保留旧的策略
+     */
+    private final Map<String, Map<String, Counter[]>> decisionCounters = new ConcurrentHashMap<>();
+
+    private volatile MeterRegistry registry;
+
+    public RateLimitMeters(RateLimitProperties properties, RateLimiter rateLimiter) {
+        this.properties = properties;
+        this.rateLimiter = rateLimiter;
+        this.repository = properties.getRepository() != null
+            ? properties.getRepository().name() : rateLimiter.getClass().getSimpleName();
+    }
+
+    /**
+     * 包装错误处理器，按方法统计调用次数
+     *
+     * @param delegate 原错误处理器
+     * @param metrics  指标记录，取不到时只调用原错误处理器
+     * @return 包装后的错误处理器
+     */
+    public static RateLimiterErrorHandler errorHandler(RateLimiterErrorHandler delegate,
+                                                       Supplier<RateLimitMetrics> metrics) {
+        return new MeteredErrorHandler(delegate, metrics);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        InstrumentedLock lock = consumeLock(rateLimiter);
+        if (lock != null) {
+            FunctionTimer.builder("ratelimit.lock.wait", lock, InstrumentedLock::getContended,
+                InstrumentedLock::getWaitNanos, TimeUnit.NANOSECONDS)
+                .tag("repository", repository)
+                .description("Contended acquisitions of the repository lock and the time spent waiting for it")
+                .register(registry);
+        }
+        this.registry = registry;
+    }
+
+    @Override
+    public void recordPolicyMatching(String routeId, long nanos) {
+        MeterRegistry registry = this.registry;
+        if (registry != null) {
+            policyMatchingTimers.computeIfAbsent(route(routeId), route -> Timer.builder("ratelimit.policy.matching")
+                .tag("route", route)
+                .description("Time spent selecting the policies applying to a request")
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void recordKeyGeneration(String routeId, long nanos) {
+        MeterRegistry registry = this.registry;
+        if (registry != null) {
+            keyGenerationTimers.computeIfAbsent(route(routeId), route -> Timer.builder("ratelimit.key.generation")
+                .tag("route", route)
+                .description("Time spent generating the keys of the policies applying to a request")
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void recordConsume(String filterType, long nanos) {
+        MeterRegistry registry = this.registry;
+        if (registry != null) {
+            consumeTimers.computeIfAbsent(filterType, type -> Timer.builder("ratelimit.consume")
+                .tag("repository", repository)
+                .tag("filter", type)
+                .publishPercentiles(properties.getMetrics().getPercentiles())
+                .description("Time spent in the rate limiter by the rate limit filters")
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void recordDecision(String routeId, Policy policy, boolean allowed) {
+        MeterRegistry registry = this.registry;
+        if (registry != null) {
+            String route = route(routeId);
+            String index = policyIndex(properties.getPolicies(routeId), policy);
+            Counter[] counters = decisionCounters.computeIfAbsent(route, r -> new ConcurrentHashMap<>())
+                .computeIfAbsent(index, i -> new Counter[]{decisionCounter(registry, route, i, "allowed"),
+                    decisionCounter(registry, route, i, "rejected")});
+            counters[allowed ? 0 : 1].increment();
+        }
+    }
+
+    @Override
+    public void recordError(String kind) {
+        MeterRegistry registry = this.registry;
+        if (registry != null) {
+            errorCounters.computeIfAbsent(kind, k -> Counter.builder("ratelimit.errors")
+                .tag("repository", repository)
+                .tag("kind", k)
+                .description("Storage errors reported to the rate limiter error handler")
+                .register(registry))
+                .increment();
+        }
+    }
+
+    private static Counter decisionCounter(MeterRegistry registry, String route, String policy, String result) {
+        return Counter.builder("ratelimit.requests")
+            .tag("route", route)
+            .tag("policy", policy)
+            .tag("result", result)
+            .description("Rate limit decisions per policy")
+            .register(registry);
+    }
+
+    private static String policyIndex(List<Policy> policies, Policy policy) {
+        for (int i = 0; i < policies.size(); i++) {
+            if (policies.get(i) == policy) {
+                return String.valueOf(i);
+            }
+        }
+        return "unknown";
+    }
+
+    private static String route(String routeId) {
+        return routeId != null ? routeId : NO_ROUTE;
+    }
+
+    private static InstrumentedLock consumeLock(RateLimiter rateLimiter) {
+        if (rateLimiter instanceof AbstractRateLimiter) {
+            return ((AbstractRateLimiter) rateLimiter).getConsumeLock();
+        }
+        if (rateLimiter instanceof AbstractCacheRateLimiter) {
+            return ((AbstractCacheRateLimiter) rateLimiter).getConsumeLock();
+        }
+        return null;
+    }
+
+    private static final class MeteredErrorHandler implements RateLimiterErrorHandler {
+
+        private final RateLimiterErrorHandler delegate;
+        private final Supplier<RateLimitMetrics> metrics;
+
+        private MeteredErrorHandler(RateLimiterErrorHandler delegate, Supplier<RateLimitMetrics> metrics) {
+            this.delegate = delegate;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void handleSaveError(String key, Exception e) {
+            record(SAVE_ERROR);
+            delegate.handleSaveError(key, e);
+        }
+
+        @Override
+        public void handleFetchError(String key, Exception e) {
+            record(FETCH_ERROR);
+            delegate.handleFetchError(key, e);
+        }
+
+        @Override
+        public void handleError(String msg, Exception e) {
+            record(ERROR);
+            delegate.handleError(msg, e);
+        }
+
+        private void record(String kind) {
+            RateLimitMetrics rateLimitMetrics = metrics.get();
+            if (rateLimitMetrics != null) {
+                rateLimitMetrics.recordError(kind);
+            }
+        }
+    }
+}
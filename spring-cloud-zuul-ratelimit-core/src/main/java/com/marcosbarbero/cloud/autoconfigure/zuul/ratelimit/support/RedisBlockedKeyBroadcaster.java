@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 通过redis的pub/sub广播超出限制的key
+ *
+ * @author Liel Chayoun
+ */
+public class RedisBlockedKeyBroadcaster extends AbstractBlockedKeyBroadcaster implements MessageListener {
+
+    private final StringRedisTemplate redisTemplate;
+    private final String channel;
+
+    public RedisBlockedKeyBroadcaster(BlockedKeyCache blockedKeyCache, StringRedisTemplate redisTemplate,
+                                      String channel) {
+        super(blockedKeyCache);
+        this.redisTemplate = redisTemplate;
+        this.channel = channel;
+    }
+
+    @Override
+    protected void publish(String message) {
+        redisTemplate.convertAndSend(channel, message);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        receive(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
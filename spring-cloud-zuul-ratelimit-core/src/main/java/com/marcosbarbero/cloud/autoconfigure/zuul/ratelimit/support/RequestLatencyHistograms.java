@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按路由记录请求耗时的分布，即post过滤器从时长配额中扣除的时间
+ * <p>
+ * Each route has an HdrHistogram {@link Recorder}, recording is wait-free and never blocks the request threads.
+ * Every interval the recorders are swapped for an interval histogram, and the percentiles of the last complete
+ * interval are exported as {@code ratelimit.request.time} gauges, so {@code quota} budgets can be sized from the
+ * observed distribution rather than guessed.
+ *
+ * @author Liel Chayoun
+ */
+public class RequestLatencyHistograms implements MeterBinder, Closeable {
+
+    private static final String NO_ROUTE = "none";
+
+    private final int significantDigits;
+    private final double[] percentiles;
+    private final ConcurrentMap<String, RouteLatency> routes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+
+    private volatile MeterRegistry registry;
+
+    /**
+     * @param significantDigits 记录值的有效数字位数，0到5
+     * @param interval          统计区间，单位秒
+     * @param percentiles       导出的百分位，0到1之间
+     */
+    public RequestLatencyHistograms(int significantDigits, long interval, double[] percentiles) {
+        this.significantDigits = significantDigits;
+        this.percentiles = percentiles.clone();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ratelimit-latency-histograms");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::snapshot, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 记录一次请求的耗时
+     *
+     * @param routeId 路由id，没有匹配的路由时为null
+     * @param nanos   请求耗时，单位纳秒
+     */
+    public void record(String routeId, long nanos) {
+        String route = routeId != null ? routeId : NO_ROUTE;
+        RouteLatency latency = routes.get(route);
+        if (latency == null) {
+            latency = routes.computeIfAbsent(route, this::newRoute);
+        }
+        latency.recorder.recordValue(Math.max(0L, nanos));
+    }
+
+    /**
+     * 结束当前区间，之后导出的是这个区间的分布
+     */
+    public void snapshot() {
+        for (RouteLatency latency : routes.values()) {
+            latency.interval = latency.recorder.getIntervalHistogram();
+        }
+    }
+
+    /**
+     * @param routeId 路由id，没有匹配的路由时为null
+     * @return 上一个完整区间的耗时分布，单位纳秒，没有记录过该路由时为null
+     */
+    public Histogram getIntervalHistogram(String routeId) {
+        RouteLatency latency = routes.get(routeId != null ? routeId : NO_ROUTE);
+        return latency != null ? latency.interval : null;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        routes.forEach((route, latency) -> register(registry, route, latency));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private RouteLatency newRoute(String route) {
+        RouteLatency latency = new RouteLatency(significantDigits);
+        MeterRegistry registry = this.registry;
+        if (registry != null) {
+            register(registry, route, latency);
+        }
+        return latency;
+    }
+
+    private void register(MeterRegistry registry, String route, RouteLatency latency) {
+        for (double percentile : percentiles) {
+            TimeGauge.builder("ratelimit.request.time", latency,
+                TimeUnit.NANOSECONDS, l -> l.interval.getValueAtPercentile(percentile * 100))
+                .tag("route", route)
+                .tag("phi", String.valueOf(percentile))
+                .description("Request time counted against the quota, percentile of the last interval")
+                .register(registry);
+        }
+        TimeGauge.builder("ratelimit.request.time.max", latency,
+            TimeUnit.NANOSECONDS, l -> l.interval.getMaxValue())
+            .tag("route", route)
+            .description("Longest request time counted against the quota in the last interval")
+            .register(registry);
+        Gauge.builder("ratelimit.request.time.count", latency, l -> l.interval.getTotalCount())
+            .tag("route", route)
+            .description("Requests counted against the quota in the last interval")
+            .register(registry);
+    }
+
+    private static final class RouteLatency {
+
+        private final Recorder recorder;
+        /**
+         * 上一个完整区间的分布，由定时任务替换，不会再被修改
+         */
+        private volatile Histogram interval;
+
+        private RouteLatency(int significantDigits) {
+            this.recorder = new Recorder(significantDigits);
+            this.interval = new Histogram(significantDigits);
+        }
+    }
+}
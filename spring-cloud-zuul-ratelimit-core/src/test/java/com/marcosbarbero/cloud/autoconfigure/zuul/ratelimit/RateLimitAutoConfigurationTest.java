@@ -9,17 +9,34 @@ import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.ConsulRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.DefaultRateLimiterErrorHandler;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.GossipRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterCircuitBreaker;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterErrorHandler;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RedisRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InMemoryRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InMemorySnapshotter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.KeyOwnerRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.SharedMemoryCounterTable;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.SharedMemoryRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jHazelcastRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jIgniteRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jInfinispanRateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jJCacheRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j.Bucket4jLocalRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid.HazelcastCombinedRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.CircuitBreakerMetrics;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.DefaultRateLimitKeyGenerator;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.HeavyHitters;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitEndpoint;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitMeters;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RequestLatencyHistograms;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.StringToMatchTypeConverter;
 import com.netflix.zuul.ZuulFilter;
 import io.github.bucket4j.grid.GridBucketState;
 import org.apache.ignite.IgniteCache;
 import org.infinispan.functional.FunctionalMap.ReadWriteMap;
+import org.junit.Assume;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.AutoConfigurations;
@@ -29,7 +46,12 @@ import org.springframework.cloud.netflix.zuul.filters.RouteLocator;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -76,12 +98,103 @@ public class RateLimitAutoConfigurationTest {
                         assertThat(context).getBean(RateLimiter.class).isExactlyInstanceOf(ConsulRateLimiter.class));
     }
 
+    @Test
+    public void testGossipRateLimiterByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=GOSSIP", PREFIX + ".gossip.host=127.0.0.1",
+                PREFIX + ".gossip.port=0", PREFIX + ".gossip.secret=secret")
+                .run(context -> assertThat(context).getBean(RateLimiter.class).isExactlyInstanceOf(GossipRateLimiter.class));
+    }
+
+    @Test
+    public void testKeyOwnerRateLimiterByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=KEY_OWNER", PREFIX + ".key-owner.host=127.0.0.1",
+                PREFIX + ".key-owner.port=0", PREFIX + ".key-owner.secret=secret")
+                .run(context -> assertThat(context).getBean(RateLimiter.class).isExactlyInstanceOf(KeyOwnerRateLimiter.class));
+    }
+
     @Test
     public void testRedisRateLimiterByProperty() {
         contextRunner.withPropertyValues(PREFIX + ".repository=REDIS")
                 .run(context -> assertThat(context).getBean(RateLimiter.class).isExactlyInstanceOf(RedisRateLimiter.class));
     }
 
+    @Test
+    public void testRedisDedicatedConnectionByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=REDIS", PREFIX + ".redis.dedicated-connection=true",
+                PREFIX + ".redis.url=redis://localhost:6379/1")
+                .run(context -> {
+                    RedisTemplate<?, ?> redisTemplate = context.getBean("rateLimiterCounterRedisTemplate",
+                            RedisTemplate.class);
+                    assertThat(redisTemplate.getConnectionFactory())
+                            .isInstanceOf(LettuceConnectionFactory.class)
+                            .isNotSameAs(context.getBean(RedisConnectionFactory.class));
+                    assertThat(((LettuceConnectionFactory) redisTemplate.getConnectionFactory()).getDatabase())
+                            .isEqualTo(1);
+                });
+    }
+
+    @Test
+    public void testRedisSharedConnectionByDefault() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=REDIS")
+                .run(context -> {
+                    assertThat(context.getBean("rateLimiterCounterRedisTemplate", RedisTemplate.class)
+                            .getConnectionFactory()).isSameAs(context.getBean(RedisConnectionFactory.class));
+                    assertThat(context.getBean("rateLimiterRedisTemplate"))
+                            .isExactlyInstanceOf(StringRedisTemplate.class);
+                });
+    }
+
+    @Test
+    public void testCircuitBreakerByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=IN_MEMORY", PREFIX + ".circuit-breaker.enabled=true",
+                PREFIX + ".metrics.enabled=false")
+                .run(context -> {
+                    assertThat(context).hasSingleBean(RateLimiterCircuitBreaker.class);
+                    assertThat(context).hasSingleBean(CircuitBreakerMetrics.class);
+                    assertThat(context).getBean(RateLimiterErrorHandler.class)
+                            .isNotInstanceOf(DefaultRateLimiterErrorHandler.class);
+                });
+    }
+
+    @Test
+    public void testRateLimitMetersByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=IN_MEMORY", PREFIX + ".metrics.enabled=true")
+                .run(context -> {
+                    assertThat(context).hasSingleBean(RateLimitMeters.class);
+                    assertThat(context).getBean(RateLimiterErrorHandler.class)
+                            .isNotInstanceOf(DefaultRateLimiterErrorHandler.class);
+                });
+    }
+
+    @Test
+    public void testRateLimitMetersDisabledByDefault() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=IN_MEMORY")
+                .run(context -> {
+                    assertThat(context).doesNotHaveBean(RateLimitMeters.class);
+                    assertThat(context).getBean(RateLimiterErrorHandler.class)
+                            .isInstanceOf(DefaultRateLimiterErrorHandler.class);
+                });
+    }
+
+    @Test
+    public void testHeavyHittersByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=IN_MEMORY", PREFIX + ".heavy-hitters.enabled=true")
+                .run(context -> assertThat(context).hasSingleBean(HeavyHitters.class));
+    }
+
+    @Test
+    public void testLatencyHistogramsByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=IN_MEMORY", PREFIX + ".latency-histogram.enabled=true")
+                .run(context -> assertThat(context).hasSingleBean(RequestLatencyHistograms.class));
+    }
+
+    @Test
+    public void testRateLimitEndpointWhenExposed() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=IN_MEMORY",
+                "management.endpoints.web.exposure.include=ratelimit")
+                .run(context -> assertThat(context).hasSingleBean(RateLimitEndpoint.class));
+    }
+
     @Test
     public void testBucket4jJCacheRateLimiterByProperty() {
         contextRunner.withPropertyValues(PREFIX + ".repository=BUCKET4J_JCACHE")
@@ -106,6 +219,39 @@ public class RateLimitAutoConfigurationTest {
                 .run(context -> assertThat(context).getBean(RateLimiter.class).isExactlyInstanceOf(Bucket4jInfinispanRateLimiter.class));
     }
 
+    @Test
+    public void testSharedMemoryRateLimiterByProperty() throws IOException {
+        Assume.assumeTrue(SharedMemoryCounterTable.isSupported());
+        File file = File.createTempFile("ratelimit", ".shm");
+        file.delete();
+        file.deleteOnExit();
+        contextRunner.withPropertyValues(PREFIX + ".repository=SHARED_MEMORY",
+                PREFIX + ".shared-memory.path=" + file.getAbsolutePath(),
+                PREFIX + ".shared-memory.slots=64")
+                .run(context -> assertThat(context).getBean(RateLimiter.class).isExactlyInstanceOf(SharedMemoryRateLimiter.class));
+    }
+
+    @Test
+    public void testHazelcastCombinedRateLimiterByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=BUCKET4J_HAZELCAST", PREFIX + ".combined-grid-entry=true")
+                .run(context -> assertThat(context).getBean(RateLimiter.class).isExactlyInstanceOf(HazelcastCombinedRateLimiter.class));
+    }
+
+    @Test
+    public void testBucket4jLocalRateLimiterByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=BUCKET4J_LOCAL")
+                .run(context -> assertThat(context).getBean(RateLimiter.class).isExactlyInstanceOf(Bucket4jLocalRateLimiter.class));
+    }
+
+    @Test
+    public void testInMemoryRateLimiterByProperty() {
+        contextRunner.withPropertyValues(PREFIX + ".repository=IN_MEMORY")
+                .run(context -> {
+                    assertThat(context).getBean(RateLimiter.class).isExactlyInstanceOf(InMemoryRateLimiter.class);
+                    assertThat(context).doesNotHaveBean(InMemorySnapshotter.class);
+                });
+    }
+
     @Test
     public void testDefaultRateLimitKeyGenerator() {
         contextRunner.withPropertyValues(PREFIX + ".repository=BUCKET4J_JCACHE")
@@ -0,0 +1,43 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WindowAlignmentTest {
+
+    private static final long INTERVAL = 60000L;
+
+    @Test
+    public void testFirstRequestStartsTheWindow() {
+        assertThat(WindowAlignment.FIRST_REQUEST.windowEnd("key", INTERVAL, 1000L)).isEqualTo(61000L);
+    }
+
+    @Test
+    public void testKeyOffsetIsStableWithinTheWindow() {
+        long now = 1_600_000_000_000L;
+        long end = WindowAlignment.KEY_OFFSET.windowEnd("key", INTERVAL, now);
+
+        assertThat(end).isGreaterThan(now).isLessThanOrEqualTo(now + INTERVAL);
+        assertThat(WindowAlignment.KEY_OFFSET.windowEnd("key", INTERVAL, end - 1)).isEqualTo(end);
+        assertThat(WindowAlignment.KEY_OFFSET.windowEnd("key", INTERVAL, end)).isEqualTo(end + INTERVAL);
+        assertThat(WindowAlignment.KEY_OFFSET.windowEnd("key" + RateLimiter.QUOTA_SUFFIX, INTERVAL, now))
+            .isEqualTo(end);
+    }
+
+    @Test
+    public void testKeyOffsetSpreadsTheWindows() {
+        long now = 1_600_000_000_000L;
+        Set<Long> seconds = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            seconds.add(WindowAlignment.KEY_OFFSET.windowEnd("key" + i, INTERVAL, now) / 1000);
+        }
+
+        // 1000 keys spread over the 60 seconds of the interval
+        assertThat(seconds).hasSize(60);
+    }
+}
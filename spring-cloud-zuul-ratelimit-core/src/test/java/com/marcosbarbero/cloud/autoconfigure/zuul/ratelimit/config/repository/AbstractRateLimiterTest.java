@@ -7,6 +7,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import org.junit.Before;
@@ -26,15 +27,23 @@ public class AbstractRateLimiterTest {
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         target = Mockito.mock(AbstractRateLimiter.class, Mockito.CALLS_REAL_METHODS);
-        Field rateLimiterErrorHandler = AbstractRateLimiter.class.getDeclaredField("rateLimiterErrorHandler");
-        boolean accessible = rateLimiterErrorHandler.isAccessible();
-        rateLimiterErrorHandler.setAccessible(true);
+        // the mock skips the field initializers
+        setField("rateLimiterErrorHandler", this.rateLimiterErrorHandler);
+        setField("consumeLock", new InstrumentedLock());
+        setField("windowAlignment", WindowAlignment.FIRST_REQUEST);
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = AbstractRateLimiter.class.getDeclaredField(name);
+        boolean accessible = field.isAccessible();
+        field.setAccessible(true);
         Field modifiersField = Field.class.getDeclaredField("modifiers");
         modifiersField.setAccessible(true);
-        modifiersField.setInt(rateLimiterErrorHandler, rateLimiterErrorHandler.getModifiers() & ~Modifier.FINAL);
-        rateLimiterErrorHandler.set(target, this.rateLimiterErrorHandler);
-        rateLimiterErrorHandler.setAccessible(accessible);
-        modifiersField.setInt(rateLimiterErrorHandler, rateLimiterErrorHandler.getModifiers() & Modifier.FINAL);
+        int modifiers = field.getModifiers();
+        modifiersField.setInt(field, modifiers & ~Modifier.FINAL);
+        field.set(target, value);
+        field.setAccessible(accessible);
+        modifiersField.setInt(field, modifiers);
     }
 
     @Test
@@ -0,0 +1,185 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterCircuitBreaker.State;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class CircuitBreakerRateLimiterTest {
+
+    @Mock
+    private RateLimiterErrorHandler rateLimiterErrorHandler;
+
+    private final AtomicInteger storageCalls = new AtomicInteger();
+    private volatile boolean storageDown;
+    private volatile long storageLatency;
+    private RateLimiterErrorHandler errorHandler;
+    private RateLimiterCircuitBreaker breaker;
+    private Policy policy;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        policy = new Policy();
+        policy.setLimit(10L);
+        breaker = new RateLimiterCircuitBreaker(2, 60000L, 50L, 0L, 2);
+        errorHandler = RateLimiterCircuitBreaker.errorHandler(rateLimiterErrorHandler, () -> breaker);
+    }
+
+    @Test
+    public void testStorageErrorsOpenTheCircuit() {
+        RateLimiter target = breaker.guard(new StandInStorage());
+        storageDown = true;
+
+        // failed calls are answered by the local limiter, limit 10 shared by 2 nodes
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(4L);
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(3L);
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.getOpened()).isEqualTo(1L);
+        verify(rateLimiterErrorHandler, times(2)).handleError(anyString(), any());
+    }
+
+    @Test
+    public void testOpenCircuitSkipsStorage() {
+        breaker = new RateLimiterCircuitBreaker(1, 60000L, 50L, 60000L, 1);
+        RateLimiter target = breaker.guard(new StandInStorage());
+        storageDown = true;
+
+        target.consume(policy, "key", null);
+        storageDown = false;
+        Rate rate = target.consume(policy, "key", null);
+
+        assertThat(storageCalls.get()).isEqualTo(1);
+        assertThat(rate.getRemaining()).isEqualTo(8L);
+        assertThat(breaker.getFallbacks()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testProbeClosesTheCircuit() {
+        RateLimiter target = breaker.guard(new StandInStorage());
+        storageDown = true;
+        target.consume(policy, "key", null);
+        target.consume(policy, "key", null);
+
+        storageDown = false;
+        Rate rate = target.consume(policy, "key", null);
+
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(rate.getRemaining()).isEqualTo(9L);
+    }
+
+    @Test
+    public void testFailedProbeOpensTheCircuitAgain() {
+        RateLimiter target = breaker.guard(new StandInStorage());
+        storageDown = true;
+        target.consume(policy, "key", null);
+        target.consume(policy, "key", null);
+
+        target.consume(policy, "key", null);
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(storageCalls.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testSlowCallsOpenTheCircuit() {
+        RateLimiter target = breaker.guard(new StandInStorage());
+        storageLatency = 100L;
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(9L);
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(9L);
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.getSlowCalls()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testBatchStorageStaysBatched() {
+        RateLimiter target = breaker.guard(new StandInBatchStorage());
+        List<Policy> policies = Arrays.asList(policy, policy);
+        List<String> keys = Arrays.asList("first", "second");
+
+        assertThat(target).isInstanceOf(BatchRateLimiter.class);
+        List<Rate> rates = ((BatchRateLimiter) target).consume(policies, keys, null);
+
+        assertThat(rates).extracting(Rate::getRemaining).containsExactly(9L, 9L);
+        assertThat(storageCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailedBatchFallsBackPerKey() {
+        BatchRateLimiter target = (BatchRateLimiter) breaker.guard(new StandInBatchStorage());
+        storageDown = true;
+
+        List<Rate> rates = target.consume(Arrays.asList(policy, policy), Arrays.asList("first", "second"), null);
+
+        // limit 10 shared by 2 nodes
+        assertThat(rates).extracting(Rate::getRemaining).containsExactly(4L, 4L);
+        assertThat(breaker.getFallbacks()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testErrorsOutsideGuardedCallsAreCounted() {
+        errorHandler.handleError("Failed", new RuntimeException());
+        errorHandler.handleError("Failed", new RuntimeException());
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    /**
+     * Reports storage errors through the error handler and admits the request, like the Redis repository.
+     */
+    private class StandInStorage implements RateLimiter {
+
+        @Override
+        public Rate consume(Policy policy, String key, Long requestTime) {
+            storageCalls.incrementAndGet();
+            if (storageLatency > 0) {
+                try {
+                    Thread.sleep(storageLatency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (storageDown) {
+                errorHandler.handleError("Failed retrieving rate for " + key, new RuntimeException("down"));
+                return new Rate(key, policy.getLimit(), null, null, null);
+            }
+            return new Rate(key, policy.getLimit() - 1, null, null, null);
+        }
+    }
+
+    /**
+     * Counts one storage call per batch.
+     */
+    private class StandInBatchStorage extends StandInStorage implements BatchRateLimiter {
+
+        @Override
+        public List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+            storageCalls.incrementAndGet();
+            if (storageDown) {
+                throw new IllegalStateException("down");
+            }
+            List<Rate> rates = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                rates.add(new Rate(keys.get(i), policies.get(i).getLimit() - 1, null, null, null));
+            }
+            return rates;
+        }
+    }
+}
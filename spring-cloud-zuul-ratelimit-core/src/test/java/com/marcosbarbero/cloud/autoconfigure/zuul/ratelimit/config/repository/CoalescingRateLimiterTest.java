@@ -0,0 +1,130 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.PermitsRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CoalescingRateLimiterTest {
+
+    private RateLimiter target;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger quotaCalls = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        target = new CoalescingRateLimiter(new SlowRateLimiter(), 50);
+    }
+
+    @Test
+    public void testConcurrentConsumesAreCoalesced() throws Exception {
+        Policy policy = new Policy();
+        policy.setLimit(1000L);
+        policy.setRefreshInterval(60L);
+        AtomicInteger allowed = new AtomicInteger();
+        Set<Long> remainings = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 32; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 100; i++) {
+                    Rate rate = target.consume(policy, "key", null);
+                    if (rate.getRemaining() >= 0) {
+                        allowed.incrementAndGet();
+                        assertThat(remainings.add(rate.getRemaining())).isTrue();
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(allowed.get()).isEqualTo(1000);
+        assertThat(used.get()).isEqualTo(3200L);
+        assertThat(calls.get()).isLessThan(3200);
+    }
+
+    @Test
+    public void testQuotaIsNotCoalesced() {
+        Policy policy = new Policy();
+        policy.setQuota(1L);
+
+        target.consume(policy, "key", 100L);
+
+        assertThat(quotaCalls.get()).isEqualTo(1);
+        assertThat(calls.get()).isZero();
+    }
+
+    @Test
+    public void testFailureIsPropagated() {
+        target = new CoalescingRateLimiter(new SlowRateLimiter() {
+            @Override
+            public Rate consumePermits(Policy policy, String key, int permits) {
+                throw new IllegalStateException("down");
+            }
+        }, 50);
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+
+        assertThatThrownBy(() -> target.consume(policy, "key", null)).hasMessage("down");
+        assertThatThrownBy(() -> target.consume(policy, "key", null)).hasMessage("down");
+    }
+
+    @Test
+    public void testConsumeHandsOutRemainingInArrivalOrder() {
+        Policy policy = new Policy();
+        policy.setLimit(2L);
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(1L);
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(0L);
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(-1L);
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(-1L);
+    }
+
+    /**
+     * Keeps a plain counter per test and takes a millisecond per call, so concurrent callers queue up.
+     */
+    private class SlowRateLimiter implements PermitsRateLimiter {
+
+        private final InMemoryRateLimiter rateLimiter = new InMemoryRateLimiter();
+
+        @Override
+        public Rate consume(Policy policy, String key, Long requestTime) {
+            quotaCalls.incrementAndGet();
+            return rateLimiter.consume(policy, key, requestTime);
+        }
+
+        @Override
+        public Rate consumePermits(Policy policy, String key, int permits) {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            long current = used.addAndGet(permits);
+            Rate rate = rateLimiter.consume(policy, key, 0L);
+            rate.setRemaining(policy.getLimit() != null ? policy.getLimit() - current : null);
+            return rate;
+        }
+    }
+}
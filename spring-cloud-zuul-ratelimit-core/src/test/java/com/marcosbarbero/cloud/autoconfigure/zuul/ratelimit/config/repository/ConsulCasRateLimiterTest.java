@@ -0,0 +1,228 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateCodec;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.BinaryRateCodec;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestTemplate;
+
+public class ConsulCasRateLimiterTest extends BaseRateLimiterTest {
+
+    @Mock
+    private RateLimiterErrorHandler rateLimiterErrorHandler;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RateCodec rateCodec = new BinaryRateCodec();
+    private final AtomicInteger transactions = new AtomicInteger();
+    private final Set<String> tokens = ConcurrentHashMap.newKeySet();
+    private HttpServer server;
+    private ConsulTxnClient txnClient;
+
+    @Before
+    public void setUp() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/txn", new StandInConsul());
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        txnClient = new ConsulTxnClient(new RestTemplate(), objectMapper,
+            "http://127.0.0.1:" + server.getAddress().getPort(), "token");
+        target = new ConsulCasRateLimiter(rateLimiterErrorHandler, txnClient, rateCodec, 100);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConcurrentConsumeIsNotLost() throws Exception {
+        Policy policy = new Policy();
+        policy.setLimit(1000L);
+        policy.setRefreshInterval(60L);
+        ConsulCasRateLimiter other = new ConsulCasRateLimiter(rateLimiterErrorHandler, txnClient, rateCodec, 100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Rate>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            ConsulCasRateLimiter limiter = i % 2 == 0 ? (ConsulCasRateLimiter) target : other;
+            futures.add(executor.submit(() -> limiter.consume(policy, "key", null)));
+        }
+        for (Future<Rate> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Rate rate = target.consume(policy, "key", null);
+        assertThat(rate.getRemaining()).isEqualTo(959L);
+    }
+
+    @Test
+    public void testBatchConsumeUsesOneReadAndOneWrite() {
+        Policy first = new Policy();
+        first.setLimit(10L);
+        Policy second = new Policy();
+        second.setLimit(5L);
+
+        transactions.set(0);
+        List<Rate> rates = ((ConsulCasRateLimiter) target)
+            .consume(Arrays.asList(first, second), Arrays.asList("key", "key2"), null);
+
+        assertThat(transactions.get()).isEqualTo(2);
+        assertThat(rates).extracting(Rate::getRemaining).containsExactly(9L, 4L);
+    }
+
+    @Test
+    public void testReadsOnlyTheRequestedKey() {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        target.consume(policy, "key2", null);
+        target.consume(policy, "key2", null);
+
+        transactions.set(0);
+        List<Rate> rates = ((ConsulCasRateLimiter) target)
+            .consume(Arrays.asList(policy, policy), Arrays.asList("key", "key2"), null);
+
+        assertThat(transactions.get()).isEqualTo(3);
+        assertThat(rates).extracting(Rate::getRemaining).containsExactly(9L, 7L);
+    }
+
+    @Test
+    public void testAclTokenIsSent() {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+
+        target.consume(policy, "key", null);
+
+        assertThat(tokens).containsOnly("token");
+    }
+
+    @Test
+    public void testRetriesExhausted() {
+        target = new ConsulCasRateLimiter(rateLimiterErrorHandler, new ConsulTxnClient(new RestTemplate(),
+            objectMapper, "http://127.0.0.1:" + server.getAddress().getPort(), null) {
+            @Override
+            public boolean checkAndSet(Map<String, KeyValue> values) {
+                return false;
+            }
+        }, rateCodec, 2);
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+
+        Rate rate = target.consume(policy, "key", null);
+
+        assertThat(rate.getRemaining()).isEqualTo(9L);
+        verify(rateLimiterErrorHandler).handleSaveError(eq("key"), any(ConcurrentModificationException.class));
+    }
+
+    @Test
+    public void testServerUnavailable() {
+        target = new ConsulCasRateLimiter(rateLimiterErrorHandler,
+            new ConsulTxnClient(new RestTemplate(), objectMapper, "http://127.0.0.1:1", null), rateCodec, 2);
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+
+        Rate rate = target.consume(policy, "key", null);
+
+        assertThat(rate.getRemaining()).isEqualTo(9L);
+        verify(rateLimiterErrorHandler).handleFetchError(eq("key"), any());
+        verify(rateLimiterErrorHandler).handleSaveError(eq("key"), any());
+    }
+
+    /**
+     * Implements the subset of the Consul transaction endpoint used by the limiter.
+     */
+    private class StandInConsul implements com.sun.net.httpserver.HttpHandler {
+
+        private final Map<String, JsonNode> store = new TreeMap<>();
+        private long index;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            transactions.incrementAndGet();
+            tokens.add(String.valueOf(exchange.getRequestHeaders().getFirst("X-Consul-Token")));
+            JsonNode operations = objectMapper.readTree(
+                StreamUtils.copyToString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            ObjectNode response = objectMapper.createObjectNode();
+            int status = 200;
+            synchronized (store) {
+                ArrayNode results = response.putArray("Results");
+                ArrayNode errors = objectMapper.createArrayNode();
+                for (int i = 0; i < operations.size(); i++) {
+                    JsonNode kv = operations.get(i).get("KV");
+                    String key = kv.get("Key").asText();
+                    if ("get".equals(kv.get("Verb").asText())) {
+                        if (store.containsKey(key)) {
+                            results.addObject().set("KV", store.get(key));
+                        } else {
+                            status = 409;
+                            errors.addObject().put("OpIndex", i).put("What", "key \"" + key + "\" doesn't exist");
+                        }
+                    } else {
+                        JsonNode current = store.get(key);
+                        long expected = kv.get("Index").asLong();
+                        if ((current == null && expected != 0)
+                            || (current != null && current.get("ModifyIndex").asLong() != expected)) {
+                            status = 409;
+                            errors.addObject().put("OpIndex", i).put("What", "failed to set key");
+                        }
+                    }
+                }
+                if (status == 200) {
+                    for (JsonNode operation : operations) {
+                        JsonNode kv = operation.get("KV");
+                        if ("cas".equals(kv.get("Verb").asText())) {
+                            ObjectNode value = objectMapper.createObjectNode();
+                            value.put("Key", kv.get("Key").asText());
+                            value.put("Value", kv.get("Value").asText());
+                            value.put("ModifyIndex", ++index);
+                            store.put(kv.get("Key").asText(), value);
+                            results.addObject().set("KV", value);
+                        }
+                    }
+                } else {
+                    response.remove("Results");
+                    response.set("Errors", errors);
+                }
+            }
+            byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.GossipCounterTable.Entry;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GossipRateLimiterTest extends BaseRateLimiterTest {
+
+    private final List<InetSocketAddress> addresses = new CopyOnWriteArrayList<>();
+    private final List<GossipRateLimiter> nodes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws SocketException {
+        target = node(1400);
+    }
+
+    @After
+    public void tearDown() {
+        nodes.forEach(GossipRateLimiter::close);
+    }
+
+    @Test
+    public void testNodesConvergeOnLoopback() throws Exception {
+        node(1400);
+        node(1400);
+        nodes.forEach(GossipRateLimiter::start);
+        Policy policy = new Policy();
+        policy.setLimit(100L);
+        policy.setRefreshInterval(60L);
+
+        for (GossipRateLimiter node : nodes) {
+            for (int i = 0; i < 10; i++) {
+                node.consume(policy, "key", null);
+            }
+        }
+
+        for (GossipRateLimiter node : nodes) {
+            // a post filter call reads the global count without consuming
+            await().atMost(10, SECONDS).untilAsserted(() ->
+                assertThat(node.consume(policy, "key", 0L).getRemaining()).isEqualTo(70L));
+        }
+    }
+
+    @Test
+    public void testMessagesAreSplitByPacketSize() throws SocketException {
+        GossipRateLimiter sender = node(128);
+        GossipRateLimiter receiver = node(128);
+        Policy policy = new Policy();
+        policy.setLimit(100L);
+        policy.setRefreshInterval(60L);
+        receiver.consume(policy, "key0", 0L);
+        long now = System.currentTimeMillis();
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            entries.add(new Entry("key" + i, now - now % 60000L, 60000L, i + 1));
+        }
+
+        List<byte[]> messages = sender.encode(entries);
+        messages.forEach(message -> receiver.merge(message, 0, message.length));
+
+        assertThat(messages.size()).isGreaterThan(1);
+        assertThat(messages).allMatch(message -> message.length <= 128);
+        assertThat(receiver.consume(policy, "key19", 0L).getRemaining()).isEqualTo(80L);
+    }
+
+    @Test
+    public void testOwnAndMalformedMessagesAreIgnored() {
+        GossipRateLimiter node = (GossipRateLimiter) target;
+        long now = System.currentTimeMillis();
+        byte[] own = node.encode(Collections.singletonList(new Entry("key", now - now % 60000L, 60000L, 5))).get(0);
+
+        node.merge(own, 0, own.length);
+        node.merge(own, 0, own.length - 3);
+        node.merge(new byte[]{7, 1, 2}, 0, 3);
+
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        assertThat(node.consume(policy, "key", null).getRemaining()).isEqualTo(9L);
+    }
+
+    @Test
+    public void testUnsignedMessagesAreIgnored() throws SocketException {
+        GossipRateLimiter receiver = (GossipRateLimiter) target;
+        GossipRateLimiter stranger = node(1400, "other");
+        long now = System.currentTimeMillis();
+        byte[] forged = stranger.encode(Collections.singletonList(new Entry("key", now - now % 60000L, 60000L, 5)))
+            .get(0);
+
+        receiver.merge(forged, 0, forged.length);
+
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        assertThat(receiver.consume(policy, "key", null).getRemaining()).isEqualTo(9L);
+    }
+
+    @Test
+    public void testForeignWindowsAreIgnored() throws SocketException {
+        GossipRateLimiter sender = node(1400);
+        GossipRateLimiter receiver = (GossipRateLimiter) target;
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        receiver.consume(policy, "other", 0L);
+        long now = System.currentTimeMillis();
+        long start = now - now % 60000L;
+        List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry("key", start - 60000L, 60000L, 5));
+        entries.add(new Entry("key", start + 1, 60000L, 5));
+        entries.add(new Entry("key", 0L, Long.MAX_VALUE, 5));
+        entries.add(new Entry("key", start, 30000L, 5));
+        entries.add(new Entry("other", start, 60000L, 5));
+
+        sender.encode(entries).forEach(message -> receiver.merge(message, 0, message.length));
+
+        assertThat(receiver.consume(policy, "key", null).getRemaining()).isEqualTo(9L);
+        assertThat(receiver.consume(policy, "other", null).getRemaining()).isEqualTo(4L);
+    }
+
+    @Test
+    public void testMergeKeepsLargestCountPerNode() {
+        GossipCounterTable table = new GossipCounterTable();
+
+        table.merge("a", "key", 0L, 60000L, 5);
+        table.merge("a", "key", 0L, 60000L, 3);
+        table.merge("a", "key", 0L, 60000L, 5);
+        table.merge("b", "key", 0L, 60000L, 2);
+
+        assertThat(table.add("key", 0L, 60000L, 1)).isEqualTo(8L);
+    }
+
+    @Test
+    public void testNewWindowDropsPreviousCounts() {
+        GossipCounterTable table = new GossipCounterTable();
+        table.merge("a", "key", 0L, 60000L, 5);
+
+        assertThat(table.add("key", 60000L, 60000L, 1)).isEqualTo(1L);
+        table.merge("a", "key", 0L, 60000L, 7);
+        assertThat(table.add("key", 60000L, 60000L, 0)).isEqualTo(1L);
+    }
+
+    @Test
+    public void testCollectSendsChangedCountsOnly() {
+        GossipCounterTable table = new GossipCounterTable();
+        long now = System.currentTimeMillis();
+        table.add("key", now, 60000L, 2);
+        table.add("other", now, 60000L, 1);
+
+        assertThat(table.collect(false, now)).extracting(entry -> entry.key).containsOnly("key", "other");
+        table.add("key", now, 60000L, 1);
+        assertThat(table.collect(false, now)).extracting(entry -> entry.count).containsExactly(3L);
+        assertThat(table.collect(true, now)).hasSize(2);
+        assertThat(table.collect(true, now + 60000L)).isEmpty();
+        assertThat(table.size()).isZero();
+    }
+
+    private GossipRateLimiter node(int maxPacketSize) throws SocketException {
+        return node(maxPacketSize, "secret");
+    }
+
+    private GossipRateLimiter node(int maxPacketSize, String secret) throws SocketException {
+        Collection<InetSocketAddress> peers = addresses;
+        GossipRateLimiter node = new GossipRateLimiter(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+            secret, () -> peers, 20L, 200L, maxPacketSize);
+        addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), node.getPort()));
+        nodes.add(node);
+        return node;
+    }
+}
@@ -0,0 +1,198 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter.KeyState;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InMemoryRateLimiterTest extends BaseRateLimiterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path snapshot;
+
+    @Before
+    public void setUp() {
+        snapshot = temporaryFolder.getRoot().toPath().resolve("ratelimit.snapshot");
+        target = new InMemoryRateLimiter();
+    }
+
+    @Test
+    public void testConcurrentConsume() throws Exception {
+        Policy policy = new Policy();
+        policy.setLimit(100000L);
+        policy.setRefreshInterval(60L);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.submit(() -> {
+                for (int j = 0; j < 4096; j++) {
+                    target.consume(policy, "key", null);
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+        Rate rate = target.consume(policy, "key", null);
+        assertThat(rate.getRemaining()).isEqualTo(100000L - 4 * 4096 - 1);
+    }
+
+    @Test
+    public void testSnapshotAndRestore() throws IOException {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        target.consume(policy, "key", null);
+        target.consume(policy, "key", null);
+        new InMemorySnapshotter((InMemoryRateLimiter) target, snapshot, 30).snapshot();
+
+        InMemoryRateLimiter restarted = new InMemoryRateLimiter();
+        assertThat(new InMemorySnapshotter(restarted, snapshot, 30).restore()).isEqualTo(1);
+
+        Rate rate = restarted.consume(policy, "key", null);
+        assertThat(rate.getRemaining()).isEqualTo(7L);
+        assertThat(rate.getReset()).isLessThanOrEqualTo(60000L);
+    }
+
+    @Test
+    public void testRestoreMergesWithRequestsServedBeforeRestore() throws IOException {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        target.consume(policy, "key", null);
+        new InMemorySnapshotter((InMemoryRateLimiter) target, snapshot, 30).snapshot();
+
+        InMemoryRateLimiter restarted = new InMemoryRateLimiter();
+        restarted.consume(policy, "key", null);
+        new InMemorySnapshotter(restarted, snapshot, 30).restore();
+
+        assertThat(restarted.consume(policy, "key", null).getRemaining()).isEqualTo(7L);
+    }
+
+    @Test
+    public void testRestoreSkipsExpiredWindows() throws IOException {
+        long now = System.currentTimeMillis();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(snapshot))) {
+            out.writeInt(InMemorySnapshotter.MAGIC);
+            out.writeByte(InMemorySnapshotter.VERSION);
+            writeEntry(out, "expired", now - 1000, 5);
+            writeEntry(out, "live", now + 60000, 5);
+            out.writeByte(0);
+        }
+
+        InMemoryRateLimiter restarted = new InMemoryRateLimiter();
+        assertThat(new InMemorySnapshotter(restarted, snapshot, 30).restore()).isEqualTo(1);
+
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        assertThat(restarted.consume(policy, "expired", null).getRemaining()).isEqualTo(9L);
+        assertThat(restarted.consume(policy, "live", null).getRemaining()).isEqualTo(4L);
+    }
+
+    @Test
+    public void testCloseWritesSnapshotAfterBackgroundRestore() throws Exception {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        target.consume(policy, "key", null);
+        new InMemorySnapshotter((InMemoryRateLimiter) target, snapshot, 30).snapshot();
+
+        InMemoryRateLimiter restarted = new InMemoryRateLimiter();
+        InMemorySnapshotter snapshotter = new InMemorySnapshotter(restarted, snapshot, 30);
+        snapshotter.start();
+        restarted.consume(policy, "other", null);
+        snapshotter.close();
+
+        InMemoryRateLimiter again = new InMemoryRateLimiter();
+        assertThat(new InMemorySnapshotter(again, snapshot, 30).restore()).isEqualTo(2);
+        assertThat(again.consume(policy, "key", null).getRemaining()).isEqualTo(8L);
+    }
+
+    @Test
+    public void testMissingSnapshot() throws IOException {
+        assertThat(new InMemorySnapshotter((InMemoryRateLimiter) target, snapshot, 30).restore()).isZero();
+    }
+
+    @Test
+    public void testKeyOffsetWindow() {
+        ((InMemoryRateLimiter) target).setWindowAlignment(WindowAlignment.KEY_OFFSET);
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+
+        long before = System.currentTimeMillis();
+        Rate rate = target.consume(policy, "key", null);
+        long after = System.currentTimeMillis();
+
+        long end = WindowAlignment.KEY_OFFSET.windowEnd("key", 60000L, before);
+        assertThat(rate.getRemaining()).isEqualTo(9L);
+        assertThat(rate.getReset()).isBetween(end - after, end - before);
+    }
+
+    @Test
+    public void testEvictExpired() {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(1L);
+        target.consume(policy, "key", null);
+
+        ((InMemoryRateLimiter) target).evictExpired(System.currentTimeMillis() + 2000);
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(9L);
+    }
+
+    @Test
+    public void testInspectScanAndReset() {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setQuota(2L);
+        policy.setRefreshInterval(60L);
+        InMemoryRateLimiter limiter = (InMemoryRateLimiter) target;
+        limiter.consume(policy, "route:a", null);
+        limiter.consume(policy, "route:a", 300L);
+        limiter.consume(policy, "route:b", null);
+        limiter.consume(policy, "other", null);
+
+        KeyState state = limiter.inspect("route:a");
+        assertThat(state.getUsed()).isEqualTo(1L);
+        assertThat(state.getReset()).isBetween(1L, 60000L);
+        assertThat(limiter.inspect("route:a-quota").getQuotaUsed()).isEqualTo(300L);
+        assertThat(limiter.inspect("missing")).isNull();
+
+        List<String> keys = new ArrayList<>();
+        limiter.scan("route:*", keys::add);
+        assertThat(keys).containsExactlyInAnyOrder("route:a", "route:a-quota", "route:b", "route:b-quota");
+
+        assertThat(limiter.reset("route:*")).isEqualTo(4L);
+        assertThat(limiter.inspect("route:a")).isNull();
+        assertThat(limiter.inspect("other").getUsed()).isEqualTo(1L);
+        assertThat(limiter.consume(policy, "route:a", null).getRemaining()).isEqualTo(9L);
+    }
+
+    private void writeEntry(DataOutputStream out, String key, long end, long count) throws IOException {
+        byte[] bytes = key.getBytes("UTF-8");
+        out.writeByte(1);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeLong(end);
+        out.writeLong(count);
+    }
+}
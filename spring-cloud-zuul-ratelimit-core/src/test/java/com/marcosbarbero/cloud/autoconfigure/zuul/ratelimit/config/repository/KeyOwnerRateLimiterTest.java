@@ -0,0 +1,248 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class KeyOwnerRateLimiterTest extends BaseRateLimiterTest {
+
+    private static final String HOST = "127.0.0.1";
+    private static final String SECRET = "secret";
+
+    @Mock
+    private RateLimiterErrorHandler rateLimiterErrorHandler;
+
+    private volatile List<InetSocketAddress> peers = Collections.emptyList();
+    private final List<KeyOwnerRateLimiter> nodes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        target = node();
+        node();
+    }
+
+    @After
+    public void tearDown() {
+        nodes.forEach(KeyOwnerRateLimiter::close);
+    }
+
+    private KeyOwnerRateLimiter node() throws IOException {
+        KeyOwnerRateLimiter node = new KeyOwnerRateLimiter(rateLimiterErrorHandler, new InetSocketAddress(HOST, 0),
+            HOST, SECRET, 16, () -> peers, 160, new InMemoryRateLimiter(), 1000, 5000);
+        node.start();
+        addPeer(node.getPort());
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * a changed membership is published as a new list
+     */
+    private void addPeer(int port) {
+        List<InetSocketAddress> changed = new ArrayList<>(peers);
+        changed.add(new InetSocketAddress(HOST, port));
+        peers = changed;
+    }
+
+    private static Policy policy(long limit) {
+        Policy policy = new Policy();
+        policy.setLimit(limit);
+        policy.setRefreshInterval(60L);
+        return policy;
+    }
+
+    @Test
+    public void testCountsAreExactAcrossNodes() throws IOException {
+        node();
+        Policy policy = policy(100L);
+
+        for (KeyOwnerRateLimiter node : nodes) {
+            for (int i = 0; i < 10; i++) {
+                node.consume(policy, "key", null);
+            }
+        }
+
+        for (KeyOwnerRateLimiter node : nodes) {
+            // a post filter call reads the count without consuming
+            assertThat(node.consume(policy, "key", 0L).getRemaining()).isEqualTo(70L);
+        }
+    }
+
+    @Test
+    public void testBatchConsumeRoutesEveryKeyToItsOwner() {
+        List<Policy> policies = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            policies.add(policy(10L));
+            keys.add("key" + i);
+        }
+
+        ((KeyOwnerRateLimiter) target).consume(policies, keys, null);
+        List<Rate> rates = nodes.get(1).consume(policies, keys, null);
+
+        assertThat(rates).extracting(Rate::getKey).containsExactlyElementsOf(keys);
+        assertThat(rates).extracting(Rate::getRemaining).containsOnly(8L);
+    }
+
+    @Test
+    public void testUnreachableOwnerFallsBackToLocalLimiter() throws IOException {
+        int unusedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            unusedPort = socket.getLocalPort();
+        }
+        addPeer(unusedPort);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(target.consume(policy(10L), "key" + i, null).getRemaining()).isEqualTo(9L);
+        }
+        verify(rateLimiterErrorHandler, atLeastOnce()).handleError(anyString(), any());
+    }
+
+    @Test
+    public void testSilentOwnerConnectionIsRecycled() throws Exception {
+        List<Socket> accepted = new CopyOnWriteArrayList<>();
+        try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getByName(HOST))) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = silent.accept();
+                        accepted.add(socket);
+                        // a nonce, the answer and the requests are never read
+                        socket.getOutputStream().write(new byte[16]);
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            KeyOwnerRateLimiter node = new KeyOwnerRateLimiter(rateLimiterErrorHandler,
+                new InetSocketAddress(HOST, 0), HOST, SECRET, 16,
+                () -> Collections.singletonList(new InetSocketAddress(HOST, silent.getLocalPort())), 160,
+                new InMemoryRateLimiter(), 100, 0);
+            nodes.add(node);
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                keys.add("key" + i);
+            }
+            List<Policy> policies = Collections.nCopies(keys.size(), policy(10L));
+
+            assertThat(node.consume(policies, keys, null)).extracting(Rate::getRemaining).containsOnly(9L);
+            assertThat(node.consume(policies, keys, null)).extracting(Rate::getRemaining).containsOnly(8L);
+
+            await().atMost(10, SECONDS).untilAsserted(() -> assertThat(accepted).hasSize(2));
+            // the first connection was closed after its request timed out
+            Socket first = accepted.get(0);
+            first.setSoTimeout(5000);
+            InputStream in = first.getInputStream();
+            while (in.read() != -1) {
+                // the abandoned request
+            }
+        } finally {
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneConnectAttempt() throws Exception {
+        List<Socket> accepted = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (ServerSocket mute = new ServerSocket(0, 50, InetAddress.getByName(HOST))) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        // the handshake never starts
+                        accepted.add(mute.accept());
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            KeyOwnerRateLimiter node = new KeyOwnerRateLimiter(rateLimiterErrorHandler,
+                new InetSocketAddress(HOST, 0), HOST, SECRET, 16,
+                () -> Collections.singletonList(new InetSocketAddress(HOST, mute.getLocalPort())), 160,
+                new InMemoryRateLimiter(), 500, 60000);
+            nodes.add(node);
+
+            List<Future<Rate>> rates = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                rates.add(executor.submit(() -> node.consume(policy(10L), "key", null)));
+            }
+
+            for (Future<Rate> rate : rates) {
+                assertThat(rate.get(5, SECONDS).getRemaining()).isLessThan(10L);
+            }
+            assertThat(accepted).hasSize(1);
+        } finally {
+            executor.shutdownNow();
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testUnauthenticatedConnectionIsClosed() throws IOException {
+        try (Socket socket = new Socket(HOST, ((KeyOwnerRateLimiter) target).getPort())) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readFully(new byte[16]);
+            socket.getOutputStream().write(new byte[32]);
+
+            assertThat(in.read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void testJoiningNodeReceivesTheWindowsOfItsKeys() throws Exception {
+        peers = Collections.singletonList(peers.get(0));
+        KeyOwnerRateLimiter first = (KeyOwnerRateLimiter) target;
+        Policy policy = policy(10L);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            keys.add("key" + i);
+            for (int j = 0; j < 5; j++) {
+                first.consume(policy, "key" + i, null);
+            }
+        }
+
+        addPeer(nodes.get(1).getPort());
+
+        await().atMost(10, SECONDS).untilAsserted(() ->
+            assertThat(first.consume(Collections.nCopies(keys.size(), policy), keys, 0L))
+                .extracting(Rate::getRemaining).containsOnly(5L));
+        assertThat(nodes.get(1).consume(Collections.nCopies(keys.size(), policy), keys, 0L))
+            .extracting(Rate::getRemaining).containsOnly(5L);
+    }
+}
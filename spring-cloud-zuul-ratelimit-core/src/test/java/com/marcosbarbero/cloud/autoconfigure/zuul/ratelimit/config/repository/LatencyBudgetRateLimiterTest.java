@@ -0,0 +1,143 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.LatencyBudgetDecision;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LatencyBudgetRateLimiterTest {
+
+    private final CountDownLatch storageReleased = new CountDownLatch(1);
+    private volatile boolean storageSlow;
+    private RateLimiterLatencyBudget budget;
+    private Policy policy;
+
+    @Before
+    public void setUp() {
+        policy = new Policy();
+        policy.setLimit(10L);
+    }
+
+    @After
+    public void tearDown() {
+        storageReleased.countDown();
+        budget.close();
+    }
+
+    @Test
+    public void testFastStorageAnswers() {
+        RateLimiter target = target(LatencyBudgetDecision.DENY, 4, 10);
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(5L);
+        assertThat(budget.getExceeded()).isZero();
+    }
+
+    @Test
+    public void testAllowWhenBudgetExceeded() {
+        RateLimiter target = target(LatencyBudgetDecision.ALLOW, 4, 10);
+        storageSlow = true;
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(10L);
+        assertThat(budget.getExceeded()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testDenyWhenBudgetExceeded() {
+        RateLimiter target = target(LatencyBudgetDecision.DENY, 4, 10);
+        storageSlow = true;
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(-1L);
+    }
+
+    @Test
+    public void testLocalEstimateWhenBudgetExceeded() {
+        RateLimiter target = target(LatencyBudgetDecision.LOCAL, 4, 10);
+
+        target.consume(policy, "key", null);
+        storageSlow = true;
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(8L);
+    }
+
+    @Test
+    public void testAsyncConsumeWithinBudget() {
+        AsyncRateLimiter target = (AsyncRateLimiter) target(LatencyBudgetDecision.DENY, 4, 10);
+        storageSlow = true;
+
+        assertThat(target.consumeAsync(policy, "key", null).join().getRemaining()).isEqualTo(-1L);
+        assertThat(budget.getExceeded()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testFullPoolDecidesImmediately() {
+        RateLimiter target = target(LatencyBudgetDecision.ALLOW, 1, 1);
+        storageSlow = true;
+
+        target.consume(policy, "key", null);
+        target.consume(policy, "key", null);
+        target.consume(policy, "key", null);
+
+        assertThat(budget.getRejected()).isEqualTo(1L);
+        assertThat(budget.getExceeded()).isEqualTo(3L);
+    }
+
+    @Test
+    public void testBatchSharesOneBudget() {
+        budget = new RateLimiterLatencyBudget(20000L, LatencyBudgetDecision.DENY, 1, 4, 10);
+        RateLimiter target = budget.guard(new StandInBatchStorage());
+        List<Policy> policies = Arrays.asList(policy, policy);
+        List<String> keys = Arrays.asList("first", "second");
+
+        assertThat(target).isInstanceOf(BatchRateLimiter.class);
+        assertThat(((BatchRateLimiter) target).consume(policies, keys, null))
+            .extracting(Rate::getRemaining).containsExactly(5L, 5L);
+
+        storageSlow = true;
+        assertThat(((BatchRateLimiter) target).consume(policies, keys, null))
+            .extracting(Rate::getRemaining).containsExactly(-1L, -1L);
+        assertThat(budget.getExceeded()).isEqualTo(2L);
+    }
+
+    private RateLimiter target(LatencyBudgetDecision decision, int threads, int queueCapacity) {
+        budget = new RateLimiterLatencyBudget(20000L, decision, 1, threads, queueCapacity);
+        return budget.guard(new StandInStorage());
+    }
+
+    private class StandInStorage implements RateLimiter {
+
+        @Override
+        public Rate consume(Policy policy, String key, Long requestTime) {
+            if (storageSlow) {
+                try {
+                    storageReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new Rate(key, 5L, null, null, null);
+        }
+    }
+
+    private class StandInBatchStorage extends StandInStorage implements BatchRateLimiter {
+
+        @Override
+        public List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+            List<Rate> rates = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                rates.add(consume(policies.get(i), keys.get(i), requestTime));
+            }
+            return rates;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.BatchRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MicroBatchDispatcherTest {
+
+    private final CountingBatchRateLimiter delegate = new CountingBatchRateLimiter();
+    private MicroBatchDispatcher dispatcher;
+    private Policy policy;
+
+    @Before
+    public void setUp() {
+        dispatcher = new MicroBatchDispatcher(delegate, 64, 1000);
+        policy = new Policy();
+        policy.setLimit(100000L);
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.close();
+    }
+
+    @Test
+    public void testConcurrentConsumesShareBatches() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        List<Future<Rate>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String key = "key" + (i % 10);
+            futures.add(executor.submit(() -> dispatcher.submit(policy, key).join()));
+        }
+        for (Future<Rate> future : futures) {
+            assertThat(future.get().getRemaining()).isLessThan(100000L);
+        }
+        executor.shutdown();
+
+        assertThat(delegate.consumed.get()).isEqualTo(1000);
+        assertThat(delegate.batches.get()).isLessThan(1000);
+    }
+
+    @Test
+    public void testSubmitAfterCloseConsumesDirectly() {
+        CompletableFuture<Rate> pending = dispatcher.submit(policy, "key");
+        dispatcher.close();
+
+        assertThat(pending.join().getRemaining()).isEqualTo(99999L);
+        assertThat(dispatcher.submit(policy, "key").join().getRemaining()).isEqualTo(99998L);
+    }
+
+    @Test
+    public void testFailedBatchCompletesExceptionally() {
+        delegate.failing = true;
+
+        CompletableFuture<Rate> future = dispatcher.submit(policy, "key");
+
+        assertThatThrownBy(future::join).isInstanceOf(CompletionException.class)
+            .hasCauseInstanceOf(IllegalStateException.class).hasMessageContaining("down");
+    }
+
+    @Test
+    public void testErrorDoesNotStopTheDispatcher() {
+        delegate.error = new AssertionError("broken");
+
+        CompletableFuture<Rate> failed = dispatcher.submit(policy, "key");
+
+        assertThatThrownBy(failed::join).hasCauseInstanceOf(AssertionError.class);
+        delegate.error = null;
+        assertThat(dispatcher.submit(policy, "key").join().getRemaining()).isEqualTo(99999L);
+    }
+
+    private static class CountingBatchRateLimiter extends InMemoryRateLimiter implements BatchRateLimiter {
+
+        private final AtomicInteger batches = new AtomicInteger();
+        private final AtomicInteger consumed = new AtomicInteger();
+        private volatile boolean failing;
+        private volatile Error error;
+
+        @Override
+        public List<Rate> consume(List<Policy> policies, List<String> keys, Long requestTime) {
+            if (failing) {
+                throw new IllegalStateException("down");
+            }
+            if (error != null) {
+                throw error;
+            }
+            batches.incrementAndGet();
+            List<Rate> rates = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                consumed.incrementAndGet();
+                rates.add(consume(policies.get(i), keys.get(i), requestTime));
+            }
+            return rates;
+        }
+    }
+}
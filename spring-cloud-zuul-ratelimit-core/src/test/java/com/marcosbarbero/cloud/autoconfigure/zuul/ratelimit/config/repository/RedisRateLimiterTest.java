@@ -1,26 +1,46 @@
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
 import static org.mockito.ArgumentMatchers.matches;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.Maps;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter.KeyState;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.WindowAlignment;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.core.BoundValueOperations;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.ValueOperations;
 
 @SuppressWarnings("unchecked")
@@ -104,4 +124,122 @@ public class RedisRateLimiterTest extends BaseRateLimiterTest {
         target.consume(policy, "key", 0L);
         verify(rateLimiterErrorHandler).handleError(matches(".* key, .*"), any());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testKeyOffsetWindowExpiresAtItsEnd() {
+        ValueOperations ops = mock(ValueOperations.class);
+        when(ops.increment(anyString(), anyLong())).thenReturn(1L);
+        doReturn(ops).when(redisTemplate).opsForValue();
+        ((RedisRateLimiter) target).setWindowAlignment(WindowAlignment.KEY_OFFSET);
+        Policy policy = new Policy();
+        policy.setLimit(100L);
+        policy.setRefreshInterval(60L);
+
+        Rate rate = target.consume(policy, "key", null);
+
+        assertThat(rate.getReset()).isBetween(1L, 60000L);
+        verify(redisTemplate).expire(eq("key"), longThat(ttl -> ttl > 0 && ttl <= 60000L), eq(MILLISECONDS));
+    }
+
+    @Test
+    public void testConsumePermits() {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        RedisRateLimiter limiter = (RedisRateLimiter) target;
+
+        assertThat(limiter.consumePermits(policy, "key", 4).getRemaining()).isEqualTo(6L);
+        assertThat(limiter.consumePermits(policy, "key", 8).getRemaining()).isEqualTo(-2L);
+        assertThat(limiter.consume(policy, "key", null).getRemaining()).isEqualTo(-1L);
+    }
+
+    @Test
+    public void testBatchConsumeUsesOnePipeline() {
+        Map<String, Long> store = Maps.newHashMap();
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            List<Object> results = new ArrayList<>();
+            RedisConnection connection = mock(RedisConnection.class);
+            when(connection.incrBy(any(byte[].class), anyLong())).thenAnswer(increment -> {
+                String key = new String((byte[]) increment.getArgument(0), StandardCharsets.UTF_8);
+                results.add(store.merge(key, increment.getArgument(1), Long::sum));
+                return null;
+            });
+            when(connection.expire(any(byte[].class), anyLong())).thenAnswer(expire -> {
+                results.add(true);
+                return null;
+            });
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            return results;
+        });
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+
+        List<Rate> rates = ((RedisRateLimiter) target)
+            .consume(Arrays.asList(policy, policy, policy), Arrays.asList("key", "key", "key2"), null);
+
+        assertThat(rates).extracting(Rate::getRemaining).containsExactly(9L, 8L, 9L);
+        // INCRBY pipeline and EXPIRE pipeline for the keys starting a window
+        verify(redisTemplate, times(2)).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    public void testBatchConsumeException() {
+        when(redisTemplate.executePipelined(any(RedisCallback.class)))
+            .thenThrow(new RedisConnectionFailureException("down"));
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+
+        List<Rate> rates = ((RedisRateLimiter) target)
+            .consume(Arrays.asList(policy, policy), Arrays.asList("key", "key2"), null);
+
+        assertThat(rates).extracting(Rate::getRemaining).containsExactly(10L, 10L);
+        verify(rateLimiterErrorHandler).handleError(matches(".*key, key2.*"), any());
+    }
+
+    @Test
+    public void testRedisPatternEscapesGlobCharacters() {
+        assertThat(RedisRateLimiter.redisPattern("route:[a]?\\*")).isEqualTo("route:\\[a\\]\\?\\\\*");
+    }
+
+    @Test
+    public void testResetPatternUnlinksScannedKeysInBatches() {
+        List<byte[]> stored = new ArrayList<>();
+        for (int i = 0; i < RedisRateLimiter.SCAN_COUNT + 1; i++) {
+            stored.add(("route:" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        when(redisTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation -> {
+            Iterator<byte[]> iterator = stored.iterator();
+            Cursor<byte[]> cursor = mock(Cursor.class);
+            when(cursor.hasNext()).thenAnswer(hasNext -> iterator.hasNext());
+            when(cursor.next()).thenAnswer(next -> iterator.next());
+            RedisConnection connection = mock(RedisConnection.class);
+            when(connection.scan(any(ScanOptions.class))).thenReturn(cursor);
+            return ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+        });
+        List<Integer> batches = new ArrayList<>();
+        when(redisTemplate.unlink(anyCollection())).thenAnswer(invocation -> {
+            int size = ((Collection<?>) invocation.getArgument(0)).size();
+            batches.add(size);
+            return (long) size;
+        });
+
+        long deleted = ((RedisRateLimiter) target).reset("route:*");
+
+        assertThat(deleted).isEqualTo(RedisRateLimiter.SCAN_COUNT + 1L);
+        assertThat(batches).containsExactly(RedisRateLimiter.SCAN_COUNT, 1);
+    }
+
+    @Test
+    public void testInspect() {
+        ValueOperations ops = mock(ValueOperations.class);
+        when(ops.get("key")).thenReturn(3L);
+        doReturn(ops).when(redisTemplate).opsForValue();
+        when(redisTemplate.getExpire("key", MILLISECONDS)).thenReturn(1500L);
+
+        KeyState state = ((RedisRateLimiter) target).inspect("key");
+
+        assertThat(state.getUsed()).isEqualTo(3L);
+        assertThat(state.getReset()).isEqualTo(1500L);
+        assertThat(((RedisRateLimiter) target).inspect("missing")).isNull();
+    }
+}
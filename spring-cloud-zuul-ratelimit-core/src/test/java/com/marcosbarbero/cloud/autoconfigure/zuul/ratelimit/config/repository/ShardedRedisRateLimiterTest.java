@@ -0,0 +1,108 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.ShardedRedisRateLimiter.Shard;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+@SuppressWarnings("unchecked")
+public class ShardedRedisRateLimiterTest extends BaseRateLimiterTest {
+
+    @Mock
+    private RateLimiterErrorHandler rateLimiterErrorHandler;
+
+    private final Map<String, Long> store = new HashMap<>();
+    private RedisTemplate first;
+    private RedisTemplate second;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        first = shard();
+        second = shard();
+        target = new ShardedRedisRateLimiter(rateLimiterErrorHandler,
+            Arrays.asList(new Shard("redis://first", first), new Shard("redis://second", second)), 160,
+            new InMemoryRateLimiter(), 60000L);
+    }
+
+    @Test
+    public void testBatchUsesOnePipelinePerShard() {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setQuota(1L);
+        List<String> keys = new ArrayList<>();
+        List<Policy> policies = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add("key" + i);
+            policies.add(policy);
+        }
+
+        List<Rate> rates = ((ShardedRedisRateLimiter) target).consume(policies, keys, null);
+
+        assertThat(rates).extracting(Rate::getRemaining).containsOnly(9L);
+        assertThat(rates).extracting(Rate::getRemainingQuota).containsOnly(1000L);
+        // INCRBY pipeline and EXPIRE pipeline on each shard
+        verify(first, times(2)).executePipelined(any(RedisCallback.class));
+        verify(second, times(2)).executePipelined(any(RedisCallback.class));
+        assertThat(store).hasSize(40);
+    }
+
+    @Test
+    public void testShardDownFallsBackToLocalLimiter() {
+        RedisTemplate broken = mock(RedisTemplate.class);
+        when(broken.executePipelined(any(RedisCallback.class)))
+            .thenThrow(new RedisConnectionFailureException("down"));
+        target = new ShardedRedisRateLimiter(rateLimiterErrorHandler,
+            Arrays.asList(new Shard("redis://broken", broken)), 160, new InMemoryRateLimiter(), 60000L);
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(9L);
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(8L);
+
+        verify(broken).executePipelined(any(RedisCallback.class));
+        verify(rateLimiterErrorHandler).handleError(anyString(), any());
+    }
+
+    private RedisTemplate shard() {
+        RedisTemplate template = mock(RedisTemplate.class);
+        when(template.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            List<Object> results = new ArrayList<>();
+            RedisConnection connection = mock(RedisConnection.class);
+            when(connection.incrBy(any(byte[].class), anyLong())).thenAnswer(increment -> {
+                String key = new String((byte[]) increment.getArgument(0), StandardCharsets.UTF_8);
+                results.add(store.merge(key, increment.getArgument(1), Long::sum));
+                return null;
+            });
+            when(connection.expire(any(byte[].class), anyLong())).thenAnswer(expire -> {
+                results.add(true);
+                return null;
+            });
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            return results;
+        });
+        return template;
+    }
+}
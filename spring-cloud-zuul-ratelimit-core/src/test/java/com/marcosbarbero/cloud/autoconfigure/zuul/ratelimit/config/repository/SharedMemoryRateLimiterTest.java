@@ -0,0 +1,152 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class SharedMemoryRateLimiterTest extends BaseRateLimiterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private RateLimiterErrorHandler rateLimiterErrorHandler;
+
+    private File file;
+    private SharedMemoryCounterTable counters;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(SharedMemoryCounterTable.isSupported());
+        MockitoAnnotations.initMocks(this);
+        file = new File(temporaryFolder.getRoot(), "ratelimit.shm");
+        counters = new SharedMemoryCounterTable(file, 1024);
+        target = new SharedMemoryRateLimiter(rateLimiterErrorHandler, counters);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (counters != null) {
+            counters.close();
+        }
+    }
+
+    @Test
+    public void testCountersAreSharedBetweenMappings() throws Exception {
+        Policy policy = new Policy();
+        policy.setLimit(100000L);
+        policy.setRefreshInterval(60L);
+
+        try (SharedMemoryCounterTable other = new SharedMemoryCounterTable(file, 1024)) {
+            SharedMemoryRateLimiter otherProcess = new SharedMemoryRateLimiter(rateLimiterErrorHandler, other);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for (int i = 0; i < 4; i++) {
+                SharedMemoryRateLimiter limiter = i % 2 == 0 ? (SharedMemoryRateLimiter) target : otherProcess;
+                executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        limiter.consume(policy, "key", null);
+                    }
+                });
+            }
+            executor.shutdown();
+            assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+        }
+
+        Rate rate = target.consume(policy, "key", null);
+        assertThat(rate.getRemaining()).isEqualTo(95999L);
+    }
+
+    @Test
+    public void testCountersSurviveReopen() throws IOException {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        target.consume(policy, "key", null);
+        counters.close();
+
+        counters = new SharedMemoryCounterTable(file, 1024);
+        target = new SharedMemoryRateLimiter(rateLimiterErrorHandler, counters);
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(8L);
+    }
+
+    @Test
+    public void testWindowReset() throws InterruptedException {
+        Policy policy = new Policy();
+        policy.setLimit(1L);
+        policy.setRefreshInterval(2L);
+        target.consume(policy, "key", null);
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(-1L);
+
+        TimeUnit.MILLISECONDS.sleep(2100);
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(0L);
+    }
+
+    @Test
+    public void testExpiredSlotIsReclaimedOnce() throws Exception {
+        try (SharedMemoryCounterTable small = new SharedMemoryCounterTable(
+            new File(temporaryFolder.getRoot(), "small.shm"), 2)) {
+            small.addAndGet("a", 1, 1);
+            small.addAndGet("b", 1, 1);
+            TimeUnit.MILLISECONDS.sleep(2100);
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for (int i = 0; i < 4; i++) {
+                String key = "key" + i;
+                executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        small.addAndGet(key, 1, 60);
+                    }
+                });
+            }
+            executor.shutdown();
+            assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+            int owners = 0;
+            for (int i = 0; i < 4; i++) {
+                try {
+                    assertThat(small.count(small.addAndGet("key" + i, 0, 60))).isEqualTo(1000L);
+                    owners++;
+                } catch (IllegalStateException e) {
+                    // 两个槽位都被占用
+                }
+            }
+            assertThat(owners).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testKeysSharingAPrefixAreCountedSeparately() {
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            prefix.append('x');
+        }
+        counters.addAndGet(prefix + "a", 3, 60);
+        counters.addAndGet(prefix + "b", 5, 60);
+        counters.addAndGet(prefix.toString(), 7, 60);
+
+        assertThat(counters.count(counters.addAndGet(prefix + "a", 0, 60))).isEqualTo(3L);
+        assertThat(counters.count(counters.addAndGet(prefix + "b", 0, 60))).isEqualTo(5L);
+        assertThat(counters.count(counters.addAndGet(prefix.toString(), 0, 60))).isEqualTo(7L);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDifferentSlotCount() throws IOException {
+        new SharedMemoryCounterTable(file, 4096);
+    }
+}
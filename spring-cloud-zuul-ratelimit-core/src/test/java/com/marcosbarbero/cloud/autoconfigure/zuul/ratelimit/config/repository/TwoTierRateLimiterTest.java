@@ -0,0 +1,84 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TwoTierRateLimiterTest {
+
+    private final AtomicInteger nodes = new AtomicInteger(4);
+    private final AtomicInteger remoteCalls = new AtomicInteger();
+    private TwoTierRateLimiter target;
+    private Policy policy;
+
+    @Before
+    public void setUp() {
+        InMemoryRateLimiter remote = new InMemoryRateLimiter() {
+            @Override
+            public Rate consume(Policy policy, String key, Long requestTime) {
+                remoteCalls.incrementAndGet();
+                return super.consume(policy, key, requestTime);
+            }
+        };
+        target = new TwoTierRateLimiter(new NodeScaledRateLimiter(nodes::get, 0.1), remote);
+        policy = new Policy();
+        policy.setLimit(100L);
+    }
+
+    @Test
+    public void testFloodIsRejectedLocally() {
+        Rate last = null;
+        for (int i = 0; i < 1000; i++) {
+            last = target.consume(policy, "key", null);
+        }
+
+        // ceil(100 * 1.1 / 4) requests reach the remote limiter
+        assertThat(remoteCalls.get()).isEqualTo(28);
+        assertThat(last.getRemaining()).isNegative();
+    }
+
+    @Test
+    public void testRemoteDecidesLocallyAdmittedRequests() {
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(99L);
+        assertThat(remoteCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNodeCountChangeRescalesLocalLimit() {
+        nodes.set(110);
+        target.consume(policy, "key", null);
+        target.consume(policy, "key", null);
+
+        assertThat(remoteCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testQuotaGoesStraightToRemote() {
+        policy.setLimit(null);
+        policy.setQuota(1L);
+
+        target.consume(policy, "key", 100L);
+
+        assertThat(remoteCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBatchSendsOnlyAdmittedKeys() {
+        Policy tight = new Policy();
+        tight.setLimit(1L);
+        nodes.set(1);
+        target.consume(tight, "tight", null);
+        remoteCalls.set(0);
+
+        List<Rate> rates = target.consume(Arrays.asList(policy, tight), Arrays.asList("key", "tight"), null);
+
+        assertThat(rates).extracting(Rate::getRemaining).containsExactly(99L, -1L);
+        assertThat(remoteCalls.get()).isEqualTo(1);
+    }
+}
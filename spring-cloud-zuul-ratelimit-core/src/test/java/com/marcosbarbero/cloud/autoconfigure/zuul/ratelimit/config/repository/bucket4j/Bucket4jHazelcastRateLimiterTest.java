@@ -1,12 +1,18 @@
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.BaseRateLimiterTest;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Test;
 import org.mockito.MockitoAnnotations;
 
 public class Bucket4jHazelcastRateLimiterTest extends BaseRateLimiterTest {
@@ -29,6 +35,52 @@ public class Bucket4jHazelcastRateLimiterTest extends BaseRateLimiterTest {
         hazelcastInstance.getMap("rateLimit").destroy();
     }
 
+    @Test
+    public void testConsumeAsync() {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setQuota(1L);
+        policy.setRefreshInterval(2L);
+        AsyncRateLimiter asyncRateLimiter = (AsyncRateLimiter) target;
+
+        Rate rate = asyncRateLimiter.consumeAsync(policy, "key", null).join();
+        assertThat(rate.getRemaining()).isEqualTo(9L);
+        assertThat(rate.getRemainingQuota()).isEqualTo(1000L);
+
+        rate = asyncRateLimiter.consumeAsync(policy, "key", 800L).join();
+        assertThat(rate.getRemaining()).isEqualTo(9L);
+        assertThat(rate.getRemainingQuota()).isEqualTo(200L);
+    }
+
+    @Test
+    public void testConsumeAsyncExhausted() {
+        Policy policy = new Policy();
+        policy.setLimit(1L);
+        policy.setRefreshInterval(60L);
+        AsyncRateLimiter asyncRateLimiter = (AsyncRateLimiter) target;
+
+        asyncRateLimiter.consumeAsync(policy, "key", null).join();
+        Rate rate = asyncRateLimiter.consumeAsync(policy, "key", null).join();
+
+        assertThat(rate.getRemaining()).isEqualTo(-1L);
+        assertThat(rate.getReset()).isPositive();
+    }
+
+    @Test
+    public void testConsumeAsyncDrainsRejectedQuota() {
+        Policy policy = new Policy();
+        policy.setQuota(1L);
+        policy.setRefreshInterval(3600L);
+        AsyncRateLimiter asyncRateLimiter = (AsyncRateLimiter) target;
+
+        asyncRateLimiter.consumeAsync(policy, "key", 800L).join();
+        Rate rate = asyncRateLimiter.consumeAsync(policy, "key", 500L).join();
+        assertThat(rate.getRemainingQuota()).isEqualTo(-1L);
+
+        rate = asyncRateLimiter.consumeAsync(policy, "key", null).join();
+        assertThat(rate.getRemainingQuota()).isEqualTo(-1L);
+    }
+
     @AfterClass
     public static void tearDownClass() {
         Hazelcast.shutdownAll();
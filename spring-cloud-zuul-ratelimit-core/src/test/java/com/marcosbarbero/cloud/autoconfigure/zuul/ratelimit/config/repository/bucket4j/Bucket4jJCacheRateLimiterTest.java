@@ -1,12 +1,16 @@
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.BaseRateLimiterTest;
+import io.github.bucket4j.Bucket;
 import org.apache.ignite.Ignite;
 import org.apache.ignite.Ignition;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Test;
 import org.mockito.MockitoAnnotations;
 
 public class Bucket4jJCacheRateLimiterTest extends BaseRateLimiterTest {
@@ -29,6 +33,28 @@ public class Bucket4jJCacheRateLimiterTest extends BaseRateLimiterTest {
         ignite.destroyCache("rateLimit");
     }
 
+    @Test
+    public void testProxyIsReusedUntilConfigurationChanges() {
+        Bucket4jJCacheRateLimiter limiter = (Bucket4jJCacheRateLimiter) target;
+        Bucket bucket = limiter.getBucket("key", 10L, 60L);
+
+        assertThat(limiter.getBucket("key", 10L, 60L)).isSameAs(bucket);
+        assertThat(limiter.getBucket("key", 20L, 60L)).isNotSameAs(bucket);
+    }
+
+    @Test
+    public void testProxyCacheIsBounded() {
+        AbstractBucket4jRateLimiter.ProxyCache<Integer> cache = new AbstractBucket4jRateLimiter.ProxyCache<>(10);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, i);
+        }
+        cache.get("key95");
+
+        assertThat(cache.size()).isLessThanOrEqualTo(12);
+        assertThat(cache.get("key95")).isEqualTo(95);
+        assertThat(cache.get("key0")).isNull();
+    }
+
     @AfterClass
     public static void tearDownClass() {
         Ignition.stop(true);
@@ -0,0 +1,54 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.bucket4j;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.BaseRateLimiterTest;
+import org.junit.Before;
+import org.junit.Test;
+
+public class Bucket4jLocalRateLimiterTest extends BaseRateLimiterTest {
+
+    @Before
+    public void setUp() {
+        target = new Bucket4jLocalRateLimiter(100);
+    }
+
+    @Test
+    public void testExhaustedBucket() {
+        Policy policy = new Policy();
+        policy.setLimit(2L);
+        policy.setRefreshInterval(60L);
+
+        target.consume(policy, "key", null);
+        target.consume(policy, "key", null);
+        Rate rate = target.consume(policy, "key", null);
+
+        assertThat(rate.getRemaining()).isEqualTo(-1L);
+        assertThat(rate.getReset()).isPositive();
+    }
+
+    @Test
+    public void testKeysAreIndependent() {
+        Policy policy = new Policy();
+        policy.setLimit(2L);
+        policy.setRefreshInterval(60L);
+
+        target.consume(policy, "key", null);
+
+        assertThat(target.consume(policy, "other", null).getRemaining()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testConsumePermits() {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setRefreshInterval(60L);
+        Bucket4jLocalRateLimiter limiter = (Bucket4jLocalRateLimiter) target;
+
+        assertThat(limiter.consumePermits(policy, "key", 4).getRemaining()).isEqualTo(6L);
+        assertThat(limiter.consumePermits(policy, "key", 8).getRemaining()).isEqualTo(-2L);
+        assertThat(limiter.consumePermits(policy, "key", 3).getRemaining()).isEqualTo(-3L);
+    }
+}
@@ -0,0 +1,73 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.BaseRateLimiterTest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class HazelcastCombinedRateLimiterTest extends BaseRateLimiterTest {
+
+    private static HazelcastInstance hazelcastInstance;
+
+    @BeforeClass
+    public static void setUpClass() {
+        hazelcastInstance = Hazelcast.newHazelcastInstance();
+    }
+
+    @Before
+    public void setUp() {
+        target = new HazelcastCombinedRateLimiter(hazelcastInstance.getMap("rateLimit"));
+    }
+
+    @After
+    public void tearDown() {
+        hazelcastInstance.getMap("rateLimit").destroy();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Hazelcast.shutdownAll();
+    }
+
+    @Test
+    public void testLimitAndQuotaShareOneEntry() {
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        policy.setQuota(1L);
+        policy.setRefreshInterval(60L);
+
+        target.consume(policy, "key", null);
+        target.consume(policy, "key", 300L);
+
+        assertThat(hazelcastInstance.getMap("rateLimit").size()).isEqualTo(1);
+        CombinedRateLimitState state = (CombinedRateLimitState) hazelcastInstance.getMap("rateLimit").get("key");
+        assertThat(state.getCount()).isEqualTo(1L);
+        assertThat(state.getQuotaUsed()).isEqualTo(300L);
+    }
+
+    @Test
+    public void testConcurrentConsume() throws InterruptedException {
+        Policy policy = new Policy();
+        policy.setLimit(1000L);
+        policy.setRefreshInterval(60L);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 100; i++) {
+            executor.submit(() -> target.consume(policy, "key", null));
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+        assertThat(target.consume(policy, "key", null).getRemaining()).isEqualTo(899L);
+    }
+}
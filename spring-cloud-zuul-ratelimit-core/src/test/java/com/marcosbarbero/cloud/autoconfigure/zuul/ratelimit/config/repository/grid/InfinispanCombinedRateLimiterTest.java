@@ -0,0 +1,31 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.BaseRateLimiterTest;
+import org.infinispan.AdvancedCache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.functional.FunctionalMap;
+import org.infinispan.functional.impl.FunctionalMapImpl;
+import org.infinispan.functional.impl.ReadWriteMapImpl;
+import org.infinispan.manager.DefaultCacheManager;
+import org.junit.After;
+import org.junit.Before;
+
+public class InfinispanCombinedRateLimiterTest extends BaseRateLimiterTest {
+
+    private DefaultCacheManager cacheManager;
+
+    @Before
+    public void setUp() {
+        cacheManager = new DefaultCacheManager();
+        cacheManager.defineConfiguration("rateLimit", new ConfigurationBuilder().build());
+        AdvancedCache<String, Object> cache = cacheManager.<String, Object>getCache("rateLimit").getAdvancedCache();
+        FunctionalMapImpl<String, Object> functionalMap = FunctionalMapImpl.create(cache);
+        FunctionalMap.ReadWriteMap<String, Object> readWriteMap = ReadWriteMapImpl.create(functionalMap);
+        target = new InfinispanCombinedRateLimiter(readWriteMap);
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.stop();
+    }
+}
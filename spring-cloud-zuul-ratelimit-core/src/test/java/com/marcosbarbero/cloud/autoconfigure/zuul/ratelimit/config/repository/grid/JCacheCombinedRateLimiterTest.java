@@ -0,0 +1,34 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.grid;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.BaseRateLimiterTest;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.Ignition;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+public class JCacheCombinedRateLimiterTest extends BaseRateLimiterTest {
+
+    private static Ignite ignite;
+
+    @BeforeClass
+    public static void setUpClass() {
+        ignite = Ignition.start();
+    }
+
+    @Before
+    public void setUp() {
+        target = new JCacheCombinedRateLimiter(ignite.createCache("rateLimit"));
+    }
+
+    @After
+    public void tearDown() {
+        ignite.destroyCache("rateLimit");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        Ignition.stop(true);
+    }
+}
@@ -1,18 +1,28 @@
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.springdata;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.Maps;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.BaseRateLimiterTest;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterErrorHandler;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
 
 import org.junit.Before;
+import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.dao.EmptyResultDataAccessException;
 
 public class JpaRateLimiterTest extends BaseRateLimiterTest {
 
@@ -37,4 +47,30 @@ public class JpaRateLimiterTest extends BaseRateLimiterTest {
 
         target = new JpaRateLimiter(rateLimiterErrorHandler, rateLimiterRepository);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testResetMissingKey() {
+        doThrow(new EmptyResultDataAccessException(1)).when(rateLimiterRepository).deleteById("missing");
+
+        assertThat(((JpaRateLimiter) target).reset("missing")).isZero();
+        assertThat(((JpaRateLimiter) target).reset("present")).isEqualTo(1L);
+    }
+
+    @Test
+    public void testResetPatternPagesFromLiteralPrefix() {
+        when(rateLimiterRepository.findById("route:user/")).thenReturn(Optional.empty());
+        when(rateLimiterRepository.findByKeyGreaterThanOrderByKeyAsc(eq("route:user/"), any()))
+            .thenReturn(Arrays.asList(rate("route:user/1"), rate("route:user/2-quota"), rate("route:view/1")));
+        when(rateLimiterRepository.deleteByKeys(any()))
+            .thenAnswer(invocationOnMock -> ((Collection<?>) invocationOnMock.getArgument(0)).size());
+
+        assertThat(((JpaRateLimiter) target).reset("route:user/*")).isEqualTo(2L);
+
+        verify(rateLimiterRepository).deleteByKeys(Arrays.asList("route:user/1", "route:user/2-quota"));
+        verify(rateLimiterRepository, times(1)).findByKeyGreaterThanOrderByKeyAsc(anyString(), any());
+    }
+
+    private static Rate rate(String key) {
+        return new Rate(key, 1L, null, null, null);
+    }
+}
@@ -1,23 +1,32 @@
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.filters.post;
 
-import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitConstants.REQUEST_START_TIME;
+import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitConstants.REQUEST_START_NANOS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.Lists;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.AsyncRateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitKeyGenerator;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitUtils;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterErrorHandler;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.filters.RateLimitPostFilter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.DefaultRateLimitUtils;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RequestLatencyHistograms;
 import com.netflix.zuul.context.RequestContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +52,8 @@ public class RateLimitPostFilterTest {
     private RequestAttributes requestAttributes;
     @Mock
     private HttpServletRequest httpServletRequest;
+    @Mock
+    private RateLimiterErrorHandler rateLimiterErrorHandler;
 
     private RateLimitProperties rateLimitProperties = new RateLimitProperties();
 
@@ -58,7 +69,8 @@ public class RateLimitPostFilterTest {
         rateLimitProperties = new RateLimitProperties();
         UrlPathHelper urlPathHelper = new UrlPathHelper();
         RateLimitUtils rateLimitUtils = new DefaultRateLimitUtils(rateLimitProperties);
-        target = new RateLimitPostFilter(rateLimitProperties, routeLocator, urlPathHelper, rateLimiter, rateLimitKeyGenerator, rateLimitUtils);
+        target = new RateLimitPostFilter(rateLimitProperties, routeLocator, urlPathHelper, rateLimiter, rateLimitKeyGenerator,
+            rateLimitUtils, rateLimiterErrorHandler, null, null, null);
     }
 
     @Test
@@ -95,7 +107,7 @@ public class RateLimitPostFilterTest {
     @Test
     public void testShouldFilter() {
         rateLimitProperties.setEnabled(true);
-        when(httpServletRequest.getAttribute(REQUEST_START_TIME)).thenReturn(System.currentTimeMillis());
+        when(httpServletRequest.getAttribute(REQUEST_START_NANOS)).thenReturn(System.nanoTime());
         Policy defaultPolicy = new Policy();
         rateLimitProperties.setDefaultPolicyList(Lists.newArrayList(defaultPolicy));
 
@@ -111,7 +123,7 @@ public class RateLimitPostFilterTest {
     @Test
     public void testRun() {
         rateLimitProperties.setEnabled(true);
-        when(httpServletRequest.getAttribute(REQUEST_START_TIME)).thenReturn(System.currentTimeMillis());
+        when(httpServletRequest.getAttribute(REQUEST_START_NANOS)).thenReturn(System.nanoTime());
         Policy defaultPolicy = new Policy();
         defaultPolicy.setQuota(2L);
         rateLimitProperties.setDefaultPolicyList(Lists.newArrayList(defaultPolicy));
@@ -120,4 +132,46 @@ public class RateLimitPostFilterTest {
         target.run();
         verify(rateLimiter).consume(eq(defaultPolicy), eq("generatedKey"), anyLong());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRecordsRequestTimePerRoute() {
+        rateLimitProperties.setEnabled(true);
+        long requestNanos = TimeUnit.MILLISECONDS.toNanos(5);
+        when(httpServletRequest.getAttribute(REQUEST_START_NANOS)).thenReturn(System.nanoTime() - requestNanos);
+        Policy defaultPolicy = new Policy();
+        defaultPolicy.setQuota(2L);
+        rateLimitProperties.setDefaultPolicyList(Lists.newArrayList(defaultPolicy));
+        when(rateLimitKeyGenerator.key(any(), any(), any())).thenReturn("generatedKey");
+        RequestLatencyHistograms latencyHistograms = mock(RequestLatencyHistograms.class);
+        target = new RateLimitPostFilter(rateLimitProperties, routeLocator, new UrlPathHelper(), rateLimiter,
+            rateLimitKeyGenerator, new DefaultRateLimitUtils(rateLimitProperties), rateLimiterErrorHandler, null, null,
+            latencyHistograms);
+
+        target.run();
+
+        verify(latencyHistograms).record(isNull(), longThat(nanos -> nanos >= requestNanos));
+        verify(rateLimiter).consume(eq(defaultPolicy), eq("generatedKey"), longThat(millis -> millis >= 5L));
+    }
+
+    @Test
+    public void testAsyncFailureIsHandled() {
+        rateLimitProperties.setEnabled(true);
+        when(httpServletRequest.getAttribute(REQUEST_START_NANOS)).thenReturn(System.nanoTime());
+        Policy defaultPolicy = new Policy();
+        defaultPolicy.setQuota(2L);
+        rateLimitProperties.setDefaultPolicyList(Lists.newArrayList(defaultPolicy));
+        when(rateLimitKeyGenerator.key(any(), any(), any())).thenReturn("generatedKey");
+        AsyncRateLimiter asyncRateLimiter = mock(AsyncRateLimiter.class);
+        IllegalStateException failure = new IllegalStateException("grid unavailable");
+        CompletableFuture<Rate> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        when(asyncRateLimiter.consumeAsync(eq(defaultPolicy), eq("generatedKey"), anyLong())).thenReturn(future);
+        target = new RateLimitPostFilter(rateLimitProperties, routeLocator, new UrlPathHelper(), asyncRateLimiter,
+            rateLimitKeyGenerator, new DefaultRateLimitUtils(rateLimitProperties), rateLimiterErrorHandler, null, null,
+            null);
+
+        target.run();
+
+        verify(rateLimiterErrorHandler).handleSaveError("generatedKey", failure);
+    }
+}
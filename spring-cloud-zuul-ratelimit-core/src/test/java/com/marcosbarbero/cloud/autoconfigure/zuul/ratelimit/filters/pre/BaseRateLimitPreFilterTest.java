@@ -103,7 +103,7 @@ public abstract class BaseRateLimitPreFilterTest {
             rateLimitUtils);
         UrlPathHelper urlPathHelper = new UrlPathHelper();
         this.filter = new RateLimitPreFilter(properties, this.routeLocator(), urlPathHelper, this.rateLimiter,
-            rateLimitKeyGenerator, rateLimitUtils);
+            rateLimitKeyGenerator, rateLimitUtils, null, null, null, null);
         this.context = new RequestContext();
         RequestContext.testSetCurrentContext(this.context);
         RequestContextHolder.setRequestAttributes(requestAttributes);
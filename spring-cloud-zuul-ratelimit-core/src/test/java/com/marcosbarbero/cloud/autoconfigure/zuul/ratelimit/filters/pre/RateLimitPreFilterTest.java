@@ -1,10 +1,24 @@
 package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.filters.pre;
 
+import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitConstants.HEADER_REMAINING;
+import static com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitConstants.HEADER_RESET;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.Lists;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitEvents.ConsumeEvent;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitKeyGenerator;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitMetrics;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimitUtils;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
@@ -13,7 +27,9 @@ import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.Ra
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitType;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.filters.RateLimitPreFilter;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.filters.commons.TestRouteLocator;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.BlockedKeyCache;
 import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.DefaultRateLimitUtils;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.RateLimitExceededException;
 import com.netflix.zuul.context.RequestContext;
 import java.util.Collections;
 import javax.servlet.http.HttpServletRequest;
@@ -23,6 +39,8 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.cloud.netflix.zuul.filters.Route;
 import org.springframework.cloud.netflix.zuul.filters.support.FilterConstants;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.util.UrlPathHelper;
@@ -41,6 +59,7 @@ public class RateLimitPreFilterTest {
     private HttpServletRequest httpServletRequest;
 
     private RateLimitProperties rateLimitProperties = new RateLimitProperties();
+    private TestRouteLocator routeLocator;
 
     @Before
     public void setUp() {
@@ -55,8 +74,9 @@ public class RateLimitPreFilterTest {
         UrlPathHelper urlPathHelper = new UrlPathHelper();
         RateLimitUtils rateLimitUtils = new DefaultRateLimitUtils(rateLimitProperties);
         Route route = new Route("servicea", "/test", "servicea", "/servicea", null, Collections.emptySet());
-        TestRouteLocator routeLocator = new TestRouteLocator(Collections.emptyList(), Lists.newArrayList(route));
-        target = new RateLimitPreFilter(rateLimitProperties, routeLocator, urlPathHelper, rateLimiter, rateLimitKeyGenerator, rateLimitUtils);
+        routeLocator = new TestRouteLocator(Collections.emptyList(), Lists.newArrayList(route));
+        target = new RateLimitPreFilter(rateLimitProperties, routeLocator, urlPathHelper, rateLimiter, rateLimitKeyGenerator,
+            rateLimitUtils, null, null, null, null);
     }
 
     @Test
@@ -100,4 +120,75 @@ public class RateLimitPreFilterTest {
 
         assertThat(target.shouldFilter()).isEqualTo(true);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBlockedKeySkipsRateLimiter() {
+        rateLimitProperties.setEnabled(true);
+        Policy defaultPolicy = new Policy();
+        defaultPolicy.setLimit(1L);
+        rateLimitProperties.setDefaultPolicyList(Lists.newArrayList(defaultPolicy));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContext.getCurrentContext().setResponse(response);
+        when(rateLimitKeyGenerator.key(any(), any(), any())).thenReturn("key");
+        when(rateLimiter.consume(any(), eq("key"), isNull())).thenReturn(new Rate("key", -1L, null, 30000L, null));
+        target = new RateLimitPreFilter(rateLimitProperties, routeLocator, new UrlPathHelper(), rateLimiter,
+            rateLimitKeyGenerator, new DefaultRateLimitUtils(rateLimitProperties), new BlockedKeyCache(10, 1000),
+            null, null, null);
+
+        assertThatThrownBy(target::run).isInstanceOf(RateLimitExceededException.class);
+        assertThatThrownBy(target::run).isInstanceOf(RateLimitExceededException.class);
+
+        verify(rateLimiter, times(1)).consume(any(), eq("key"), isNull());
+        assertThat(response.getHeader(HEADER_REMAINING + "key")).isEqualTo("0");
+        assertThat(Long.valueOf(response.getHeader(HEADER_RESET + "key"))).isBetween(29000L, 30000L);
+        assertThat(RequestContext.getCurrentContext().getResponseStatusCode())
+            .isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+    }
+
+    @Test
+    public void testRecordsDecisionPerPolicy() {
+        rateLimitProperties.setEnabled(true);
+        Policy allowedPolicy = new Policy();
+        allowedPolicy.setLimit(10L);
+        Policy rejectedPolicy = new Policy();
+        rejectedPolicy.setLimit(1L);
+        rateLimitProperties.getPolicyList().put("servicea", Lists.newArrayList(allowedPolicy, rejectedPolicy));
+        RequestContext.getCurrentContext().setResponse(new MockHttpServletResponse());
+        when(rateLimitKeyGenerator.key(any(), any(), eq(allowedPolicy))).thenReturn("allowed");
+        when(rateLimitKeyGenerator.key(any(), any(), eq(rejectedPolicy))).thenReturn("rejected");
+        when(rateLimiter.consume(any(), eq("allowed"), isNull())).thenReturn(new Rate("allowed", 9L, null, 30000L, null));
+        when(rateLimiter.consume(any(), eq("rejected"), isNull())).thenReturn(new Rate("rejected", -1L, null, 30000L, null));
+        RateLimitMetrics metrics = mock(RateLimitMetrics.class);
+        target = new RateLimitPreFilter(rateLimitProperties, routeLocator, new UrlPathHelper(), rateLimiter,
+            rateLimitKeyGenerator, new DefaultRateLimitUtils(rateLimitProperties), null, metrics, null, null);
+
+        assertThatThrownBy(target::run).isInstanceOf(RateLimitExceededException.class);
+
+        verify(metrics).recordPolicyMatching(eq("servicea"), anyLong());
+        verify(metrics).recordKeyGeneration(eq("servicea"), anyLong());
+        verify(metrics, times(2)).recordConsume(eq(FilterConstants.PRE_TYPE), anyLong());
+        verify(metrics).recordDecision("servicea", allowedPolicy, true);
+        verify(metrics).recordDecision("servicea", rejectedPolicy, false);
+    }
+
+    @Test
+    public void testEndsOneEventPerConsume() {
+        rateLimitProperties.setEnabled(true);
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        rateLimitProperties.getPolicyList().put("servicea", Lists.newArrayList(policy));
+        RequestContext.getCurrentContext().setResponse(new MockHttpServletResponse());
+        when(rateLimitKeyGenerator.key(any(), any(), eq(policy))).thenReturn("key");
+        Rate rate = new Rate("key", 9L, null, 30000L, null);
+        when(rateLimiter.consume(any(), eq("key"), isNull())).thenReturn(rate);
+        RateLimitEvents events = mock(RateLimitEvents.class);
+        ConsumeEvent event = mock(ConsumeEvent.class);
+        when(events.beginConsume()).thenReturn(event);
+        target = new RateLimitPreFilter(rateLimitProperties, routeLocator, new UrlPathHelper(), rateLimiter,
+            rateLimitKeyGenerator, new DefaultRateLimitUtils(rateLimitProperties), null, null, null, events);
+
+        target.run();
+
+        verify(event).end(FilterConstants.PRE_TYPE, "servicea", rateLimiter, policy, "key", rate);
+    }
+}
@@ -0,0 +1,60 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.Rate;
+import java.io.IOException;
+import java.util.Date;
+import org.junit.Test;
+
+public class BinaryRateCodecTest {
+
+    private final JsonRateCodec jsonRateCodec = new JsonRateCodec(new ObjectMapper());
+    private final BinaryRateCodec target = new BinaryRateCodec(jsonRateCodec);
+
+    @Test
+    public void testRoundTripKeepsMilliseconds() throws IOException {
+        Rate rate = new Rate("app:serviceA:10.0.0.1", -1L, 123456L, 59999L, new Date(1571234567891L));
+
+        Rate decoded = target.decode(target.encode(rate));
+
+        assertThat(decoded.getKey()).isEqualTo("app:serviceA:10.0.0.1");
+        assertThat(decoded.getRemaining()).isEqualTo(-1L);
+        assertThat(decoded.getRemainingQuota()).isEqualTo(123456L);
+        assertThat(decoded.getReset()).isEqualTo(59999L);
+        assertThat(decoded.getExpiration()).isEqualTo(new Date(1571234567891L));
+    }
+
+    @Test
+    public void testRoundTripNullFields() throws IOException {
+        Rate decoded = target.decode(target.encode(new Rate("key", 10L, null, null, null)));
+
+        assertThat(decoded.getRemaining()).isEqualTo(10L);
+        assertThat(decoded.getRemainingQuota()).isNull();
+        assertThat(decoded.getReset()).isNull();
+        assertThat(decoded.getExpiration()).isNull();
+    }
+
+    @Test
+    public void testSmallerThanJson() throws IOException {
+        Rate rate = new Rate("key", 10L, 1000L, 60000L, new Date());
+
+        assertThat(target.encode(rate).length()).isLessThan(jsonRateCodec.encode(rate).length());
+    }
+
+    @Test
+    public void testDecodeLegacyJson() throws IOException {
+        String json = jsonRateCodec.encode(new Rate("key", 5L, null, 1000L, new Date()));
+
+        assertThat(target.decode(json).getRemaining()).isEqualTo(5L);
+    }
+
+    @Test
+    public void testDecodeTruncated() {
+        String encoded = target.encode(new Rate("key", 10L, 1000L, 60000L, new Date()));
+
+        assertThatThrownBy(() -> target.decode(encoded.substring(0, 4))).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,75 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class BlockedKeyCacheTest {
+
+    @Test
+    public void testBlockedUntilResetMinusSkew() {
+        BlockedKeyCache target = new BlockedKeyCache(10, 100);
+        target.block("key", 500, 1000);
+
+        assertThat(target.blockedFor("key", 1000)).isEqualTo(400);
+        assertThat(target.blockedFor("key", 1399)).isEqualTo(1);
+        assertThat(target.blockedFor("key", 1400)).isZero();
+        assertThat(target.size()).isZero();
+    }
+
+    @Test
+    public void testLongResetIsBlockedUntilReset() {
+        BlockedKeyCache target = new BlockedKeyCache(10, 1000);
+        target.block("key", 60000, 1000);
+
+        assertThat(target.blockedFor("key", 1000)).isEqualTo(59000);
+        assertThat(target.blockedFor("key", 60000)).isZero();
+    }
+
+    @Test
+    public void testResetWithinSkewIsNotBlocked() {
+        BlockedKeyCache target = new BlockedKeyCache(10, 1000);
+        target.block("key", 1000, 1000);
+
+        assertThat(target.blockedFor("key", 1000)).isZero();
+        assertThat(target.size()).isZero();
+    }
+
+    @Test
+    public void testUnknownKeyIsNotBlocked() {
+        BlockedKeyCache target = new BlockedKeyCache(10, 1000);
+
+        assertThat(target.blockedFor("key", 1000)).isZero();
+    }
+
+    @Test
+    public void testLaterBlockWins() {
+        BlockedKeyCache target = new BlockedKeyCache(10, 1000);
+        target.blockUntil("key", 3000, 1000);
+        target.blockUntil("key", 2000, 1000);
+
+        assertThat(target.blockedFor("key", 1000)).isEqualTo(2000);
+    }
+
+    @Test
+    public void testFullCacheEvictsExpiredKeys() {
+        BlockedKeyCache target = new BlockedKeyCache(2, 100);
+        target.block("first", 200, 1000);
+        target.block("second", 1100, 1000);
+        target.block("third", 1100, 1200);
+
+        assertThat(target.blockedFor("first", 1200)).isZero();
+        assertThat(target.blockedFor("second", 1200)).isEqualTo(800);
+        assertThat(target.blockedFor("third", 1200)).isEqualTo(1000);
+    }
+
+    @Test
+    public void testFullCacheSkipsNewKeys() {
+        BlockedKeyCache target = new BlockedKeyCache(1, 100);
+        target.block("first", 1000, 1000);
+        target.block("second", 1000, 1000);
+
+        assertThat(target.size()).isEqualTo(1);
+        assertThat(target.blockedFor("second", 1000)).isZero();
+    }
+}
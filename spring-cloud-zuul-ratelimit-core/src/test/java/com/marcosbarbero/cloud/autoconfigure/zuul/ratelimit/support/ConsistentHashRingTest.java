@@ -0,0 +1,48 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+
+    @Test
+    public void testKeysAreSpreadAcrossNodes() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(Arrays.asList("a", "b", "c"), Function.identity(), 160);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30000; i++) {
+            counts.merge(ring.get("key" + i), 1, Integer::sum);
+        }
+
+        assertThat(counts).containsOnlyKeys("a", "b", "c");
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(8000, 12000));
+    }
+
+    @Test
+    public void testAddingNodeMovesOnlyItsShare() {
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(Arrays.asList("a", "b", "c"), Function.identity(), 160);
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(Arrays.asList("c", "a", "b", "d"), Function.identity(), 160);
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String owner = after.get("key" + i);
+            if (!owner.equals(before.get("key" + i))) {
+                assertThat(owner).isEqualTo("d");
+                moved++;
+            }
+        }
+
+        assertThat(moved).isBetween(1500, 3500);
+    }
+
+    @Test
+    public void testEmptyRing() {
+        assertThatThrownBy(() -> new ConsistentHashRing<>(Collections.<String>emptyList(), Function.identity(), 1))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
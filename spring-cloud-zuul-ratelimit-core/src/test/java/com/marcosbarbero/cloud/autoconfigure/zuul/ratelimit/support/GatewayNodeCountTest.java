@@ -0,0 +1,48 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+public class GatewayNodeCountTest {
+
+    private final DiscoveryClient discoveryClient = mock(DiscoveryClient.class);
+
+    @Test
+    public void testCountsRegisteredInstances() {
+        when(discoveryClient.getInstances("gateway"))
+            .thenReturn(Arrays.asList(mock(ServiceInstance.class), mock(ServiceInstance.class)));
+        GatewayNodeCount nodeCount = new GatewayNodeCount(discoveryClient, "gateway", 1, 60000L);
+
+        assertThat(nodeCount.getAsInt()).isEqualTo(2);
+        assertThat(nodeCount.getAsInt()).isEqualTo(2);
+        verify(discoveryClient, times(1)).getInstances("gateway");
+    }
+
+    @Test
+    public void testKeepsConfiguredCountWithoutInstances() {
+        when(discoveryClient.getInstances("gateway")).thenReturn(Collections.emptyList());
+
+        assertThat(new GatewayNodeCount(discoveryClient, "gateway", 3, 60000L).getAsInt()).isEqualTo(3);
+    }
+
+    @Test
+    public void testKeepsLastCountWhenRegistryFails() {
+        when(discoveryClient.getInstances("gateway")).thenThrow(new IllegalStateException("down"));
+
+        assertThat(new GatewayNodeCount(discoveryClient, "gateway", 3, 60000L).getAsInt()).isEqualTo(3);
+    }
+
+    @Test
+    public void testWithoutDiscoveryClient() {
+        assertThat(new GatewayNodeCount(null, null, 5, 60000L).getAsInt()).isEqualTo(5);
+    }
+}
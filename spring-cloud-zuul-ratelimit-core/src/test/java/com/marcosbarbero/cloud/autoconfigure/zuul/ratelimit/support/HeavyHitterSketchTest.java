@@ -0,0 +1,82 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support.HeavyHitterSketch.HeavyHitter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class HeavyHitterSketchTest {
+
+    @Test
+    public void testFindsHeavyHittersAmongManyKeys() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(4, 4096, 10);
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 3; i++) {
+                sketch.add("heavy-" + i);
+            }
+            for (int i = 0; i < 200; i++) {
+                sketch.add("light-" + round + "-" + i);
+            }
+        }
+
+        List<HeavyHitter> top = sketch.top();
+
+        assertThat(top).hasSize(10);
+        assertThat(top.subList(0, 3)).extracting(HeavyHitter::getKey)
+            .containsExactlyInAnyOrder("heavy-0", "heavy-1", "heavy-2");
+        assertThat(top.get(0).getCount()).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    public void testEstimateNeverUndercounts() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(2, 16, 5);
+        long estimate = 0;
+        for (int i = 0; i < 50; i++) {
+            estimate = sketch.add("key");
+            sketch.add("other-" + i);
+        }
+
+        assertThat(estimate).isGreaterThanOrEqualTo(50);
+    }
+
+    @Test
+    public void testDecayHalvesCountsAndDropsIdleKeys() {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(4, 64, 10);
+        for (int i = 0; i < 8; i++) {
+            sketch.add("busy");
+        }
+        sketch.add("idle");
+
+        sketch.decay();
+
+        assertThat(sketch.top()).extracting(HeavyHitter::getKey).containsExactly("busy");
+        assertThat(sketch.top().get(0).getCount()).isEqualTo(4);
+        assertThat(sketch.add("busy")).isEqualTo(5);
+    }
+
+    @Test
+    public void testConcurrentUpdatesKeepTheSizeBound() throws InterruptedException {
+        HeavyHitterSketch sketch = new HeavyHitterSketch(4, 256, 20);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int thread = 0; thread < 8; thread++) {
+            int seed = thread;
+            executor.execute(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    sketch.add("key-" + ((i * 31 + seed) % 500));
+                    sketch.add("hot");
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        List<HeavyHitter> top = sketch.top();
+        assertThat(top).hasSize(20);
+        assertThat(top.get(0).getKey()).isEqualTo("hot");
+        assertThat(top.get(0).getCount()).isGreaterThanOrEqualTo(80000);
+    }
+}
@@ -0,0 +1,125 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.InspectableRateLimiter.KeyState;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InMemoryRateLimiter;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+
+@SuppressWarnings("unchecked")
+public class RateLimitEndpointTest {
+
+    private InMemoryRateLimiter rateLimiter;
+    private InMemoryRateLimiter local;
+    private BlockedKeyCache blockedKeyCache;
+    private Policy policy;
+    private RateLimitEndpoint target;
+
+    @Before
+    public void setUp() {
+        rateLimiter = new InMemoryRateLimiter();
+        local = new InMemoryRateLimiter();
+        blockedKeyCache = new BlockedKeyCache(10, 0);
+        LocalRateLimiters localRateLimiters = new LocalRateLimiters();
+        localRateLimiters.add(local);
+        target = new RateLimitEndpoint(rateLimiter, "route", null, blockedKeyCache, localRateLimiters);
+        policy = new Policy();
+        policy.setLimit(10L);
+        policy.setQuota(2L);
+        policy.setRefreshInterval(60L);
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.consume(policy, "route:user/" + i, null);
+        }
+        rateLimiter.consume(policy, "other:user/1", null);
+    }
+
+    @Test
+    public void testSummary() {
+        Map<String, Object> summary = target.summary();
+
+        assertThat(summary).containsEntry("repository", "InMemoryRateLimiter").containsEntry("inspectable", true)
+            .doesNotContainKey("heavyHitters");
+    }
+
+    @Test
+    public void testKeyIncludesQuota() {
+        Map<String, Object> body = target.keys(new String[]{"route:user", "1"}, null);
+
+        assertThat((List<KeyState>) body.get("keys")).extracting(KeyState::getKey)
+            .containsExactly("route:user/1", "route:user/1-quota");
+        assertThat(body).containsEntry("truncated", false);
+    }
+
+    @Test
+    public void testKeyWithoutPrefix() {
+        Map<String, Object> body = target.keys(new String[]{"user", "1"}, null);
+
+        assertThat((List<KeyState>) body.get("keys")).extracting(KeyState::getKey)
+            .containsExactly("route:user/1", "route:user/1-quota");
+    }
+
+    @Test
+    public void testPatternIsLimited() {
+        Map<String, Object> body = target.keys(new String[]{"route:user", "*"}, 3);
+
+        assertThat((List<KeyState>) body.get("keys")).hasSize(3);
+        assertThat(body).containsEntry("truncated", true);
+    }
+
+    @Test
+    public void testResetKeyAndPattern() {
+        assertThat(target.reset(new String[]{"route:user", "1"})).containsEntry("deleted", 2L);
+        assertThat(target.reset(new String[]{"route:*"})).containsEntry("deleted", 8L);
+        assertThat((List<KeyState>) target.keys(new String[]{"*"}, null).get("keys")).isEmpty();
+    }
+
+    @Test
+    public void testResetAllKeepsForeignKeys() {
+        assertThat(target.reset(new String[]{"*"})).containsEntry("deleted", 10L);
+
+        assertThat(rateLimiter.inspect("other:user/1")).isNotNull();
+        assertThat(rateLimiter.inspect("other:user/1-quota")).isNotNull();
+    }
+
+    @Test
+    public void testResetClearsLocalState() {
+        long now = System.currentTimeMillis();
+        local.consume(policy, "route:user/1", null);
+        local.consume(policy, "route:user/2", null);
+        blockedKeyCache.block("route:user/1", 60000, now);
+        blockedKeyCache.block("other:user/1", 60000, now);
+
+        target.reset(new String[]{"route:user", "1"});
+
+        assertThat(local.inspect("route:user/1")).isNull();
+        assertThat(local.inspect("route:user/2")).isNotNull();
+        assertThat(blockedKeyCache.blockedFor("route:user/1", now)).isZero();
+
+        target.reset(new String[]{"*"});
+
+        assertThat(local.inspect("route:user/2")).isNull();
+        assertThat(blockedKeyCache.blockedFor("other:user/1", now)).isPositive();
+    }
+
+    @Test(expected = InvalidEndpointRequestException.class)
+    public void testEmptyPatternRejected() {
+        target.reset(new String[]{"route:"});
+    }
+
+    @Test
+    public void testNotInspectable() {
+        RateLimitEndpoint endpoint = new RateLimitEndpoint(Mockito.mock(RateLimiter.class), "route", null, null,
+            null);
+
+        assertThat(endpoint.summary()).containsEntry("inspectable", false);
+        assertThat(endpoint.keys(new String[]{"key"}, null)).isNull();
+        assertThat(endpoint.reset(new String[]{"key"})).isNull();
+    }
+}
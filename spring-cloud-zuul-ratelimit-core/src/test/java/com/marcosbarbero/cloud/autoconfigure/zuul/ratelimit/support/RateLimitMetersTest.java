@@ -0,0 +1,144 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.collect.Lists;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.RateLimiter;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitRepository;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InstrumentedLock;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RateLimiterErrorHandler;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.RedisRateLimiter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+
+public class RateLimitMetersTest {
+
+    private final RateLimitProperties properties = new RateLimitProperties();
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @Before
+    public void setUp() {
+        properties.setRepository(RateLimitRepository.IN_MEMORY);
+    }
+
+    @Test
+    public void testCountsDecisionsPerRouteAndPolicyPosition() {
+        Policy first = new Policy();
+        Policy second = new Policy();
+        properties.getPolicyList().put("servicea", Lists.newArrayList(first, second));
+        RateLimitMeters meters = new RateLimitMeters(properties, mock(RateLimiter.class));
+        meters.bindTo(registry);
+
+        meters.recordDecision("servicea", first, true);
+        meters.recordDecision("servicea", first, true);
+        meters.recordDecision("servicea", second, false);
+
+        assertThat(registry.get("ratelimit.requests").tags("route", "servicea", "policy", "0", "result", "allowed")
+            .counter().count()).isEqualTo(2);
+        assertThat(registry.get("ratelimit.requests").tags("route", "servicea", "policy", "1", "result", "rejected")
+            .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRefreshedPoliciesShareCounters() {
+        Policy policy = new Policy();
+        properties.getPolicyList().put("servicea", Lists.newArrayList(policy));
+        RateLimitMeters meters = new RateLimitMeters(properties, mock(RateLimiter.class));
+        meters.bindTo(registry);
+
+        meters.recordDecision("servicea", policy, true);
+        Policy refreshed = new Policy();
+        properties.getPolicyList().put("servicea", Lists.newArrayList(refreshed));
+        meters.recordDecision("servicea", refreshed, true);
+
+        assertThat(registry.get("ratelimit.requests").tags("route", "servicea", "policy", "0", "result", "allowed")
+            .counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    public void testTimesConsumePerFilterAndRepository() {
+        RateLimitMeters meters = new RateLimitMeters(properties, mock(RateLimiter.class));
+        meters.bindTo(registry);
+
+        meters.recordConsume("pre", TimeUnit.MILLISECONDS.toNanos(3));
+        meters.recordConsume("post", TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertThat(registry.get("ratelimit.consume").tags("filter", "pre", "repository", "IN_MEMORY").timer()
+            .totalTime(TimeUnit.MILLISECONDS)).isEqualTo(3);
+        assertThat(registry.get("ratelimit.consume").tags("filter", "post").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNothingRecordedBeforeBinding() {
+        RateLimitMeters meters = new RateLimitMeters(properties, mock(RateLimiter.class));
+
+        meters.recordConsume("pre", 1);
+        meters.recordPolicyMatching(null, 1);
+        meters.bindTo(registry);
+        meters.recordKeyGeneration(null, 1);
+
+        assertThat(registry.find("ratelimit.consume").timer()).isNull();
+        assertThat(registry.find("ratelimit.policy.matching").timer()).isNull();
+        assertThat(registry.get("ratelimit.key.generation").tags("route", "none").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testErrorHandlerCountsEachKind() {
+        RateLimitMeters meters = new RateLimitMeters(properties, mock(RateLimiter.class));
+        meters.bindTo(registry);
+        RateLimiterErrorHandler delegate = mock(RateLimiterErrorHandler.class);
+        RateLimiterErrorHandler errorHandler = RateLimitMeters.errorHandler(delegate, () -> meters);
+        RuntimeException e = new RuntimeException();
+
+        errorHandler.handleSaveError("key", e);
+        errorHandler.handleSaveError("key", e);
+        errorHandler.handleFetchError("key", e);
+
+        verify(delegate).handleFetchError("key", e);
+        assertThat(registry.get("ratelimit.errors").tags("kind", "save").counter().count()).isEqualTo(2);
+        assertThat(registry.get("ratelimit.errors").tags("kind", "fetch").counter().count()).isEqualTo(1);
+        assertThat(registry.find("ratelimit.errors").tags("kind", "error").counter()).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLockWaitOfRepositoryLock() throws InterruptedException {
+        properties.setRepository(RateLimitRepository.REDIS);
+        RedisRateLimiter rateLimiter = new RedisRateLimiter(mock(RateLimiterErrorHandler.class),
+            mock(RedisTemplate.class));
+        new RateLimitMeters(properties, rateLimiter).bindTo(registry);
+        InstrumentedLock lock = rateLimiter.getConsumeLock();
+
+        lock.lock();
+        Thread waiter = new Thread(() -> {
+            lock.lock();
+            lock.unlock();
+        });
+        waiter.start();
+        // once parked inside lock() the wait covers at least the time until unlock
+        long[] parkedAt = new long[1];
+        await().atMost(10, SECONDS).until(() -> {
+            boolean parked = waiter.getState() == Thread.State.WAITING;
+            parkedAt[0] = System.nanoTime();
+            return parked;
+        });
+        long unlockAt = System.nanoTime();
+        lock.unlock();
+        waiter.join();
+
+        FunctionTimer lockWait = registry.get("ratelimit.lock.wait").tags("repository", "REDIS").functionTimer();
+        assertThat(lockWait.count()).isEqualTo(1);
+        assertThat(lockWait.totalTime(TimeUnit.NANOSECONDS)).isGreaterThanOrEqualTo(unlockAt - parkedAt[0]);
+    }
+}
@@ -0,0 +1,116 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.properties.RateLimitProperties.Policy;
+import com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.config.repository.InMemoryRateLimiter;
+import java.nio.charset.StandardCharsets;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+public class RedisBlockedKeyBroadcasterTest {
+
+    private static final String CHANNEL = "blocked";
+
+    private StringRedisTemplate redisTemplate;
+    private BlockedKeyCache local;
+    private BlockedKeyCache peer;
+    private RedisBlockedKeyBroadcaster localBroadcaster;
+    private RedisBlockedKeyBroadcaster peerBroadcaster;
+
+    @Before
+    public void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        local = new BlockedKeyCache(10, 100);
+        peer = new BlockedKeyCache(10, 100);
+        localBroadcaster = new RedisBlockedKeyBroadcaster(local, redisTemplate, CHANNEL);
+        peerBroadcaster = new RedisBlockedKeyBroadcaster(peer, redisTemplate, CHANNEL);
+        local.addListener(localBroadcaster);
+        peer.addListener(peerBroadcaster);
+    }
+
+    @Test
+    public void testBlockedKeyReachesPeer() {
+        local.block("key with spaces", 500, System.currentTimeMillis());
+
+        String message = published();
+        localBroadcaster.onMessage(message(message), null);
+        peerBroadcaster.onMessage(message(message), null);
+
+        assertThat(peer.blockedFor("key with spaces", System.currentTimeMillis())).isBetween(1L, 400L);
+        verify(redisTemplate).convertAndSend(eq(CHANNEL), anyString());
+    }
+
+    @Test
+    public void testPeerBlocksUntilSenderReset() {
+        BlockedKeyCache wider = new BlockedKeyCache(10, 1000);
+        RedisBlockedKeyBroadcaster widerBroadcaster = new RedisBlockedKeyBroadcaster(wider, redisTemplate, CHANNEL);
+        wider.addListener(widerBroadcaster);
+        wider.block("key", 60000, System.currentTimeMillis());
+
+        peerBroadcaster.onMessage(message(published()), null);
+
+        assertThat(peer.blockedFor("key", System.currentTimeMillis())).isBetween(58000L, 59000L);
+    }
+
+    @Test
+    public void testMalformedMessageIsIgnored() {
+        peerBroadcaster.onMessage(message("node"), null);
+        peerBroadcaster.onMessage(message("node abc key"), null);
+
+        assertThat(peer.size()).isZero();
+    }
+
+    @Test
+    public void testPublishFailureDoesNotBreakBlocking() {
+        doThrow(new RuntimeException()).when(redisTemplate).convertAndSend(anyString(), anyString());
+
+        local.block("key", 500, System.currentTimeMillis());
+
+        assertThat(local.blockedFor("key", System.currentTimeMillis())).isPositive();
+    }
+
+    @Test
+    public void testResetReachesPeer() {
+        InMemoryRateLimiter peerLocal = new InMemoryRateLimiter();
+        LocalRateLimiters peerLocalRateLimiters = new LocalRateLimiters();
+        peerLocalRateLimiters.add(peerLocal);
+        peerBroadcaster.setLocalRateLimiters(peerLocalRateLimiters);
+        Policy policy = new Policy();
+        policy.setLimit(10L);
+        peerLocal.consume(policy, "key", null);
+        peer.blockFromPeer("key", 60000, System.currentTimeMillis());
+
+        local.unblock("key");
+        peerBroadcaster.onMessage(message(published()), null);
+
+        assertThat(peer.blockedFor("key", System.currentTimeMillis())).isZero();
+        assertThat(peerLocal.inspect("key")).isNull();
+    }
+
+    @Test
+    public void testBlockFromPeerIsNotRepublished() {
+        peer.blockFromPeer("key", 500, System.currentTimeMillis());
+
+        verify(redisTemplate, never()).convertAndSend(anyString(), anyString());
+    }
+
+    private String published() {
+        ArgumentCaptor<String> message = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).convertAndSend(eq(CHANNEL), message.capture());
+        return message.getValue();
+    }
+
+    private DefaultMessage message(String body) {
+        return new DefaultMessage(CHANNEL.getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8));
+    }
+}
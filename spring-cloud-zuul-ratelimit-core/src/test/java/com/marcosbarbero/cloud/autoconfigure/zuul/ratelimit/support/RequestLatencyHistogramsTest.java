@@ -0,0 +1,56 @@
+package com.marcosbarbero.cloud.autoconfigure.zuul.ratelimit.support;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class RequestLatencyHistogramsTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final RequestLatencyHistograms target = new RequestLatencyHistograms(3, 3600, new double[]{0.5, 0.99});
+
+    @After
+    public void tearDown() {
+        target.close();
+    }
+
+    @Test
+    public void testExportsLastIntervalPerRoute() {
+        target.record("servicea", TimeUnit.MILLISECONDS.toNanos(5));
+        target.bindTo(registry);
+        for (int i = 1; i <= 100; i++) {
+            target.record("servicea", TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        target.record(null, TimeUnit.MILLISECONDS.toNanos(7));
+
+        assertThat(registry.get("ratelimit.request.time.count").tag("route", "servicea").gauge().value()).isZero();
+
+        target.snapshot();
+
+        assertThat(registry.get("ratelimit.request.time.count").tag("route", "servicea").gauge().value())
+            .isEqualTo(101);
+        assertThat(registry.get("ratelimit.request.time").tags("route", "servicea", "phi", "0.99").timeGauge()
+            .value(TimeUnit.MILLISECONDS)).isCloseTo(99, within(0.5));
+        assertThat(registry.get("ratelimit.request.time.max").tag("route", "servicea").timeGauge()
+            .value(TimeUnit.MILLISECONDS)).isCloseTo(100, within(0.5));
+        assertThat(registry.get("ratelimit.request.time").tags("route", "none", "phi", "0.5").timeGauge()
+            .value(TimeUnit.MILLISECONDS)).isCloseTo(7, within(0.5));
+    }
+
+    @Test
+    public void testSnapshotStartsNewInterval() {
+        target.record("servicea", TimeUnit.MILLISECONDS.toNanos(10));
+        target.snapshot();
+        assertThat(target.getIntervalHistogram("servicea").getTotalCount()).isEqualTo(1);
+
+        target.snapshot();
+
+        assertThat(target.getIntervalHistogram("servicea").getTotalCount()).isZero();
+        assertThat(target.getIntervalHistogram("serviceb")).isNull();
+    }
+}